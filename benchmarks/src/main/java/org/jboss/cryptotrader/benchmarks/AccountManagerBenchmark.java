@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.benchmarks;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.cryptotrader.bank.AccountManager;
+import org.jboss.cryptotrader.bank.AccountStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the bank as the number of open accounts grows. Accounts are indexed by account number, so the time
+ * per operation should be the same for every size.
+ * <p>
+ * The account manager uses bean managed concurrency, so there is no container locking to emulate and the methods
+ * are called directly from every thread. Transactions on different accounts should scale with the thread count.
+ * <p>
+ * Run with the GC profiler to see the allocation per operation:
+ * <p>
+ * java -jar benchmarks/target/benchmarks.jar AccountManagerBenchmark -prof gc
+ * <p>
+ * The largest sizes take a while to set up, use -p accounts=1000,10000 for a quick run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+public class AccountManagerBenchmark {
+
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int accounts;
+
+    private String[] accountNumbers;
+    private String[] names;
+
+    private AccountManager accountManager;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        accountNumbers = new String[accounts];
+        names = new String[accounts];
+        for (int i = 0; i < accounts; ++i) {
+            accountNumbers[i] = Integer.toString(1000000 + i);
+            names[i] = "client" + i;
+        }
+        accountManager = openAccounts(accountNumbers, names);
+    }
+
+    static AccountManager openAccounts(String[] accountNumbers, String[] names) throws ReflectiveOperationException {
+        AccountManager accountManager = new AccountManager();
+        //the account numbers have to be known, so the accounts are created directly rather than with openAccount
+        Field field = AccountManager.class.getDeclaredField("accounts");
+        field.setAccessible(true);
+        AccountStore store = (AccountStore) field.get(accountManager);
+        for (int i = 0; i < accountNumbers.length; ++i) {
+            store.create(accountNumbers[i], names[i], new BigDecimal(1000));
+        }
+        return accountManager;
+    }
+
+    @Benchmark
+    public BigDecimal transact() {
+        int account = ThreadLocalRandom.current().nextInt(accounts);
+        //alternate the sign so the balances don't drift
+        BigDecimal amount = (account & 1) == 0 ? AMOUNT : AMOUNT.negate();
+        return accountManager.transact(accountNumbers[account], names[account], amount);
+    }
+
+    @Benchmark
+    public BigDecimal getBalance() {
+        int account = ThreadLocalRandom.current().nextInt(accounts);
+        return accountManager.getBalance(accountNumbers[account], names[account]);
+    }
+
+    @Benchmark
+    public String openAccount(Opening opening) {
+        return opening.accountManager.openAccount("new client");
+    }
+
+    /**
+     * Opening accounts uses up account numbers, so it gets a bank of its own that is opened again for every iteration
+     */
+    @State(Scope.Benchmark)
+    public static class Opening {
+
+        private AccountManager accountManager;
+
+        @Setup(Level.Iteration)
+        public void setup(AccountManagerBenchmark benchmark) throws ReflectiveOperationException {
+            accountManager = openAccounts(benchmark.accountNumbers, benchmark.names);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.cryptotrader.bitcoin.BitcoinPriceService;
+import org.jboss.cryptotrader.bitcoin.HoldingsLedger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures contention on the holdings ledger, compared to the single synchronized map it replaced.
+ * <p>
+ * Run with an increasing number of threads to see how throughput scales with cores, e.g.
+ * <p>
+ * java -jar benchmarks/target/benchmarks.jar HoldingsContentionBenchmark -t 1
+ * java -jar benchmarks/target/benchmarks.jar HoldingsContentionBenchmark -t 4
+ * java -jar benchmarks/target/benchmarks.jar HoldingsContentionBenchmark -t max
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+public class HoldingsContentionBenchmark {
+
+    private static final BigDecimal UNITS = new BigDecimal("0.5");
+
+    @Param({"1000", "100000"})
+    private int users;
+
+    private String[] names;
+    private String[] accounts;
+
+    private HoldingsLedger ledger;
+
+    private SynchronizedHoldings synchronizedHoldings;
+
+    @Setup
+    public void setup() {
+        names = new String[users];
+        accounts = new String[users];
+        ledger = new HoldingsLedger();
+        synchronizedHoldings = new SynchronizedHoldings();
+        for (int i = 0; i < users; ++i) {
+            names[i] = "player" + i;
+            accounts[i] = Integer.toString(1000000 + i);
+            ledger.credit(names[i], accounts[i], BitcoinPriceService.BITCOIN, BigDecimal.TEN);
+            synchronizedHoldings.credit(names[i], accounts[i], BigDecimal.TEN);
+        }
+    }
+
+    @Benchmark
+    public BigDecimal ledgerTrade() {
+        int user = ThreadLocalRandom.current().nextInt(users);
+        ledger.credit(names[user], accounts[user], BitcoinPriceService.BITCOIN, UNITS);
+        return ledger.debit(names[user], accounts[user], BitcoinPriceService.BITCOIN, UNITS);
+    }
+
+    @Benchmark
+    public BigDecimal synchronizedMapTrade() {
+        int user = ThreadLocalRandom.current().nextInt(users);
+        synchronizedHoldings.credit(names[user], accounts[user], UNITS);
+        return synchronizedHoldings.debit(names[user], accounts[user], UNITS);
+    }
+
+    /**
+     * The original implementation, a single map guarded by one global lock
+     */
+    private static final class SynchronizedHoldings {
+
+        private final Map<List<String>, BigDecimal> holdings = new HashMap<>();
+
+        BigDecimal credit(String name, String accountNo, BigDecimal units) {
+            synchronized (holdings) {
+                return holdings.merge(Arrays.asList(name, accountNo), units, BigDecimal::add);
+            }
+        }
+
+        BigDecimal debit(String name, String accountNo, BigDecimal units) {
+            synchronized (holdings) {
+                return holdings.merge(Arrays.asList(name, accountNo), units.negate(), BigDecimal::add);
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+
+import org.jboss.cryptotrader.game.LeaderBoard;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures ranking the leader board, where every player holds two instruments.
+ * <p>
+ * The board only keeps the top five, fullRanking ranks every player which is what a full sort would cost.
+ * <p>
+ * java -jar benchmarks/target/benchmarks.jar LeaderBoardBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LeaderBoardBenchmark {
+
+    @Param({"1000", "100000"})
+    private int players;
+
+    private JsonArray holdings;
+    private Map<String, BigDecimal> prices;
+    private Map<String, BigDecimal> balances;
+
+    private final LeaderBoard leaderBoard = new LeaderBoard(5);
+    private LeaderBoard fullLeaderBoard;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        prices = new HashMap<>();
+        prices.put("BTC", new BigDecimal("10234.56789012"));
+        prices.put("ETH", new BigDecimal("312.34567890"));
+        balances = new HashMap<>();
+        JsonArrayBuilder builder = Json.createArrayBuilder();
+        for (int i = 0; i < players; ++i) {
+            String name = "player" + i;
+            String account = Integer.toString(1000000 + i);
+            for (String symbol : prices.keySet()) {
+                builder.add(Json.createObjectBuilder()
+                        .add("name", name)
+                        .add("bankAccountNo", account)
+                        .add("symbol", symbol)
+                        .add("units", BigDecimal.valueOf(random.nextInt(100000000), 8)));
+            }
+            balances.put(account, BigDecimal.valueOf(random.nextInt(100000), 2));
+        }
+        holdings = builder.build();
+        fullLeaderBoard = new LeaderBoard(players);
+    }
+
+    @Benchmark
+    public List<LeaderBoard.Entry> rank() {
+        return leaderBoard.rank(holdings, prices, (account, name) -> balances.get(account));
+    }
+
+    @Benchmark
+    public List<LeaderBoard.Entry> fullRanking() {
+        return fullLeaderBoard.rank(holdings, prices, (account, name) -> balances.get(account));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.benchmarks;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.jboss.cryptotrader.bitcoin.FixedPoint;
+import org.jboss.cryptotrader.bitcoin.MatchListener;
+import org.jboss.cryptotrader.bitcoin.Order;
+import org.jboss.cryptotrader.bitcoin.OrderBook;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the order book matching engine.
+ * <p>
+ * The throughput mode reports orders per second, the sample time mode reports the latency distribution
+ * including the p99 of a single submit or cancel:
+ * <p>
+ * java -jar benchmarks/target/benchmarks.jar OrderBookBenchmark
+ * <p>
+ * Orders are placed at random prices around a fixed mid price, so the book reaches a steady state where roughly
+ * half of all orders cross and the rest rest in the book. Some resting orders are cancelled, so the book does not
+ * grow forever.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderBookBenchmark {
+
+    private static final long MID = FixedPoint.of(10000);
+    private static final long TICK = FixedPoint.ONE / 100;
+    private static final int SPREAD_TICKS = 100;
+    private static final int CANCEL_RING = 4096;
+
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final long[] recentOrders = new long[CANCEL_RING];
+    private int recentPos;
+
+    private OrderBook book;
+    private MatchListener listener;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        book = new OrderBook();
+        listener = (maker, taker, price, quantity) -> blackhole.consume(quantity);
+        //warm the book up with resting orders on both sides
+        for (int i = 0; i < 10000; ++i) {
+            submit();
+        }
+    }
+
+    @Benchmark
+    public Order submit() {
+        boolean buy = random.nextBoolean();
+        //buys are centered slightly above mid and sells slightly below, so the book crosses regularly
+        long price = MID + (random.nextInt(SPREAD_TICKS) - (buy ? SPREAD_TICKS / 2 - 5 : SPREAD_TICKS / 2 + 5)) * TICK;
+        long quantity = (random.nextInt(100) + 1) * FixedPoint.ONE / 100;
+        Order order = book.submitLimit(buy, price, quantity, this, listener);
+        if (order.isResting()) {
+            //cancel an older order to keep the book size stable
+            int pos = recentPos++ & (CANCEL_RING - 1);
+            long old = recentOrders[pos];
+            if (old != 0) {
+                book.cancel(old);
+            }
+            recentOrders[pos] = order.getId();
+        }
+        return order;
+    }
+}
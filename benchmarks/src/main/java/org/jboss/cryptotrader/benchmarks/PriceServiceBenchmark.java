@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.benchmarks;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.event.Event;
+
+import org.jboss.cryptotrader.bitcoin.BitcoinPriceService;
+import org.jboss.cryptotrader.bitcoin.Instrument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a single market tick, which runs the price model of every instrument and publishes the results.
+ * <p>
+ * The service is set up the same way the container would, but the events go nowhere, so this is the cost of the
+ * tick itself and not of the observers.
+ * <p>
+ * java -jar benchmarks/target/benchmarks.jar PriceServiceBenchmark -prof gc
+ * <p>
+ * With enough instruments the models are ticked in parallel, on a pool with a thread per core.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PriceServiceBenchmark {
+
+    @Param({"1", "100", "1000"})
+    private int instruments;
+
+    private BitcoinPriceService priceService;
+
+    private PoolExecutor executor;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        //Bitcoin is always the first instrument, so only the others need to be listed
+        StringBuilder config = new StringBuilder(BitcoinPriceService.BITCOIN);
+        for (int i = 1; i < instruments; ++i) {
+            config.append(",I").append(i);
+        }
+        System.setProperty("cryptotrader.instruments", config.toString());
+        System.setProperty("cryptotrader.market.seed", "1");
+        priceService = new BitcoinPriceService();
+        executor = new PoolExecutor(Runtime.getRuntime().availableProcessors());
+        for (Field field : BitcoinPriceService.class.getDeclaredFields()) {
+            if (field.getType() == Event.class) {
+                field.setAccessible(true);
+                field.set(priceService, discardingEvent());
+            } else if (field.getType() == ManagedExecutorService.class) {
+                field.setAccessible(true);
+                field.set(priceService, executor);
+            }
+        }
+        Method setup = BitcoinPriceService.class.getDeclaredMethod("setup");
+        setup.setAccessible(true);
+        setup.invoke(priceService);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public Instrument updatePrice() {
+        priceService.updatePrice();
+        return priceService.getInstrument(BitcoinPriceService.BITCOIN);
+    }
+
+    private static Event<?> discardingEvent() {
+        return (Event<?>) Proxy.newProxyInstance(Event.class.getClassLoader(), new Class<?>[]{Event.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "fireAsync":
+                            return CompletableFuture.completedFuture(args[0]);
+                        case "select":
+                            return proxy;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static final class PoolExecutor extends ThreadPoolExecutor implements ManagedExecutorService {
+
+        PoolExecutor(int threads) {
+            super(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.MediaType;
+
+import org.jboss.cryptotrader.sse.EncodedEvent;
+import org.jboss.cryptotrader.sse.EncodedEventWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares broadcasting a price to many SSE sinks as a String, which every sink encodes for itself, with
+ * broadcasting a pre-encoded {@link EncodedEvent}.
+ * <p>
+ * Run with the GC profiler to see the allocation per broadcast, which only grows with the number of sinks for the
+ * String version:
+ * <p>
+ * java -jar benchmarks/target/benchmarks.jar SseFanOutBenchmark -prof gc
+ * <p>
+ * The sinks write to a stream that discards the data, so this only measures the cost of encoding and copying the
+ * payload, not the framing or the network.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SseFanOutBenchmark {
+
+    @Param({"100", "10000"})
+    private int subscribers;
+
+    private final EncodedEventWriter writer = new EncodedEventWriter();
+    private OutputStream[] sinks;
+    private BigDecimal price = new BigDecimal("10234.56789012");
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        sinks = new OutputStream[subscribers];
+        for (int i = 0; i < subscribers; ++i) {
+            sinks[i] = new DiscardingOutputStream(blackhole);
+        }
+    }
+
+    @Benchmark
+    public void encodePerSink() throws IOException {
+        String data = nextPrice().toPlainString();
+        for (OutputStream sink : sinks) {
+            //this is what the default String provider does for every sink
+            sink.write(data.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    public void encodeOnce() throws IOException {
+        EncodedEvent event = EncodedEvent.of(nextPrice().toPlainString());
+        for (OutputStream sink : sinks) {
+            writer.writeTo(event, EncodedEvent.class, EncodedEvent.class, null, MediaType.TEXT_PLAIN_TYPE, null, sink);
+        }
+    }
+
+    private BigDecimal nextPrice() {
+        price = price.add(BigDecimal.ONE);
+        return price;
+    }
+
+    private static final class DiscardingOutputStream extends OutputStream {
+
+        private final Blackhole blackhole;
+
+        DiscardingOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            blackhole.consume(b);
+        }
+    }
+}
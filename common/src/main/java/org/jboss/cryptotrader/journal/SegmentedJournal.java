@@ -0,0 +1,457 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A write ahead journal made of memory mapped segment files.
+ * <p>
+ * Each record is a length, a CRC32 of the payload, and the payload, which starts with the version of the change the
+ * record holds. A segment starts with a magic number and the format version, and ends at the first record with a
+ * length of zero. When a segment is full a new one is started, and segments are never appended to after a restart,
+ * as they may end in a torn record. On replay a torn record fails its checksum, and replay of that segment stops
+ * there. A segment that was created but never had its header written is treated as empty.
+ * <p>
+ * Appending is done under the journal lock, but forcing to disk is not. In {@link SyncMode#GROUP} mode a caller
+ * appends its record, then calls {@link #awaitDurable(long)} with the position it was given. The first caller to
+ * get there forces every record appended so far, and everyone whose record that covered returns without writing, so
+ * one force is shared by every change that was appended while the previous one was in progress.
+ * <p>
+ * What the records hold, and when segments can be deleted, is up to the owner of the journal. Segments are deleted
+ * once a snapshot (see {@link SnapshotFile}) holds everything in them.
+ */
+public class SegmentedJournal implements Closeable {
+
+    private static final Logger log = Logger.getLogger(SegmentedJournal.class.getName());
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final String SUFFIX = ".journal";
+
+    private final Path directory;
+    private final String prefix;
+    private final int magic;
+    private final SyncMode syncMode;
+    private final int segmentSize;
+
+    //everything below is guarded by this
+    private final CRC32 crc = new CRC32();
+    private final List<Segment> closedSegments = new ArrayList<>();
+    private long segmentNumber;
+    private long segmentMaxVersion;
+    private int segmentRecords;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private ByteBuffer crcView;
+    private boolean dirty;
+    /**
+     * The total size of every record appended since the journal was opened, this is the position of the end of the
+     * journal
+     */
+    private long appended;
+
+    /**
+     * Only one force is in progress at a time, callers that need one while it is running wait here, and usually find
+     * it covered them
+     */
+    private final Object forceLock = new Object();
+    /**
+     * The position up to which every record is known to be on disk
+     */
+    private final AtomicLong durable = new AtomicLong();
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong forces = new AtomicLong();
+
+    /**
+     * @param directory   The directory the segments are stored in
+     * @param prefix      The file name prefix of the segments, the segment number and {@code .journal} are appended
+     * @param magic       Identifies what kind of journal this is
+     * @param syncMode    When records are forced to disk
+     * @param segmentSize The size of each segment, in bytes
+     */
+    public SegmentedJournal(Path directory, String prefix, int magic, SyncMode syncMode, int segmentSize) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.magic = magic;
+        this.syncMode = syncMode;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * @return The numbers of the segments on disk, in the order they were written
+     */
+    public List<Long> listSegments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + SUFFIX)) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                segments.add(Long.parseLong(name.substring(prefix.length(), name.length() - SUFFIX.length())));
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    /**
+     * Reads every record in a segment. This does not touch the state of the journal, so segments can be replayed in
+     * parallel.
+     *
+     * @param number The segment number
+     * @param reader Called with each record in the order it was appended
+     * @return The segment, with the highest version it holds
+     */
+    public Segment replay(long number, RecordReader reader) throws IOException {
+        Path path = segmentPath(number);
+        long maxVersion = 0;
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (hasNoHeader(data)) {
+                log.warning("Journal segment " + path + " has no header, treating it as empty");
+                return new Segment(number, 0);
+            }
+            if (data.remaining() < FILE_HEADER_SIZE || data.getInt() != magic || data.getInt() != FORMAT_VERSION) {
+                throw new IOException("Invalid journal segment " + path);
+            }
+            CRC32 crc = new CRC32();
+            while (data.remaining() >= RECORD_HEADER_SIZE) {
+                int start = data.position();
+                int payload = data.getInt();
+                int checksum = data.getInt();
+                if (payload == 0) {
+                    break; //the end of the segment
+                }
+                if (payload < 8 || payload > data.remaining()) {
+                    log.warning("Journal segment " + path + " ends in a torn record at position " + start);
+                    break;
+                }
+                ByteBuffer record = data.slice();
+                record.limit(payload);
+                crc.reset();
+                crc.update(record.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    log.warning("Journal segment " + path + " has a bad checksum at position " + start + ", ignoring the rest of the segment");
+                    break;
+                }
+                data.position(start + RECORD_HEADER_SIZE + payload);
+                long version = record.getLong();
+                maxVersion = Math.max(maxVersion, version);
+                reader.read(version, record);
+            }
+        }
+        return new Segment(number, maxVersion);
+    }
+
+    /**
+     * Opens a new segment for writing, after the ones that are already on disk
+     *
+     * @param existing The segments on disk, as returned from {@link #replay}, in order
+     */
+    public synchronized void open(Collection<Segment> existing) throws IOException {
+        closedSegments.addAll(existing);
+        segmentNumber = closedSegments.isEmpty() ? 0 : closedSegments.get(closedSegments.size() - 1).number;
+        openSegment(segmentNumber + 1);
+    }
+
+    /**
+     * Appends a record. This does not wait for the record to be on disk, see {@link #awaitDurable(long)}.
+     *
+     * @param version The version of the change the record holds
+     * @param size    The size of the rest of the payload, which the writer must write exactly
+     * @param writer  Writes the rest of the payload
+     * @return The position of the end of the record
+     * @throws IllegalArgumentException if the record is too big to fit in a segment
+     */
+    public synchronized long append(long version, int size, Consumer<ByteBuffer> writer) {
+        int payload = 8 + size;
+        int recordSize = RECORD_HEADER_SIZE + payload;
+        //we always leave room for a zero length at the end, to mark the end of the segment
+        if (buffer.remaining() < recordSize + 4) {
+            if (FILE_HEADER_SIZE + recordSize + 4 > segmentSize) {
+                throw new IllegalArgumentException("Journal record of " + recordSize + " bytes does not fit in a segment");
+            }
+            rollSegment();
+        }
+        int start = buffer.position();
+        buffer.putInt(payload);
+        buffer.putInt(0); //the checksum is filled in once the payload has been written
+        buffer.putLong(version);
+        writer.accept(buffer);
+        if (buffer.position() != start + recordSize) {
+            //leave the record to be overwritten, it has no checksum so it would not be replayed anyway
+            buffer.putInt(start, 0);
+            buffer.position(start);
+            throw new IllegalStateException("Journal record payload was not " + size + " bytes");
+        }
+
+        crcView.limit(start + recordSize);
+        crcView.position(start + RECORD_HEADER_SIZE);
+        crc.reset();
+        crc.update(crcView);
+        buffer.putInt(start + 4, (int) crc.getValue());
+
+        segmentMaxVersion = Math.max(segmentMaxVersion, version);
+        segmentRecords++;
+        dirty = true;
+        records.incrementAndGet();
+        bytes.addAndGet(recordSize);
+        appended += recordSize;
+        return appended;
+    }
+
+    /**
+     * Waits until the record ending at the given position is on disk. This only waits in {@link SyncMode#GROUP}
+     * mode, in the other modes the record is forced later, if at all.
+     *
+     * @param position The position returned from {@link #append}
+     */
+    public void awaitDurable(long position) {
+        if (syncMode != SyncMode.GROUP || durable.get() >= position) {
+            return;
+        }
+        synchronized (forceLock) {
+            //whoever held the lock before us may have forced our record along with theirs
+            if (durable.get() >= position) {
+                return;
+            }
+            MappedByteBuffer toForce;
+            long covered;
+            synchronized (this) {
+                if (buffer == null) {
+                    throw new IllegalStateException("Journal is closed");
+                }
+                toForce = buffer;
+                covered = appended;
+                dirty = false;
+            }
+            //records appended while this is running are not covered, they wait for the next force
+            toForce.force();
+            forces.incrementAndGet();
+            durable.accumulateAndGet(covered, Math::max);
+        }
+    }
+
+    /**
+     * Forces every record appended since the last flush to disk. This is called periodically in
+     * {@link SyncMode#PERIODIC} mode. The force happens outside the journal lock, so changes can keep appending while
+     * it is in progress.
+     */
+    public void flush() {
+        synchronized (forceLock) {
+            MappedByteBuffer toForce;
+            long covered;
+            synchronized (this) {
+                if (!dirty || buffer == null) {
+                    return;
+                }
+                dirty = false;
+                toForce = buffer;
+                covered = appended;
+            }
+            toForce.force();
+            forces.incrementAndGet();
+            durable.accumulateAndGet(covered, Math::max);
+        }
+    }
+
+    /**
+     * Starts a new segment if anything has been appended to the current one, so that every change made before this
+     * call is in a closed segment.
+     *
+     * @return Every closed segment, in order
+     */
+    public synchronized List<Segment> roll() {
+        if (segmentRecords > 0) {
+            rollSegment();
+        }
+        return new ArrayList<>(closedSegments);
+    }
+
+    /**
+     * Deletes closed segments that are no longer needed
+     *
+     * @param segments The segments to delete
+     */
+    public synchronized void delete(Collection<Segment> segments) throws IOException {
+        for (Segment segment : segments) {
+            Files.deleteIfExists(segmentPath(segment.number));
+        }
+        closedSegments.removeAll(segments);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+            durable.accumulateAndGet(appended, Math::max);
+            buffer = null;
+            crcView = null;
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    public long getRecords() {
+        return records.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getForces() {
+        return forces.get();
+    }
+
+    private void rollSegment() {
+        try {
+            if (syncMode != SyncMode.ASYNC) {
+                buffer.force();
+                forces.incrementAndGet();
+                durable.accumulateAndGet(appended, Math::max);
+            }
+            channel.close();
+            closedSegments.add(new Segment(segmentNumber, segmentMaxVersion));
+            openSegment(segmentNumber + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void openSegment(long number) throws IOException {
+        segmentNumber = number;
+        segmentMaxVersion = 0;
+        segmentRecords = 0;
+        dirty = false;
+        channel = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        crcView = buffer.duplicate();
+        buffer.putInt(magic);
+        buffer.putInt(FORMAT_VERSION);
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%s%016d%s", prefix, number, SUFFIX));
+    }
+
+    /**
+     * A segment is created and mapped before its header is written, so after a crash it may be all zeros (or empty)
+     */
+    private static boolean hasNoHeader(ByteBuffer data) {
+        for (int i = 0; i < Math.min(FILE_HEADER_SIZE, data.limit()); ++i) {
+            if (data.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Strings are stored as a short length followed by their UTF-8 bytes, with a length of -1 for null
+     */
+    public static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The number of bytes {@link #putString} writes for an encoded string
+     */
+    public static int length(byte[] data) {
+        if (data != null && data.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Strings longer than " + Short.MAX_VALUE + " bytes cannot be journaled");
+        }
+        return 2 + (data == null ? 0 : data.length);
+    }
+
+    public static void putString(ByteBuffer buffer, byte[] data) {
+        if (data == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) data.length);
+            buffer.put(data);
+        }
+    }
+
+    public static String getString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        buffer.get(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the records of a segment
+     */
+    public interface RecordReader {
+
+        /**
+         * @param version The version of the change in the record
+         * @param payload The rest of the payload
+         */
+        void read(long version, ByteBuffer payload) throws IOException;
+    }
+
+    /**
+     * A segment that is no longer being written to
+     */
+    public static final class Segment {
+        private final long number;
+        private final long maxVersion;
+
+        public Segment(long number, long maxVersion) {
+            this.number = number;
+            this.maxVersion = maxVersion;
+        }
+
+        public long getNumber() {
+            return number;
+        }
+
+        /**
+         * @return The highest version of any record in the segment
+         */
+        public long getMaxVersion() {
+            return maxVersion;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Reads and writes the snapshots that go with a {@link SegmentedJournal}.
+ * <p>
+ * A snapshot is a magic number, the format version, and the version of the most recent change it holds, followed by
+ * whatever the caller writes and a CRC32 of all of it. It is written to a temporary file that is synced to disk and
+ * then atomically moved over the old snapshot, so a crash while writing leaves the old snapshot in place.
+ */
+public final class SnapshotFile {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Writes the body of a snapshot
+     */
+    public interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Reads the body of a snapshot. Nothing should be restored from it until {@link #read} returns, as the checksum
+     * is only checked once the whole body has been read.
+     *
+     * @param <T> What the body is read into
+     */
+    public interface Reader<T> {
+        T read(DataInputStream in, long version) throws IOException;
+    }
+
+    /**
+     * Writes a snapshot, replacing the existing one
+     *
+     * @param path    The snapshot file
+     * @param magic   Identifies what kind of snapshot this is
+     * @param version The version of the most recent change in the snapshot
+     * @param writer  Writes the body
+     */
+    public static void write(Path path, int magic, long version, Writer writer) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, BUFFER_SIZE), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(magic);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(version);
+            writer.write(out);
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot
+     *
+     * @param path   The snapshot file
+     * @param magic  What kind of snapshot it must be
+     * @param reader Reads the body
+     * @return What the body was read into, once its checksum has been checked
+     * @throws IOException if the file is not a snapshot of the right kind, or it is corrupt
+     */
+    public static <T> T read(Path path, int magic, Reader<T> reader) throws IOException {
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE)) {
+            CheckedInputStream checked = new CheckedInputStream(file, new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != magic || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Invalid snapshot " + path);
+            }
+            T result = reader.read(in, in.readLong());
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("Snapshot " + path + " is corrupt");
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Writes a string as a short length followed by its UTF-8 bytes, with a length of -1 for null. This is the same
+     * encoding {@link SegmentedJournal#putString} uses.
+     */
+    public static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] data = SegmentedJournal.encode(value);
+        if (data == null) {
+            out.writeShort(-1);
+        } else {
+            out.writeShort(data.length);
+            out.write(data);
+        }
+    }
+
+    /**
+     * Reads a string written by {@link #writeString}
+     */
+    public static String readString(DataInputStream in) throws IOException {
+        short length = in.readShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.journal;
+
+import java.util.Locale;
+
+/**
+ * When the records of a {@link SegmentedJournal} are forced to disk.
+ * <p>
+ * As the journal is memory mapped a record survives a crash of the JVM as soon as it is appended in every mode. The
+ * mode decides what survives a crash of the OS.
+ */
+public enum SyncMode {
+    /**
+     * Leave it to the OS to write the mapped pages back. Anything the OS has not written yet is lost.
+     */
+    ASYNC,
+    /**
+     * {@link SegmentedJournal#flush()} is called periodically, and forces every record appended since the last
+     * flush. Changes are acknowledged before they are on disk, so an OS crash loses up to one flush interval of them.
+     */
+    PERIODIC,
+    /**
+     * Group commit. A change is only acknowledged once a force has covered its record, so nothing that was
+     * acknowledged is lost. Records are appended under the journal lock, but forced outside it, and each force covers
+     * every record appended before it started, so concurrent changes share one write rather than queueing for a
+     * write each.
+     */
+    GROUP;
+
+    /**
+     * Reads a sync mode from configuration. {@code sync} is accepted as an old name for {@link #GROUP}, which gives
+     * the same guarantee.
+     *
+     * @param value The configured value
+     * @return The sync mode
+     */
+    public static SyncMode parse(String value) {
+        String mode = value.toUpperCase(Locale.ENGLISH);
+        return mode.equals("SYNC") ? GROUP : valueOf(mode);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.metrics;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Any;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Endpoint that reports the metrics of every {@link MetricsSource} in the service, in the Prometheus text format
+ */
+@Path("/metrics")
+@ApplicationScoped
+public class MetricsEndpoint {
+
+    @Inject
+    @Any
+    private Instance<MetricsSource> sources;
+
+    @GET
+    @Produces(MediaType.TEXT_PLAIN)
+    public String metrics() {
+        StringBuilder sb = new StringBuilder();
+        MetricsWriter writer = new MetricsWriter(sb);
+        for (MetricsSource source : sources) {
+            source.writeMetrics(writer);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.metrics;
+
+import java.util.Map;
+
+/**
+ * Writes metrics in the Prometheus text format
+ */
+public final class MetricsWriter {
+
+    private static final String[] QUANTILES = {"0.5", "0.99", "0.999"};
+
+    private final StringBuilder out;
+
+    public MetricsWriter(StringBuilder out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes a value that can go up and down
+     */
+    public MetricsWriter gauge(String name, long value) {
+        return type(name, "gauge").value(name, value);
+    }
+
+    /**
+     * Writes a value that only ever increases
+     */
+    public MetricsWriter counter(String name, long value) {
+        return type(name, "counter").value(name, value);
+    }
+
+    /**
+     * Writes the p50, p99 and p999 of a histogram, in seconds
+     */
+    public MetricsWriter summary(String name, LatencyHistogram histogram) {
+        type(name, "summary");
+        return quantiles(name, "", histogram);
+    }
+
+    /**
+     * Writes a summary for each of a number of histograms, told apart by a label
+     *
+     * @param label      The label name
+     * @param histograms The histograms, keyed by label value
+     */
+    public MetricsWriter summaries(String name, String label, Map<String, LatencyHistogram> histograms) {
+        type(name, "summary");
+        for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            quantiles(name, label + "=\"" + e.getKey() + "\"", e.getValue());
+        }
+        return this;
+    }
+
+    private MetricsWriter quantiles(String name, String labels, LatencyHistogram histogram) {
+        String separator = labels.isEmpty() ? "" : ",";
+        for (String quantile : QUANTILES) {
+            out.append(name).append("{").append(labels).append(separator).append("quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(histogram.getQuantile(Double.parseDouble(quantile)))).append('\n');
+        }
+        String suffix = labels.isEmpty() ? " " : "{" + labels + "} ";
+        out.append(name).append("_sum").append(suffix).append(seconds(histogram.getSum())).append('\n');
+        out.append(name).append("_count").append(suffix).append(histogram.getCount()).append('\n');
+        return this;
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private MetricsWriter type(String name, String type) {
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    private MetricsWriter value(String name, long value) {
+        out.append(name).append(' ').append(value).append('\n');
+        return this;
+    }
+}
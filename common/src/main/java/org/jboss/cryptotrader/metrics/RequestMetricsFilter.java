@@ -0,0 +1,89 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.metrics;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+
+/**
+ * Measures how long every endpoint takes to respond, from when the request has been matched to a resource method
+ * until the response is sent. For async endpoints this includes the time the request was suspended.
+ * <p>
+ * The histogram is looked up when the request comes in and carried on the request, so the response can be
+ * recorded on whichever thread resumes it.
+ * <p>
+ * Each service registers its own subclass, which gives the name of the service to report the metrics under.
+ */
+public abstract class RequestMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter, MetricsSource {
+
+    private static final String HISTOGRAM = RequestMetricsFilter.class.getName() + ".histogram";
+    private static final String START = RequestMetricsFilter.class.getName() + ".start";
+
+    @Context
+    private ResourceInfo resourceInfo;
+
+    private final Map<Method, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final String metric;
+
+    /**
+     * @param service The name of the service, which the metric name starts with
+     */
+    protected RequestMetricsFilter(String service) {
+        this.metric = service + "_request_duration_seconds";
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        Method method = resourceInfo.getResourceMethod();
+        if (method == null) {
+            return;
+        }
+        LatencyHistogram histogram = histograms.get(method);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(method, m -> new LatencyHistogram());
+        }
+        requestContext.setProperty(HISTOGRAM, histogram);
+        requestContext.setProperty(START, System.nanoTime());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        LatencyHistogram histogram = (LatencyHistogram) requestContext.getProperty(HISTOGRAM);
+        if (histogram != null) {
+            histogram.recordSince((Long) requestContext.getProperty(START));
+        }
+    }
+
+    @Override
+    public void writeMetrics(MetricsWriter writer) {
+        Map<String, LatencyHistogram> byName = new TreeMap<>();
+        for (Map.Entry<Method, LatencyHistogram> e : histograms.entrySet()) {
+            byName.put(e.getKey().getDeclaringClass().getSimpleName() + "." + e.getKey().getName(), e.getValue());
+        }
+        writer.summaries(metric, "endpoint", byName);
+    }
+}
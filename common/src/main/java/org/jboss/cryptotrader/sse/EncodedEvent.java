@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.sse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+
+/**
+ * The data of a server sent event, encoded to UTF-8 exactly once.
+ * <p>
+ * When an event is broadcast to many sinks, sending it as a String means every sink encodes the same payload again.
+ * Instead the payload is encoded when the event is created, and {@link EncodedEventWriter} copies the same bytes to
+ * every sink.
+ */
+public final class EncodedEvent {
+
+    private final byte[] data;
+
+    private EncodedEvent(byte[] data) {
+        this.data = data;
+    }
+
+    /**
+     * @param data The event data
+     * @return The encoded event
+     */
+    public static EncodedEvent of(String data) {
+        return new EncodedEvent(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates an outbound event that carries this data. The result can be shared by every sink it is sent to.
+     *
+     * @param sse  The SSE context
+     * @param name The event name, or null for an unnamed event
+     * @return The outbound event
+     */
+    public OutboundSseEvent toOutboundEvent(Sse sse, String name) {
+        OutboundSseEvent.Builder builder = sse.newEventBuilder()
+                .mediaType(MediaType.TEXT_PLAIN_TYPE)
+                .data(EncodedEvent.class, this);
+        if (name != null) {
+            builder.name(name);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return The length of the encoded data, in bytes
+     */
+    public int length() {
+        return data.length;
+    }
+
+    /**
+     * Writes the encoded data
+     *
+     * @param out The stream to write to
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(data);
+    }
+
+    @Override
+    public String toString() {
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.cryptotrader.sse;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseBroadcaster;
+import javax.ws.rs.sse.SseEventSink;
+
+/**
+ * A broadcaster that lets clients pick up where they left off after a reconnect.
+ * <p>
+ * Every event is given an id, made up of a sequence number and the time this broadcaster was created (so ids from
+ * before a restart are never mistaken for current ones). The most recent events are kept in a fixed size ring.
+ * A client that reconnects with a {@code Last-Event-ID} header is sent exactly the events it missed, as long as they
+ * are all still in the ring. If they are not it is sent a {@link #RESET} event instead, which tells it that some
+ * events have been lost and it should treat what follows as a fresh start.
+ * <p>
+ * If the broadcaster is asked to keep the latest event of each name then new clients, and clients that have
+ * missed too much, are sent those before anything else so they start from the current state.
+ * <p>
+ * The events a client needs to catch up are picked, and the client is registered for live events, under the same
+ * lock that broadcasts take, so no event is missed or sent twice. The catch up events are sent after the lock has
+ * been released, so a slow client cannot hold up every broadcast. Live events that arrive while a client is
+ * catching up are queued and sent after the catch up events, so a client never sees a live event before the ones
+ * it missed.
+ */
+public final class ReplayingBroadcaster {
+
+    /**
+     * The name of the event that tells a client that events have been lost
+     */
+    public static final String RESET = "reset";
+
+    private final Sse sse;
+    private final SseBroadcaster broadcaster;
+    private final OutboundSseEvent[] ring;
+    private final int mask;
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final Map<String, OutboundSseEvent> latest;
+
+    /**
+     * The sequence number of the most recent event, access is synchronized
+     */
+    private long sequence;
+
+    /**
+     * @param sse        The SSE context
+     * @param size       The number of events to keep for replay, this is rounded up to a power of two
+     * @param keepLatest If the latest event of each name should be sent to clients that are starting from scratch
+     */
+    public ReplayingBroadcaster(Sse sse, int size, boolean keepLatest) {
+        int ringSize = 1;
+        while (ringSize < size) {
+            ringSize <<= 1;
+        }
+        this.sse = sse;
+        this.broadcaster = sse.newBroadcaster();
+        this.ring = new OutboundSseEvent[ringSize];
+        this.mask = ringSize - 1;
+        this.latest = keepLatest ? new LinkedHashMap<>() : null;
+    }
+
+    /**
+     * Sends an event to every registered client
+     *
+     * @param name The event name, or null for an unnamed event
+     * @param data The event data
+     * @return The result of the broadcast
+     */
+    public synchronized CompletionStage<?> broadcast(String name, EncodedEvent data) {
+        long id = ++sequence;
+        OutboundSseEvent.Builder builder = sse.newEventBuilder()
+                .id(epoch + "-" + id)
+                .mediaType(MediaType.TEXT_PLAIN_TYPE)
+                .data(EncodedEvent.class, data);
+        if (name != null) {
+            builder.name(name);
+        }
+        OutboundSseEvent event = builder.build();
+        ring[(int) id & mask] = event;
+        if (latest != null) {
+            latest.put(name, event);
+        }
+        return broadcaster.broadcast(event);
+    }
+
+    /**
+     * Registers a client, first sending it whatever it needs to catch up
+     *
+     * @param sink        The client
+     * @param lastEventId The id of the last event the client saw, or null if it is new
+     */
+    public void register(SseEventSink sink, String lastEventId) {
+        List<OutboundSseEvent> backlog = new ArrayList<>();
+        CatchingUpSink catchingUp = new CatchingUpSink(sink);
+        synchronized (this) {
+            if (lastEventId == null) {
+                addLatest(backlog);
+            } else if (!addMissed(backlog, lastEventId)) {
+                backlog.add(sse.newEventBuilder().name(RESET).data("").build());
+                addLatest(backlog);
+            }
+            broadcaster.register(catchingUp);
+        }
+        catchingUp.catchUp(backlog);
+    }
+
+    /**
+     * @return false if the events after the given id are not all available
+     */
+    private boolean addMissed(List<OutboundSseEvent> backlog, String lastEventId) {
+        int separator = lastEventId.lastIndexOf('-');
+        if (separator < 0 || !epoch.equals(lastEventId.substring(0, separator))) {
+            return false;
+        }
+        long last;
+        try {
+            last = Long.parseLong(lastEventId.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (last > sequence || last < sequence - ring.length) {
+            return false;
+        }
+        for (long id = last + 1; id <= sequence; ++id) {
+            backlog.add(ring[(int) id & mask]);
+        }
+        return true;
+    }
+
+    private void addLatest(List<OutboundSseEvent> backlog) {
+        if (latest != null) {
+            backlog.addAll(latest.values());
+        }
+    }
+
+    public void close() {
+        broadcaster.close();
+    }
+
+    /**
+     * Wraps a client that is registered for live events before it has been sent the events it missed, and holds
+     * the live events back until it has
+     */
+    private static final class CatchingUpSink implements SseEventSink {
+
+        private final SseEventSink sink;
+
+        /**
+         * Live events that arrived while catching up, this is null once the client has caught up. Guarded by this.
+         */
+        private List<OutboundSseEvent> queued = new ArrayList<>();
+
+        CatchingUpSink(SseEventSink sink) {
+            this.sink = sink;
+        }
+
+        void catchUp(List<OutboundSseEvent> backlog) {
+            for (; ; ) {
+                for (OutboundSseEvent event : backlog) {
+                    sink.send(event);
+                }
+                synchronized (this) {
+                    if (queued.isEmpty()) {
+                        queued = null;
+                        return;
+                    }
+                    backlog = queued;
+                    queued = new ArrayList<>();
+                }
+            }
+        }
+
+        @Override
+        public CompletionStage<?> send(OutboundSseEvent event) {
+            synchronized (this) {
+                if (queued != null) {
+                    queued.add(event);
+                    return CompletableFuture.completedFuture(null);
+                }
+            }
+            return sink.send(event);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return sink.isClosed();
+        }
+
+        @Override
+        public void close() {
+            sink.close();
+        }
+    }
+}
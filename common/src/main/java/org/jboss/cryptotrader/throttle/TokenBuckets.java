@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.cryptotrader.throttle;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket per key, used to limit how fast each player can trade.
+ * <p>
+ * Each bucket is a single long, the time at which it will next be full (the theoretical arrival time of the
+ * generic cell rate algorithm). Taking a token moves that time forward by one token's worth, and is refused if it
+ * would end up more than a burst ahead of now. This behaves exactly like a bucket that refills continuously at the
+ * given rate, but needs no refill task and can be updated with a single compare and set, so it is lock free.
+ * <p>
+ * A bucket whose time is in the past is full, which is the same as not having a bucket at all, so once there are
+ * a given number of buckets the full ones are removed. That number is a hard limit, if there are still too many
+ * buckets after removing the full ones a new key is refused a token. A bucket is full at most one refill period
+ * (the time to fill an empty bucket) after it was last used, so the buckets are swept at most once per refill
+ * period, and a flood of new keys while every bucket is busy does not turn into a sweep per key.
+ */
+final class TokenBuckets {
+
+    private final long interval;
+    private final long tolerance;
+    private final int maxBuckets;
+
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    //guarded by sweeping
+    private boolean swept;
+    private long nextSweep;
+
+    /**
+     * @param ratePerSecond The rate at which each bucket refills
+     * @param burst         The size of each bucket
+     * @param maxBuckets    The most buckets there can be, full ones are removed to make room for new ones
+     */
+    TokenBuckets(double ratePerSecond, int burst, int maxBuckets) {
+        this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        this.tolerance = interval * (Math.max(burst, 1) - 1);
+        this.maxBuckets = maxBuckets;
+    }
+
+    /**
+     * Takes a token from a bucket
+     *
+     * @param key The bucket key
+     * @param now The current time, as given by System.nanoTime()
+     * @return zero if a token was taken, otherwise how many nanoseconds until one will be available
+     */
+    long tryAcquire(String key, long now) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) {
+            if (!reserve() && (!sweep(now) || !reserve())) {
+                //no room, by the time a bucket has been through a refill it can be removed
+                return tolerance + interval;
+            }
+            AtomicLong created = new AtomicLong(now);
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null) {
+                bucket = created;
+            } else {
+                count.decrementAndGet();
+            }
+        }
+        for (; ; ) {
+            long full = bucket.get();
+            long start = full - now < 0 ? now : full;
+            long wait = start - now - tolerance;
+            if (wait > 0) {
+                return wait;
+            }
+            if (bucket.compareAndSet(full, start + interval)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * @return true if there was room for another bucket, which has now been taken
+     */
+    private boolean reserve() {
+        for (; ; ) {
+            int current = count.get();
+            if (current >= maxBuckets) {
+                return false;
+            }
+            if (count.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return true if any buckets were removed
+     */
+    private boolean sweep(long now) {
+        if (!sweeping.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            //every bucket that was left by the last sweep is full one refill period later, so sweeping again before
+            //then can only find buckets that were created since, which is not worth a pass over all of them
+            if (swept && now - nextSweep < 0) {
+                return false;
+            }
+            swept = true;
+            nextSweep = now + tolerance + interval;
+            boolean removed = false;
+            //a bucket that is in use as it is removed may let one extra request through, which does no harm
+            for (Map.Entry<String, AtomicLong> e : buckets.entrySet()) {
+                if (e.getValue().get() - now <= 0 && buckets.remove(e.getKey(), e.getValue())) {
+                    count.decrementAndGet();
+                    removed = true;
+                }
+            }
+            return removed;
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    int size() {
+        return count.get();
+    }
+}
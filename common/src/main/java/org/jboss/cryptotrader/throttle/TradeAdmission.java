@@ -0,0 +1,102 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.throttle;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.cryptotrader.metrics.MetricsSource;
+import org.jboss.cryptotrader.metrics.MetricsWriter;
+
+/**
+ * Decides whether a trade is let in, so one client can't use up a service at the expense of everyone else.
+ * <p>
+ * Each account has a {@link TokenBuckets token bucket}, and there is a limit on the number of trades in progress
+ * across all accounts. Both checks are lock free, and a trade that fails either is rejected with a
+ * {@link ThrottledException} before it has done any work.
+ * <p>
+ * Each service has its own subclass, which sets the limits from its own configuration.
+ */
+public abstract class TradeAdmission implements MetricsSource {
+
+    private final String service;
+    private final int maxConcurrent;
+    private final TokenBuckets buckets;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong concurrencyLimited = new AtomicLong();
+
+    /**
+     * @param service       The name of the service, which the metric names start with
+     * @param rate          The number of trades per second each account can make
+     * @param burst         The number of trades each account can make at once
+     * @param maxConcurrent The most trades that can be in progress at once
+     * @param maxBuckets    The most accounts that can be rate limited at once
+     */
+    protected TradeAdmission(String service, double rate, int burst, int maxConcurrent, int maxBuckets) {
+        this.service = service;
+        this.maxConcurrent = maxConcurrent;
+        this.buckets = new TokenBuckets(rate, burst, maxBuckets);
+    }
+
+    /**
+     * Lets a trade in, if it {@link #release() releases} it once it is complete
+     *
+     * @param accountNo The account making the trade
+     * @throws ThrottledException if the trade is rejected
+     */
+    public void admit(String accountNo) {
+        long wait = buckets.tryAcquire(String.valueOf(accountNo), System.nanoTime());
+        if (wait > 0) {
+            rateLimited.incrementAndGet();
+            throw new ThrottledException("Too many trades, slow down", retryAfter(wait));
+        }
+        for (; ; ) {
+            int current = inFlight.get();
+            if (current >= maxConcurrent) {
+                concurrencyLimited.incrementAndGet();
+                throw new ThrottledException("The " + service + " is too busy, try again later", 1);
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Must be called once for every trade that was admitted
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    private static long retryAfter(long waitNanos) {
+        //Retry-After is in whole seconds, so we round up
+        return Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Override
+    public void writeMetrics(MetricsWriter writer) {
+        writer.gauge(service + "_trades_in_flight", inFlight.get())
+                .gauge(service + "_trade_rate_limit_buckets", buckets.size())
+                .counter(service + "_trades_rate_limited_total", rateLimited.get())
+                .counter(service + "_trades_concurrency_limited_total", concurrencyLimited.get());
+    }
+}
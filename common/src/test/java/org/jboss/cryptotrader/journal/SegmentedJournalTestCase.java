@@ -0,0 +1,100 @@
+package org.jboss.cryptotrader.journal;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentedJournalTestCase {
+
+    private static final int MAGIC = 0x544A524E;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGroupCommitSharesForces() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        SegmentedJournal journal = new SegmentedJournal(directory, "test-", MAGIC, SyncMode.GROUP, 64 * 1024);
+        journal.open(new ArrayList<>());
+        int threads = 8;
+        int perThread = 500;
+        AtomicLong versions = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perThread; ++i) {
+                        long version = versions.incrementAndGet();
+                        long position = journal.append(version, 8, buffer -> buffer.putLong(version * 2));
+                        journal.awaitDurable(position);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(threads * perThread, journal.getRecords());
+        Assert.assertTrue(journal.getForces() <= journal.getRecords());
+        journal.close();
+
+        Set<Long> replayed = new HashSet<>();
+        SegmentedJournal recovered = new SegmentedJournal(directory, "test-", MAGIC, SyncMode.GROUP, 64 * 1024);
+        List<SegmentedJournal.Segment> segments = new ArrayList<>();
+        for (Long number : recovered.listSegments()) {
+            segments.add(recovered.replay(number, (version, payload) -> {
+                Assert.assertEquals(version * 2, payload.getLong());
+                replayed.add(version);
+            }));
+        }
+        Assert.assertEquals(threads * perThread, replayed.size());
+        Assert.assertTrue(segments.size() > 1);
+        Assert.assertEquals(threads * perThread, segments.stream().mapToLong(SegmentedJournal.Segment::getMaxVersion).max().getAsLong());
+    }
+
+    @Test
+    public void testWrongPayloadSizeIsRejected() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        SegmentedJournal journal = new SegmentedJournal(directory, "test-", MAGIC, SyncMode.ASYNC, 4096);
+        journal.open(new ArrayList<>());
+        try {
+            journal.append(1, 8, buffer -> buffer.putInt(1));
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        journal.append(2, 8, buffer -> buffer.putLong(2));
+        journal.close();
+
+        List<Long> versions = new ArrayList<>();
+        journal.replay(journal.listSegments().get(0), (version, payload) -> versions.add(version));
+        Assert.assertEquals(1, versions.size());
+        Assert.assertEquals(2L, (long) versions.get(0));
+    }
+
+    @Test
+    public void testParseSyncMode() {
+        Assert.assertEquals(SyncMode.GROUP, SyncMode.parse("group"));
+        Assert.assertEquals(SyncMode.GROUP, SyncMode.parse("sync"));
+        Assert.assertEquals(SyncMode.PERIODIC, SyncMode.parse("periodic"));
+        Assert.assertEquals(SyncMode.ASYNC, SyncMode.parse("ASYNC"));
+    }
+}
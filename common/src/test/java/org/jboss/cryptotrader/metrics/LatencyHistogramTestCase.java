@@ -0,0 +1,52 @@
+package org.jboss.cryptotrader.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTestCase {
+
+    @Test
+    public void testQuantiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getQuantile(0.5));
+        for (int i = 1; i <= 10000; ++i) {
+            histogram.record(i * 1000L);
+        }
+        Assert.assertEquals(10000, histogram.getCount());
+        Assert.assertEquals(10000 * 1000L, histogram.getMax());
+        Assert.assertEquals(1000L * 10000 * 10001 / 2, histogram.getSum());
+        assertWithin(5000 * 1000L, histogram.getQuantile(0.5));
+        assertWithin(9900 * 1000L, histogram.getQuantile(0.99));
+        assertWithin(9990 * 1000L, histogram.getQuantile(0.999));
+        Assert.assertEquals(histogram.getMax(), histogram.getQuantile(1));
+    }
+
+    @Test
+    public void testBuckets() {
+        //every value ends up in a bucket that contains it, and the buckets don't overlap
+        for (long value = 0; value < 1 << 22; value += 3) {
+            int bucket = LatencyHistogram.bucket(value);
+            Assert.assertTrue(value <= LatencyHistogram.highestValue(bucket));
+            Assert.assertTrue(bucket == 0 || value > LatencyHistogram.highestValue(bucket - 1));
+        }
+        LatencyHistogram.highestValue(LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testSummaryFormat() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(2000000);
+        StringBuilder sb = new StringBuilder();
+        new MetricsWriter(sb).summary("test_seconds", histogram);
+        Assert.assertEquals("# TYPE test_seconds summary\n" +
+                "test_seconds{quantile=\"0.5\"} 0.002\n" +
+                "test_seconds{quantile=\"0.99\"} 0.002\n" +
+                "test_seconds{quantile=\"0.999\"} 0.002\n" +
+                "test_seconds_sum 0.002\n" +
+                "test_seconds_count 1\n", sb.toString());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        Assert.assertTrue(actual + " is not close to " + expected, Math.abs(actual - expected) <= expected / 16);
+    }
+}
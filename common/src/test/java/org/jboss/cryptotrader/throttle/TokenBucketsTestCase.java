@@ -0,0 +1,65 @@
+package org.jboss.cryptotrader.throttle;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBucketsTestCase {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstThenRate() {
+        TokenBuckets buckets = new TokenBuckets(10, 5, 100);
+        long now = 1000 * SECOND;
+        for (int i = 0; i < 5; ++i) {
+            Assert.assertEquals(0, buckets.tryAcquire("a", now));
+        }
+        long wait = buckets.tryAcquire("a", now);
+        Assert.assertEquals(SECOND / 10, wait);
+        //other players are not affected
+        Assert.assertEquals(0, buckets.tryAcquire("b", now));
+        //one token comes back every 100ms
+        Assert.assertEquals(0, buckets.tryAcquire("a", now + wait));
+        Assert.assertTrue(buckets.tryAcquire("a", now + wait) > 0);
+        //an idle bucket fills up again, but no further than the burst
+        now += 10 * SECOND;
+        for (int i = 0; i < 5; ++i) {
+            Assert.assertEquals(0, buckets.tryAcquire("a", now));
+        }
+        Assert.assertTrue(buckets.tryAcquire("a", now) > 0);
+    }
+
+    @Test
+    public void testFullBucketsAreRemoved() {
+        TokenBuckets buckets = new TokenBuckets(10, 5, 10);
+        long now = 1000 * SECOND;
+        for (int i = 0; i < 10; ++i) {
+            buckets.tryAcquire(Integer.toString(i), now);
+        }
+        Assert.assertEquals(10, buckets.size());
+        //by now all of them have filled up again
+        buckets.tryAcquire("new", now + SECOND);
+        Assert.assertEquals(1, buckets.size());
+    }
+
+    @Test
+    public void testBucketsAreCapped() {
+        TokenBuckets buckets = new TokenBuckets(10, 5, 10);
+        long now = 1000 * SECOND;
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertEquals(0, buckets.tryAcquire(Integer.toString(i), now));
+        }
+        //every bucket is still in use, so new keys are turned away rather than growing the map
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertTrue(buckets.tryAcquire("new" + i, now + i) > 0);
+        }
+        Assert.assertEquals(10, buckets.size());
+        //the existing keys are not affected
+        Assert.assertEquals(0, buckets.tryAcquire("3", now));
+        //once the buckets have had time to fill up there is room again
+        Assert.assertEquals(0, buckets.tryAcquire("new", now + SECOND));
+        Assert.assertEquals(1, buckets.size());
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.math.BigDecimal;
+
+import javax.json.bind.annotation.JsonbAnnotation;
+
+/**
+ * A JSON-B object that represents one entry in a batch of transactions sent to the bank service
+ */
+@JsonbAnnotation
+public class BankBatchEntry {
+
+    private String accountNo;
+    private String name;
+    private BigDecimal amount;
+
+    public BankBatchEntry(String accountNo, String name, BigDecimal amount) {
+        this.accountNo = accountNo;
+        this.name = name;
+        this.amount = amount;
+    }
+
+    public BankBatchEntry() {
+    }
+
+    public String getAccountNo() {
+        return accountNo;
+    }
+
+    public void setAccountNo(String accountNo) {
+        this.accountNo = accountNo;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import org.jboss.cryptotrader.throttle.ThrottledException;
+
+/**
+ * Thrown when a transaction was sent to the bank, but no answer came back (e.g. the read timed out or the connection
+ * was lost). The bank may or may not have applied it, so it must only be sent again with the same transaction id,
+ * which the bank uses to apply it at most once.
+ * <p>
+ * The client is still told to try again later, as a retry with the same client order id is safe.
+ */
+public class BankInDoubtException extends ThrottledException {
+
+    public BankInDoubtException(String message, long retryAfterSeconds) {
+        super(message, retryAfterSeconds);
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.jboss.cryptotrader.metrics.LatencyHistogram;
+import org.jboss.cryptotrader.metrics.MetricsSource;
+import org.jboss.cryptotrader.metrics.MetricsWriter;
+import org.jboss.cryptotrader.throttle.ThrottledException;
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
+
+/**
+ * Moves money in and out of players bank accounts, using the bank in the game service.
+ * <p>
+ * This is the only place in the exchange that talks to the bank, and all calls share a single client with a
+ * keep alive connection pool. Every call is bounded:
+ * <ul>
+ * <li>Connect and read timeouts give each call a deadline</li>
+ * <li>A bulkhead limits the number of calls in flight, if it is full calls are rejected immediately rather than
+ * queueing up behind a slow bank</li>
+ * <li>A circuit breaker stops calling the bank at all for a while if it can't be reached</li>
+ * </ul>
+ * Note that the bank reports declined transactions (e.g. insufficient funds) as HTTP errors, so only failures to
+ * get a response at all count towards the circuit breaker.
+ */
+@ApplicationScoped
+public class BankService implements MetricsSource {
+
+    private static final Logger log = Logger.getLogger(BankService.class.getName());
+
+    private static final String TRANSACT;
+
+    private static final String SERVICE_NAME = System.getProperty("cryptotrader.game", "game");
+
+    private static final int POOL_SIZE = Integer.getInteger("cryptotrader.bank.pool-size", 50);
+    private static final long CONNECT_TIMEOUT_MS = Long.getLong("cryptotrader.bank.connect-timeout-ms", 1000);
+    private static final long READ_TIMEOUT_MS = Long.getLong("cryptotrader.bank.read-timeout-ms", 5000);
+    private static final int BREAKER_THRESHOLD = Integer.getInteger("cryptotrader.bank.breaker-threshold", 5);
+    private static final long BREAKER_OPEN_MS = Long.getLong("cryptotrader.bank.breaker-open-ms", 10000);
+
+    /**
+     * The URI we use to connect to the bank varies depending on if we are running in openshift or not.
+     *
+     * In a real app these should probably not be hard coded
+     */
+    static {
+        String host;
+        try {
+            InetAddress address = InetAddress.getByName(SERVICE_NAME);
+            System.out.println("BankService: Using openshift services, resolved IP: " + address);
+            host = "http://" + SERVICE_NAME + ":8080/game/rest/bank/transact/";
+        } catch (UnknownHostException e) {
+            host = "http://localhost:8080/game/rest/bank/transact/";
+        }
+        TRANSACT = host;
+
+    }
+
+    /**
+     * The bulkhead, there is one permit for every pooled connection
+     */
+    private final Semaphore bulkhead = new Semaphore(POOL_SIZE);
+
+    private final CircuitBreaker breaker = new CircuitBreaker(BREAKER_THRESHOLD, BREAKER_OPEN_MS);
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong bulkheadRejections = new AtomicLong();
+    private final AtomicLong breakerRejections = new AtomicLong();
+
+    /**
+     * The round trip time of calls that were let through to the bank
+     */
+    private final LatencyHistogram callLatency = new LatencyHistogram();
+
+    private Client client;
+
+    public BankService() {
+    }
+
+    /**
+     * Used by the tests, to talk to the bank with a client that is not managed by the container
+     */
+    BankService(Client client) {
+        this.client = client;
+    }
+
+    @PostConstruct
+    private void setup() {
+        ClientBuilder builder = ClientBuilder.newBuilder()
+                .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .readTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        configurePool(builder);
+        client = builder.build();
+    }
+
+    @PreDestroy
+    private void close() {
+        client.close();
+    }
+
+    /**
+     * The JAX-RS API has no way to configure a connection pool, and by default RESTEasy only uses a single
+     * connection per client. If we are running on RESTEasy we size the pool to match the bulkhead.
+     */
+    private static void configurePool(ClientBuilder builder) {
+        try {
+            if (builder instanceof ResteasyClientBuilder) {
+                ((ResteasyClientBuilder) builder)
+                        .connectionPoolSize(POOL_SIZE)
+                        .maxPooledPerRoute(POOL_SIZE)
+                        .connectionTTL(1, TimeUnit.MINUTES);
+                return;
+            }
+        } catch (LinkageError e) {
+            //RESTEasy is not visible to the deployment
+        }
+        log.warning("Unable to configure the bank client connection pool, using the JAX-RS implementation defaults");
+    }
+
+    /**
+     * Takes money out of a players bank account.
+     *
+     * @param name          The client name
+     * @param accountNo     The bank account number
+     * @param amount        The amount to withdraw, which must be positive
+     * @param transactionId The id the bank applies the withdrawal at most once for, or null if it will not be retried
+     * @return A completion stage that is completed with true if the bank accepted the transaction, or false if it
+     * declined it. If the withdrawal was turned away before it was sent (the breaker is open or the bulkhead is full)
+     * it is completed exceptionally with a {@link ThrottledException}, and nothing has happened. If it was sent but
+     * no answer came back it is completed exceptionally with a {@link BankInDoubtException}, as the bank may have
+     * made the withdrawal, so it must only be retried with the same transaction id. If the call could not be made at
+     * all it is completed exceptionally with the reason.
+     */
+    public CompletionStage<Boolean> withdraw(String name, String accountNo, BigDecimal amount, String transactionId) {
+        ThrottledException unavailable = acquire();
+        if (unavailable != null) {
+            CompletableFuture<Boolean> ret = new CompletableFuture<>();
+            ret.completeExceptionally(unavailable);
+            return ret;
+        }
+        //the transaction is represented by a JSONB object
+        BankTransaction bankTransaction = new BankTransaction(name, amount.negate(), transactionId);
+
+        //we are using the new RX invoker to perform the invocation in an async manner
+        CompletableFuture<Boolean> ret = new CompletableFuture<>();
+        long start = System.nanoTime();
+        CompletionStage<Response> call;
+        try {
+            call = client.target(TRANSACT + accountNo)
+                    .request(MediaType.APPLICATION_JSON_TYPE)
+                    .rx() //tell the request to use the RX invoker
+                    .post(Entity.entity(bankTransaction, MediaType.APPLICATION_JSON_TYPE));
+        } catch (RuntimeException e) {
+            //the call was never made, but we still hold a permit
+            release(false);
+            ret.completeExceptionally(e);
+            return ret;
+        }
+        call.whenComplete((bankResponse, error) -> {
+            callLatency.recordSince(start);
+            release(error == null);
+            if (error != null) {
+                //we don't know if the bank got the request, so this is not the same as being turned away
+                ret.completeExceptionally(new BankInDoubtException("The bank did not respond, try again later", 1));
+            } else {
+                boolean accepted = bankResponse.getStatus() < 300;
+                bankResponse.close();
+                ret.complete(accepted);
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * Pays money into a number of bank accounts in a single request. This blocks until the bank has responded.
+     * <p>
+     * The bank applies a batch id at most once, so if this fails for any reason other than a
+     * {@link BankRejectedException} the same batch can be sent again with the same id.
+     *
+     * @param batchId The id of the batch
+     * @param entries The deposits
+     * @return The result of each deposit, in the same order as the entries
+     * @throws BankRejectedException if the bank rejected the batch as a client error, so it must not be sent again
+     * @throws RuntimeException      if the bank could not be reached or did not process the batch
+     */
+    public List<BankBatchResult> depositBatch(String batchId, List<BankBatchEntry> entries) {
+        ThrottledException unavailable = acquire();
+        if (unavailable != null) {
+            throw unavailable;
+        }
+        boolean reachable = false;
+        long start = System.nanoTime();
+        try (Response bankResponse = client
+                .target(TRANSACT + "batch")
+                .queryParam("batchId", batchId)
+                .request(MediaType.APPLICATION_JSON_TYPE)
+                .post(Entity.entity(entries, MediaType.APPLICATION_JSON_TYPE))) {
+            reachable = true;
+            if (bankResponse.getStatusInfo().getFamily() == Response.Status.Family.CLIENT_ERROR) {
+                throw new BankRejectedException("Bank rejected batch transaction with status " + bankResponse.getStatus(), bankResponse.getStatus());
+            }
+            if (bankResponse.getStatus() != Response.Status.OK.getStatusCode()) {
+                throw new IllegalStateException("Bank returned status " + bankResponse.getStatus() + " for batch transaction");
+            }
+            return bankResponse.readEntity(new GenericType<List<BankBatchResult>>() {
+            });
+        } finally {
+            callLatency.recordSince(start);
+            release(reachable);
+        }
+    }
+
+    /**
+     * Gets permission to make a call
+     *
+     * @return null if the call can go ahead, otherwise the reason it was rejected
+     */
+    ThrottledException acquire() {
+        calls.incrementAndGet();
+        if (!breaker.allowRequest()) {
+            breakerRejections.incrementAndGet();
+            return new ThrottledException("The bank is not available right now, try again later", Math.max(1, TimeUnit.MILLISECONDS.toSeconds(BREAKER_OPEN_MS)));
+        }
+        if (!bulkhead.tryAcquire()) {
+            //we were let through the breaker, but a full bulkhead tells us nothing about the health of the bank, so
+            //hand back the permission without reporting an outcome
+            breaker.onIgnored();
+            bulkheadRejections.incrementAndGet();
+            return new ThrottledException("The bank is too busy right now, try again later", 1);
+        }
+        return null;
+    }
+
+    void release(boolean reachable) {
+        bulkhead.release();
+        if (reachable) {
+            breaker.onSuccess();
+        } else {
+            failures.incrementAndGet();
+            breaker.onFailure();
+        }
+    }
+
+    /**
+     * @return The number of calls that can be made before the bulkhead is full
+     */
+    int getAvailablePermits() {
+        return bulkhead.availablePermits();
+    }
+
+    @Override
+    public void writeMetrics(MetricsWriter writer) {
+        writer.gauge("exchange_bank_pool_size", POOL_SIZE)
+                .gauge("exchange_bank_in_flight", POOL_SIZE - bulkhead.availablePermits())
+                .gauge("exchange_bank_breaker_state", breaker.getState())
+                .counter("exchange_bank_breaker_opened_total", breaker.getTimesOpened())
+                .counter("exchange_bank_calls_total", calls.get())
+                .counter("exchange_bank_failures_total", failures.get())
+                .counter("exchange_bank_bulkhead_rejections_total", bulkheadRejections.get())
+                .counter("exchange_bank_breaker_rejections_total", breakerRejections.get())
+                .summary("exchange_bank_call_duration_seconds", callLatency);
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.jboss.cryptotrader.metrics.MetricsSource;
+import org.jboss.cryptotrader.metrics.MetricsWriter;
+
+/**
+ * Asynchronous pipeline that pays the proceeds of trades into players bank accounts.
+ * <p>
+ * Rather than making a request to the bank for every trade, credits are coalesced per account and sent to the
+ * bank's batch endpoint by a single background flusher. This means the number of round trips to the bank grows
+ * with the number of accounts that are owed money, not the number of trades.
+ * <p>
+ * Each new sale has a delay, which is used to simulate the money taking a while to come through. The credit waits
+ * in {@link TradeDelays} and only joins the queue once it is due, so the flusher never has to look at credits that
+ * are not ready to be paid.
+ * <p>
+ * Every batch has an id, which the bank applies at most once. If a batch fails for a reason that may be temporary
+ * (the bank can't be reached, the read timed out, or it answered with a server error) it is kept exactly as it was
+ * and sent again with the same id, with exponential backoff, before any new batch. If the bank applied the batch
+ * but the answer was lost, the retry gets the original results rather than paying the money again. Credits that
+ * arrive in the meantime go in later batches.
+ * <p>
+ * Credits the bank will not take (it rejected the batch as a client error, or rejected the entry), or that it is
+ * not known whether the bank applied (it returned the wrong number of results), are never retried, as that could
+ * pay them twice. They are moved to the unsettled credits instead, which are logged and exported as metrics so
+ * someone can sort them out.
+ * <p>
+ * The queue is bounded, new sales are rejected with {@link #offer} if it is full. Credits that are already owed,
+ * such as order book fills and refunds, are always accepted by {@link #add}.
+ */
+@ApplicationScoped
+public class BankSettlementQueue implements MetricsSource {
+
+    private static final Logger log = Logger.getLogger(BankSettlementQueue.class.getName());
+
+    private static final int CAPACITY = Integer.getInteger("cryptotrader.settlement.capacity", 100000);
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("cryptotrader.settlement.batch-size", 500);
+    private static final long FLUSH_INTERVAL_MS = 250;
+    private static final long INITIAL_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 30000;
+
+    /**
+     * Credits that are due to be paid, coalesced by account
+     */
+    private final ConcurrentHashMap<UserKey, Credit> pending = new ConcurrentHashMap<>();
+
+    /**
+     * The number of individual credits in the queue, before they were coalesced, including those that are not due yet
+     */
+    private final AtomicInteger depth = new AtomicInteger();
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong settled = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Credits that were not paid, and will not be retried, see {@link #unsettle}
+     */
+    private final AtomicLong unsettled = new AtomicLong();
+
+    /**
+     * Only accessed by the flusher, which is synchronized
+     */
+    private int consecutiveFailures;
+    private long nextAttempt;
+
+    /**
+     * Batches that failed, they are sent again unchanged and in order before any new batch. Only changed by the
+     * flusher, but read by the metrics.
+     */
+    private final ConcurrentLinkedQueue<Batch> retrying = new ConcurrentLinkedQueue<>();
+
+    @Inject
+    private BankService bank;
+
+    @Inject
+    private TradeDelays delays;
+
+    @Resource
+    private ManagedScheduledExecutorService managedScheduledExecutorService;
+
+    private ScheduledFuture<?> handle;
+
+    public BankSettlementQueue() {
+    }
+
+    /**
+     * Used by the tests, which call {@link #flush(long)} themselves
+     */
+    BankSettlementQueue(BankService bank, TradeDelays delays) {
+        this.bank = bank;
+        this.delays = delays;
+    }
+
+    @PostConstruct
+    private void setup() {
+        handle = managedScheduledExecutorService.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void close() {
+        handle.cancel(false);
+        if (!pending.isEmpty() || !retrying.isEmpty()) {
+            log.warning("Shutting down with " + depth.get() + " bank credits still unpaid");
+        }
+    }
+
+    /**
+     * Queues a credit for a new trade, if there is space in the queue
+     *
+     * @param name        The client name
+     * @param accountNo   The bank account number
+     * @param amount      The amount to pay, which must be positive
+     * @param delayMillis How long to wait before paying the money
+     * @return false if the queue is full, in which case the trade should be rejected
+     */
+    public boolean offer(String name, String accountNo, BigDecimal amount, long delayMillis) {
+        if (depth.incrementAndGet() > CAPACITY) {
+            depth.decrementAndGet();
+            return false;
+        }
+        UserKey key = new UserKey(name, accountNo);
+        delays.schedule(() -> pending.merge(key, new Credit(amount, 1), Credit::combine), delayMillis);
+        return true;
+    }
+
+    /**
+     * Queues a credit that is already owed, this ignores the capacity of the queue
+     *
+     * @param name      The client name
+     * @param accountNo The bank account number
+     * @param amount    The amount to pay, which must be positive
+     */
+    public void add(String name, String accountNo, BigDecimal amount) {
+        depth.incrementAndGet();
+        pending.merge(new UserKey(name, accountNo), new Credit(amount, 1), Credit::combine);
+    }
+
+    /**
+     * Sends every credit that is due to the bank, in batches
+     */
+    void flush() {
+        flush(System.currentTimeMillis());
+    }
+
+    synchronized void flush(long now) {
+        if (now < nextAttempt) {
+            return;
+        }
+        Batch batch;
+        while ((batch = retrying.peek()) != null) {
+            if (!send(batch, now)) {
+                return;
+            }
+            retrying.poll();
+        }
+        batch = new Batch();
+        for (UserKey key : pending.keySet()) {
+            Credit due = pending.remove(key);
+            if (due == null) {
+                continue;
+            }
+            batch.add(key, due);
+            if (batch.entries.size() == MAX_BATCH_SIZE) {
+                if (!send(batch, now)) {
+                    retrying.add(batch);
+                    return;
+                }
+                batch = new Batch();
+            }
+        }
+        if (!batch.entries.isEmpty() && !send(batch, now)) {
+            retrying.add(batch);
+        }
+    }
+
+    /**
+     * Sends a batch to the bank
+     *
+     * @return false if the batch failed and should be sent again later
+     */
+    private boolean send(Batch batch, long now) {
+        List<BankBatchResult> results;
+        try {
+            results = bank.depositBatch(batch.id, batch.entries);
+        } catch (BankRejectedException e) {
+            //the bank will give the same answer however many times we send it
+            consecutiveFailures = 0;
+            for (int i = 0; i < batch.entries.size(); ++i) {
+                unsettle(batch, i, e.getMessage());
+            }
+            return true;
+        } catch (RuntimeException e) {
+            //keep the batch as it is, and send it again later with the same id
+            consecutiveFailures++;
+            retries.incrementAndGet();
+            long backoff = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(consecutiveFailures - 1, 16));
+            nextAttempt = now + backoff;
+            log.warning("Failed to send " + batch.entries.size() + " bank credits, retrying in " + backoff + "ms: " + e);
+            return false;
+        }
+        consecutiveFailures = 0;
+        batches.incrementAndGet();
+        if (results.size() != batch.entries.size()) {
+            //we can't tell which entries were applied, so we can't safely retry any of them
+            String reason = "Bank returned " + results.size() + " results for a batch of " + batch.entries.size() + " credits";
+            for (int i = 0; i < batch.entries.size(); ++i) {
+                unsettle(batch, i, reason);
+            }
+            return true;
+        }
+        for (int i = 0; i < results.size(); ++i) {
+            BankBatchResult result = results.get(i);
+            if (BankBatchResult.OK.equals(result.getStatus())) {
+                settled.addAndGet(batch.counts.get(i));
+                depth.addAndGet(-batch.counts.get(i));
+            } else {
+                //this will not succeed if we retry it, e.g. the account does not exist
+                rejected.incrementAndGet();
+                unsettle(batch, i, result.getError());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gives up on paying a credit, which is still owed to the player. It is logged, and counted in the metrics, so
+     * that it can be paid by hand.
+     */
+    private void unsettle(Batch batch, int index, String reason) {
+        BankBatchEntry entry = batch.entries.get(index);
+        int count = batch.counts.get(index);
+        unsettled.addAndGet(count);
+        depth.addAndGet(-count);
+        log.severe("Unable to pay " + entry.getAmount() + " to account " + entry.getAccountNo() + " for " + entry.getName() + " in batch " + batch.id + ": " + reason);
+    }
+
+    /**
+     * @return The number of credits that have not been paid yet
+     */
+    int size() {
+        return depth.get();
+    }
+
+    /**
+     * @return The number of credits that were given up on, and are still owed
+     */
+    long getUnsettled() {
+        return unsettled.get();
+    }
+
+    @Override
+    public void writeMetrics(MetricsWriter writer) {
+        writer.gauge("exchange_settlement_queue_depth", depth.get())
+                .gauge("exchange_settlement_pending_accounts", pending.size())
+                .counter("exchange_settlement_batches_total", batches.get())
+                .counter("exchange_settlement_credits_total", settled.get())
+                .counter("exchange_settlement_retries_total", retries.get())
+                .counter("exchange_settlement_rejected_total", rejected.get())
+                .counter("exchange_settlement_unsettled_total", unsettled.get())
+                .gauge("exchange_settlement_retrying_batches", retrying.size());
+    }
+
+    /**
+     * A batch of credits, which keeps its id and contents however many times it is sent
+     */
+    private static final class Batch {
+        final String id = UUID.randomUUID().toString();
+        final List<BankBatchEntry> entries = new ArrayList<>();
+        /**
+         * The number of credits that were coalesced into each entry
+         */
+        final List<Integer> counts = new ArrayList<>();
+
+        void add(UserKey key, Credit credit) {
+            entries.add(new BankBatchEntry(key.getAccountNo(), key.getName(), credit.amount));
+            counts.add(credit.count);
+        }
+    }
+
+    /**
+     * A coalesced credit. These are immutable so they can be safely merged in the map.
+     */
+    private static final class Credit {
+        final BigDecimal amount;
+        final int count;
+
+        Credit(BigDecimal amount, int count) {
+            this.amount = amount;
+            this.count = count;
+        }
+
+        /**
+         * Merges two credits
+         */
+        Credit combine(Credit other) {
+            return new Credit(amount.add(other.amount), count + other.count);
+        }
+    }
+}
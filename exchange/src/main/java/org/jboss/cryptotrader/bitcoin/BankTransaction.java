@@ -29,12 +29,22 @@ public class BankTransaction {
 
     private String name;
     private BigDecimal amount;
+    /**
+     * If set the bank applies the transaction at most once, however many times it is sent
+     */
+    private String transactionId;
 
     public BankTransaction(String name, BigDecimal amount) {
         this.name = name;
         this.amount = amount;
     }
 
+    public BankTransaction(String name, BigDecimal amount, String transactionId) {
+        this.name = name;
+        this.amount = amount;
+        this.transactionId = transactionId;
+    }
+
     public BankTransaction() {
     }
 
@@ -53,4 +63,12 @@ public class BankTransaction {
     public void setAmount(BigDecimal amount) {
         this.amount = amount;
     }
+
+    public String getTransactionId() {
+        return transactionId;
+    }
+
+    public void setTransactionId(String transactionId) {
+        this.transactionId = transactionId;
+    }
 }
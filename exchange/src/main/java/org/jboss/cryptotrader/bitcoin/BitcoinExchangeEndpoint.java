@@ -20,77 +20,73 @@ package org.jboss.cryptotrader.bitcoin;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.text.NumberFormat;
 import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
-import java.util.Objects;
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
-import javax.annotation.PostConstruct;
-import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.enterprise.context.ApplicationScoped;
-import javax.enterprise.event.Event;
 import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
 import javax.swing.text.NumberFormatter;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.Entity;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+
+import org.jboss.cryptotrader.metrics.MetricsSource;
+import org.jboss.cryptotrader.metrics.MetricsWriter;
+import org.jboss.cryptotrader.throttle.ThrottledException;
 
 /**
  * The bitcoin exchange
  *
  * This simulates actually trading.
  *
- * Holdings are stored in a map keyed by name+account number.
+ * Holdings are stored in the {@link HoldingsLedger}, keyed by name+account number+symbol. Trades
+ * that don't specify a symbol are for Bitcoin.
  *
  */
 @Path("/bitcoin/trade")
 @ApplicationScoped
-public class BitcoinExchangeEndpoint {
-
-    private static final String TRANSACT;
+public class BitcoinExchangeEndpoint implements MetricsSource {
 
-    private static final String SERVICE_NAME = System.getProperty("cryptotrader.game", "game");
+    private static final Logger log = Logger.getLogger(BitcoinExchangeEndpoint.class.getName());
 
     /**
-     * The URI we use to connect to the bank varies depending on if we are running in openshift or not.
-     *
-     * In a real app these should probably not be hard coded
+     * Bank account numbers are all digits, anything else is turned away before it can be given a rate limit bucket
      */
-    static {
-        String host;
-        try {
-            InetAddress address = InetAddress.getByName(SERVICE_NAME);
-            System.out.println("BitcoinExchangeEndpoint: Using openshift services, resolved IP: " + address);
-            host = "http://" + SERVICE_NAME + ":8080/game/rest/bank/transact/";
-        } catch (UnknownHostException e) {
-            host = "http://localhost:8080/game/rest/bank/transact/";
-        }
-        TRANSACT = host;
+    static final Pattern ACCOUNT_NO = Pattern.compile("[0-9]{1,18}");
 
-    }
     /**
-     * We just track holdings in a map keyed by client name. Operations on this map must be synchronised.
+     * The holdings of every player, this handles its own concurrency so trades by different players can proceed
+     * in parallel
      */
-    private final Map<UserKey, BigDecimal> holdings = new HashMap<>();
+    @Inject
+    private HoldingsLedger holdings;
 
     @Inject
     private BitcoinPriceService priceService;
@@ -98,27 +94,39 @@ public class BitcoinExchangeEndpoint {
     /**
      * We simulate a delay in trades going though by scheduling tasks for later execution
      */
-    @Resource
-    private ManagedScheduledExecutorService managedScheduledExecutorService;
+    @Inject
+    private TradeDelays delays;
+
+    @Inject
+    private TradeDedupeCache dedupe;
+
+    @Inject
+    private ExchangeTradeAdmission admission;
+
+    @Inject
+    private BankService bank;
 
     /**
-     * When a transaction completes we publish the details to the news stream
+     * The proceeds of sales are paid into the bank in batches
      */
     @Inject
-    @BitcoinNews
-    private Event<String> newsEvent;
+    private BankSettlementQueue settlements;
 
-    private Client client;
+    /**
+     * Completes purchases, so they are not sent to the client on the thread that runs the delayed tasks
+     */
+    @Resource
+    private ManagedExecutorService managedExecutorService;
 
-    @PostConstruct
-    private void setup() {
-        client = ClientBuilder.newClient();
-    }
+    /**
+     * The largest page of holdings that will be returned, larger limits are reduced to this
+     */
+    private static final int MAX_PAGE_SIZE = Integer.getInteger("cryptotrader.holdings.max-page-size", 10000);
 
-    @PreDestroy
-    private void close() {
-        client.close();
-    }
+    /**
+     * The number of purchases that have been paid for, and are waiting for the trade to go through
+     */
+    private final AtomicLong pendingPurchases = new AtomicLong();
 
     /**
      * The trading endpoint. Trades are performed asyncronously, but slightly differently for purchaes and sales
@@ -129,6 +137,11 @@ public class BitcoinExchangeEndpoint {
      * In both cases the end user is notified of changes to the bank balance by the bank itself, the trade endpoint does not
      * return any information about bank balance changes.
      *
+     * Trades with a client order id go through the {@link TradeDedupeCache}, so they can be safely retried. Before
+     * any of that, the {@link ExchangeTradeAdmission} turns away clients that are trading too fast, or all of them if the
+     * exchange is too busy. Trades for something that is not a bank account number are rejected first, so they
+     * can't fill up the admission's rate limit buckets.
+     *
      * @param response This uses JAX-RS async invocations, so this is the async response used to send the response to the client
      * @param trade The incoming trade, mapped using the new JSONB spec
      */
@@ -136,9 +149,45 @@ public class BitcoinExchangeEndpoint {
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces({MediaType.APPLICATION_JSON})
     public void trade(@Suspended AsyncResponse response,  BitcoinTradeData trade) {
+        if (trade.getBankAccountNo() == null || !ACCOUNT_NO.matcher(trade.getBankAccountNo()).matches()) {
+            throw new TradeException("Invalid bank account number " + trade.getBankAccountNo());
+        }
+        admission.admit(trade.getBankAccountNo());
+        CompletionStage<BitcoinTradeData> result;
+        try {
+            result = trade.getClientOrderId() == null ? execute(trade, null) : dedupe.execute(trade, transactionId -> execute(trade, transactionId));
+        } catch (RuntimeException e) {
+            admission.release();
+            throw e;
+        }
+        result.whenComplete((r, failure) -> {
+            admission.release();
+            if (failure == null) {
+                response.resume(r);
+            } else {
+                response.resume(failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure);
+            }
+        });
+    }
+
+    /**
+     * Executes a trade
+     *
+     * @param trade         The trade
+     * @param transactionId The id the bank applies a purchase's withdrawal at most once for, or null if there is none
+     * @return The result of the trade, which is completed once the trade has gone through
+     * @throws TradeException if the trade is not valid
+     */
+    private CompletableFuture<BitcoinTradeData> execute(BitcoinTradeData trade, String transactionId) {
+        CompletableFuture<BitcoinTradeData> result = new CompletableFuture<>();
         NumberFormatter currenyFormatter = new NumberFormatter(NumberFormat.getCurrencyInstance(Locale.US));
 
-        BigDecimal price = priceService.getPrice();
+        Instrument instrument = priceService.getInstrument(trade.getSymbol() == null ? BitcoinPriceService.BITCOIN : trade.getSymbol());
+        if (instrument == null) {
+            throw new TradeException("Unknown instrument " + trade.getSymbol());
+        }
+        String symbol = instrument.getSymbol();
+        BigDecimal price = instrument.getPrice();
         BigDecimal amount = price.multiply(trade.getUnits(), MathContext.DECIMAL128);
         if(trade.getUnits().abs().doubleValue() < 0.0001) {
             throw new TradeException("Cannot trade in increments smaller than 0.0001");
@@ -146,138 +195,184 @@ public class BitcoinExchangeEndpoint {
 
         if (trade.getUnits().compareTo(BigDecimal.ZERO) > 0) {
             //this is a purchase
-            //lets see if we can get some money from the bank with the JAX-RS client
-
-            //the transaction is represented by a JSONB object
-            BankTransaction bankTransaction = new BankTransaction(trade.getName(), amount.negate());
-
-            //we are using the new RX invoker to perform the invocation in an async manner
-            ClientBuilder.newClient()
-                    .target(TRANSACT + trade.getBankAccountNo())
-                    .request(MediaType.APPLICATION_JSON_TYPE)
-                    .rx() //tell the request to use the RX invoker
-                    .post(Entity.entity(bankTransaction, MediaType.APPLICATION_JSON_TYPE))
-                    .exceptionally((e -> Response.serverError().build())) //if there was an exception we treat is the same as a server error
-                    .thenAccept(bankResponse -> {
+            //lets see if we can get some money from the bank
+            bank.withdraw(trade.getName(), trade.getBankAccountNo(), amount, transactionId)
+                    .whenComplete((withdrawn, failure) -> {
                         //this callback gets called once the request is done
+                        //if the bank could not be reached at all we pass on the reason
+                        if (failure != null) {
+                            result.completeExceptionally(failure);
+                            return;
+                        }
                         //check if the TX failed, if so we just respond with a server error
                         //ideally we would include this in the JSON response, but we are keeping things simple
-                        if (bankResponse.getStatus() >= 300) {
-                            response.resume(new TradeException("Unable to get funds from the bank to purchase Bitcoin, check your bank balance"));
+                        if (!withdrawn) {
+                            result.completeExceptionally(new TradeException("Unable to get funds from the bank to purchase " + instrument.getName() + ", check your bank balance"));
                             return;
                         }
                         //bitcoin trades can take a while, we simulate this by scheduling a task to run later
-                        managedScheduledExecutorService.schedule(new Runnable() {
+                        pendingPurchases.incrementAndGet();
+                        delays.schedule(new Runnable() {
                             @Override
                             public void run() {
+                                pendingPurchases.decrementAndGet();
                                 //now we actually add the holdings
-                                synchronized (holdings) {
-                                    UserKey key = new UserKey(trade.getName(), trade.getBankAccountNo());
-                                    BigDecimal currentHoldings = holdings.get(key);
-                                    if (currentHoldings == null) {
-                                        currentHoldings = BigDecimal.ZERO;
-                                    }
-                                    BigDecimal newHoldings = currentHoldings.add(trade.getUnits());
-                                    holdings.put(key, newHoldings);
-                                    try {
-                                        //we publish the trade to the news stream
-                                        //this uses the new CDI fireAsync method
-                                        //so any problems with news stream consumers will not affect the trade
-                                        newsEvent.fireAsync(trade.getName() + " just purchased " + trade.getUnits().setScale(3, RoundingMode.HALF_UP).toString() + " Bitcoin for " + currenyFormatter.valueToString(amount.abs()));
-                                    } catch (ParseException e) {
-                                        //will never happen
+                                BigDecimal newHoldings;
+                                try {
+                                    newHoldings = holdings.credit(trade.getName(), trade.getBankAccountNo(), symbol, trade.getUnits());
+                                } catch (RuntimeException e) {
+                                    //the bank has already been paid, so the money has to go back
+                                    log.log(Level.SEVERE, "Failed to credit a purchase of " + trade.getUnits() + " " + symbol + " for " + trade.getName() + ", refunding it", e);
+                                    if (!settlements.offer(trade.getName(), trade.getBankAccountNo(), amount, 0)) {
+                                        log.severe("Unable to refund " + amount + " to account " + trade.getBankAccountNo() + ", the settlement queue is full");
                                     }
-                                    //send the JSONB response telling the client the trade was successful
-                                    response.resume(new BitcoinTradeData(trade.getName(), trade.getBankAccountNo(), newHoldings));
+                                    completeLater(result, null, e);
+                                    return;
                                 }
+                                try {
+                                    //we publish the trade to the news stream
+                                    //this uses the new CDI fireAsync method
+                                    //so any problems with news stream consumers will not affect the trade
+                                    priceService.publishNews(instrument, trade.getName() + " just purchased " + trade.getUnits().setScale(3, RoundingMode.HALF_UP).toString() + " " + instrument.getName() + " for " + currenyFormatter.valueToString(amount.abs()));
+                                } catch (ParseException e) {
+                                    //will never happen
+                                } catch (RuntimeException e) {
+                                    //the trade has gone through, missing news does not change that
+                                    log.log(Level.WARNING, "Failed to publish news of a purchase", e);
+                                }
+                                //send the JSONB response telling the client the trade was successful
+                                completeLater(result, tradeResult(trade, symbol, newHoldings), null);
                             }
-                        }, new Random().nextInt(4) + 1, TimeUnit.SECONDS);
+                        }, TimeUnit.SECONDS.toMillis(ThreadLocalRandom.current().nextInt(4) + 1));
 
                     });
 
         } else {
             //for sales we reduce the holdings immediately
-            synchronized (holdings) {
-                UserKey key = new UserKey(trade.getName(), trade.getBankAccountNo());
-                BigDecimal currentHoldings = holdings.get(key);
-                if (currentHoldings == null) {
-                    //they don't hold anything
-                    response.resume(new TradeException("You don't hold any Bitcoin"));
-                    return;
-                }
-                BigDecimal newHoldings = currentHoldings.add(trade.getUnits());
-                if (newHoldings.compareTo(BigDecimal.ZERO) < 0) {
-                    response.resume(new TradeException("You don't hold enough Bitcoin to complete the transaction"));
-                    return;
-                }
-                holdings.put(key, newHoldings);
-                //it takes a while for the money to actually come through
-                //we process this async in the background though
-                //we don't wait for this to happen before resuming though
-                //so the client will have to wait for their money
-                managedScheduledExecutorService.schedule(() -> {
-                    //create a JSONB bank transaction
-                    BankTransaction bankTransaction = new BankTransaction();
-                    bankTransaction.setAmount(amount.negate());
-                    bankTransaction.setName(trade.getName());
-
-
-                    try (Response bankResponse = client
-                            .target(TRANSACT + trade.getBankAccountNo())
-                            .request(MediaType.APPLICATION_JSON_TYPE)
-                            .post(Entity.entity(bankTransaction, MediaType.APPLICATION_JSON_TYPE))) {
-                        //we should probably check the response, but we are keeping this simple
-                        //so if there is a problem with the bank the money just disappears
-                    }
-
-                }, new Random().nextInt(5) + 5, TimeUnit.SECONDS);
-                try {
-                    //publish the sale to the news stream
-                    newsEvent.fireAsync(trade.getName() + " just sold " + trade.getUnits().setScale(3, RoundingMode.HALF_UP).toString() + " Bitcoin for " + currenyFormatter.valueToString(amount.abs()));
-                } catch (ParseException e) {
-                    //will never happen
-                }
-                //let the client know the results of the trade
-                response.resume(new BitcoinTradeData(trade.getName(), trade.getBankAccountNo(), newHoldings));
+            //the ledger checks and updates the holdings atomically
+            BigDecimal newHoldings;
+            try {
+                newHoldings = holdings.debit(trade.getName(), trade.getBankAccountNo(), symbol, trade.getUnits().negate());
+            } catch (TradeException e) {
+                result.completeExceptionally(e);
+                return result;
+            }
+            //it takes a while for the money to actually come through
+            //the settlement queue pays it into the bank in the background
+            //we don't wait for this to happen before resuming though
+            //so the client will have to wait for their money
+            if (!settlements.offer(trade.getName(), trade.getBankAccountNo(), amount.negate(), TimeUnit.SECONDS.toMillis(ThreadLocalRandom.current().nextInt(5) + 5))) {
+                //too much money is waiting to be paid, so we undo the sale
+                holdings.credit(trade.getName(), trade.getBankAccountNo(), symbol, trade.getUnits().negate());
+                result.completeExceptionally(new ThrottledException("The exchange is too busy to process sales right now, try again later", 5));
+                return result;
+            }
+            try {
+                //publish the sale to the news stream
+                priceService.publishNews(instrument, trade.getName() + " just sold " + trade.getUnits().setScale(3, RoundingMode.HALF_UP).toString() + " " + instrument.getName() + " for " + currenyFormatter.valueToString(amount.abs()));
+            } catch (ParseException e) {
+                //will never happen
+            }
+            //let the client know the results of the trade
+            result.complete(tradeResult(trade, symbol, newHoldings));
+        }
+        return result;
+    }
 
+    /**
+     * Completes a purchase on the managed executor rather than the thread that runs every delayed task. Completing
+     * the result resumes the client's response, so writing it to a slow client must not hold up every other trade.
+     */
+    private void completeLater(CompletableFuture<BitcoinTradeData> result, BitcoinTradeData value, Throwable failure) {
+        Runnable complete = () -> {
+            if (failure == null) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally(failure);
             }
+        };
+        try {
+            managedExecutorService.execute(complete);
+        } catch (RejectedExecutionException e) {
+            //we are shutting down, the client still needs an answer
+            complete.run();
         }
     }
 
+    private static BitcoinTradeData tradeResult(BitcoinTradeData trade, String symbol, BigDecimal newHoldings) {
+        BitcoinTradeData ret = new BitcoinTradeData(trade.getName(), trade.getBankAccountNo(), symbol, newHoldings);
+        ret.setClientOrderId(trade.getClientOrderId());
+        return ret;
+    }
+
+    /**
+     * Lists the holdings of every player.
+     * <p>
+     * The list is streamed straight from the ledger to the client, so the memory used by a request does not depend
+     * on how many players there are. With no limit everything is written in one response, in no particular order.
+     * With a limit the holdings are returned a page at a time in a stable order, and if there are more a {@code next}
+     * link gives the URI of the next page.
+     *
+     * @param limit The maximum number of holdings to return, or zero for all of them
+     * @param after The cursor from the previous page, if any
+     */
     @GET
     @Path("/holdings")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<BitcoinTradeData> allHoldings() {
-        List<BitcoinTradeData> ret = new ArrayList<>();
-        for (Map.Entry<UserKey, BigDecimal> e : holdings.entrySet()) {
-            ret.add(new BitcoinTradeData(e.getKey().name, e.getKey().accountNo, e.getValue()));
+    public Response allHoldings(@QueryParam("limit") @DefaultValue("0") int limit,
+                                @QueryParam("after") String after,
+                                @Context UriInfo uriInfo) {
+        if (limit <= 0) {
+            if (after != null) {
+                throw new TradeException("A cursor can only be used with a limit");
+            }
+            StreamingOutput all = out -> {
+                try (JsonGenerator generator = Json.createGenerator(out)) {
+                    generator.writeStartArray();
+                    holdings.forEach((name, accountNo, symbol, units) -> writeHolding(generator, name, accountNo, symbol, units));
+                    generator.writeEnd();
+                }
+            };
+            return Response.ok(all).build();
         }
-        return ret;
+        int pageSize = Math.min(limit, MAX_PAGE_SIZE);
+        List<BitcoinTradeData> page = holdings.page(after == null ? null : UserKey.fromCursor(after), pageSize);
+        StreamingOutput entity = out -> {
+            try (JsonGenerator generator = Json.createGenerator(out)) {
+                generator.writeStartArray();
+                for (BitcoinTradeData holding : page) {
+                    writeHolding(generator, holding.getName(), holding.getBankAccountNo(), holding.getSymbol(), holding.getUnits());
+                }
+                generator.writeEnd();
+            }
+        };
+        Response.ResponseBuilder builder = Response.ok(entity);
+        if (page.size() == pageSize) {
+            BitcoinTradeData last = page.get(page.size() - 1);
+            String cursor = new UserKey(last.getName(), last.getBankAccountNo(), last.getSymbol()).toCursor();
+            builder.link(uriInfo.getRequestUriBuilder().replaceQueryParam("after", cursor).build(), "next");
+        }
+        return builder.build();
     }
 
-    private static final class UserKey {
-        private final String name;
-        private final String accountNo;
-
-        private UserKey(String name, String accountNo) {
-            this.name = name;
-            this.accountNo = accountNo;
+    private static void writeHolding(JsonGenerator generator, String name, String accountNo, String symbol, BigDecimal units) {
+        generator.writeStartObject();
+        if (name != null) {
+            generator.write("name", name);
         }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            UserKey userKey = (UserKey) o;
-            return Objects.equals(name, userKey.name) &&
-                    Objects.equals(accountNo, userKey.accountNo);
+        if (accountNo != null) {
+            generator.write("bankAccountNo", accountNo);
         }
-
-        @Override
-        public int hashCode() {
-
-            return Objects.hash(name, accountNo);
+        if (symbol != null) {
+            generator.write("symbol", symbol);
         }
+        generator.write("units", units);
+        generator.writeEnd();
+    }
+
+    @Override
+    public void writeMetrics(MetricsWriter writer) {
+        writer.gauge("exchange_purchases_pending", pendingPurchases.get());
     }
 
 }
@@ -21,17 +21,25 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.ObservesAsync;
+import javax.inject.Inject;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.sse.Sse;
-import javax.ws.rs.sse.SseBroadcaster;
 import javax.ws.rs.sse.SseEventSink;
 
+import org.jboss.cryptotrader.sse.EncodedEvent;
+import org.jboss.cryptotrader.sse.ReplayingBroadcaster;
+
 /**
  * Endpoint that publishes bitcoin news using server sent events
+ * <p>
+ * Clients that reconnect with a Last-Event-ID are sent the news they missed, the number of news items kept for
+ * this is set with {@code cryptotrader.sse.replay-size}.
  */
 @Path("/bitcoin/news")
 @ApplicationScoped
@@ -40,11 +48,14 @@ public class BitcoinNewsEndpoint {
     @Context
     private Sse sse;
 
-    private SseBroadcaster broadcaster;
+    private ReplayingBroadcaster broadcaster;
+
+    @Inject
+    private NewsMetrics metrics;
 
     @PostConstruct
     private void setup() {
-        broadcaster = sse.newBroadcaster();
+        broadcaster = new ReplayingBroadcaster(sse, Integer.getInteger("cryptotrader.sse.replay-size", 1024), false);
     }
 
     @PreDestroy
@@ -58,13 +69,13 @@ public class BitcoinNewsEndpoint {
      * @param news the news event
      */
     public void news(@ObservesAsync @BitcoinNews String news) {
-        broadcaster.broadcast(sse.newEvent(news));
+        metrics.track(broadcaster.broadcast(null, EncodedEvent.of(news)));
     }
 
     @Produces(MediaType.SERVER_SENT_EVENTS)
     @GET
-    public void watch(@Context SseEventSink sink) {
-        broadcaster.register(sink);
+    public void watch(@Context SseEventSink sink, @HeaderParam(HttpHeaders.LAST_EVENT_ID_HEADER) String lastEventId) {
+        broadcaster.register(sink, lastEventId);
     }
 
 }
@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.math.BigDecimal;
+
+import javax.json.bind.annotation.JsonbAnnotation;
+
+/**
+ * A class that is mapped to an order book request and response using JSONB.
+ * <p>
+ * As with {@link BitcoinTradeData} positive units are a buy and negative units are a sell. If no limit price
+ * is specified the order is a market order.
+ */
+@JsonbAnnotation
+public class BitcoinOrderData {
+
+    public static final String RESTING = "RESTING";
+    public static final String FILLED = "FILLED";
+    public static final String CANCELLED = "CANCELLED";
+
+    private String name;
+    private String bankAccountNo;
+    private BigDecimal units;
+    private BigDecimal limitPrice;
+    private Long orderId;
+    private BigDecimal filled;
+    private String status;
+
+    public BitcoinOrderData() {
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getBankAccountNo() {
+        return bankAccountNo;
+    }
+
+    public void setBankAccountNo(String bankAccountNo) {
+        this.bankAccountNo = bankAccountNo;
+    }
+
+    public BigDecimal getUnits() {
+        return units;
+    }
+
+    public void setUnits(BigDecimal units) {
+        this.units = units;
+    }
+
+    public BigDecimal getLimitPrice() {
+        return limitPrice;
+    }
+
+    public void setLimitPrice(BigDecimal limitPrice) {
+        this.limitPrice = limitPrice;
+    }
+
+    public Long getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(Long orderId) {
+        this.orderId = orderId;
+    }
+
+    public BigDecimal getFilled() {
+        return filled;
+    }
+
+    public void setFilled(BigDecimal filled) {
+        this.filled = filled;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+}
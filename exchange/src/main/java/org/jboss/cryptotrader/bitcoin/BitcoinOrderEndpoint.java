@@ -0,0 +1,373 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * The order book endpoint, this lets players trade with each other through an {@link OrderBook}.
+ * <p>
+ * Unlike {@link BitcoinExchangeEndpoint}, where the exchange fills every trade at the current price, orders
+ * placed here only execute against orders from other players. There is only an order book for Bitcoin.
+ * <p>
+ * Everything an order could need is reserved up front, so a fill can always be settled. Buyers have the full
+ * value of the order at their limit price taken out of the bank, sellers are paid out of that as the order fills,
+ * and whatever is left is given back to the buyer once the order is filled or cancelled. As every fill is paid out
+ * of the same reservation, the buyer pays exactly what the sellers get however each fill was rounded. Sellers
+ * have their Bitcoin taken out of their holdings, and anything that is not filled is given back when the order is
+ * cancelled.
+ * <p>
+ * The book only works out what each fill moves where, the holdings and the bank are updated once the book lock
+ * has been released. If an order never makes it into the book, whatever was reserved for it is given back.
+ * <p>
+ * Orders go through the same {@link ExchangeTradeAdmission} as trades, and orders for something that is not a bank
+ * account number are turned away before that.
+ */
+@Path("/bitcoin/orders")
+@ApplicationScoped
+public class BitcoinOrderEndpoint {
+
+    private static final Logger log = Logger.getLogger(BitcoinOrderEndpoint.class.getName());
+
+    private static final long MIN_UNITS = FixedPoint.ONE / 10000;
+
+    /**
+     * Market buys need to reserve funds before they are matched, so they are limited to 5% above the current
+     * price.
+     */
+    private static final long MARKET_BUY_COLLAR = FixedPoint.ONE + FixedPoint.ONE / 20;
+
+    private static final int DEPTH_LEVELS = 20;
+
+    /**
+     * The order book. Matching is sequential so all access must be synchronized on the book.
+     */
+    private final OrderBook book = new OrderBook();
+
+    @Inject
+    private HoldingsLedger holdings;
+
+    @Inject
+    private BankService bank;
+
+    @Inject
+    private BitcoinPriceService priceService;
+
+    /**
+     * Money owed to players is paid into the bank in batches
+     */
+    @Inject
+    private BankSettlementQueue settlements;
+
+    @Inject
+    private ExchangeTradeAdmission admission;
+
+    /**
+     * Places an order in the book.
+     *
+     * @param response The async response, this is resumed once the order has been matched
+     * @param order    The order, mapped using JSONB
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void submit(@Suspended AsyncResponse response, BitcoinOrderData order) {
+        if (order.getBankAccountNo() == null || !BitcoinExchangeEndpoint.ACCOUNT_NO.matcher(order.getBankAccountNo()).matches()) {
+            throw new TradeException("Invalid bank account number " + order.getBankAccountNo());
+        }
+        admission.admit(order.getBankAccountNo());
+        try {
+            submit(order, result -> {
+                admission.release();
+                response.resume(result);
+            });
+        } catch (RuntimeException e) {
+            admission.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @param done Called exactly once with the result or the failure, unless this throws first
+     */
+    private void submit(BitcoinOrderData order, Consumer<Object> done) {
+        long units = FixedPoint.fromBigDecimal(order.getUnits());
+        long quantity = Math.abs(units);
+        if (quantity < MIN_UNITS) {
+            throw new TradeException("Cannot trade in increments smaller than 0.0001");
+        }
+        boolean market = order.getLimitPrice() == null;
+        long limit = market ? 0 : FixedPoint.fromBigDecimal(order.getLimitPrice());
+        if (!market && limit <= 0) {
+            throw new TradeException("The limit price must be positive");
+        }
+        UserKey owner = new UserKey(order.getName(), order.getBankAccountNo());
+
+        if (units > 0) {
+            //buyers pay up front at their limit price
+            long price = market ? FixedPoint.multiply(priceService.getFixedPointPrice(), MARKET_BUY_COLLAR) : limit;
+            long reserved = FixedPoint.multiply(price, quantity);
+            bank.withdraw(owner.getName(), owner.getAccountNo(), FixedPoint.toBigDecimal(reserved), null)
+                    .whenComplete((withdrawn, failure) -> {
+                        if (failure != null) {
+                            done.accept(failure);
+                            return;
+                        }
+                        if (!withdrawn) {
+                            done.accept(new TradeException("Unable to get funds from the bank to purchase Bitcoin, check your bank balance"));
+                            return;
+                        }
+                        Object result;
+                        try {
+                            result = place(true, price, quantity, market, new Reservation(owner, reserved, 0));
+                        } catch (RuntimeException e) {
+                            result = e;
+                        }
+                        done.accept(result);
+                    });
+        } else {
+            //sellers have their Bitcoin taken out of their holdings while the order is open
+            try {
+                holdings.debit(owner.getName(), owner.getAccountNo(), BitcoinPriceService.BITCOIN, FixedPoint.toBigDecimal(quantity));
+            } catch (RuntimeException e) {
+                done.accept(e);
+                return;
+            }
+            Object result;
+            try {
+                result = place(false, market ? 1 : limit, quantity, market, new Reservation(owner, 0, quantity));
+            } catch (RuntimeException e) {
+                result = e;
+            }
+            done.accept(result);
+        }
+    }
+
+    /**
+     * Cancels an open order, and gives back whatever was reserved for the unfilled part of it
+     *
+     * @param orderId   The order id
+     * @param name      The client name, this must match the order
+     * @param accountNo The bank account number, this must match the order
+     * @return The cancelled order
+     */
+    @DELETE
+    @Path("/{orderId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public BitcoinOrderData cancel(@PathParam("orderId") long orderId, @QueryParam("name") String name, @QueryParam("bankAccountNo") String accountNo) {
+        UserKey owner = new UserKey(name, accountNo);
+        Runnable refund;
+        BitcoinOrderData ret;
+        synchronized (book) {
+            Order order = book.getOrder(orderId);
+            //we don't let on that the order exists if it belongs to someone else
+            if (order == null || !owner.equals(((Reservation) order.getOwner()).owner)) {
+                throw new TradeException("Order " + orderId + " is not open");
+            }
+            book.cancel(orderId);
+            ret = toData(order, BitcoinOrderData.CANCELLED);
+            refund = release(order);
+        }
+        refund.run();
+        return ret;
+    }
+
+    /**
+     * @return The aggregated depth of the top of the book
+     */
+    @GET
+    @Path("/book")
+    @Produces(MediaType.APPLICATION_JSON)
+    public OrderBookDepth book() {
+        long[] bidPrices = new long[DEPTH_LEVELS];
+        long[] bidUnits = new long[DEPTH_LEVELS];
+        long[] askPrices = new long[DEPTH_LEVELS];
+        long[] askUnits = new long[DEPTH_LEVELS];
+        int bids;
+        int asks;
+        synchronized (book) {
+            bids = book.depth(true, bidPrices, bidUnits);
+            asks = book.depth(false, askPrices, askUnits);
+        }
+        OrderBookDepth ret = new OrderBookDepth();
+        for (int i = 0; i < bids; ++i) {
+            ret.getBids().add(new OrderBookDepth.Level(FixedPoint.toBigDecimal(bidPrices[i]), FixedPoint.toBigDecimal(bidUnits[i])));
+        }
+        for (int i = 0; i < asks; ++i) {
+            ret.getAsks().add(new OrderBookDepth.Level(FixedPoint.toBigDecimal(askPrices[i]), FixedPoint.toBigDecimal(askUnits[i])));
+        }
+        return ret;
+    }
+
+    /**
+     * Places an order whose funds or Bitcoin have already been reserved. If the order does not make it into the book
+     * the reservation is given back before this throws.
+     */
+    private BitcoinOrderData place(boolean buy, long price, long quantity, boolean immediateOrCancel, Reservation reservation) {
+        List<Runnable> transfers = new ArrayList<>();
+        BitcoinOrderData ret = null;
+        RuntimeException failure = null;
+        synchronized (book) {
+            try {
+                Order order = book.submit(buy, price, quantity, immediateOrCancel, reservation,
+                        (maker, taker, fillPrice, fillQuantity) -> transfers.add(fill(maker, taker, fillPrice, fillQuantity)));
+                boolean resting = order.isResting();
+                ret = toData(order, resting ? BitcoinOrderData.RESTING : BitcoinOrderData.CANCELLED);
+                if (!resting) {
+                    //market orders never rest in the book, so give back whatever could not be filled
+                    transfers.add(release(order));
+                }
+            } catch (RuntimeException e) {
+                //the order is not in the book, so whatever the fills so far did not use goes back
+                failure = e;
+                transfers.add(giveBack(reservation));
+            }
+        }
+        //the fills have happened in the book, so every transfer must be attempted even if one of them fails
+        for (Runnable transfer : transfers) {
+            try {
+                transfer.run();
+            } catch (RuntimeException e) {
+                log.log(Level.SEVERE, "Failed to settle an order book transfer for " + reservation.owner.getName(), e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return ret;
+    }
+
+    /**
+     * Works out what a fill moves where, this is called by the book while the book lock is held
+     *
+     * @return The transfers to make once the lock has been released
+     */
+    private Runnable fill(Order maker, Order taker, long price, long quantity) {
+        Order buyer = maker.isBuy() ? maker : taker;
+        Order seller = maker.isBuy() ? taker : maker;
+        Reservation reservation = (Reservation) buyer.getOwner();
+        UserKey buyerKey = reservation.owner;
+        Reservation sellerReservation = (Reservation) seller.getOwner();
+        UserKey sellerKey = sellerReservation.owner;
+        sellerReservation.units -= quantity;
+
+        //fills are at or below the limit price, so only rounding can take them past what is left in reserve
+        long paid = Math.min(FixedPoint.multiply(price, quantity), reservation.funds);
+        reservation.funds -= paid;
+        //if the buyer got a better price they get the difference back once the order is filled
+        long refund = buyer.getRemaining() == 0 ? reservation.takeFunds() : 0;
+        return () -> {
+            holdings.credit(buyerKey.getName(), buyerKey.getAccountNo(), BitcoinPriceService.BITCOIN, FixedPoint.toBigDecimal(quantity));
+            deposit(sellerKey, paid);
+            deposit(buyerKey, refund);
+        };
+    }
+
+    /**
+     * Works out how to give back the reservation for the unfilled part of an order that is no longer in the book,
+     * this must be called while the book lock is held
+     *
+     * @return The transfer to make once the lock has been released
+     */
+    private Runnable release(Order order) {
+        return giveBack((Reservation) order.getOwner());
+    }
+
+    /**
+     * Works out how to give back everything that is still reserved, this must be called while the book lock is held
+     *
+     * @return The transfer to make once the lock has been released
+     */
+    private Runnable giveBack(Reservation reservation) {
+        UserKey owner = reservation.owner;
+        long refund = reservation.takeFunds();
+        long remaining = reservation.takeUnits();
+        return () -> {
+            deposit(owner, refund);
+            if (remaining > 0) {
+                holdings.credit(owner.getName(), owner.getAccountNo(), BitcoinPriceService.BITCOIN, FixedPoint.toBigDecimal(remaining));
+            }
+        };
+    }
+
+    private void deposit(UserKey owner, long amount) {
+        if (amount > 0) {
+            settlements.add(owner.getName(), owner.getAccountNo(), FixedPoint.toBigDecimal(amount));
+        }
+    }
+
+    private static BitcoinOrderData toData(Order order, String openStatus) {
+        UserKey owner = ((Reservation) order.getOwner()).owner;
+        BitcoinOrderData ret = new BitcoinOrderData();
+        ret.setName(owner.getName());
+        ret.setBankAccountNo(owner.getAccountNo());
+        ret.setOrderId(order.getId());
+        ret.setUnits(FixedPoint.toBigDecimal(order.isBuy() ? order.getQuantity() : -order.getQuantity()));
+        ret.setLimitPrice(FixedPoint.toBigDecimal(order.getPrice()));
+        ret.setFilled(FixedPoint.toBigDecimal(order.getFilled()));
+        ret.setStatus(order.getRemaining() == 0 ? BitcoinOrderData.FILLED : openStatus);
+        return ret;
+    }
+
+    /**
+     * The owner of an order in the book, and for a buy order the money it has left in reserve, or for a sell order
+     * the Bitcoin. Guarded by the book lock.
+     */
+    private static final class Reservation {
+
+        final UserKey owner;
+        long funds;
+        long units;
+
+        Reservation(UserKey owner, long funds, long units) {
+            this.owner = owner;
+            this.funds = funds;
+            this.units = units;
+        }
+
+        long takeFunds() {
+            long ret = funds;
+            funds = 0;
+            return ret;
+        }
+
+        long takeUnits() {
+            long ret = units;
+            units = 0;
+            return ret;
+        }
+    }
+}
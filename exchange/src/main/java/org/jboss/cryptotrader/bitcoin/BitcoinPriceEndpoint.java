@@ -18,22 +18,23 @@
 package org.jboss.cryptotrader.bitcoin;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.util.List;
 
-import javax.annotation.PostConstruct;
-import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.ObservesAsync;
 import javax.inject.Inject;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.sse.Sse;
-import javax.ws.rs.sse.SseBroadcaster;
 import javax.ws.rs.sse.SseEventSink;
 
+import org.jboss.cryptotrader.sse.EncodedEvent;
+
 /**
  * Endpoint that can be used to get bitcoin price
  */
@@ -44,21 +45,12 @@ public class BitcoinPriceEndpoint {
     @Inject
     private BitcoinPriceService priceService;
 
+    @Inject
+    private PriceFeeds feeds;
+
     @Context
     private Sse sse;
 
-    private SseBroadcaster broadcaster;
-
-    @PostConstruct
-    private void setup() {
-        broadcaster = sse.newBroadcaster();
-    }
-
-    @PreDestroy
-    private void tearDown() {
-        broadcaster.close();
-    }
-
     @Produces(MediaType.TEXT_PLAIN)
     @Path("/")
     @GET
@@ -66,19 +58,84 @@ public class BitcoinPriceEndpoint {
         return priceService.getPrice();
     }
 
+    /**
+     * Returns OHLC candles for the recent price history
+     *
+     * @param interval The candle interval, one of 1s, 1m or 5m
+     * @param limit    The maximum number of candles to return
+     * @return The most recent candles, oldest first
+     */
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/candles")
+    @GET
+    public List<PriceCandle> candles(@QueryParam("interval") @DefaultValue("1m") String interval, @QueryParam("limit") @DefaultValue("60") int limit) {
+        return candles(priceService.getHistory(), interval, limit);
+    }
+
+    /**
+     * Returns the raw price ticks
+     *
+     * @param limit The maximum number of ticks to return
+     * @return The most recent ticks, oldest first
+     */
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/history")
+    @GET
+    public List<PriceTick> history(@QueryParam("limit") @DefaultValue("60") int limit) {
+        return ticks(priceService.getHistory(), limit);
+    }
+
+    /**
+     * Validates a candle query and runs it against the given history
+     */
+    static List<PriceCandle> candles(PriceHistory history, String interval, int limit) {
+        PriceHistory.Interval candleInterval = PriceHistory.Interval.forLabel(interval);
+        if (candleInterval == null) {
+            throw new TradeException("Unknown candle interval " + interval + ", use 1s, 1m or 5m");
+        }
+        if (limit <= 0) {
+            throw new TradeException("The limit must be positive");
+        }
+        return history.candles(candleInterval, limit);
+    }
+
+    /**
+     * Validates a tick query and runs it against the given history
+     */
+    static List<PriceTick> ticks(PriceHistory history, int limit) {
+        if (limit <= 0) {
+            throw new TradeException("The limit must be positive");
+        }
+        return history.ticks(limit);
+    }
+
     /**
      * Observer for the price changed event
      * @param price The new price
      */
     public void priceChange(@ObservesAsync @BitcoinPriceChange BigDecimal price) {
-        broadcaster.broadcast(sse.newEvent(price.setScale(10, RoundingMode.HALF_DOWN).toString()));
+        //the price already has a fixed scale, so there is no need to round it again
+        //the price is encoded once, and the same event is shared by every watcher
+        feeds.getBitcoinFeed().publish(EncodedEvent.of(price.toPlainString()).toOutboundEvent(sse, null));
     }
 
     @Produces(MediaType.SERVER_SENT_EVENTS)
     @Path("/watch")
     @GET
     public void watch(@Context SseEventSink sink) {
-        broadcaster.register(sink);
+        feeds.getBitcoinFeed().register(sink);
+    }
+
+    /**
+     * Returns the state of every price watcher, so slow consumers can be found
+     *
+     * @return The watchers
+     */
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/watchers")
+    @GET
+    public List<PriceWatcherData> watchers() {
+        return feeds.getBitcoinFeed().watchers();
     }
 
 }
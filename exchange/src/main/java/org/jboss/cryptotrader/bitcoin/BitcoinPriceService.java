@@ -17,120 +17,383 @@
 
 package org.jboss.cryptotrader.bitcoin;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
 
 /**
- * An application scoped bean that manages the bitcoin price
+ * An application scoped bean that manages the price of every instrument on the exchange
  *
- * In general the price will trend in a certain direction for a random period
- * of time, then pick a new trend direction. Moderate trends are more likely
- * than extreme events.
+ * Each {@link Instrument} has its own {@link PriceModel}, which works entirely in
+ * {@link FixedPoint} longs so that ticking the market does not allocate. The price
+ * is only converted to a {@link BigDecimal} at the API edge, when it is published
+ * or requested.
  *
- * At some time after a trend has started a news event may be created to give
- * the player an idea of the direction of the current trend.
+ * The instruments are set with the {@code cryptotrader.instruments} system property, a comma
+ * separated list of {@code SYMBOL} or {@code SYMBOL:Name} entries. Bitcoin is always listed.
+ * All instruments are ticked in a single pass, and if there are enough of them the pass is
+ * split over all cores.
+ *
+ * Time is simulated, every pass advances the market clock by one second no matter how often
+ * {@link BitcoinPriceTicker} actually runs it. Together with {@code cryptotrader.market.seed}
+ * this makes a run completely reproducible. The ticks can be recorded to a {@link TickFile} with
+ * {@code cryptotrader.market.record}, and a recording can be played back instead of running the
+ * models with {@code cryptotrader.market.replay}.
  *
  */
 @ApplicationScoped
 public class BitcoinPriceService {
 
+    private static final Logger log = Logger.getLogger(BitcoinPriceService.class.getName());
+
     /**
-     * We don't allow the price to get this high, if we hit 20k there will be a big crash
+     * The symbol of Bitcoin, which is what trades are for if they don't say otherwise
      */
-    private static final BigDecimal CRASH_CEILING = new BigDecimal("20000");
+    public static final String BITCOIN = "BTC";
 
     /**
-     * Our price generator
+     * The minimum number of instruments that are worth ticking on a separate thread
      */
-    private final Random random = new Random();
+    private static final int MIN_INSTRUMENTS_PER_TASK = 32;
+
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
 
     /**
-     * This is the general trend of the market. If it is positive the market
-     * will trend up, negative it will trend down.
+     * How far the market clock moves on every tick
      */
-    private BigDecimal marketDirection = BigDecimal.ZERO;
+    private static final long TICK_MILLIS = 1000;
 
     /**
-     * The number of 'ticks' that the current market conditions will continue
+     * The number of ticks whose events can be waiting for observers at once. Ticks are only made faster than the
+     * observers can keep up with when the market is sped up, and then the ticker waits rather than letting the
+     * async event queue grow without bound.
      */
-    private int ticksTillConditionsChange = 5;
+    private static final int MAX_TICKS_IN_FLIGHT = Integer.getInteger("cryptotrader.market.max-ticks-in-flight", 4);
+
+    //these are all set up once in setup(), and never change after that
+    private Map<String, Instrument> instruments;
+    private Instrument[] allInstruments;
+    private List<Instrument> instrumentList;
+    private Instrument bitcoin;
 
     /**
-     * The current price
+     * The news from the current tick, indexed the same as the instruments. Only accessed by the ticker.
      */
-    private volatile BigDecimal price = BigDecimal.ONE;
+    private String[] news;
 
     /**
-     * The potential news message for the current trend
+     * The market clock, only accessed by the ticker
      */
-    private String newsMessage;
+    private long time;
+
     /**
-     * The number of ticks before the news message is sent
+     * The recording that is being played back, or null if the models are running
      */
-    private int messageTicks;
+    private TickFile.Reader replay;
+    private long[] replayPrices;
+
+    /**
+     * Where ticks are being recorded to, or null
+     */
+    private TickFile.Writer recorder;
+
+    private volatile boolean finished;
+
+    private final Semaphore ticksInFlight = new Semaphore(MAX_TICKS_IN_FLIGHT);
+
+    @Resource
+    private ManagedExecutorService managedExecutorService;
 
     @Inject
     @BitcoinNews
     private Event<String> newsEvents;
 
+    @Inject
+    private Event<InstrumentNews> instrumentNewsEvents;
+
     @Inject
     @BitcoinPriceChange
     private Event<BigDecimal> priceChangeEvent;
 
-    public synchronized void updatePrice() {
-        if (--ticksTillConditionsChange == 0) {
-            //we generate a number from 0-99, and use that to
-            int direction = random.nextInt(100);
-            if (direction <= 3) {
-                //CRASH
-                marketDirection = BigDecimal.valueOf((random.nextDouble() * -0.1) - 0.02);
-                ticksTillConditionsChange = random.nextInt(10) + 5; //crashs are short and sharp
-                newsMessage = "Bitcoint is experiencing a correction";
-                messageTicks = random.nextInt(5);
-            } else if(direction <= 10) {
-                //RUSH
-                marketDirection = BigDecimal.valueOf((random.nextDouble() * 0.1) + 0.01);
-                ticksTillConditionsChange = random.nextInt(20) + 5;
-                newsMessage = "The price of bitcoin is skyrocketing, everyone is buying in";
-                messageTicks = random.nextInt(15);
-            } else if(direction <= 40) {
-                //BEAR MARKET
-                marketDirection = BigDecimal.valueOf((random.nextDouble() * -0.03));
-                ticksTillConditionsChange = random.nextInt(20) + 15;
-                newsMessage = "Bitcoin seems to be experiencing a bear market at the moment";
-                messageTicks = random.nextInt(15) + 5;
-            } else {
-                //BULL MARKET
-                marketDirection = BigDecimal.valueOf(random.nextDouble() * 0.05);
-                ticksTillConditionsChange = random.nextInt(20) + 15;
-                newsMessage = "Bitcoin seems to be experiencing a bull market at the moment";
-                messageTicks = random.nextInt(15) + 5;
+    @Inject
+    private Event<MarketTick> marketTickEvent;
+
+    @PostConstruct
+    private void setup() {
+        String replayFile = System.getProperty("cryptotrader.market.replay");
+        List<String[]> symbols;
+        if (replayFile != null) {
+            try {
+                replay = new TickFile.Reader(Paths.get(replayFile));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open tick recording " + replayFile, e);
             }
-        } else if(price.compareTo(CRASH_CEILING) > 0) {
-            //if the price gets too high there will be a big crash
-            marketDirection = BigDecimal.valueOf((random.nextDouble() * -0.1) - 0.1);
-            ticksTillConditionsChange = random.nextInt(10) + 10;
-            newsMessage = "Bitcoin is crashing hard";
-            messageTicks = random.nextInt(5) + 2;
-        }
-        if(newsMessage != null) {
-            if(--messageTicks == 0) {
+            symbols = replay.getInstruments();
+            log.info("Replaying " + symbols.size() + " instruments from " + replayFile);
+        } else {
+            symbols = parseInstruments(System.getProperty("cryptotrader.instruments", BITCOIN));
+        }
+        //keep roughly the same amount of history in total, no matter how many instruments there are
+        int historySize = Integer.getInteger("cryptotrader.price.history-size", Math.max(1024, 65536 / symbols.size()));
+        //with a seed every instrument gets the same random stream on every run
+        Long seed = Long.getLong("cryptotrader.market.seed");
+        Random seeds = seed == null ? new Random() : new Random(seed);
+        Map<String, Instrument> map = new LinkedHashMap<>();
+        for (String[] s : symbols) {
+            map.put(s[0], new Instrument(s[0], s[1], new Random(seeds.nextLong()), FixedPoint.ONE, historySize));
+        }
+        instruments = Collections.unmodifiableMap(map);
+        allInstruments = map.values().toArray(new Instrument[0]);
+        instrumentList = Collections.unmodifiableList(Arrays.asList(allInstruments));
+        bitcoin = map.get(BITCOIN);
+        if (bitcoin == null) {
+            //the configured instruments always include it, but a recording may not
+            throw new IllegalStateException("Tick recording " + replayFile + " has no " + BITCOIN + " prices, which the exchange needs");
+        }
+        news = new String[allInstruments.length];
+        replayPrices = new long[allInstruments.length];
+        time = Long.getLong("cryptotrader.market.start-time", System.currentTimeMillis() / TICK_MILLIS * TICK_MILLIS);
+
+        String recordFile = System.getProperty("cryptotrader.market.record");
+        if (recordFile != null) {
+            try {
+                recorder = new TickFile.Writer(Paths.get(recordFile), instrumentList);
+                log.info("Recording ticks to " + recordFile);
+            } catch (IOException e) {
+                log.log(Level.SEVERE, "Failed to create tick recording " + recordFile, e);
+            }
+        }
+    }
+
+    @PreDestroy
+    private synchronized void close() {
+        try {
+            if (recorder != null) {
+                recorder.close();
+            }
+            if (replay != null) {
+                replay.close();
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to close tick recording", e);
+        }
+    }
+
+    /**
+     * Ticks every instrument, then publishes the new prices and any news. If the events of too many earlier ticks
+     * are still being observed this waits for them first, without holding the lock, so it never holds up
+     * {@link #close()}.
+     */
+    public void updatePrice() {
+        if (finished) {
+            return;
+        }
+        try {
+            ticksInFlight.acquire();
+        } catch (InterruptedException e) {
+            //the ticker is being stopped
+            Thread.currentThread().interrupt();
+            return;
+        }
+        boolean published = false;
+        try {
+            published = publishTick();
+        } finally {
+            if (!published) {
+                ticksInFlight.release();
+            }
+        }
+    }
+
+    /**
+     * Makes and publishes a tick, the caller must hold a permit from ticksInFlight
+     *
+     * @return true if the tick was published, in which case the permit is released once its events have been observed
+     */
+    private synchronized boolean publishTick() {
+        if (finished) {
+            return false;
+        }
+        long now;
+        if (replay != null) {
+            if (!replayNext()) {
+                return false;
+            }
+            now = replay.getTime();
+        } else {
+            time += TICK_MILLIS;
+            now = time;
+            tickModels(now);
+        }
+        for (int i = 0; i < allInstruments.length; ++i) {
+            news[i] = allInstruments[i].takeNews();
+            if (news[i] != null) {
                 //send out a message that gives the player a hint as to the current direction
-                newsEvents.fireAsync(newsMessage);
-                newsMessage = null;
+                publishNews(allInstruments[i], news[i]);
+            }
+        }
+        if (recorder != null) {
+            try {
+                recorder.write(now, instrumentList, news);
+            } catch (IOException e) {
+                log.log(Level.SEVERE, "Failed to record tick, recording stopped", e);
+                recorder = null;
             }
         }
+        CompletionStage<MarketTick> tick = marketTickEvent.fireAsync(new MarketTick(now, instrumentList));
+        CompletionStage<BigDecimal> priceChange = priceChangeEvent.fireAsync(bitcoin.getPrice()); //notify the world of the new price
+        //a failed observer still counts as done
+        CompletableFuture.allOf(tick.toCompletableFuture(), priceChange.toCompletableFuture())
+                .whenComplete((ignored, failure) -> ticksInFlight.release());
+        return true;
+    }
+
+    /**
+     * @return true once a replay has run out of ticks
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    private boolean replayNext() {
+        try {
+            if (replay.next(replayPrices, news)) {
+                for (int i = 0; i < allInstruments.length; ++i) {
+                    allInstruments[i].replay(replay.getTime(), replayPrices[i], news[i]);
+                }
+                return true;
+            }
+        } catch (IOException e) {
+            log.log(Level.SEVERE, "Failed to read tick recording", e);
+        }
+        log.info("Tick replay finished");
+        finished = true;
+        return false;
+    }
+
+    private void tickModels(long now) {
+        int tasks = Math.min(PARALLELISM, allInstruments.length / MIN_INSTRUMENTS_PER_TASK);
+        if (tasks <= 1) {
+            tick(0, allInstruments.length, now);
+        } else {
+            //the first chunk runs on this thread, the rest on the managed executor
+            int chunk = (allInstruments.length + tasks - 1) / tasks;
+            List<Future<?>> futures = new ArrayList<>(tasks - 1);
+            for (int start = chunk; start < allInstruments.length; start += chunk) {
+                int from = start;
+                int to = Math.min(start + chunk, allInstruments.length);
+                futures.add(managedExecutorService.submit(() -> tick(from, to, now)));
+            }
+            tick(0, chunk, now);
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    log.log(Level.SEVERE, "Failed to tick instruments", e.getCause());
+                }
+            }
+        }
+    }
 
-        double change = random.nextDouble() * 0.02 - 0.01; //the random part of the price change
-        price = price.add(price.multiply(marketDirection.add(BigDecimal.valueOf(change)))); //calculate a new price
-        priceChangeEvent.fireAsync(price); //notify the world of the new price
+    private void tick(int from, int to, long now) {
+        for (int i = from; i < to; ++i) {
+            allInstruments[i].tick(now);
+        }
+    }
+
+    /**
+     * Publishes news about an instrument. Bitcoin news also goes to the original Bitcoin news stream.
+     *
+     * @param instrument The instrument
+     * @param message    The news
+     */
+    public void publishNews(Instrument instrument, String message) {
+        instrumentNewsEvents.fireAsync(new InstrumentNews(instrument.getSymbol(), message));
+        if (instrument == bitcoin) {
+            newsEvents.fireAsync(message);
+        }
+    }
+
+    /**
+     * @param symbol The instrument symbol, this is not case sensitive
+     * @return The instrument, or null if there is no such instrument
+     */
+    public Instrument getInstrument(String symbol) {
+        return symbol == null ? null : instruments.get(symbol.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * @return Every instrument, in the order they were configured
+     */
+    public List<Instrument> getInstruments() {
+        return instrumentList;
     }
 
     public BigDecimal getPrice() {
-        return price;
+        return bitcoin.getPrice();
+    }
+
+    /**
+     * @return The current Bitcoin price as a {@link FixedPoint} value
+     */
+    public long getFixedPointPrice() {
+        return bitcoin.getFixedPointPrice();
+    }
+
+    /**
+     * @return The Bitcoin price history
+     */
+    public PriceHistory getHistory() {
+        return bitcoin.getHistory();
+    }
+
+    /**
+     * Parses the instrument list, Bitcoin is always included and comes first
+     *
+     * @return The symbol and name of each instrument
+     */
+    static List<String[]> parseInstruments(String config) {
+        Map<String, String[]> ret = new LinkedHashMap<>();
+        ret.put(BITCOIN, new String[]{BITCOIN, "Bitcoin"});
+        for (String entry : config.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int sep = entry.indexOf(':');
+            String symbol = (sep == -1 ? entry : entry.substring(0, sep)).trim().toUpperCase(Locale.ENGLISH);
+            String name = sep == -1 ? symbol : entry.substring(sep + 1).trim();
+            if (!symbol.equals(BITCOIN)) {
+                ret.put(symbol, new String[]{symbol, name});
+            }
+        }
+        return new ArrayList<>(ret.values());
     }
 }
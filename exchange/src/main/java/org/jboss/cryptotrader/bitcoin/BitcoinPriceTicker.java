@@ -17,7 +17,7 @@
 
 package org.jboss.cryptotrader.bitcoin;
 
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
@@ -30,11 +30,18 @@ import javax.inject.Inject;
 
 /**
  * A singleton startup bean that drives the price changes
+ * <p>
+ * By default the market ticks once a second. {@code cryptotrader.market.speed} runs it faster, e.g. a speed of 60
+ * gives a minute of market time every second. A speed of 0 runs ticks back to back, as fast as the CPU allows. Either way
+ * {@link BitcoinPriceService#updatePrice()} only lets a few ticks wait for their observers at once, so a sped up
+ * market runs at the pace of the observers rather than queueing events without bound.
  */
 @Singleton
 @Startup
 public class BitcoinPriceTicker {
 
+    private static final double SPEED = Double.parseDouble(System.getProperty("cryptotrader.market.speed", "1"));
+
     /**
      * We will update the price every second, using an EE concurrent
      * scheduled executor.
@@ -45,13 +52,23 @@ public class BitcoinPriceTicker {
     @Inject
     private BitcoinPriceService service;
 
-    private ScheduledFuture<?> handle;
+    private Future<?> handle;
 
     @PostConstruct
     private void setup() {
+        if (SPEED <= 0) {
+            //flat out, this runs until the bean is stopped or a replay runs out
+            handle = priceTicker.submit(() -> {
+                while (!Thread.currentThread().isInterrupted() && !service.isFinished()) {
+                    service.updatePrice();
+                }
+            });
+            return;
+        }
+        long periodMicros = Math.max(1, (long) (TimeUnit.SECONDS.toMicros(1) / SPEED));
         handle = priceTicker.scheduleAtFixedRate(() -> {
            service.updatePrice();
-        }, 1, 1, TimeUnit.SECONDS);
+        }, periodMicros, periodMicros, TimeUnit.MICROSECONDS);
     }
 
     @PreDestroy
@@ -23,17 +23,28 @@ import javax.json.bind.annotation.JsonbAnnotation;
 
 /**
  * A class that is mapped to a trade request using JSONB
+ * <p>
+ * Trades that do not specify a symbol are for Bitcoin. A trade can carry a client order id, which makes it safe to
+ * submit more than once, the exchange only executes the first and returns the same result for the rest. The id
+ * is echoed back in the result.
  */
 @JsonbAnnotation
 public class BitcoinTradeData {
 
     private String name;
     private String bankAccountNo;
+    private String symbol;
     private BigDecimal units;
+    private String clientOrderId;
 
     public BitcoinTradeData(String name, String bankAccountNo, BigDecimal units) {
+        this(name, bankAccountNo, BitcoinPriceService.BITCOIN, units);
+    }
+
+    public BitcoinTradeData(String name, String bankAccountNo, String symbol, BigDecimal units) {
         this.name = name;
         this.bankAccountNo = bankAccountNo;
+        this.symbol = symbol;
         this.units = units;
     }
 
@@ -56,6 +67,14 @@ public class BitcoinTradeData {
         this.bankAccountNo = bankAccountNo;
     }
 
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public void setSymbol(String symbol) {
+        this.symbol = symbol;
+    }
+
     public BigDecimal getUnits() {
         return units;
     }
@@ -63,4 +82,12 @@ public class BitcoinTradeData {
     public void setUnits(BigDecimal units) {
         this.units = units;
     }
+
+    public String getClientOrderId() {
+        return clientOrderId;
+    }
+
+    public void setClientOrderId(String clientOrderId) {
+        this.clientOrderId = clientOrderId;
+    }
 }
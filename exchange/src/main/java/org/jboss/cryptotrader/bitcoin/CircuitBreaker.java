@@ -0,0 +1,104 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A simple lock free circuit breaker.
+ * <p>
+ * The breaker starts closed. After a number of consecutive failures it opens, and all calls are rejected without
+ * being attempted. Once the open period has elapsed a single trial call is let through (half open), if it succeeds
+ * the breaker closes again, otherwise it goes back to open.
+ */
+public class CircuitBreaker {
+
+    public static final int CLOSED = 0;
+    public static final int OPEN = 1;
+    public static final int HALF_OPEN = 2;
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private final AtomicInteger state = new AtomicInteger(CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openedAt = new AtomicLong();
+    private final AtomicLong timesOpened = new AtomicLong();
+
+    /**
+     * @param failureThreshold The number of consecutive failures that will open the breaker
+     * @param openMillis       How long the breaker stays open before a trial call is allowed
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return true if a call should be attempted, in which case the caller must report the outcome with
+     * {@link #onSuccess()} or {@link #onFailure()}, or {@link #onIgnored()} if the call was not made after all
+     */
+    public boolean allowRequest() {
+        int current = state.get();
+        if (current == CLOSED) {
+            return true;
+        }
+        if (current == OPEN && System.currentTimeMillis() - openedAt.get() >= openMillis) {
+            //only one caller gets to make the trial call
+            return state.compareAndSet(OPEN, HALF_OPEN);
+        }
+        return false;
+    }
+
+    public void onSuccess() {
+        consecutiveFailures.set(0);
+        state.set(CLOSED);
+    }
+
+    /**
+     * Called when a call that was allowed was never made, so there is no outcome to report. If it was the trial call
+     * the breaker goes back to open, and as the open period is already over the next call becomes the trial.
+     */
+    public void onIgnored() {
+        state.compareAndSet(HALF_OPEN, OPEN);
+    }
+
+    public void onFailure() {
+        if (state.get() == HALF_OPEN || consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            openedAt.set(System.currentTimeMillis());
+            if (state.getAndSet(OPEN) != OPEN) {
+                timesOpened.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return The current state, one of {@link #CLOSED}, {@link #OPEN} or {@link #HALF_OPEN}
+     */
+    public int getState() {
+        return state.get();
+    }
+
+    /**
+     * @return The number of times the breaker has tripped
+     */
+    public long getTimesOpened() {
+        return timesOpened.get();
+    }
+}
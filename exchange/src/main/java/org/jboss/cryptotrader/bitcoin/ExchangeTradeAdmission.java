@@ -0,0 +1,43 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.jboss.cryptotrader.throttle.TradeAdmission;
+
+/**
+ * Decides whether a trade is let in, so one client can't use up the exchange at the expense of everyone else.
+ * <p>
+ * Each account has a token bucket, set with {@code cryptotrader.exchange.trade.rate} (trades per second) and
+ * {@code cryptotrader.exchange.trade.burst}. There is also a limit on the number of trades in progress across all
+ * accounts, {@code cryptotrader.exchange.trade.max-concurrent}, which includes purchases that are waiting to go
+ * through.
+ */
+@ApplicationScoped
+public class ExchangeTradeAdmission extends TradeAdmission {
+
+    private static final double RATE = Double.parseDouble(System.getProperty("cryptotrader.exchange.trade.rate", "20"));
+    private static final int BURST = Integer.getInteger("cryptotrader.exchange.trade.burst", 40);
+    private static final int MAX_CONCURRENT = Integer.getInteger("cryptotrader.exchange.trade.max-concurrent", 20000);
+    private static final int MAX_BUCKETS = Integer.getInteger("cryptotrader.exchange.trade.max-buckets", 100000);
+
+    public ExchangeTradeAdmission() {
+        super("exchange", RATE, BURST, MAX_CONCURRENT, MAX_BUCKETS);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Helpers for fixed point arithmetic on scaled longs.
+ * <p>
+ * A value is stored as a long holding the number of 10^-8 units, so 1.5 is stored as 150000000. This gives
+ * exact addition and subtraction, and a range of roughly +/- 92 billion.
+ * <p>
+ * The rounding policy is HALF_EVEN (bankers rounding) everywhere a result does not fit in 8 decimal places, which
+ * matches {@link java.math.RoundingMode#HALF_EVEN}. Multiplication is computed exactly and then rounded once, so
+ * {@code multiply(a, b)} always equals {@code toBigDecimal(a).multiply(toBigDecimal(b)).setScale(8, HALF_EVEN)}.
+ * <p>
+ * None of the arithmetic methods allocate.
+ */
+public final class FixedPoint {
+
+    /**
+     * The number of decimal places
+     */
+    public static final int SCALE = 8;
+
+    /**
+     * The representation of 1
+     */
+    public static final long ONE = 100_000_000L;
+
+    private static final long HALF = ONE / 2;
+
+    private FixedPoint() {
+    }
+
+    /**
+     * Converts a whole number to fixed point
+     */
+    public static long of(long value) {
+        return Math.multiplyExact(value, ONE);
+    }
+
+    /**
+     * Converts a double to fixed point, rounding HALF_EVEN to the nearest 10^-8.
+     * <p>
+     * This is intended for the output of a random number generator, the double itself is already an approximation.
+     */
+    public static long fromDouble(double value) {
+        return (long) Math.rint(value * ONE);
+    }
+
+    /**
+     * Converts a BigDecimal to fixed point, rounding HALF_EVEN
+     *
+     * @throws ArithmeticException if the value is out of range
+     */
+    public static long fromBigDecimal(BigDecimal value) {
+        return value.setScale(SCALE, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Converts a fixed point value to a BigDecimal with a scale of 8. This is the only method that allocates, and
+     * is intended to be used at the API edge.
+     */
+    public static BigDecimal toBigDecimal(long value) {
+        return BigDecimal.valueOf(value, SCALE);
+    }
+
+    /**
+     * Multiplies two fixed point values, rounding the exact result HALF_EVEN.
+     * <p>
+     * Both values are split into their whole and fractional parts, so the only intermediate product that is not
+     * already at the right scale is fraction * fraction, which always fits in a long. This means the multiplication
+     * works for any two values whose product is in range.
+     *
+     * @throws ArithmeticException if the result overflows
+     */
+    public static long multiply(long a, long b) {
+        long aWhole = a / ONE;
+        long aFraction = a % ONE;
+        long bWhole = b / ONE;
+        long bFraction = b % ONE;
+        long fraction = aFraction * bFraction; //both less than 10^8, so this can't overflow
+        long result = Math.multiplyExact(Math.multiplyExact(aWhole, bWhole), ONE);
+        result = Math.addExact(result, Math.multiplyExact(aWhole, bFraction));
+        result = Math.addExact(result, Math.multiplyExact(aFraction, bWhole));
+        result = Math.addExact(result, fraction / ONE);
+        //all the partial products have the same sign, so result is the exact value truncated towards zero
+        //and the remainder tells us how to round it
+        long remainder = Math.abs(fraction % ONE);
+        if (remainder > HALF || (remainder == HALF && (result & 1) != 0)) {
+            result += Long.signum(fraction);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.util.List;
+
+import javax.json.bind.annotation.JsonbAnnotation;
+
+/**
+ * The holdings that have changed since a given version, mapped to JSON using JSONB.
+ * <p>
+ * If the changes are no longer available this is a full snapshot instead, and the receiver must replace
+ * everything it has with the holdings it contains.
+ */
+@JsonbAnnotation
+public class HoldingsDelta {
+
+    /**
+     * The version the receiver is up to once it has applied this, which is what it should ask for changes since
+     * next time
+     */
+    private long version;
+    /**
+     * true if this is a full snapshot rather than a set of changes
+     */
+    private boolean full;
+    /**
+     * The latest holdings of everything that changed
+     */
+    private List<BitcoinTradeData> holdings;
+
+    public HoldingsDelta(long version, boolean full, List<BitcoinTradeData> holdings) {
+        this.version = version;
+        this.full = full;
+        this.holdings = holdings;
+    }
+
+    public HoldingsDelta() {
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public void setFull(boolean full) {
+        this.full = full;
+    }
+
+    public List<BitcoinTradeData> getHoldings() {
+        return holdings;
+    }
+
+    public void setHoldings(List<BitcoinTradeData> holdings) {
+        this.holdings = holdings;
+    }
+}
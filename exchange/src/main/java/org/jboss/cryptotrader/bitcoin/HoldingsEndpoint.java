@@ -0,0 +1,48 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Endpoint that lets the holdings of every player be mirrored by polling for changes.
+ * <p>
+ * The first poll has no version, and gets a full snapshot. After that the version of the previous response is
+ * passed as since, and only the holdings that changed are returned. If the poller has fallen too far behind a full
+ * snapshot is sent again.
+ */
+@Path("/holdings")
+@ApplicationScoped
+public class HoldingsEndpoint {
+
+    @Inject
+    private HoldingsLedger holdings;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public HoldingsDelta changes(@QueryParam("since") @DefaultValue("-1") long since) {
+        return holdings.changesSince(since);
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.cryptotrader.journal.SegmentedJournal;
+import org.jboss.cryptotrader.journal.SnapshotFile;
+import org.jboss.cryptotrader.journal.SyncMode;
+
+/**
+ * A durable write ahead journal of changes to the {@link HoldingsLedger}.
+ * <p>
+ * Every change is appended to a {@link SegmentedJournal} as a record holding the new holdings of a user. As records
+ * hold absolute values rather than deltas, replaying them is idempotent.
+ * <p>
+ * Periodically a compact snapshot of the whole ledger is written, and any segments that only contain changes that are
+ * already in the snapshot are deleted. On startup the ledger is rebuilt from the snapshot, then every journal record
+ * with a later version is replayed.
+ * <p>
+ * Records are appended while the ledger holds the lock for the holding, but the ledger only waits for them to be on
+ * disk once it has released it, so in {@link SyncMode#GROUP} mode a trade returns once its change is durable without
+ * holding up other trades on the same segment while it waits.
+ */
+public class HoldingsJournal implements HoldingsLedger.Listener, Closeable {
+
+    private static final int JOURNAL_MAGIC = 0x484A524E; //HJRN
+    private static final int SNAPSHOT_MAGIC = 0x48534E50; //HSNP
+
+    private static final String SNAPSHOT = "holdings.snapshot";
+    private static final String JOURNAL_PREFIX = "holdings-";
+
+    private final Path directory;
+    private final SegmentedJournal journal;
+    private volatile long snapshotVersion;
+
+    /**
+     * @param directory   The directory to store the journal and snapshots in
+     * @param syncMode    When records are forced to disk
+     * @param segmentSize The size of each journal segment, in bytes
+     */
+    public HoldingsJournal(Path directory, SyncMode syncMode, int segmentSize) {
+        this.directory = directory;
+        this.journal = new SegmentedJournal(directory, JOURNAL_PREFIX, JOURNAL_MAGIC, syncMode, segmentSize);
+    }
+
+    /**
+     * Rebuilds the ledger from the most recent snapshot and the journal, then opens a new segment for writing.
+     * <p>
+     * This must be called before the journal is registered as a listener on the ledger.
+     *
+     * @param ledger The ledger to restore, this should be empty
+     * @return The number of journal records that were replayed
+     */
+    public synchronized long recover(HoldingsLedger ledger) throws IOException {
+        Files.createDirectories(directory);
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            snapshotVersion = readSnapshot(snapshot, ledger);
+        }
+        long afterVersion = snapshotVersion;
+        long[] replayed = new long[1];
+        List<SegmentedJournal.Segment> segments = new ArrayList<>();
+        for (Long number : journal.listSegments()) {
+            segments.add(journal.replay(number, (version, record) -> {
+                String name = SegmentedJournal.getString(record);
+                String accountNo = SegmentedJournal.getString(record);
+                String symbol = SegmentedJournal.getString(record);
+                int scale = record.getInt();
+                byte[] unscaled = new byte[record.getShort()];
+                record.get(unscaled);
+                if (version > afterVersion) {
+                    ledger.restore(name, accountNo, symbol, new BigDecimal(new BigInteger(unscaled), scale), version);
+                    replayed[0]++;
+                }
+            }));
+        }
+        journal.open(segments);
+        return replayed[0];
+    }
+
+    @Override
+    public long holdingsChanged(long version, String name, String accountNo, String symbol, BigDecimal holdings) {
+        byte[] nameBytes = SegmentedJournal.encode(name);
+        byte[] accountBytes = SegmentedJournal.encode(accountNo);
+        byte[] symbolBytes = SegmentedJournal.encode(symbol);
+        byte[] unscaled = holdings.unscaledValue().toByteArray();
+        if (unscaled.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Holdings of " + holdings.precision() + " digits cannot be journaled");
+        }
+        int size = SegmentedJournal.length(nameBytes) + SegmentedJournal.length(accountBytes) + SegmentedJournal.length(symbolBytes) + 4 + 2 + unscaled.length;
+        return journal.append(version, size, buffer -> {
+            SegmentedJournal.putString(buffer, nameBytes);
+            SegmentedJournal.putString(buffer, accountBytes);
+            SegmentedJournal.putString(buffer, symbolBytes);
+            buffer.putInt(holdings.scale());
+            buffer.putShort((short) unscaled.length);
+            buffer.put(unscaled);
+        });
+    }
+
+    @Override
+    public void awaitDurable(long position) {
+        journal.awaitDurable(position);
+    }
+
+    /**
+     * Forces every record appended since the last flush to disk, see {@link SegmentedJournal#flush()}
+     */
+    public void flush() {
+        journal.flush();
+    }
+
+    /**
+     * Writes a snapshot of the ledger, and deletes any journal segments that are no longer needed.
+     *
+     * @param ledger The ledger
+     * @return false if nothing has changed since the last snapshot, so no snapshot was written
+     */
+    public boolean snapshot(HoldingsLedger ledger) throws IOException {
+        if (ledger.getVersion() == snapshotVersion) {
+            return false;
+        }
+        //start a new segment first, then every closed segment only holds changes that will be in the snapshot
+        List<SegmentedJournal.Segment> closed = journal.roll();
+        HoldingsSnapshot snapshot = ledger.snapshot();
+        SnapshotFile.write(directory.resolve(SNAPSHOT), SNAPSHOT_MAGIC, snapshot.getVersion(), out -> {
+            out.writeInt(snapshot.getHoldings().size());
+            for (BitcoinTradeData data : snapshot.getHoldings()) {
+                SnapshotFile.writeString(out, data.getName());
+                SnapshotFile.writeString(out, data.getBankAccountNo());
+                SnapshotFile.writeString(out, data.getSymbol());
+                out.writeInt(data.getUnits().scale());
+                byte[] unscaled = data.getUnits().unscaledValue().toByteArray();
+                out.writeShort(unscaled.length);
+                out.write(unscaled);
+            }
+        });
+        snapshotVersion = snapshot.getVersion();
+
+        //changes are journaled out of version order, so only a prefix of the segments is known to be covered
+        List<SegmentedJournal.Segment> covered = new ArrayList<>();
+        for (SegmentedJournal.Segment segment : closed) {
+            if (segment.getMaxVersion() > snapshot.getVersion()) {
+                break;
+            }
+            covered.add(segment);
+        }
+        journal.delete(covered);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+
+    public long getRecords() {
+        return journal.getRecords();
+    }
+
+    public long getBytes() {
+        return journal.getBytes();
+    }
+
+    public long getForces() {
+        return journal.getForces();
+    }
+
+    public long getSnapshotVersion() {
+        return snapshotVersion;
+    }
+
+    private static long readSnapshot(Path path, HoldingsLedger ledger) throws IOException {
+        List<BitcoinTradeData> entries = new ArrayList<>();
+        long version = SnapshotFile.read(path, SNAPSHOT_MAGIC, (in, snapshotVersion) -> {
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                String name = SnapshotFile.readString(in);
+                String accountNo = SnapshotFile.readString(in);
+                String symbol = SnapshotFile.readString(in);
+                int scale = in.readInt();
+                byte[] unscaled = new byte[in.readShort()];
+                in.readFully(unscaled);
+                entries.add(new BitcoinTradeData(name, accountNo, symbol, new BigDecimal(new BigInteger(unscaled), scale)));
+            }
+            return snapshotVersion;
+        });
+        //only restore once we know the whole snapshot is valid
+        for (BitcoinTradeData entry : entries) {
+            ledger.restore(entry.getName(), entry.getBankAccountNo(), entry.getSymbol(), entry.getUnits(), version);
+        }
+        return version;
+    }
+}
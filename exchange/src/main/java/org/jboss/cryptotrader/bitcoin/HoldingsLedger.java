@@ -0,0 +1,471 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.jboss.cryptotrader.metrics.LatencyHistogram;
+import org.jboss.cryptotrader.metrics.MetricsSource;
+import org.jboss.cryptotrader.metrics.MetricsWriter;
+
+/**
+ * The ledger of holdings for every player, in every instrument.
+ * <p>
+ * Holdings are split over a number of segments, each of which is a plain map guarded by its own lock. A holding
+ * always hashes to the same segment, so updates to a single holding are atomic, but trades by players in different
+ * segments never contend with each other. There is no global lock on the trade path.
+ * <p>
+ * Taking a snapshot acquires every segment lock (always in the same order), so the result is a consistent
+ * point in time view of all holdings. As that means copying every holding while trading is stopped, listings that
+ * are streamed to a client use {@link #forEach(Visitor)} and {@link #page(UserKey, int)} instead, which take no
+ * locks at all and need no more memory than the entries they hand out. The segment maps are concurrent maps for
+ * their sake, they are still only ever written to while holding the segment lock.
+ * <p>
+ * Every change is given a version number from a single counter. Versions are assigned while the segment lock is
+ * held, so a snapshot contains every change up to and including its version, and none after it. A
+ * {@link Listener} can be registered to be told about every change, e.g. to write it to a journal.
+ * <p>
+ * The most recent changes are also kept in a change log, so {@link #changesSince(long)} can tell a poller what has
+ * changed since it last looked at a cost that depends on how much trading there has been, not how many players
+ * there are. The log is a ring indexed by version, which is written to without any lock other than the segment
+ * lock. The size of the ring is set with {@code cryptotrader.holdings.change-log-size}.
+ */
+@ApplicationScoped
+public class HoldingsLedger implements MetricsSource {
+
+    private final Segment[] segments;
+    private final int mask;
+    private final AtomicLong version = new AtomicLong();
+    private volatile Listener listener;
+
+    /**
+     * The change log, the change with a given version is stored at index version & changeMask
+     */
+    private final AtomicReferenceArray<Change> changes;
+    private final int changeMask;
+    /**
+     * The first version that can be in the change log, changes restored on startup are never logged
+     */
+    private volatile long logStart = 1;
+
+    /**
+     * How long trades wait for, and then hold, a segment lock. The hold time includes notifying the listener.
+     */
+    private final LatencyHistogram lockWait = new LatencyHistogram();
+    private final LatencyHistogram lockHold = new LatencyHistogram();
+
+    public HoldingsLedger() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @param concurrencyLevel The expected number of concurrently trading threads, this is rounded up to a power of two
+     */
+    public HoldingsLedger(int concurrencyLevel) {
+        this(concurrencyLevel, Integer.getInteger("cryptotrader.holdings.change-log-size", 65536));
+    }
+
+    /**
+     * @param concurrencyLevel The expected number of concurrently trading threads, this is rounded up to a power of two
+     * @param changeLogSize    The number of changes to keep, this is rounded up to a power of two
+     */
+    public HoldingsLedger(int concurrencyLevel, int changeLogSize) {
+        int size = powerOfTwo(concurrencyLevel);
+        segments = new Segment[size];
+        for (int i = 0; i < size; ++i) {
+            segments[i] = new Segment();
+        }
+        mask = size - 1;
+        int logSize = powerOfTwo(changeLogSize);
+        changes = new AtomicReferenceArray<>(logSize);
+        changeMask = logSize - 1;
+    }
+
+    private static int powerOfTwo(int min) {
+        int size = 1;
+        while (size < min) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the current holdings of the given user
+     *
+     * @param name      The client name
+     * @param accountNo The bank account number
+     * @param symbol    The instrument symbol
+     * @return The holdings, or zero if the user does not hold any of the instrument
+     */
+    public BigDecimal getHoldings(String name, String accountNo, String symbol) {
+        UserKey key = new UserKey(name, accountNo, symbol);
+        Segment segment = segmentFor(key);
+        segment.lock();
+        try {
+            BigDecimal current = segment.holdings.get(key);
+            return current == null ? BigDecimal.ZERO : current;
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Adds to a users holdings
+     *
+     * @param name      The client name
+     * @param accountNo The bank account number
+     * @param symbol    The instrument symbol
+     * @param units     The number of units purchased, must be positive
+     * @return The new holdings
+     */
+    public BigDecimal credit(String name, String accountNo, String symbol, BigDecimal units) {
+        UserKey key = new UserKey(name, accountNo, symbol);
+        Segment segment = segmentFor(key);
+        Listener listener = this.listener;
+        BigDecimal newHoldings;
+        long position;
+        long start = System.nanoTime();
+        segment.lock();
+        long locked = System.nanoTime();
+        lockWait.record(locked - start);
+        try {
+            BigDecimal current = segment.holdings.get(key);
+            newHoldings = current == null ? units : current.add(units);
+            position = update(listener, segment, key, newHoldings);
+        } finally {
+            lockHold.recordSince(locked);
+            segment.unlock();
+        }
+        if (listener != null) {
+            listener.awaitDurable(position);
+        }
+        return newHoldings;
+    }
+
+    /**
+     * Removes from a users holdings. The holdings are checked and updated atomically, so concurrent sales
+     * by the same user can never take the holdings below zero.
+     *
+     * @param name      The client name
+     * @param accountNo The bank account number
+     * @param symbol    The instrument symbol
+     * @param units     The number of units sold, must be positive
+     * @return The new holdings
+     * @throws TradeException if the user does not hold enough of the instrument
+     */
+    public BigDecimal debit(String name, String accountNo, String symbol, BigDecimal units) {
+        UserKey key = new UserKey(name, accountNo, symbol);
+        Segment segment = segmentFor(key);
+        Listener listener = this.listener;
+        BigDecimal newHoldings;
+        long position;
+        long start = System.nanoTime();
+        segment.lock();
+        long locked = System.nanoTime();
+        lockWait.record(locked - start);
+        try {
+            BigDecimal current = segment.holdings.get(key);
+            if (current == null) {
+                //they don't hold anything
+                throw new TradeException("You don't hold any " + symbol);
+            }
+            newHoldings = current.subtract(units);
+            if (newHoldings.compareTo(BigDecimal.ZERO) < 0) {
+                throw new TradeException("You don't hold enough " + symbol + " to complete the transaction");
+            }
+            position = update(listener, segment, key, newHoldings);
+        } finally {
+            lockHold.recordSince(locked);
+            segment.unlock();
+        }
+        if (listener != null) {
+            listener.awaitDurable(position);
+        }
+        return newHoldings;
+    }
+
+    /**
+     * Sets the holdings of a user without notifying the listener, this is used to restore the ledger on startup
+     *
+     * @param name      The client name
+     * @param accountNo The bank account number
+     * @param symbol    The instrument symbol
+     * @param units     The holdings
+     * @param version   The version of the change that is being restored
+     */
+    public void restore(String name, String accountNo, String symbol, BigDecimal units, long version) {
+        UserKey key = new UserKey(name, accountNo, symbol);
+        Segment segment = segmentFor(key);
+        segment.lock();
+        try {
+            segment.holdings.put(key, units);
+            logStart = this.version.accumulateAndGet(version, Math::max) + 1;
+        } finally {
+            segment.unlock();
+        }
+    }
+
+    /**
+     * Registers a listener that is notified of every change
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return The version of the most recent change
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Returns a consistent snapshot of all holdings.
+     *
+     * @return The holdings of every user, and the version they are current as of
+     */
+    public HoldingsSnapshot snapshot() {
+        int locked = 0;
+        try {
+            int size = 0;
+            for (Segment segment : segments) {
+                segment.lock();
+                locked++;
+                size += segment.holdings.size();
+            }
+            List<BitcoinTradeData> ret = new ArrayList<>(size);
+            for (Segment segment : segments) {
+                for (Map.Entry<UserKey, BigDecimal> e : segment.holdings.entrySet()) {
+                    ret.add(new BitcoinTradeData(e.getKey().getName(), e.getKey().getAccountNo(), e.getKey().getSymbol(), e.getValue()));
+                }
+            }
+            return new HoldingsSnapshot(version.get(), ret);
+        } finally {
+            for (int i = locked - 1; i >= 0; --i) {
+                segments[i].unlock();
+            }
+        }
+    }
+
+    /**
+     * Visits every holding without taking any locks, so a slow visitor (e.g. one writing to a socket) never holds up
+     * trading. This is not a point in time view, holdings that change while it is running may or may not be seen in
+     * their new state, but every holding that existed when it started is visited exactly once.
+     *
+     * @param visitor The visitor
+     */
+    public void forEach(Visitor visitor) {
+        for (Segment segment : segments) {
+            for (Map.Entry<UserKey, BigDecimal> e : segment.holdings.entrySet()) {
+                visitor.visit(e.getKey().getName(), e.getKey().getAccountNo(), e.getKey().getSymbol(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns a page of holdings in key order, without taking any locks.
+     * <p>
+     * Every holding is looked at, but only the best limit are kept, so the memory used depends on the size of the
+     * page and not the number of players. As pages are selected by key rather than position, a holding that is
+     * added while a client is paging through can never cause another to be skipped or returned twice.
+     *
+     * @param after The key of the last holding on the previous page, or null for the first page
+     * @param limit The maximum number of holdings to return
+     * @return The holdings that come after the given key, in key order
+     */
+    List<BitcoinTradeData> page(UserKey after, int limit) {
+        //a max heap, so the head is the entry to drop when a smaller key is found
+        PriorityQueue<Map.Entry<UserKey, BigDecimal>> best = new PriorityQueue<>(limit + 1,
+                Collections.reverseOrder(Map.Entry.comparingByKey(UserKey.ORDER)));
+        for (Segment segment : segments) {
+            for (Map.Entry<UserKey, BigDecimal> e : segment.holdings.entrySet()) {
+                if (after != null && UserKey.ORDER.compare(e.getKey(), after) <= 0) {
+                    continue;
+                }
+                if (best.size() < limit) {
+                    best.add(e);
+                } else if (UserKey.ORDER.compare(e.getKey(), best.peek().getKey()) < 0) {
+                    best.poll();
+                    best.add(e);
+                }
+            }
+        }
+        BitcoinTradeData[] ret = new BitcoinTradeData[best.size()];
+        for (int i = ret.length - 1; i >= 0; --i) {
+            Map.Entry<UserKey, BigDecimal> e = best.poll();
+            ret[i] = new BitcoinTradeData(e.getKey().getName(), e.getKey().getAccountNo(), e.getKey().getSymbol(), e.getValue());
+        }
+        return Arrays.asList(ret);
+    }
+
+    @Override
+    public void writeMetrics(MetricsWriter writer) {
+        writer.summary("exchange_holdings_lock_wait_seconds", lockWait)
+                .summary("exchange_holdings_lock_hold_seconds", lockHold);
+    }
+
+    /**
+     * Must be called while holding the segment lock
+     *
+     * @return What the listener returned, to be passed to {@link Listener#awaitDurable(long)} once the lock is released
+     */
+    private long update(Listener listener, Segment segment, UserKey key, BigDecimal newHoldings) {
+        long newVersion = version.incrementAndGet();
+        long position = 0;
+        if (listener != null) {
+            //the listener is notified first, so if it fails the change is not applied
+            try {
+                position = listener.holdingsChanged(newVersion, key.getName(), key.getAccountNo(), key.getSymbol(), newHoldings);
+            } catch (RuntimeException | Error e) {
+                //the version has been used up, so readers of the log must be told to skip it
+                changes.set((int) newVersion & changeMask, new Change(newVersion, null, null));
+                throw e;
+            }
+        }
+        segment.holdings.put(key, newHoldings);
+        changes.set((int) newVersion & changeMask, new Change(newVersion, key, newHoldings));
+        return position;
+    }
+
+    /**
+     * Returns everything that has changed since the given version.
+     * <p>
+     * If some of the changes are no longer in the log, or the version is not one this ledger knows about (e.g. it is
+     * from before a restart), a full snapshot is returned instead.
+     * <p>
+     * Changes are assigned versions before they are written to the log, so the changes returned stop at the first
+     * one that is still being written. The version of the result is the last change it includes, and anything after
+     * that will be returned by the next call.
+     *
+     * @param since The version the caller is up to, or a negative number for a full snapshot
+     * @return The latest holdings of everything that changed
+     */
+    public HoldingsDelta changesSince(long since) {
+        long current = version.get();
+        long oldest = Math.max(logStart, current - changeMask);
+        if (since < 0 || since > current || since + 1 < oldest) {
+            HoldingsSnapshot snapshot = snapshot();
+            return new HoldingsDelta(snapshot.getVersion(), true, snapshot.getHoldings());
+        }
+        //only the latest change to each holding is returned
+        Map<UserKey, BigDecimal> changed = new LinkedHashMap<>();
+        long upTo = since;
+        for (long v = since + 1; v <= current; ++v) {
+            Change change = changes.get((int) v & changeMask);
+            if (change == null || change.version < v) {
+                //still being written
+                break;
+            } else if (change.version > v) {
+                //the log has wrapped while we were reading it
+                return changesSince(-1);
+            }
+            if (change.key != null) {
+                changed.put(change.key, change.holdings);
+            }
+            upTo = v;
+        }
+        List<BitcoinTradeData> ret = new ArrayList<>(changed.size());
+        for (Map.Entry<UserKey, BigDecimal> e : changed.entrySet()) {
+            ret.add(new BitcoinTradeData(e.getKey().getName(), e.getKey().getAccountNo(), e.getKey().getSymbol(), e.getValue()));
+        }
+        return new HoldingsDelta(upTo, false, ret);
+    }
+
+    private Segment segmentFor(UserKey key) {
+        int h = key.hashCode();
+        return segments[(h ^ (h >>> 16)) & mask];
+    }
+
+    /**
+     * Listener that is notified of every change to the ledger
+     */
+    public interface Listener {
+
+        /**
+         * Called while the lock for the holding is held, so changes to the same holding are always seen in order.
+         * Changes to different holdings may be seen out of version order.
+         *
+         * @param version   The version of the change
+         * @param name      The client name
+         * @param accountNo The bank account number
+         * @param symbol    The instrument symbol
+         * @param holdings  The new holdings
+         * @return A position that is passed to {@link #awaitDurable(long)} once the lock has been released
+         */
+        long holdingsChanged(long version, String name, String accountNo, String symbol, BigDecimal holdings);
+
+        /**
+         * Called after the lock for the holding has been released, and before the trade returns, so a listener can
+         * wait for a change to be durable without holding up other changes to the same segment.
+         *
+         * @param position What {@link #holdingsChanged} returned
+         */
+        default void awaitDurable(long position) {
+        }
+    }
+
+    /**
+     * Visitor that is handed each holding in turn by {@link #forEach(Visitor)}
+     */
+    public interface Visitor {
+
+        /**
+         * @param name      The client name
+         * @param accountNo The bank account number
+         * @param symbol    The instrument symbol
+         * @param holdings  The holdings
+         */
+        void visit(String name, String accountNo, String symbol, BigDecimal holdings);
+    }
+
+    /**
+     * An entry in the change log. A change with no key is a version that was used up by a change that failed.
+     */
+    private static final class Change {
+        final long version;
+        final UserKey key;
+        final BigDecimal holdings;
+
+        Change(long version, UserKey key, BigDecimal holdings) {
+            this.version = version;
+            this.key = key;
+            this.holdings = holdings;
+        }
+    }
+
+    /**
+     * A segment of the ledger, the map must only be modified while holding the lock. It may be read without it when
+     * a point in time view is not needed.
+     */
+    private static final class Segment extends ReentrantLock {
+        final Map<UserKey, BigDecimal> holdings = new ConcurrentHashMap<>();
+    }
+}
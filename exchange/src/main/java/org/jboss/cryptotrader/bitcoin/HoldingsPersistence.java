@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.jboss.cryptotrader.journal.SyncMode;
+import org.jboss.cryptotrader.metrics.MetricsSource;
+import org.jboss.cryptotrader.metrics.MetricsWriter;
+
+/**
+ * Makes the {@link HoldingsLedger} durable, by restoring it from the {@link HoldingsJournal} on startup and journaling
+ * every change after that.
+ * <p>
+ * The journal is stored in {@code cryptotrader.exchange.data-dir}, which defaults to a directory under the server data
+ * directory. Journaling can be disabled by setting {@code cryptotrader.journal.enabled} to false.
+ * <p>
+ * {@code cryptotrader.journal.sync} sets the {@link SyncMode}, which defaults to group commit. In periodic mode the
+ * journal is flushed every {@code cryptotrader.journal.flush-interval-ms}.
+ */
+@ApplicationScoped
+public class HoldingsPersistence implements MetricsSource {
+
+    private static final Logger log = Logger.getLogger(HoldingsPersistence.class.getName());
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("cryptotrader.journal.enabled", "true"));
+    private static final SyncMode SYNC_MODE = SyncMode.parse(System.getProperty("cryptotrader.journal.sync", "group"));
+    private static final int SEGMENT_SIZE = Integer.getInteger("cryptotrader.journal.segment-size", 16 * 1024 * 1024);
+    private static final long FLUSH_INTERVAL_MS = Long.getLong("cryptotrader.journal.flush-interval-ms", 10);
+    private static final long SNAPSHOT_INTERVAL_SECONDS = Long.getLong("cryptotrader.journal.snapshot-interval-seconds", 60);
+
+    @Inject
+    private HoldingsLedger ledger;
+
+    @Resource
+    private ManagedScheduledExecutorService managedScheduledExecutorService;
+
+    private HoldingsJournal journal;
+    private ScheduledFuture<?> snapshotHandle;
+    private ScheduledFuture<?> flushHandle;
+    private volatile long recoveryMillis;
+
+    /**
+     * The ledger must be restored before the first trade, so we start as soon as the application does
+     */
+    private void start(@Observes @Initialized(ApplicationScoped.class) Object event) {
+    }
+
+    @PostConstruct
+    private void setup() {
+        if (!ENABLED) {
+            return;
+        }
+        Path directory = dataDirectory();
+        journal = new HoldingsJournal(directory, SYNC_MODE, SEGMENT_SIZE);
+        long start = System.nanoTime();
+        long replayed;
+        try {
+            replayed = journal.recover(ledger);
+        } catch (IOException e) {
+            //we don't start with an empty ledger, as the next snapshot would overwrite everyone's holdings
+            throw new UncheckedIOException("Failed to restore exchange holdings from " + directory, e);
+        }
+        recoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("Restored exchange holdings up to version " + ledger.getVersion() + " from " + directory + ", replayed " + replayed + " journal records in " + recoveryMillis + "ms");
+        ledger.setListener(journal);
+
+        snapshotHandle = managedScheduledExecutorService.scheduleWithFixedDelay(this::snapshot, SNAPSHOT_INTERVAL_SECONDS, SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        if (SYNC_MODE == SyncMode.PERIODIC) {
+            flushHandle = managedScheduledExecutorService.scheduleWithFixedDelay(journal::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    private void close() {
+        if (journal == null) {
+            return;
+        }
+        snapshotHandle.cancel(false);
+        if (flushHandle != null) {
+            flushHandle.cancel(false);
+        }
+        ledger.setListener(null);
+        snapshot();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to close the holdings journal", e);
+        }
+    }
+
+    private void snapshot() {
+        try {
+            journal.snapshot(ledger);
+        } catch (IOException | RuntimeException e) {
+            //the journal still has everything, so we can just try again next time
+            log.log(Level.WARNING, "Failed to write a snapshot of the exchange holdings", e);
+        }
+    }
+
+    private static Path dataDirectory() {
+        String dir = System.getProperty("cryptotrader.exchange.data-dir");
+        if (dir != null) {
+            return Paths.get(dir);
+        }
+        String base = System.getProperty("jboss.server.data.dir", System.getProperty("java.io.tmpdir"));
+        return Paths.get(base, "cryptotrader-exchange");
+    }
+
+    @Override
+    public void writeMetrics(MetricsWriter writer) {
+        if (journal == null) {
+            return;
+        }
+        writer.counter("exchange_journal_records_total", journal.getRecords())
+                .counter("exchange_journal_bytes_total", journal.getBytes())
+                .counter("exchange_journal_forces_total", journal.getForces())
+                .gauge("exchange_journal_snapshot_version", journal.getSnapshotVersion())
+                .gauge("exchange_holdings_version", ledger.getVersion())
+                .gauge("exchange_journal_recovery_millis", recoveryMillis);
+    }
+}
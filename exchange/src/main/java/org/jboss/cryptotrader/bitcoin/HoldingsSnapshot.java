@@ -0,0 +1,45 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.util.List;
+
+/**
+ * A consistent snapshot of the {@link HoldingsLedger}
+ */
+public class HoldingsSnapshot {
+
+    private final long version;
+    private final List<BitcoinTradeData> holdings;
+
+    public HoldingsSnapshot(long version, List<BitcoinTradeData> holdings) {
+        this.version = version;
+        this.holdings = holdings;
+    }
+
+    /**
+     * @return The version of the most recent change included in the snapshot
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public List<BitcoinTradeData> getHoldings() {
+        return holdings;
+    }
+}
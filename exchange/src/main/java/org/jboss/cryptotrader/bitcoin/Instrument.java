@@ -0,0 +1,111 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+/**
+ * A tradeable instrument, such as Bitcoin, with its own independent market model and price history.
+ * <p>
+ * The model is only ever ticked by one thread at a time, but the price can be read by anyone.
+ */
+public final class Instrument {
+
+    private final String symbol;
+    private final String name;
+    private final PriceModel model;
+    private final PriceHistory history;
+
+    /**
+     * The current price, as a {@link FixedPoint} value
+     */
+    private volatile long price;
+
+    /**
+     * The news produced by the last tick, only accessed by the ticker
+     */
+    private String news;
+
+    Instrument(String symbol, String name, Random random, long initialPrice, int historySize) {
+        this.symbol = symbol;
+        this.name = name;
+        this.model = new PriceModel(name, random, initialPrice);
+        this.history = new PriceHistory(historySize);
+        this.price = initialPrice;
+    }
+
+    /**
+     * Advances the market model, and records the new price
+     *
+     * @param time The time of the tick, in milliseconds since the epoch
+     */
+    void tick(long time) {
+        news = model.tick();
+        price = model.getPrice();
+        history.record(time, price);
+    }
+
+    /**
+     * Sets the price from a recording, instead of ticking the model
+     *
+     * @param time  The time of the tick
+     * @param price The recorded price
+     * @param news  The recorded news, or null
+     */
+    void replay(long time, long price, String news) {
+        this.news = news;
+        this.price = price;
+        history.record(time, price);
+    }
+
+    /**
+     * @return The news produced by the last tick, or null if there was none. This clears the news.
+     */
+    String takeNews() {
+        String ret = news;
+        news = null;
+        return ret;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * @return The name of the instrument, as used in news messages
+     */
+    public String getName() {
+        return name;
+    }
+
+    public BigDecimal getPrice() {
+        return FixedPoint.toBigDecimal(price);
+    }
+
+    /**
+     * @return The current price as a {@link FixedPoint} value
+     */
+    public long getFixedPointPrice() {
+        return price;
+    }
+
+    public PriceHistory getHistory() {
+        return history;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.ObservesAsync;
+import javax.inject.Inject;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseBroadcaster;
+import javax.ws.rs.sse.SseEventSink;
+
+import org.jboss.cryptotrader.sse.EncodedEvent;
+
+/**
+ * Endpoint that exposes the price and news of every instrument on the exchange.
+ * <p>
+ * Each instrument has its own price and news streams. They are only set up when someone first watches them, so
+ * publishing a tick only costs anything for the instruments that are being watched.
+ */
+@Path("/instruments")
+@ApplicationScoped
+public class InstrumentEndpoint {
+
+    @Inject
+    private BitcoinPriceService priceService;
+
+    @Inject
+    private PriceFeeds feeds;
+
+    @Inject
+    private NewsMetrics newsMetrics;
+
+    @Context
+    private Sse sse;
+
+    private final ConcurrentHashMap<String, SseBroadcaster> newsBroadcasters = new ConcurrentHashMap<>();
+
+    @PreDestroy
+    private void tearDown() {
+        newsBroadcasters.values().forEach(SseBroadcaster::close);
+    }
+
+    /**
+     * @return Every instrument and its current price
+     */
+    @Produces(MediaType.APPLICATION_JSON)
+    @GET
+    public List<InstrumentData> instruments() {
+        List<InstrumentData> ret = new ArrayList<>();
+        for (Instrument instrument : priceService.getInstruments()) {
+            ret.add(new InstrumentData(instrument.getSymbol(), instrument.getName(), instrument.getPrice()));
+        }
+        return ret;
+    }
+
+    @Produces(MediaType.TEXT_PLAIN)
+    @Path("/{symbol}/price")
+    @GET
+    public BigDecimal price(@PathParam("symbol") String symbol) {
+        return instrument(symbol).getPrice();
+    }
+
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @Path("/{symbol}/price/watch")
+    @GET
+    public void watchPrice(@PathParam("symbol") String symbol, @Context SseEventSink sink) {
+        feeds.getInstrumentFeed(instrument(symbol).getSymbol()).register(sink);
+    }
+
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/{symbol}/price/watchers")
+    @GET
+    public List<PriceWatcherData> watchers(@PathParam("symbol") String symbol) {
+        PriceFeed feed = feeds.getExistingInstrumentFeed(instrument(symbol).getSymbol());
+        return feed == null ? new ArrayList<>() : feed.watchers();
+    }
+
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/{symbol}/candles")
+    @GET
+    public List<PriceCandle> candles(@PathParam("symbol") String symbol, @QueryParam("interval") @DefaultValue("1m") String interval, @QueryParam("limit") @DefaultValue("60") int limit) {
+        return BitcoinPriceEndpoint.candles(instrument(symbol).getHistory(), interval, limit);
+    }
+
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @Path("/{symbol}/news")
+    @GET
+    public void watchNews(@PathParam("symbol") String symbol, @Context SseEventSink sink) {
+        newsBroadcasters.computeIfAbsent(instrument(symbol).getSymbol(), s -> sse.newBroadcaster()).register(sink);
+    }
+
+    /**
+     * Publishes the new prices to the instruments that are being watched
+     *
+     * @param tick The market tick
+     */
+    public void tick(@ObservesAsync MarketTick tick) {
+        List<Instrument> instruments = tick.getInstruments();
+        for (int i = 0; i < instruments.size(); ++i) {
+            PriceFeed feed = feeds.getExistingInstrumentFeed(instruments.get(i).getSymbol());
+            if (feed != null) {
+                feed.publish(EncodedEvent.of(tick.getPrice(i).toPlainString()).toOutboundEvent(sse, null));
+            }
+        }
+    }
+
+    /**
+     * Broadcasts news to anyone watching the instrument
+     *
+     * @param news The news event
+     */
+    public void news(@ObservesAsync InstrumentNews news) {
+        SseBroadcaster broadcaster = newsBroadcasters.get(news.getSymbol());
+        if (broadcaster != null) {
+            newsMetrics.track(broadcaster.broadcast(EncodedEvent.of(news.getMessage()).toOutboundEvent(sse, null)));
+        }
+    }
+
+    private Instrument instrument(String symbol) {
+        Instrument instrument = priceService.getInstrument(symbol);
+        if (instrument == null) {
+            throw new NotFoundException("Unknown instrument " + symbol);
+        }
+        return instrument;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+/**
+ * Event that is fired asynchronously for news about a single instrument
+ */
+public class InstrumentNews {
+
+    private final String symbol;
+    private final String message;
+
+    public InstrumentNews(String symbol, String message) {
+        this.symbol = symbol;
+        this.message = message;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
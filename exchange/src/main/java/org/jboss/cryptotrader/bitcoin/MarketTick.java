@@ -0,0 +1,65 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Event that is fired asynchronously after every instrument has been ticked
+ * <p>
+ * The prices are copied when the event is created, as the observers run later, by which time a sped up market may
+ * have ticked again.
+ */
+public class MarketTick {
+
+    private final long time;
+    private final List<Instrument> instruments;
+    private final long[] prices;
+
+    public MarketTick(long time, List<Instrument> instruments) {
+        this.time = time;
+        this.instruments = instruments;
+        this.prices = new long[instruments.size()];
+        for (int i = 0; i < prices.length; ++i) {
+            prices[i] = instruments.get(i).getFixedPointPrice();
+        }
+    }
+
+    /**
+     * @return The time of the tick, in milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return The instruments, use {@link #getPrice(int)} for their price at the time of the tick
+     */
+    public List<Instrument> getInstruments() {
+        return instruments;
+    }
+
+    /**
+     * @param index The index of the instrument in {@link #getInstruments()}
+     * @return The price of the instrument at the time of the tick
+     */
+    public BigDecimal getPrice(int index) {
+        return FixedPoint.toBigDecimal(prices[index]);
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+/**
+ * Callback that is notified of fills by the {@link OrderBook}.
+ * <p>
+ * This is invoked from inside the matching loop, so it must not modify the book.
+ */
+public interface MatchListener {
+
+    /**
+     * Called for every fill
+     *
+     * @param maker    The resting order
+     * @param taker    The incoming order
+     * @param price    The execution price, which is always the price of the resting order
+     * @param quantity The quantity filled
+     */
+    void onFill(Order maker, Order taker, long price, long quantity);
+
+}
@@ -0,0 +1,58 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.jboss.cryptotrader.metrics.LatencyHistogram;
+import org.jboss.cryptotrader.metrics.MetricsSource;
+import org.jboss.cryptotrader.metrics.MetricsWriter;
+
+/**
+ * Measures news broadcasts, from when the news is handed to the SSE broadcaster until it has been sent to every
+ * watcher.
+ */
+@ApplicationScoped
+public class NewsMetrics implements MetricsSource {
+
+    private final LatencyHistogram broadcastLatency = new LatencyHistogram();
+    private final AtomicLong inFlight = new AtomicLong();
+
+    /**
+     * Tracks a broadcast until it is complete
+     *
+     * @param broadcast The result of {@link javax.ws.rs.sse.SseBroadcaster#broadcast}
+     */
+    public void track(CompletionStage<?> broadcast) {
+        long start = System.nanoTime();
+        inFlight.incrementAndGet();
+        broadcast.whenComplete((ignored, failure) -> {
+            inFlight.decrementAndGet();
+            broadcastLatency.recordSince(start);
+        });
+    }
+
+    @Override
+    public void writeMetrics(MetricsWriter writer) {
+        writer.gauge("exchange_news_broadcasts_in_flight", inFlight.get())
+                .summary("exchange_news_broadcast_duration_seconds", broadcastLatency);
+    }
+}
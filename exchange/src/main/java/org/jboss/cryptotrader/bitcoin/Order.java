@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+/**
+ * An order in the {@link OrderBook}.
+ * <p>
+ * Prices and quantities are {@link FixedPoint} values. Orders that rest in the book are linked into the FIFO queue
+ * of their price level, which is what gives time priority within a level.
+ * <p>
+ * Orders are owned by the book, they must only be read while holding whatever lock guards the book.
+ */
+public final class Order {
+
+    private final long id;
+    private final boolean buy;
+    private final long price;
+    private final long quantity;
+    private final Object owner;
+    long remaining;
+
+    //the intrusive FIFO queue for the price level
+    Order prev;
+    Order next;
+    OrderBook.Level level;
+
+    Order(long id, boolean buy, long price, long quantity, Object owner) {
+        this.id = id;
+        this.buy = buy;
+        this.price = price;
+        this.quantity = quantity;
+        this.remaining = quantity;
+        this.owner = owner;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public boolean isBuy() {
+        return buy;
+    }
+
+    /**
+     * @return The limit price of the order
+     */
+    public long getPrice() {
+        return price;
+    }
+
+    /**
+     * @return The original quantity of the order
+     */
+    public long getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * @return The quantity that has not been filled yet
+     */
+    public long getRemaining() {
+        return remaining;
+    }
+
+    public long getFilled() {
+        return quantity - remaining;
+    }
+
+    /**
+     * @return true if the order is currently resting in the book
+     */
+    public boolean isResting() {
+        return level != null;
+    }
+
+    /**
+     * @return The opaque owner object that was passed in when the order was submitted
+     */
+    public Object getOwner() {
+        return owner;
+    }
+}
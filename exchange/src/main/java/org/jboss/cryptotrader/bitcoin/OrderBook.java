@@ -0,0 +1,326 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.util.Arrays;
+
+/**
+ * An in memory central limit order book, with price-time priority matching.
+ * <p>
+ * Each side of the book is a sorted array of primitive prices, with a FIFO queue of orders for each price level.
+ * The best price is always at the end of the array, so filling or cancelling the top of the book is O(1), and
+ * adding a new level is a binary search and an array copy. Empty levels are pooled and reused, so once the book has
+ * warmed up the matching loop does not allocate.
+ * <p>
+ * Incoming orders match against the opposite side of the book at the price of the resting order. Limit orders
+ * that are not fully filled rest in the book, immediate-or-cancel orders (including market orders) have any
+ * remaining quantity cancelled.
+ * <p>
+ * Matching engines are inherently sequential, so this class is not thread safe. Callers must provide their own
+ * locking.
+ */
+public class OrderBook {
+
+    /**
+     * Returned by {@link #bestBid()} and {@link #bestAsk()} if that side of the book is empty
+     */
+    public static final long NO_PRICE = 0;
+
+    private final Side bids = new Side(true);
+    private final Side asks = new Side(false);
+    private final OrderIndex index = new OrderIndex(1024);
+
+    /**
+     * Pool of empty levels that can be reused
+     */
+    private Level freeLevels;
+
+    private long nextOrderId = 1;
+
+    /**
+     * Submits a limit order, which will rest in the book if it is not fully filled
+     *
+     * @param buy      true for a buy order, false for a sell
+     * @param price    The limit price
+     * @param quantity The quantity
+     * @param owner    An opaque owner object, which is made available to the listener
+     * @param listener The listener to notify of fills
+     * @return The order
+     */
+    public Order submitLimit(boolean buy, long price, long quantity, Object owner, MatchListener listener) {
+        return submit(buy, price, quantity, false, owner, listener);
+    }
+
+    /**
+     * Submits a market order, this will fill as much as it can and cancel the rest
+     *
+     * @param buy      true for a buy order, false for a sell
+     * @param quantity The quantity
+     * @param owner    An opaque owner object, which is made available to the listener
+     * @param listener The listener to notify of fills
+     * @return The order
+     */
+    public Order submitMarket(boolean buy, long quantity, Object owner, MatchListener listener) {
+        return submit(buy, buy ? Long.MAX_VALUE : 1, quantity, true, owner, listener);
+    }
+
+    /**
+     * Submits an order
+     *
+     * @param buy               true for a buy order, false for a sell
+     * @param price             The limit price
+     * @param quantity          The quantity
+     * @param immediateOrCancel If true any quantity that can not be filled immediately is cancelled, rather than resting
+     * @param owner             An opaque owner object, which is made available to the listener
+     * @param listener          The listener to notify of fills
+     * @return The order
+     */
+    public Order submit(boolean buy, long price, long quantity, boolean immediateOrCancel, Object owner, MatchListener listener) {
+        if (price <= 0) {
+            throw new IllegalArgumentException("Price must be positive");
+        }
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+        Order order = new Order(nextOrderId++, buy, price, quantity, owner);
+        match(order, listener);
+        if (order.remaining > 0 && !immediateOrCancel) {
+            (buy ? bids : asks).add(order);
+            index.put(order.getId(), order);
+        }
+        return order;
+    }
+
+    /**
+     * Cancels a resting order
+     *
+     * @param orderId The order id
+     * @return The cancelled order, or null if it was not resting in the book
+     */
+    public Order cancel(long orderId) {
+        Order order = index.remove(orderId);
+        if (order != null) {
+            (order.isBuy() ? bids : asks).remove(order);
+        }
+        return order;
+    }
+
+    /**
+     * @param orderId The order id
+     * @return The resting order, or null if it is not in the book
+     */
+    public Order getOrder(long orderId) {
+        return index.get(orderId);
+    }
+
+    /**
+     * @return The number of orders resting in the book
+     */
+    public int getOrderCount() {
+        return index.size();
+    }
+
+    public long bestBid() {
+        return bids.count == 0 ? NO_PRICE : bids.levels[bids.count - 1].price;
+    }
+
+    public long bestAsk() {
+        return asks.count == 0 ? NO_PRICE : asks.levels[asks.count - 1].price;
+    }
+
+    /**
+     * Copies the aggregated depth of one side of the book into the provided arrays, best price first
+     *
+     * @param buy        true for the bids, false for the asks
+     * @param prices     The array to copy the prices to
+     * @param quantities The array to copy the total quantity at each price to
+     * @return The number of levels copied
+     */
+    public int depth(boolean buy, long[] prices, long[] quantities) {
+        Side side = buy ? bids : asks;
+        int n = Math.min(side.count, Math.min(prices.length, quantities.length));
+        for (int i = 0; i < n; ++i) {
+            Level level = side.levels[side.count - 1 - i];
+            prices[i] = level.price;
+            quantities[i] = level.quantity;
+        }
+        return n;
+    }
+
+    private void match(Order taker, MatchListener listener) {
+        Side opposite = taker.isBuy() ? asks : bids;
+        long limit = taker.getPrice();
+        while (taker.remaining > 0 && opposite.count > 0) {
+            Level level = opposite.levels[opposite.count - 1];
+            if (taker.isBuy() ? level.price > limit : level.price < limit) {
+                return; //the book does not cross
+            }
+            Order maker = level.head;
+            while (maker != null && taker.remaining > 0) {
+                long quantity = Math.min(maker.remaining, taker.remaining);
+                maker.remaining -= quantity;
+                taker.remaining -= quantity;
+                level.quantity -= quantity;
+                Order next = maker.next;
+                if (maker.remaining == 0) {
+                    level.unlink(maker);
+                    index.remove(maker.getId());
+                }
+                listener.onFill(maker, taker, level.price, quantity);
+                maker = next;
+            }
+            if (level.head == null) {
+                opposite.removeBest();
+            }
+        }
+    }
+
+    private Level allocateLevel(long price) {
+        Level level = freeLevels;
+        if (level == null) {
+            level = new Level();
+        } else {
+            freeLevels = level.nextFree;
+            level.nextFree = null;
+        }
+        level.price = price;
+        return level;
+    }
+
+    private void freeLevel(Level level) {
+        level.nextFree = freeLevels;
+        freeLevels = level;
+    }
+
+    /**
+     * A price level, holding a FIFO queue of orders at a single price
+     */
+    static final class Level {
+        long price;
+        long quantity;
+        Order head;
+        Order tail;
+        Level nextFree;
+
+        void append(Order order) {
+            order.level = this;
+            order.prev = tail;
+            order.next = null;
+            if (tail == null) {
+                head = order;
+            } else {
+                tail.next = order;
+            }
+            tail = order;
+            quantity += order.remaining;
+        }
+
+        void unlink(Order order) {
+            if (order.prev == null) {
+                head = order.next;
+            } else {
+                order.prev.next = order.next;
+            }
+            if (order.next == null) {
+                tail = order.prev;
+            } else {
+                order.next.prev = order.prev;
+            }
+            order.prev = null;
+            order.next = null;
+            order.level = null;
+        }
+    }
+
+    /**
+     * One side of the book. Levels are sorted so the best price is last, i.e. bids are in ascending price order and
+     * asks are in descending order.
+     */
+    private final class Side {
+        private final boolean buy;
+        private long[] prices = new long[64];
+        private Level[] levels = new Level[64];
+        private int count;
+
+        Side(boolean buy) {
+            this.buy = buy;
+        }
+
+        void add(Order order) {
+            int pos = search(order.getPrice());
+            Level level;
+            if (pos >= 0) {
+                level = levels[pos];
+            } else {
+                pos = -(pos + 1);
+                if (count == prices.length) {
+                    prices = Arrays.copyOf(prices, count * 2);
+                    levels = Arrays.copyOf(levels, count * 2);
+                }
+                System.arraycopy(prices, pos, prices, pos + 1, count - pos);
+                System.arraycopy(levels, pos, levels, pos + 1, count - pos);
+                level = allocateLevel(order.getPrice());
+                prices[pos] = order.getPrice();
+                levels[pos] = level;
+                count++;
+            }
+            level.append(order);
+        }
+
+        void remove(Order order) {
+            Level level = order.level;
+            level.quantity -= order.remaining;
+            level.unlink(order);
+            if (level.head == null) {
+                int pos = search(level.price);
+                System.arraycopy(prices, pos + 1, prices, pos, count - pos - 1);
+                System.arraycopy(levels, pos + 1, levels, pos, count - pos - 1);
+                levels[--count] = null;
+                freeLevel(level);
+            }
+        }
+
+        void removeBest() {
+            Level level = levels[--count];
+            levels[count] = null;
+            freeLevel(level);
+        }
+
+        /**
+         * Binary search for a price, returns the index if found, otherwise -(insertion point) - 1
+         */
+        private int search(long price) {
+            int low = 0;
+            int high = count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long midPrice = prices[mid];
+                if (midPrice == price) {
+                    return mid;
+                }
+                //bids ascend and asks descend, so the best price is always at the end
+                if (buy ? midPrice < price : midPrice > price) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+}
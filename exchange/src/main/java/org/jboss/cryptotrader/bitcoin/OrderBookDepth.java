@@ -0,0 +1,82 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.json.bind.annotation.JsonbAnnotation;
+
+/**
+ * The aggregated depth of the order book, mapped to JSON using JSONB
+ */
+@JsonbAnnotation
+public class OrderBookDepth {
+
+    private List<Level> bids = new ArrayList<>();
+    private List<Level> asks = new ArrayList<>();
+
+    public List<Level> getBids() {
+        return bids;
+    }
+
+    public void setBids(List<Level> bids) {
+        this.bids = bids;
+    }
+
+    public List<Level> getAsks() {
+        return asks;
+    }
+
+    public void setAsks(List<Level> asks) {
+        this.asks = asks;
+    }
+
+    /**
+     * A single price level
+     */
+    public static class Level {
+        private BigDecimal price;
+        private BigDecimal units;
+
+        public Level(BigDecimal price, BigDecimal units) {
+            this.price = price;
+            this.units = units;
+        }
+
+        public Level() {
+        }
+
+        public BigDecimal getPrice() {
+            return price;
+        }
+
+        public void setPrice(BigDecimal price) {
+            this.price = price;
+        }
+
+        public BigDecimal getUnits() {
+            return units;
+        }
+
+        public void setUnits(BigDecimal units) {
+            this.units = units;
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.SseEventSink;
+
+import org.jboss.cryptotrader.metrics.LatencyHistogram;
+
+/**
+ * Fans the price updates of a single instrument out to SSE watchers, without letting a slow watcher hold anyone else up.
+ * <p>
+ * Each watcher has a mailbox that only holds the latest price. Publishing a price just swaps it into every mailbox,
+ * and schedules a send for any watcher that is not already sending, so the cost of a tick does not depend on how
+ * fast the watchers are. A watcher that can't keep up skips straight to the newest price instead of building up a
+ * queue of stale ones, and the skipped prices are counted as dropped.
+ * <p>
+ * Sends happen on an executor, so a stalled connection never blocks the thread publishing the price. A send that has
+ * not completed within the send timeout is treated as a dead connection: the watcher is evicted and its sink closed,
+ * which releases the executor thread if the write was blocking it, so a stalled watcher can hold a thread for at most
+ * the send timeout.
+ *
+ * @see PriceFeeds
+ */
+public class PriceFeed {
+
+    private static final Logger log = Logger.getLogger(PriceFeed.class.getName());
+
+    /**
+     * How long a single send may take before the watcher is evicted
+     */
+    public static final long DEFAULT_SEND_TIMEOUT_MS = Long.getLong("cryptotrader.price-feed.send-timeout-ms", 5000);
+
+    private final ConcurrentHashMap<Long, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    private final Executor executor;
+    private final long sendTimeoutNanos;
+
+    /**
+     * How long it takes to hand a price to every watcher
+     */
+    private final LatencyHistogram publishLatency;
+
+    /**
+     * How long it takes from a price being published until it has been sent to a watcher
+     */
+    private final LatencyHistogram deliveryLatency;
+
+    /**
+     * @param executor The executor that sends events to watchers
+     */
+    public PriceFeed(Executor executor) {
+        this(executor, new LatencyHistogram(), new LatencyHistogram());
+    }
+
+    /**
+     * @param executor        The executor that sends events to watchers
+     * @param publishLatency  Records how long each publish takes, this can be shared between feeds
+     * @param deliveryLatency Records how long each price takes to reach each watcher, this can be shared between feeds
+     */
+    public PriceFeed(Executor executor, LatencyHistogram publishLatency, LatencyHistogram deliveryLatency) {
+        this(executor, publishLatency, deliveryLatency, DEFAULT_SEND_TIMEOUT_MS);
+    }
+
+    /**
+     * @param executor        The executor that sends events to watchers
+     * @param publishLatency  Records how long each publish takes, this can be shared between feeds
+     * @param deliveryLatency Records how long each price takes to reach each watcher, this can be shared between feeds
+     * @param sendTimeoutMs   How long a single send may take before the watcher is evicted
+     */
+    public PriceFeed(Executor executor, LatencyHistogram publishLatency, LatencyHistogram deliveryLatency, long sendTimeoutMs) {
+        this.executor = executor;
+        this.publishLatency = publishLatency;
+        this.deliveryLatency = deliveryLatency;
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs);
+    }
+
+    /**
+     * Closes the connection of every watcher
+     */
+    public void close() {
+        for (Subscriber subscriber : subscribers.values()) {
+            subscriber.sink.close();
+        }
+        subscribers.clear();
+    }
+
+    /**
+     * Registers a new watcher, it will receive the next price that is published
+     *
+     * @param sink The event sink
+     */
+    public void register(SseEventSink sink) {
+        long id = nextId.incrementAndGet();
+        subscribers.put(id, new Subscriber(id, sink, sequence.get()));
+    }
+
+    /**
+     * Publishes a new price to every watcher. The same event instance is sent to all of them. Watchers whose last send
+     * has been in progress for longer than the send timeout are evicted instead.
+     *
+     * @param event The price event
+     */
+    public void publish(OutboundSseEvent event) {
+        long start = System.nanoTime();
+        Tick tick = new Tick(sequence.incrementAndGet(), event, start);
+        for (Subscriber subscriber : subscribers.values()) {
+            if (subscriber.isStalled(start)) {
+                subscriber.evict();
+            } else {
+                subscriber.offer(tick);
+            }
+        }
+        publishLatency.recordSince(start);
+    }
+
+    /**
+     * @return The current state of every watcher
+     */
+    public List<PriceWatcherData> watchers() {
+        long current = sequence.get();
+        List<PriceWatcherData> result = new ArrayList<>(subscribers.size());
+        for (Subscriber subscriber : subscribers.values()) {
+            result.add(new PriceWatcherData(subscriber.id, subscriber.delivered.get(), subscriber.dropped.get(), current - subscriber.lastDelivered));
+        }
+        return result;
+    }
+
+    public int getWatcherCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * @return How many prices behind the slowest watcher is
+     */
+    public long getMaxLag() {
+        long current = sequence.get();
+        long maxLag = 0;
+        for (Subscriber subscriber : subscribers.values()) {
+            maxLag = Math.max(maxLag, current - subscriber.lastDelivered);
+        }
+        return maxLag;
+    }
+
+    public long getPublished() {
+        return sequence.get();
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return How many watchers have been evicted because a send timed out
+     */
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    public LatencyHistogram getPublishLatency() {
+        return publishLatency;
+    }
+
+    public LatencyHistogram getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+    /**
+     * A published price, shared between all the watchers
+     */
+    private static final class Tick {
+        final long sequence;
+        final OutboundSseEvent event;
+        /**
+         * When the price was published, from System.nanoTime()
+         */
+        final long published;
+
+        Tick(long sequence, OutboundSseEvent event, long published) {
+            this.sequence = sequence;
+            this.event = event;
+            this.published = published;
+        }
+    }
+
+    private final class Subscriber {
+        final long id;
+        final SseEventSink sink;
+        /**
+         * The latest price that has not been sent yet
+         */
+        final AtomicReference<Tick> pending = new AtomicReference<>();
+        /**
+         * Set while a send is scheduled or in progress, so there is only ever one send per watcher
+         */
+        final AtomicBoolean sending = new AtomicBoolean();
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        /**
+         * The sequence number of the last price that was sent, only written by the sender
+         */
+        volatile long lastDelivered;
+        /**
+         * When the send in progress started, from System.nanoTime(), or 0 if there is no send in progress
+         */
+        volatile long sendStarted;
+        final AtomicBoolean evicted = new AtomicBoolean();
+
+        Subscriber(long id, SseEventSink sink, long lastDelivered) {
+            this.id = id;
+            this.sink = sink;
+            this.lastDelivered = lastDelivered;
+        }
+
+        void offer(Tick tick) {
+            if (pending.getAndSet(tick) != null) {
+                //the watcher never saw the previous price
+                dropped.incrementAndGet();
+                PriceFeed.this.dropped.incrementAndGet();
+            }
+            schedule();
+        }
+
+        boolean isStalled(long now) {
+            long started = sendStarted;
+            return started != 0 && now - started > sendTimeoutNanos;
+        }
+
+        void evict() {
+            if (!evicted.compareAndSet(false, true)) {
+                return;
+            }
+            log.fine("Evicting price watcher " + id + ", a send has not completed in " + TimeUnit.NANOSECONDS.toMillis(sendTimeoutNanos) + "ms");
+            subscribers.remove(id);
+            PriceFeed.this.evicted.incrementAndGet();
+            //closing the sink fails the stalled write, but it may have to wait for it, so don't do it on the publishing thread
+            executor.execute(sink::close);
+        }
+
+        void schedule() {
+            if (sending.compareAndSet(false, true)) {
+                executor.execute(this::sendNext);
+            }
+        }
+
+        void sendNext() {
+            Tick next = pending.getAndSet(null);
+            if (next == null) {
+                sending.set(false);
+                //a price may have arrived after we checked, but before we cleared the flag
+                if (pending.get() != null) {
+                    schedule();
+                }
+                return;
+            }
+            if (sink.isClosed()) {
+                subscribers.remove(id);
+                return;
+            }
+            sendStarted = System.nanoTime();
+            sink.send(next.event).whenComplete((ignored, failure) -> {
+                sendStarted = 0;
+                if (evicted.get()) {
+                    return;
+                }
+                if (failure != null) {
+                    log.fine("Removing price watcher " + id + ": " + failure);
+                    subscribers.remove(id);
+                    sink.close();
+                    return;
+                }
+                lastDelivered = next.sequence;
+                deliveryLatency.recordSince(next.published);
+                delivered.incrementAndGet();
+                PriceFeed.this.delivered.incrementAndGet();
+                sendNext();
+            });
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+
+import org.jboss.cryptotrader.metrics.LatencyHistogram;
+import org.jboss.cryptotrader.metrics.MetricsSource;
+import org.jboss.cryptotrader.metrics.MetricsWriter;
+
+/**
+ * Owns every {@link PriceFeed} in the exchange, and publishes their combined metrics.
+ * <p>
+ * There is one feed for the original Bitcoin price stream, and one per instrument. Instrument feeds are created when
+ * the first watcher of that instrument connects, so instruments nobody is watching cost nothing to publish.
+ */
+@ApplicationScoped
+public class PriceFeeds implements MetricsSource {
+
+    private final ConcurrentHashMap<String, PriceFeed> instrumentFeeds = new ConcurrentHashMap<>();
+
+    private PriceFeed bitcoinFeed;
+
+    //shared by every feed
+    private final LatencyHistogram publishLatency = new LatencyHistogram();
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+    @Resource
+    private ManagedExecutorService managedExecutorService;
+
+    @PostConstruct
+    private void setup() {
+        bitcoinFeed = newFeed();
+    }
+
+    private PriceFeed newFeed() {
+        return new PriceFeed(managedExecutorService, publishLatency, deliveryLatency);
+    }
+
+    @PreDestroy
+    private void close() {
+        bitcoinFeed.close();
+        instrumentFeeds.values().forEach(PriceFeed::close);
+    }
+
+    /**
+     * @return The feed behind the original Bitcoin price stream
+     */
+    public PriceFeed getBitcoinFeed() {
+        return bitcoinFeed;
+    }
+
+    /**
+     * @param symbol The instrument symbol
+     * @return The feed for the instrument, which is created if it does not exist
+     */
+    public PriceFeed getInstrumentFeed(String symbol) {
+        return instrumentFeeds.computeIfAbsent(symbol, s -> newFeed());
+    }
+
+    /**
+     * @param symbol The instrument symbol
+     * @return The feed for the instrument, or null if nobody has ever watched it
+     */
+    public PriceFeed getExistingInstrumentFeed(String symbol) {
+        return instrumentFeeds.get(symbol);
+    }
+
+    @Override
+    public void writeMetrics(MetricsWriter writer) {
+        long watchers = bitcoinFeed.getWatcherCount();
+        long maxLag = bitcoinFeed.getMaxLag();
+        long published = bitcoinFeed.getPublished();
+        long delivered = bitcoinFeed.getDelivered();
+        long dropped = bitcoinFeed.getDropped();
+        long evicted = bitcoinFeed.getEvicted();
+        for (PriceFeed feed : instrumentFeeds.values()) {
+            watchers += feed.getWatcherCount();
+            maxLag = Math.max(maxLag, feed.getMaxLag());
+            published += feed.getPublished();
+            delivered += feed.getDelivered();
+            dropped += feed.getDropped();
+            evicted += feed.getEvicted();
+        }
+        writer.gauge("exchange_price_watchers", watchers)
+                .gauge("exchange_price_watcher_max_lag", maxLag)
+                .counter("exchange_price_updates_total", published)
+                .counter("exchange_price_updates_delivered_total", delivered)
+                .counter("exchange_price_updates_dropped_total", dropped)
+                .counter("exchange_price_watchers_evicted_total", evicted)
+                .summary("exchange_price_publish_duration_seconds", publishLatency)
+                .summary("exchange_price_delivery_latency_seconds", deliveryLatency);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A fixed size history of the price of a single instrument, every {@link Instrument} has its own.
+ * <p>
+ * The raw ticks are kept in a ring buffer of primitive longs, and OHLC candles are built incrementally for each
+ * {@link Interval} as the ticks arrive, each in their own ring. Recording a tick only writes to existing arrays so
+ * it never allocates, and a query only reads the candles it returns.
+ * <p>
+ * All prices are {@link FixedPoint} values.
+ */
+public class PriceHistory {
+
+    /**
+     * The supported candle intervals, and how many candles of each we keep
+     */
+    public enum Interval {
+        ONE_SECOND("1s", 1000, 3600),
+        ONE_MINUTE("1m", 60 * 1000, 24 * 60),
+        FIVE_MINUTES("5m", 5 * 60 * 1000, 7 * 24 * 12);
+
+        private final String label;
+        private final long millis;
+        private final int capacity;
+
+        Interval(String label, long millis, int capacity) {
+            this.label = label;
+            this.millis = millis;
+            this.capacity = capacity;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * @return The interval with the given label, e.g. {@code 1m}, or null if there is no such interval
+         */
+        public static Interval forLabel(String label) {
+            for (Interval i : values()) {
+                if (i.label.equals(label)) {
+                    return i;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final long[] tickTimes;
+    private final long[] tickPrices;
+    private final int tickMask;
+    private long tickCount;
+
+    private final Series[] series;
+
+    /**
+     * @param tickCapacity The number of raw ticks to keep, this is rounded up to a power of two
+     */
+    public PriceHistory(int tickCapacity) {
+        int capacity = powerOfTwo(tickCapacity);
+        tickTimes = new long[capacity];
+        tickPrices = new long[capacity];
+        tickMask = capacity - 1;
+        Interval[] intervals = Interval.values();
+        series = new Series[intervals.length];
+        for (int i = 0; i < intervals.length; ++i) {
+            series[i] = new Series(intervals[i]);
+        }
+    }
+
+    /**
+     * Records a new price
+     *
+     * @param time  The time of the tick, in milliseconds since the epoch
+     * @param price The price
+     */
+    public synchronized void record(long time, long price) {
+        int index = (int) (tickCount++ & tickMask);
+        tickTimes[index] = time;
+        tickPrices[index] = price;
+        for (Series s : series) {
+            s.update(time, price);
+        }
+    }
+
+    /**
+     * @param limit The maximum number of ticks to return
+     * @return The most recent ticks, oldest first
+     */
+    public synchronized List<PriceTick> ticks(int limit) {
+        int count = (int) Math.min(Math.min(limit, tickCount), tickTimes.length);
+        List<PriceTick> result = new ArrayList<>(count);
+        for (long i = tickCount - count; i < tickCount; ++i) {
+            int index = (int) (i & tickMask);
+            result.add(new PriceTick(tickTimes[index], FixedPoint.toBigDecimal(tickPrices[index])));
+        }
+        return result;
+    }
+
+    /**
+     * @param interval The candle interval
+     * @param limit    The maximum number of candles to return
+     * @return The most recent candles, oldest first. The last candle is still open, and will change as more ticks
+     * arrive.
+     */
+    public synchronized List<PriceCandle> candles(Interval interval, int limit) {
+        return series[interval.ordinal()].latest(limit);
+    }
+
+    private static int powerOfTwo(int value) {
+        int result = 1;
+        while (result < value) {
+            result <<= 1;
+        }
+        return result;
+    }
+
+    /**
+     * The candles for a single interval, stored as parallel arrays
+     */
+    private static final class Series {
+        final long millis;
+        final int mask;
+        final long[] start;
+        final long[] open;
+        final long[] high;
+        final long[] low;
+        final long[] close;
+        final int[] ticks;
+        //the number of candles that have ever been opened
+        long count;
+
+        Series(Interval interval) {
+            millis = interval.millis;
+            int capacity = powerOfTwo(interval.capacity);
+            mask = capacity - 1;
+            start = new long[capacity];
+            open = new long[capacity];
+            high = new long[capacity];
+            low = new long[capacity];
+            close = new long[capacity];
+            ticks = new int[capacity];
+        }
+
+        void update(long time, long price) {
+            long bucket = time - Math.floorMod(time, millis);
+            if (count > 0) {
+                int current = (int) ((count - 1) & mask);
+                //if the clock goes backwards we just add the tick to the current candle
+                if (bucket <= start[current]) {
+                    high[current] = Math.max(high[current], price);
+                    low[current] = Math.min(low[current], price);
+                    close[current] = price;
+                    ticks[current]++;
+                    return;
+                }
+            }
+            //intervals without any ticks have no candle
+            int index = (int) (count++ & mask);
+            start[index] = bucket;
+            open[index] = price;
+            high[index] = price;
+            low[index] = price;
+            close[index] = price;
+            ticks[index] = 1;
+        }
+
+        List<PriceCandle> latest(int limit) {
+            int n = (int) Math.min(Math.min(limit, count), start.length);
+            List<PriceCandle> result = new ArrayList<>(n);
+            for (long i = count - n; i < count; ++i) {
+                int index = (int) (i & mask);
+                result.add(new PriceCandle(start[index],
+                        FixedPoint.toBigDecimal(open[index]),
+                        FixedPoint.toBigDecimal(high[index]),
+                        FixedPoint.toBigDecimal(low[index]),
+                        FixedPoint.toBigDecimal(close[index]),
+                        ticks[index]));
+            }
+            return result;
+        }
+    }
+}
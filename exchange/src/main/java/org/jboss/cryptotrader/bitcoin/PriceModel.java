@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.util.Random;
+
+/**
+ * The market model that drives the price of an instrument.
+ * <p>
+ * In general the price will trend in a certain direction for a random period
+ * of time, then pick a new trend direction. Moderate trends are more likely
+ * than extreme events. If the price gets too high there will be a crash.
+ * <p>
+ * At some time after a trend has started a news message may be released to give
+ * the player an idea of the direction of the current trend.
+ * <p>
+ * All state is held in {@link FixedPoint} scaled longs, so a tick does not allocate. This class is not thread safe.
+ */
+public class PriceModel {
+
+    /**
+     * We don't allow the price to get this high, if we hit 20k there will be a big crash
+     */
+    private static final long CRASH_CEILING = FixedPoint.of(20000);
+
+    /**
+     * The price can never drop below the smallest representable value, otherwise it would get stuck at zero
+     */
+    private static final long MIN_PRICE = 1;
+
+    /**
+     * The name of the instrument, used in news messages
+     */
+    private final String name;
+
+    /**
+     * Our price generator
+     */
+    private final Random random;
+
+    /**
+     * This is the general trend of the market. If it is positive the market
+     * will trend up, negative it will trend down.
+     */
+    private long marketDirection = 0;
+
+    /**
+     * The number of 'ticks' that the current market conditions will continue
+     */
+    private int ticksTillConditionsChange = 5;
+
+    /**
+     * The current price
+     */
+    private long price;
+
+    /**
+     * The potential news message for the current trend
+     */
+    private String newsMessage;
+    /**
+     * The number of ticks before the news message is sent
+     */
+    private int messageTicks;
+
+    public PriceModel(Random random, long initialPrice) {
+        this("Bitcoin", random, initialPrice);
+    }
+
+    public PriceModel(String name, Random random, long initialPrice) {
+        this.name = name;
+        this.random = random;
+        this.price = initialPrice;
+    }
+
+    /**
+     * Advances the model by one tick
+     *
+     * @return A news message that should be published as a result of this tick, or null if there is no news
+     */
+    public String tick() {
+        if (--ticksTillConditionsChange == 0) {
+            //we generate a number from 0-99, and use that to
+            int direction = random.nextInt(100);
+            if (direction <= 3) {
+                //CRASH
+                marketDirection = FixedPoint.fromDouble((random.nextDouble() * -0.1) - 0.02);
+                ticksTillConditionsChange = random.nextInt(10) + 5; //crashs are short and sharp
+                newsMessage = name + " is experiencing a correction";
+                messageTicks = random.nextInt(5);
+            } else if (direction <= 10) {
+                //RUSH
+                marketDirection = FixedPoint.fromDouble((random.nextDouble() * 0.1) + 0.01);
+                ticksTillConditionsChange = random.nextInt(20) + 5;
+                newsMessage = "The price of " + name + " is skyrocketing, everyone is buying in";
+                messageTicks = random.nextInt(15);
+            } else if (direction <= 40) {
+                //BEAR MARKET
+                marketDirection = FixedPoint.fromDouble((random.nextDouble() * -0.03));
+                ticksTillConditionsChange = random.nextInt(20) + 15;
+                newsMessage = name + " seems to be experiencing a bear market at the moment";
+                messageTicks = random.nextInt(15) + 5;
+            } else {
+                //BULL MARKET
+                marketDirection = FixedPoint.fromDouble(random.nextDouble() * 0.05);
+                ticksTillConditionsChange = random.nextInt(20) + 15;
+                newsMessage = name + " seems to be experiencing a bull market at the moment";
+                messageTicks = random.nextInt(15) + 5;
+            }
+        } else if (price > CRASH_CEILING) {
+            //if the price gets too high there will be a big crash
+            marketDirection = FixedPoint.fromDouble((random.nextDouble() * -0.1) - 0.1);
+            ticksTillConditionsChange = random.nextInt(10) + 10;
+            newsMessage = name + " is crashing hard";
+            messageTicks = random.nextInt(5) + 2;
+        }
+        String news = null;
+        if (newsMessage != null) {
+            if (--messageTicks == 0) {
+                //send out a message that gives the player a hint as to the current direction
+                news = newsMessage;
+                newsMessage = null;
+            }
+        }
+
+        long change = FixedPoint.fromDouble(random.nextDouble() * 0.02 - 0.01); //the random part of the price change
+        price = Math.max(MIN_PRICE, price + FixedPoint.multiply(price, marketDirection + change)); //calculate a new price
+        return news;
+    }
+
+    /**
+     * @return The current price, as a {@link FixedPoint} value
+     */
+    public long getPrice() {
+        return price;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import javax.json.bind.annotation.JsonbAnnotation;
+
+/**
+ * The state of a single price watcher, mapped to JSON using JSONB
+ */
+@JsonbAnnotation
+public class PriceWatcherData {
+
+    private long id;
+    /**
+     * The number of prices that have been sent to the watcher
+     */
+    private long delivered;
+    /**
+     * The number of prices the watcher skipped because it was too slow
+     */
+    private long dropped;
+    /**
+     * How many prices behind the watcher is
+     */
+    private long lag;
+
+    public PriceWatcherData(long id, long delivered, long dropped, long lag) {
+        this.id = id;
+        this.delivered = delivered;
+        this.dropped = dropped;
+        this.lag = lag;
+    }
+
+    public PriceWatcherData() {
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+
+    public void setDelivered(long delivered) {
+        this.delivered = delivered;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public void setDropped(long dropped) {
+        this.dropped = dropped;
+    }
+
+    public long getLag() {
+        return lag;
+    }
+
+    public void setLag(long lag) {
+        this.lag = lag;
+    }
+}
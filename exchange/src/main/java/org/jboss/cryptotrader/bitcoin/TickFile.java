@@ -0,0 +1,219 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact binary recording of market ticks, that can be replayed later.
+ * <p>
+ * The file starts with the symbol and name of every instrument. Each tick is then stored as the change in time and
+ * the change in the price of every instrument since the previous tick, followed by any news. All numbers are
+ * variable length zig-zag encoded, so a tick where every price moved a little takes a couple of bytes per
+ * instrument.
+ */
+public final class TickFile {
+
+    private static final int MAGIC = 0x5449434B; //TICK
+    private static final int FORMAT_VERSION = 1;
+    private static final int TICK_MARKER = 1;
+
+    private TickFile() {
+    }
+
+    /**
+     * Appends ticks to a recording
+     */
+    public static final class Writer implements Closeable {
+
+        private final DataOutputStream out;
+        private final long[] previousPrices;
+        private long previousTime;
+        private long lastFlush = System.nanoTime();
+
+        /**
+         * Creates a new recording, replacing any existing file
+         *
+         * @param path        The file
+         * @param instruments The instruments that will be recorded
+         */
+        public Writer(Path path, List<Instrument> instruments) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+            previousPrices = new long[instruments.size()];
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeVarLong(out, instruments.size());
+            for (Instrument instrument : instruments) {
+                out.writeUTF(instrument.getSymbol());
+                out.writeUTF(instrument.getName());
+            }
+        }
+
+        /**
+         * Records a tick
+         *
+         * @param time        The time of the tick
+         * @param instruments The instruments, in the same order as when the recording was created
+         * @param news        The news for each instrument, null entries mean there was no news
+         */
+        public void write(long time, List<Instrument> instruments, String[] news) throws IOException {
+            out.writeByte(TICK_MARKER);
+            writeVarLong(out, zigZag(time - previousTime));
+            previousTime = time;
+            int newsCount = 0;
+            for (int i = 0; i < previousPrices.length; ++i) {
+                long price = instruments.get(i).getFixedPointPrice();
+                writeVarLong(out, zigZag(price - previousPrices[i]));
+                previousPrices[i] = price;
+                if (news[i] != null) {
+                    newsCount++;
+                }
+            }
+            writeVarLong(out, newsCount);
+            for (int i = 0; i < news.length && newsCount > 0; ++i) {
+                if (news[i] != null) {
+                    writeVarLong(out, i);
+                    out.writeUTF(news[i]);
+                    newsCount--;
+                }
+            }
+            //flush about once a second, so a crash loses very little of the recording
+            long now = System.nanoTime();
+            if (now - lastFlush > 1_000_000_000L) {
+                out.flush();
+                lastFlush = now;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads ticks back from a recording
+     */
+    public static final class Reader implements Closeable {
+
+        private final DataInputStream in;
+        private final List<String[]> instruments = new ArrayList<>();
+        private final long[] prices;
+        private long time;
+
+        public Reader(Path path) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                in.close();
+                throw new IOException(path + " is not a tick recording");
+            }
+            int count = (int) readVarLong(in);
+            for (int i = 0; i < count; ++i) {
+                instruments.add(new String[]{in.readUTF(), in.readUTF()});
+            }
+            prices = new long[count];
+        }
+
+        /**
+         * @return The symbol and name of every recorded instrument
+         */
+        public List<String[]> getInstruments() {
+            return instruments;
+        }
+
+        /**
+         * Reads the next tick
+         *
+         * @param pricesOut Filled in with the price of every instrument
+         * @param newsOut   Filled in with the news for every instrument, or null if there was none
+         * @return false if there are no more ticks
+         */
+        public boolean next(long[] pricesOut, String[] newsOut) throws IOException {
+            int marker = in.read();
+            if (marker != TICK_MARKER) {
+                return false;
+            }
+            try {
+                time += unZigZag(readVarLong(in));
+                for (int i = 0; i < prices.length; ++i) {
+                    prices[i] += unZigZag(readVarLong(in));
+                    pricesOut[i] = prices[i];
+                    newsOut[i] = null;
+                }
+                long newsCount = readVarLong(in);
+                for (long i = 0; i < newsCount; ++i) {
+                    newsOut[(int) readVarLong(in)] = in.readUTF();
+                }
+                return true;
+            } catch (EOFException e) {
+                //the recording was cut off part way through a tick, e.g. because the server crashed
+                return false;
+            }
+        }
+
+        /**
+         * @return The time of the last tick that was read
+         */
+        public long getTime() {
+            return time;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed variable length number");
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.cryptotrader.bitcoin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jboss.cryptotrader.metrics.LatencyHistogram;
+
+/**
+ * A hashed timing wheel, for running large numbers of tasks after a delay.
+ * <p>
+ * Time is divided into ticks, and the wheel is a ring of buckets, one per tick. A task goes in the bucket for the
+ * tick it is due in, along with the number of times the wheel has to go round before it is due. Each tick the
+ * wheel advances one bucket and runs everything in it that has no rounds left, so both adding a task and expiring
+ * it are constant time no matter how many tasks are waiting. The price is that tasks only run to the nearest tick.
+ * <p>
+ * Any thread can add a task, new tasks are put on a lock free queue and moved into their buckets by the thread that
+ * advances the wheel. The buckets themselves are only ever touched by that thread, so {@link #advance(long)} must
+ * not be called concurrently.
+ */
+final class TimingWheel {
+
+    private static final Logger log = Logger.getLogger(TimingWheel.class.getName());
+
+    private final long tickMillis;
+    private final int mask;
+    private final Bucket[] buckets;
+    private final long startMillis;
+
+    private final ConcurrentLinkedQueue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    /**
+     * How late tasks run compared to when they were due
+     */
+    private final LatencyHistogram lateness = new LatencyHistogram();
+
+    /**
+     * Only accessed by the thread advancing the wheel
+     */
+    private long currentTick;
+    private final List<Timeout> due = new ArrayList<>();
+
+    /**
+     * @param tickMillis  The length of a tick
+     * @param wheelSize   The number of buckets, this is rounded up to a power of two
+     * @param startMillis The time of tick zero
+     */
+    TimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        this.tickMillis = tickMillis;
+        this.mask = size - 1;
+        this.buckets = new Bucket[size];
+        for (int i = 0; i < size; ++i) {
+            buckets[i] = new Bucket();
+        }
+        this.startMillis = startMillis;
+    }
+
+    /**
+     * Schedules a task to run after a delay
+     *
+     * @param task        The task
+     * @param delayMillis The delay
+     * @param nowMillis   The current time
+     */
+    void schedule(Runnable task, long delayMillis, long nowMillis) {
+        pending.incrementAndGet();
+        incoming.add(new Timeout(task, nowMillis + Math.max(delayMillis, 0)));
+    }
+
+    /**
+     * Advances the wheel to the given time, running every task that has become due. Due tasks are collected from
+     * their bucket first and then run as a batch, in the calling thread.
+     *
+     * @param nowMillis The current time
+     * @return The number of tasks that were run
+     */
+    int advance(long nowMillis) {
+        int ran = 0;
+        while (startMillis + currentTick * tickMillis <= nowMillis) {
+            transferIncoming();
+            buckets[(int) currentTick & mask].expire(due);
+            currentTick++;
+            if (!due.isEmpty()) {
+                ran += runDue(nowMillis);
+            }
+        }
+        return ran;
+    }
+
+    private void transferIncoming() {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            //the first tick at or after the deadline, or this one if it has already passed
+            long tick = Math.max(currentTick, (timeout.deadline - startMillis + tickMillis - 1) / tickMillis);
+            timeout.rounds = (tick - currentTick) >> Integer.numberOfTrailingZeros(buckets.length);
+            buckets[(int) tick & mask].add(timeout);
+        }
+    }
+
+    private int runDue(long nowMillis) {
+        int count = due.size();
+        pending.addAndGet(-count);
+        expired.addAndGet(count);
+        for (Timeout timeout : due) {
+            lateness.record(TimeUnit.MILLISECONDS.toNanos(Math.max(nowMillis - timeout.deadline, 0)));
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                log.log(Level.SEVERE, "Delayed task failed", e);
+            }
+        }
+        due.clear();
+        return count;
+    }
+
+    /**
+     * @return The number of tasks waiting to run
+     */
+    long getPending() {
+        return pending.get();
+    }
+
+    /**
+     * @return The number of tasks that have been run
+     */
+    long getExpired() {
+        return expired.get();
+    }
+
+    LatencyHistogram getLateness() {
+        return lateness;
+    }
+
+    private static final class Timeout {
+        final Runnable task;
+        final long deadline;
+        long rounds;
+        Timeout next;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * A singly linked list of timeouts, in no particular order
+     */
+    private static final class Bucket {
+        Timeout head;
+
+        void add(Timeout timeout) {
+            timeout.next = head;
+            head = timeout;
+        }
+
+        /**
+         * Removes everything with no rounds left and adds it to the due list, and takes a round off everything else
+         */
+        void expire(List<Timeout> due) {
+            Timeout prev = null;
+            Timeout current = head;
+            while (current != null) {
+                Timeout next = current.next;
+                if (current.rounds <= 0) {
+                    if (prev == null) {
+                        head = next;
+                    } else {
+                        prev.next = next;
+                    }
+                    current.next = null;
+                    due.add(current);
+                } else {
+                    current.rounds--;
+                    prev = current;
+                }
+                current = next;
+            }
+        }
+    }
+}
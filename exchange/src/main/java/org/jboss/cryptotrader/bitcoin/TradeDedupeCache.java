@@ -0,0 +1,242 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.cryptotrader.bitcoin;
+
+import java.math.BigDecimal;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.jboss.cryptotrader.metrics.MetricsSource;
+import org.jboss.cryptotrader.metrics.MetricsWriter;
+import org.jboss.cryptotrader.throttle.ThrottledException;
+
+/**
+ * Remembers recent trades by their client order id, so a trade that is submitted more than once (e.g. because a
+ * client timed out and retried) is only executed once. Duplicates get the result of the original, and if the
+ * original is still in progress they wait for it.
+ * <p>
+ * Order ids are scoped to a player, so two players can use the same id. Reusing an id for a different trade is
+ * rejected rather than returning the result of a trade the client did not ask for.
+ * <p>
+ * Successful trades and trades that were rejected by the exchange with a {@link TradeException} are remembered, as
+ * retrying them would give the same answer. Trades that failed for any other reason before they changed anything
+ * are forgotten straight away, so a retry executes them again. This includes a {@link ThrottledException}, which is
+ * how the exchange reports that it or the bank is too busy to take the trade.
+ * <p>
+ * Each trade is given a transaction id that is sent to the bank with its withdrawal. If the withdrawal was sent but
+ * no answer came back ({@link BankInDoubtException}) the bank may already have taken the money, so the trade is
+ * kept, and a retry executes it again with the same transaction id. The bank only applies a transaction id once, so
+ * the player is never charged twice for the same order. This relies on the bank remembering transaction ids for
+ * longer than {@code cryptotrader.trade.dedupe.ttl-seconds}, which it does by default.
+ * <p>
+ * The cache is bounded by {@code cryptotrader.trade.dedupe.capacity}, and entries are remembered for
+ * {@code cryptotrader.trade.dedupe.ttl-seconds}. Entries are kept in a queue in the order they were added, and the
+ * oldest are evicted whenever a new one is added, so eviction is constant time and needs no background task.
+ */
+@ApplicationScoped
+public class TradeDedupeCache implements MetricsSource {
+
+    private final int capacity;
+    private final long ttlMillis;
+
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> order = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+
+    public TradeDedupeCache() {
+        this(Integer.getInteger("cryptotrader.trade.dedupe.capacity", 100000),
+                TimeUnit.SECONDS.toMillis(Long.getLong("cryptotrader.trade.dedupe.ttl-seconds", 300)));
+    }
+
+    /**
+     * @param capacity  The maximum number of trades to remember
+     * @param ttlMillis How long to remember a trade for
+     */
+    public TradeDedupeCache(int capacity, long ttlMillis) {
+        this.capacity = capacity;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Executes a trade, unless a trade with the same client order id has already been executed
+     *
+     * @param trade  The trade, which must have a client order id
+     * @param action Executes the trade, given the transaction id to send to the bank
+     * @return The result of the trade, or of the original trade if this is a duplicate
+     */
+    public CompletionStage<BitcoinTradeData> execute(BitcoinTradeData trade, Function<String, ? extends CompletionStage<BitcoinTradeData>> action) {
+        return execute(trade, action, System.currentTimeMillis());
+    }
+
+    CompletionStage<BitcoinTradeData> execute(BitcoinTradeData trade, Function<String, ? extends CompletionStage<BitcoinTradeData>> action, long now) {
+        Key key = new Key(trade.getName(), trade.getBankAccountNo(), trade.getClientOrderId());
+        Entry entry = new Entry(key, trade, now, UUID.randomUUID().toString());
+        for (; ; ) {
+            Entry existing = entries.putIfAbsent(key, entry);
+            if (existing == null) {
+                break;
+            }
+            if (existing.created + ttlMillis <= now) {
+                //expired but not evicted yet
+                if (entries.replace(key, existing, entry)) {
+                    break;
+                }
+                continue;
+            }
+            if (!existing.matches(trade)) {
+                conflicts.incrementAndGet();
+                CompletableFuture<BitcoinTradeData> conflict = new CompletableFuture<>();
+                conflict.completeExceptionally(new TradeException("Client order id " + trade.getClientOrderId() + " has already been used for a different trade"));
+                return conflict;
+            }
+            if (existing.inDoubt) {
+                //the bank may have taken the money, so run the trade again with the same transaction id
+                //a retry keeps the original creation time, so the id is never used for longer than the ttl
+                Entry retry = new Entry(key, trade, existing.created, existing.transactionId);
+                if (entries.replace(key, existing, retry)) {
+                    entry = retry;
+                    break;
+                }
+                continue;
+            }
+            hits.incrementAndGet();
+            return existing.result;
+        }
+        order.add(entry);
+        evict(now);
+        Entry current = entry;
+
+        CompletionStage<BitcoinTradeData> result;
+        try {
+            result = action.apply(entry.transactionId);
+        } catch (RuntimeException e) {
+            CompletableFuture<BitcoinTradeData> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            result = failed;
+        }
+        result.whenComplete((r, failure) -> {
+            if (failure == null) {
+                current.result.complete(r);
+                return;
+            }
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+            if (cause instanceof BankInDoubtException) {
+                //keep the entry, so a retry reuses the transaction id and the bank does not apply it twice
+                current.inDoubt = true;
+            } else if (!(cause instanceof TradeException)) {
+                //nothing was changed, so the trade may succeed if it is tried again
+                entries.remove(key, current);
+            }
+            current.result.completeExceptionally(cause);
+        });
+        return current.result;
+    }
+
+    private void evict(long now) {
+        Entry oldest;
+        while ((oldest = order.peek()) != null && (oldest.created + ttlMillis <= now || entries.size() > capacity)) {
+            if (order.remove(oldest)) {
+                entries.remove(oldest.key, oldest);
+            }
+        }
+    }
+
+    /**
+     * @return The number of trades that are remembered
+     */
+    int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void writeMetrics(MetricsWriter writer) {
+        writer.gauge("exchange_trade_dedupe_entries", entries.size())
+                .counter("exchange_trade_dedupe_hits_total", hits.get())
+                .counter("exchange_trade_dedupe_conflicts_total", conflicts.get());
+    }
+
+    private static final class Key {
+        final String name;
+        final String accountNo;
+        final String clientOrderId;
+        final int hash;
+
+        Key(String name, String accountNo, String clientOrderId) {
+            this.name = name;
+            this.accountNo = accountNo;
+            this.clientOrderId = clientOrderId;
+            this.hash = 31 * (31 * Objects.hashCode(name) + Objects.hashCode(accountNo)) + clientOrderId.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return hash == other.hash &&
+                    clientOrderId.equals(other.clientOrderId) &&
+                    Objects.equals(name, other.name) &&
+                    Objects.equals(accountNo, other.accountNo);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        final Key key;
+        final String symbol;
+        final BigDecimal units;
+        final long created;
+        /**
+         * Sent to the bank with the withdrawal, this is kept when a trade is retried after the bank did not answer
+         */
+        final String transactionId;
+        final CompletableFuture<BitcoinTradeData> result = new CompletableFuture<>();
+        /**
+         * Set once the trade has failed without knowing if the bank applied the withdrawal
+         */
+        volatile boolean inDoubt;
+
+        Entry(Key key, BitcoinTradeData trade, long created, String transactionId) {
+            this.key = key;
+            this.symbol = trade.getSymbol();
+            this.units = trade.getUnits();
+            this.created = created;
+            this.transactionId = transactionId;
+        }
+
+        boolean matches(BitcoinTradeData trade) {
+            return Objects.equals(symbol, trade.getSymbol()) &&
+                    (units == null ? trade.getUnits() == null : trade.getUnits() != null && units.compareTo(trade.getUnits()) == 0);
+        }
+    }
+}
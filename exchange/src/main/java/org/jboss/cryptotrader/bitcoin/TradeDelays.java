@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.cryptotrader.bitcoin;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+
+import org.jboss.cryptotrader.metrics.LatencyHistogram;
+import org.jboss.cryptotrader.metrics.MetricsSource;
+import org.jboss.cryptotrader.metrics.MetricsWriter;
+
+/**
+ * Runs the tasks that simulate the delay in trades going through, such as completing a purchase or paying the
+ * proceeds of a sale into the bank.
+ * <p>
+ * Every trade has a delay of a few seconds, so rather than give each one to the scheduled executor (which keeps
+ * them in a single heap that every trading thread contends on) they are kept in a {@link TimingWheel}. A single
+ * task on the executor advances the wheel every tick and runs the batch of tasks that have become due.
+ * <p>
+ * The length of a tick is set with {@code cryptotrader.trade-delay.tick-ms}, and the number of ticks in the wheel
+ * with {@code cryptotrader.trade-delay.wheel-size}. Delays longer than the wheel still work, they just go round it
+ * more than once.
+ */
+@ApplicationScoped
+public class TradeDelays implements MetricsSource {
+
+    private static final Logger log = Logger.getLogger(TradeDelays.class.getName());
+
+    private static final long TICK_MS = Long.getLong("cryptotrader.trade-delay.tick-ms", 100);
+    private static final int WHEEL_SIZE = Integer.getInteger("cryptotrader.trade-delay.wheel-size", 512);
+
+    @Resource
+    private ManagedScheduledExecutorService managedScheduledExecutorService;
+
+    private final TimingWheel wheel = new TimingWheel(TICK_MS, WHEEL_SIZE, System.currentTimeMillis());
+
+    /**
+     * How long each tick takes to run its batch of tasks
+     */
+    private final LatencyHistogram tickDuration = new LatencyHistogram();
+
+    private ScheduledFuture<?> handle;
+
+    @PostConstruct
+    private void setup() {
+        handle = managedScheduledExecutorService.scheduleAtFixedRate(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void close() {
+        handle.cancel(false);
+        if (wheel.getPending() > 0) {
+            log.warning("Shutting down with " + wheel.getPending() + " delayed trade tasks that will never run");
+        }
+    }
+
+    /**
+     * Runs a task after a delay. The delay is only accurate to the length of a tick.
+     *
+     * @param task        The task
+     * @param delayMillis The delay
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        wheel.schedule(task, delayMillis, System.currentTimeMillis());
+    }
+
+    /**
+     * The executor never runs a fixed rate task concurrently with itself, so this is the only thread advancing the wheel
+     */
+    private void tick() {
+        long start = System.nanoTime();
+        if (wheel.advance(System.currentTimeMillis()) > 0) {
+            tickDuration.recordSince(start);
+        }
+    }
+
+    @Override
+    public void writeMetrics(MetricsWriter writer) {
+        writer.gauge("exchange_trade_delay_pending", wheel.getPending())
+                .counter("exchange_trade_delay_expired_total", wheel.getExpired())
+                .summary("exchange_trade_delay_lateness_seconds", wheel.getLateness())
+                .summary("exchange_trade_delay_tick_duration_seconds", tickDuration);
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bitcoin;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Objects;
+
+/**
+ * The key that holdings are stored under, a combination of the client name, their bank account number and the
+ * symbol of the instrument. Keys that identify a player rather than a holding have no symbol.
+ *
+ * Instances are immutable, and the hash code is computed up front as keys are hashed on every trade.
+ * <p>
+ * Keys have a stable order (name, then account number, then symbol) which is used to page through the holdings. A
+ * key can be turned into an opaque cursor to hand to clients, which is just the URL safe base 64 encoding of its parts.
+ */
+final class UserKey {
+
+    static final Comparator<UserKey> ORDER = Comparator.comparing(UserKey::getName, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+            .thenComparing(UserKey::getAccountNo, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+            .thenComparing(UserKey::getSymbol, Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+
+    private static final char SEPARATOR = '\0';
+
+    private final String name;
+    private final String accountNo;
+    private final String symbol;
+    private final int hash;
+
+    UserKey(String name, String accountNo) {
+        this(name, accountNo, null);
+    }
+
+    UserKey(String name, String accountNo, String symbol) {
+        this.name = name;
+        this.accountNo = accountNo;
+        this.symbol = symbol;
+        this.hash = 31 * (31 * Objects.hashCode(name) + Objects.hashCode(accountNo)) + Objects.hashCode(symbol);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getAccountNo() {
+        return accountNo;
+    }
+
+    String getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * @return A cursor that refers to this key
+     */
+    String toCursor() {
+        String joined = Objects.toString(name, "") + SEPARATOR + Objects.toString(accountNo, "") + SEPARATOR + Objects.toString(symbol, "");
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(joined.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param cursor A cursor from {@link #toCursor()}
+     * @return The key the cursor refers to
+     * @throws TradeException if the cursor is not valid
+     */
+    static UserKey fromCursor(String cursor) {
+        String joined;
+        try {
+            joined = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new TradeException("Invalid cursor " + cursor);
+        }
+        String[] parts = joined.split(String.valueOf(SEPARATOR), -1);
+        if (parts.length != 3) {
+            throw new TradeException("Invalid cursor " + cursor);
+        }
+        return new UserKey(parts[0], parts[1], parts[2].isEmpty() ? null : parts[2]);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UserKey userKey = (UserKey) o;
+        return hash == userKey.hash &&
+                Objects.equals(name, userKey.name) &&
+                Objects.equals(accountNo, userKey.accountNo) &&
+                Objects.equals(symbol, userKey.symbol);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,61 @@
+package org.jboss.cryptotrader.bitcoin;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+
+import javax.ws.rs.client.Client;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.jboss.cryptotrader.throttle.ThrottledException;
+
+public class BankServiceTestCase {
+
+    @Test
+    public void testBulkheadRejectsWhenFull() {
+        BankService bank = new BankService(null);
+        int permits = bank.getAvailablePermits();
+        for (int i = 0; i < permits; ++i) {
+            Assert.assertNull(bank.acquire());
+        }
+        ThrottledException rejected = bank.acquire();
+        Assert.assertNotNull(rejected);
+        Assert.assertEquals(1, rejected.getRetryAfterSeconds());
+
+        //a call completing makes room for another
+        bank.release(true);
+        Assert.assertNull(bank.acquire());
+        Assert.assertNotNull(bank.acquire());
+        for (int i = 0; i < permits; ++i) {
+            bank.release(true);
+        }
+        Assert.assertEquals(permits, bank.getAvailablePermits());
+    }
+
+    @Test
+    public void testFailedCallsOpenTheBreaker() {
+        BankService bank = new BankService(null);
+        //the default threshold is 5
+        for (int i = 0; i < 5; ++i) {
+            Assert.assertNull(bank.acquire());
+            bank.release(false);
+        }
+        ThrottledException rejected = bank.acquire();
+        Assert.assertNotNull(rejected);
+        Assert.assertTrue(rejected.getRetryAfterSeconds() > 1);
+    }
+
+    @Test
+    public void testCallThatCannotBeMadeReleasesItsPermit() {
+        Client closed = (Client) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Client.class}, (proxy, method, args) -> {
+            throw new IllegalStateException("Client is closed");
+        });
+        BankService bank = new BankService(closed);
+        int permits = bank.getAvailablePermits();
+        CompletableFuture<Boolean> result = bank.withdraw("alice", "1000001", BigDecimal.ONE, null).toCompletableFuture();
+        Assert.assertTrue(result.isCompletedExceptionally());
+        Assert.assertEquals(permits, bank.getAvailablePermits());
+    }
+}
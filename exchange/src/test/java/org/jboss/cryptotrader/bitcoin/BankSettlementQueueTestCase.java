@@ -0,0 +1,169 @@
+package org.jboss.cryptotrader.bitcoin;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BankSettlementQueueTestCase {
+
+    @Test
+    public void testCreditsAreCoalescedPerAccount() {
+        FakeBank bank = new FakeBank();
+        BankSettlementQueue queue = new BankSettlementQueue(bank, new ImmediateDelays());
+        queue.add("alice", "1", new BigDecimal("1.50"));
+        queue.add("alice", "1", new BigDecimal("2.25"));
+        Assert.assertTrue(queue.offer("alice", "1", new BigDecimal("1"), 1000));
+        queue.add("bob", "2", new BigDecimal("10"));
+        Assert.assertEquals(4, queue.size());
+
+        queue.flush(0);
+        Assert.assertEquals(1, bank.batches.size());
+        List<BankBatchEntry> batch = bank.batches.get(0);
+        Assert.assertEquals(2, batch.size());
+        for (BankBatchEntry entry : batch) {
+            if (entry.getAccountNo().equals("1")) {
+                Assert.assertEquals("alice", entry.getName());
+                Assert.assertEquals(new BigDecimal("4.75"), entry.getAmount());
+            } else {
+                Assert.assertEquals("bob", entry.getName());
+                Assert.assertEquals(new BigDecimal("10"), entry.getAmount());
+            }
+        }
+        Assert.assertEquals(0, queue.size());
+
+        //nothing left to send
+        queue.flush(1);
+        Assert.assertEquals(1, bank.batches.size());
+    }
+
+    @Test
+    public void testFailedBatchIsRequeuedWithBackoff() {
+        FakeBank bank = new FakeBank();
+        BankSettlementQueue queue = new BankSettlementQueue(bank, new ImmediateDelays());
+        queue.add("alice", "1", new BigDecimal("5"));
+
+        bank.failures = 2;
+        queue.flush(0);
+        Assert.assertEquals(1, bank.attempts);
+        Assert.assertEquals(1, queue.size());
+
+        //a credit that arrives while backing off is not merged into the failed batch, which is sent unchanged
+        queue.add("alice", "1", new BigDecimal("1"));
+        Assert.assertEquals(2, queue.size());
+        queue.flush(100);
+        Assert.assertEquals("still backing off", 1, bank.attempts);
+
+        queue.flush(500);
+        Assert.assertEquals(2, bank.attempts);
+        //the backoff doubles after each failure
+        queue.flush(1400);
+        Assert.assertEquals(2, bank.attempts);
+        queue.flush(1500);
+        Assert.assertEquals(4, bank.attempts);
+
+        //every attempt at the failed batch used the same id, so the bank can tell they are the same batch
+        Assert.assertEquals(bank.batchIds.get(0), bank.batchIds.get(1));
+        Assert.assertEquals(bank.batchIds.get(0), bank.batchIds.get(2));
+        Assert.assertNotEquals(bank.batchIds.get(0), bank.batchIds.get(3));
+        Assert.assertEquals(2, bank.batches.size());
+        Assert.assertEquals(new BigDecimal("5"), bank.batches.get(0).get(0).getAmount());
+        Assert.assertEquals(new BigDecimal("1"), bank.batches.get(1).get(0).getAmount());
+        Assert.assertEquals(0, queue.size());
+
+        //a success resets the backoff
+        queue.add("alice", "1", new BigDecimal("1"));
+        bank.failures = 1;
+        queue.flush(2000);
+        queue.flush(2500);
+        Assert.assertEquals(3, bank.batches.size());
+    }
+
+    @Test
+    public void testClientErrorsAreNotRetried() {
+        FakeBank bank = new FakeBank();
+        BankSettlementQueue queue = new BankSettlementQueue(bank, new ImmediateDelays());
+        queue.add("alice", "1", new BigDecimal("5"));
+        queue.add("alice", "1", new BigDecimal("2"));
+
+        bank.rejectStatus = 400;
+        queue.flush(0);
+        queue.flush(100000);
+        Assert.assertEquals(1, bank.attempts);
+        Assert.assertEquals(0, queue.size());
+        Assert.assertEquals(2, queue.getUnsettled());
+    }
+
+    @Test
+    public void testUnexpectedResultsAreNotCountedAsSettled() {
+        FakeBank bank = new FakeBank();
+        BankSettlementQueue queue = new BankSettlementQueue(bank, new ImmediateDelays());
+        queue.add("alice", "1", new BigDecimal("5"));
+        queue.add("bob", "2", new BigDecimal("5"));
+
+        bank.dropResult = true;
+        queue.flush(0);
+        queue.flush(100000);
+        Assert.assertEquals(1, bank.attempts);
+        Assert.assertEquals(0, queue.size());
+        Assert.assertEquals(2, queue.getUnsettled());
+
+        //entries the bank rejects are still owed too
+        bank.dropResult = false;
+        bank.failedAccount = "2";
+        queue.add("alice", "1", new BigDecimal("5"));
+        queue.add("bob", "2", new BigDecimal("5"));
+        queue.flush(200000);
+        Assert.assertEquals(3, queue.getUnsettled());
+    }
+
+    private static final class FakeBank extends BankService {
+
+        final List<List<BankBatchEntry>> batches = new ArrayList<>();
+        final List<String> batchIds = new ArrayList<>();
+        int attempts;
+        int failures;
+        int rejectStatus;
+        boolean dropResult;
+        String failedAccount;
+
+        FakeBank() {
+            super(null);
+        }
+
+        @Override
+        public List<BankBatchResult> depositBatch(String batchId, List<BankBatchEntry> entries) {
+            attempts++;
+            batchIds.add(batchId);
+            if (failures > 0) {
+                failures--;
+                throw new IllegalStateException("bank unreachable");
+            }
+            if (rejectStatus != 0) {
+                throw new BankRejectedException("rejected", rejectStatus);
+            }
+            batches.add(new ArrayList<>(entries));
+            List<BankBatchResult> results = new ArrayList<>();
+            for (BankBatchEntry entry : entries) {
+                BankBatchResult result = new BankBatchResult();
+                result.setAccountNo(entry.getAccountNo());
+                result.setStatus(entry.getAccountNo().equals(failedAccount) ? "FAILED" : BankBatchResult.OK);
+                results.add(result);
+            }
+            if (dropResult) {
+                results.remove(0);
+            }
+            return results;
+        }
+    }
+
+    private static final class ImmediateDelays extends TradeDelays {
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            task.run();
+        }
+    }
+}
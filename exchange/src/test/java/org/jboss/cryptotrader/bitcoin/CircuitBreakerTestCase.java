@@ -0,0 +1,71 @@
+package org.jboss.cryptotrader.bitcoin;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitBreakerTestCase {
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60000);
+        breaker.onFailure();
+        breaker.onFailure();
+        //a success resets the count
+        breaker.onSuccess();
+        breaker.onFailure();
+        breaker.onFailure();
+        Assert.assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+        Assert.assertTrue(breaker.allowRequest());
+
+        breaker.onFailure();
+        Assert.assertEquals(CircuitBreaker.OPEN, breaker.getState());
+        Assert.assertEquals(1, breaker.getTimesOpened());
+        //nothing is let through until the open period is over
+        Assert.assertFalse(breaker.allowRequest());
+        Assert.assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void testHalfOpenLetsOneTrialCallThrough() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        breaker.onFailure();
+        Assert.assertEquals(CircuitBreaker.OPEN, breaker.getState());
+
+        //the open period is over, so one trial call is let through
+        Assert.assertTrue(breaker.allowRequest());
+        Assert.assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+        Assert.assertFalse(breaker.allowRequest());
+
+        //a failed trial opens the breaker again
+        breaker.onFailure();
+        Assert.assertEquals(CircuitBreaker.OPEN, breaker.getState());
+        Assert.assertEquals(2, breaker.getTimesOpened());
+
+        //a successful trial closes it
+        Assert.assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        Assert.assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+        Assert.assertTrue(breaker.allowRequest());
+        Assert.assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testIgnoredTrialDoesNotCloseTheBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 0);
+        breaker.onFailure();
+        Assert.assertTrue(breaker.allowRequest());
+
+        //the trial call was never made, so the breaker stays open and the next call is the trial
+        breaker.onIgnored();
+        Assert.assertEquals(CircuitBreaker.OPEN, breaker.getState());
+        Assert.assertTrue(breaker.allowRequest());
+        Assert.assertEquals(CircuitBreaker.HALF_OPEN, breaker.getState());
+        Assert.assertFalse(breaker.allowRequest());
+        Assert.assertEquals(1, breaker.getTimesOpened());
+
+        //it changes nothing when the breaker is closed
+        breaker.onSuccess();
+        breaker.onIgnored();
+        Assert.assertEquals(CircuitBreaker.CLOSED, breaker.getState());
+    }
+}
@@ -0,0 +1,42 @@
+package org.jboss.cryptotrader.bitcoin;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FixedPointTestCase {
+
+    @Test
+    public void testConversion() {
+        Assert.assertEquals(150000000L, FixedPoint.fromBigDecimal(new BigDecimal("1.5")));
+        Assert.assertEquals(new BigDecimal("1.50000000"), FixedPoint.toBigDecimal(150000000L));
+        //HALF_EVEN on the 9th decimal place
+        Assert.assertEquals(2L, FixedPoint.fromBigDecimal(new BigDecimal("0.000000025")));
+        Assert.assertEquals(4L, FixedPoint.fromBigDecimal(new BigDecimal("0.000000035")));
+    }
+
+    @Test
+    public void testMultiplyRoundsHalfEven() {
+        //0.00000001 * 0.5 = 0.000000005, which rounds down to the even 0
+        Assert.assertEquals(0L, FixedPoint.multiply(1, FixedPoint.ONE / 2));
+        //0.00000003 * 0.5 = 0.000000015, which rounds up to the even 0.00000002
+        Assert.assertEquals(2L, FixedPoint.multiply(3, FixedPoint.ONE / 2));
+        Assert.assertEquals(-2L, FixedPoint.multiply(-3, FixedPoint.ONE / 2));
+        Assert.assertEquals(-2L, FixedPoint.multiply(3, -FixedPoint.ONE / 2));
+    }
+
+    @Test
+    public void testMultiplyMatchesBigDecimal() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; ++i) {
+            long price = (long) (random.nextDouble() * FixedPoint.of(50000)) * (random.nextBoolean() ? 1 : -1);
+            long rate = random.nextBoolean() ? FixedPoint.fromDouble(random.nextDouble() * 0.4 - 0.2) : FixedPoint.fromDouble(random.nextDouble() * 10000);
+            BigDecimal expected = FixedPoint.toBigDecimal(price).multiply(FixedPoint.toBigDecimal(rate)).setScale(FixedPoint.SCALE, RoundingMode.HALF_EVEN);
+            Assert.assertEquals(expected, FixedPoint.toBigDecimal(FixedPoint.multiply(price, rate)));
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package org.jboss.cryptotrader.bitcoin;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import org.jboss.cryptotrader.journal.SyncMode;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HoldingsJournalTestCase {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecoverFromJournal() throws Exception {
+        HoldingsLedger ledger = new HoldingsLedger(4);
+        HoldingsJournal journal = open(ledger);
+        ledger.credit("alice", "1", "BTC", new BigDecimal("1.5"));
+        ledger.credit("bob", null, "BTC", new BigDecimal("2"));
+        ledger.debit("alice", "1", "BTC", new BigDecimal("0.25"));
+        ledger.credit("alice", "1", "ETH", new BigDecimal("3"));
+        journal.close();
+
+        HoldingsLedger restored = new HoldingsLedger(4);
+        open(restored).close();
+        Assert.assertEquals(new BigDecimal("1.25"), restored.getHoldings("alice", "1", "BTC"));
+        Assert.assertEquals(new BigDecimal("2"), restored.getHoldings("bob", null, "BTC"));
+        Assert.assertEquals(new BigDecimal("3"), restored.getHoldings("alice", "1", "ETH"));
+        Assert.assertEquals(ledger.getVersion(), restored.getVersion());
+    }
+
+    @Test
+    public void testRecoverFromSnapshotAndJournal() throws Exception {
+        HoldingsLedger ledger = new HoldingsLedger(4);
+        HoldingsJournal journal = open(ledger);
+        ledger.credit("alice", "1", "BTC", new BigDecimal("1"));
+        Assert.assertTrue(journal.snapshot(ledger));
+        Assert.assertFalse(journal.snapshot(ledger));
+        ledger.credit("alice", "1", "BTC", new BigDecimal("1"));
+        ledger.credit("carol", "3", "BTC", new BigDecimal("5"));
+        journal.close();
+
+        HoldingsLedger restored = new HoldingsLedger(4);
+        HoldingsJournal recovered = new HoldingsJournal(folder.getRoot().toPath(), SyncMode.ASYNC, 4096);
+        Assert.assertEquals(2, recovered.recover(restored));
+        recovered.close();
+        Assert.assertEquals(new BigDecimal("2"), restored.getHoldings("alice", "1", "BTC"));
+        Assert.assertEquals(new BigDecimal("5"), restored.getHoldings("carol", "3", "BTC"));
+    }
+
+    @Test
+    public void testSegmentsRollAndAreDeletedAfterSnapshot() throws Exception {
+        HoldingsLedger ledger = new HoldingsLedger(4);
+        HoldingsJournal journal = open(ledger);
+        for (int i = 0; i < 1000; ++i) {
+            ledger.credit("user" + (i % 10), "acc", "BTC", BigDecimal.ONE);
+        }
+        Assert.assertTrue(journalFiles().length > 1);
+        journal.snapshot(ledger);
+        Assert.assertEquals(1, journalFiles().length);
+        journal.close();
+
+        HoldingsLedger restored = new HoldingsLedger(4);
+        open(restored).close();
+        Assert.assertEquals(new BigDecimal("100"), restored.getHoldings("user3", "acc", "BTC"));
+    }
+
+    @Test
+    public void testTornRecordIsIgnored() throws Exception {
+        HoldingsLedger ledger = new HoldingsLedger(4);
+        HoldingsJournal journal = open(ledger);
+        ledger.credit("alice", "1", "BTC", new BigDecimal("1"));
+        ledger.credit("alice", "1", "BTC", new BigDecimal("1"));
+        journal.close();
+
+        //corrupt the last byte of the second record, each record starts with the length of its payload
+        File segment = journalFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            long second = 8 + 8 + readPayloadLength(file, 8);
+            long pos = second + 8 + readPayloadLength(file, second) - 1;
+            file.seek(pos);
+            int b = file.read();
+            file.seek(pos);
+            file.write(b ^ 0xFF);
+        }
+        HoldingsLedger restored = new HoldingsLedger(4);
+        open(restored).close();
+        Assert.assertEquals(new BigDecimal("1"), restored.getHoldings("alice", "1", "BTC"));
+    }
+
+    @Test
+    public void testSegmentWithoutHeaderIsEmpty() throws Exception {
+        HoldingsLedger ledger = new HoldingsLedger(4);
+        HoldingsJournal journal = open(ledger);
+        ledger.credit("alice", "1", "BTC", new BigDecimal("1"));
+        journal.close();
+
+        //a crash between creating a segment and writing its header leaves it all zeros
+        try (RandomAccessFile file = new RandomAccessFile(new File(folder.getRoot(), "holdings-0000000000000005.journal"), "rw")) {
+            file.setLength(4096);
+        }
+        HoldingsLedger restored = new HoldingsLedger(4);
+        open(restored).close();
+        Assert.assertEquals(new BigDecimal("1"), restored.getHoldings("alice", "1", "BTC"));
+    }
+
+    @Test
+    public void testLongNamesAreRejected() throws Exception {
+        HoldingsLedger ledger = new HoldingsLedger(4);
+        HoldingsJournal journal = new HoldingsJournal(folder.getRoot().toPath(), SyncMode.ASYNC, 256 * 1024);
+        journal.recover(ledger);
+        ledger.setListener(journal);
+        char[] name = new char[Short.MAX_VALUE + 1];
+        Arrays.fill(name, 'a');
+        try {
+            ledger.credit(new String(name), "1", "BTC", BigDecimal.ONE);
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        //the longest name that fits, in characters that take three bytes each
+        char[] wide = new char[Short.MAX_VALUE / 3];
+        Arrays.fill(wide, '\u20ac');
+        String wideName = new String(wide);
+        ledger.credit(wideName, "1", "BTC", BigDecimal.ONE);
+        Assert.assertTrue(journal.snapshot(ledger));
+        journal.close();
+
+        HoldingsLedger restored = new HoldingsLedger(4);
+        HoldingsJournal recovered = new HoldingsJournal(folder.getRoot().toPath(), SyncMode.ASYNC, 256 * 1024);
+        recovered.recover(restored);
+        recovered.close();
+        Assert.assertEquals(BigDecimal.ONE, restored.getHoldings(wideName, "1", "BTC"));
+        Assert.assertEquals(BigDecimal.ZERO, restored.getHoldings(new String(name), "1", "BTC"));
+    }
+
+    private static long readPayloadLength(RandomAccessFile file, long recordStart) throws Exception {
+        file.seek(recordStart);
+        return file.readInt();
+    }
+
+    private HoldingsJournal open(HoldingsLedger ledger) throws Exception {
+        HoldingsJournal journal = new HoldingsJournal(folder.getRoot().toPath(), SyncMode.ASYNC, 4096);
+        journal.recover(ledger);
+        ledger.setListener(journal);
+        return journal;
+    }
+
+    private File[] journalFiles() {
+        return folder.getRoot().listFiles((dir, name) -> name.endsWith(".journal"));
+    }
+}
@@ -0,0 +1,141 @@
+package org.jboss.cryptotrader.bitcoin;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HoldingsLedgerTestCase {
+
+    private static final String BTC = "BTC";
+    private static final String ETH = "ETH";
+
+    @Test
+    public void testChangesSince() {
+        HoldingsLedger ledger = new HoldingsLedger(4, 8);
+        HoldingsDelta delta = ledger.changesSince(-1);
+        Assert.assertTrue(delta.isFull());
+        Assert.assertEquals(0, delta.getVersion());
+        Assert.assertTrue(delta.getHoldings().isEmpty());
+
+        ledger.credit("Stuart", "1", BTC, BigDecimal.TEN);
+        ledger.credit("Joe", "2", BTC, BigDecimal.ONE);
+        ledger.debit("Stuart", "1", BTC, BigDecimal.ONE);
+
+        delta = ledger.changesSince(0);
+        Assert.assertFalse(delta.isFull());
+        Assert.assertEquals(3, delta.getVersion());
+        //only the latest change to each holding is returned
+        Assert.assertEquals(2, delta.getHoldings().size());
+        Assert.assertEquals("Stuart", delta.getHoldings().get(0).getName());
+        Assert.assertEquals(new BigDecimal(9), delta.getHoldings().get(0).getUnits());
+
+        delta = ledger.changesSince(2);
+        Assert.assertFalse(delta.isFull());
+        Assert.assertEquals(1, delta.getHoldings().size());
+
+        delta = ledger.changesSince(3);
+        Assert.assertFalse(delta.isFull());
+        Assert.assertEquals(3, delta.getVersion());
+        Assert.assertTrue(delta.getHoldings().isEmpty());
+
+        //a version from the future, e.g. from before a restart
+        Assert.assertTrue(ledger.changesSince(100).isFull());
+
+        //a failed sale uses up no version
+        try {
+            ledger.debit("Joe", "2", ETH, BigDecimal.ONE);
+            Assert.fail();
+        } catch (TradeException expected) {
+        }
+        Assert.assertEquals(3, ledger.getVersion());
+    }
+
+    @Test
+    public void testTruncatedLog() {
+        HoldingsLedger ledger = new HoldingsLedger(4, 8);
+        for (int i = 0; i < 20; ++i) {
+            ledger.credit("Player" + i, Integer.toString(i), BTC, BigDecimal.ONE);
+        }
+        HoldingsDelta delta = ledger.changesSince(5);
+        Assert.assertTrue(delta.isFull());
+        Assert.assertEquals(20, delta.getVersion());
+        Assert.assertEquals(20, delta.getHoldings().size());
+
+        delta = ledger.changesSince(12);
+        Assert.assertFalse(delta.isFull());
+        Assert.assertEquals(8, delta.getHoldings().size());
+    }
+
+    @Test
+    public void testFailedListener() {
+        HoldingsLedger ledger = new HoldingsLedger(4, 8);
+        ledger.credit("Stuart", "1", BTC, BigDecimal.ONE);
+        ledger.setListener((version, name, accountNo, symbol, holdings) -> {
+            throw new IllegalStateException("Journal failed");
+        });
+        try {
+            ledger.credit("Joe", "2", BTC, BigDecimal.ONE);
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        ledger.setListener(null);
+        ledger.credit("Jane", "3", BTC, BigDecimal.ONE);
+
+        //the failed change used up a version, which must not stop readers getting past it
+        HoldingsDelta delta = ledger.changesSince(0);
+        Assert.assertFalse(delta.isFull());
+        Assert.assertEquals(3, delta.getVersion());
+        Assert.assertEquals(2, delta.getHoldings().size());
+    }
+
+    @Test
+    public void testRestoredChangesAreNotLogged() {
+        HoldingsLedger ledger = new HoldingsLedger(4, 8);
+        ledger.restore("Stuart", "1", BTC, BigDecimal.ONE, 5);
+        //the log can't answer for anything before the restore
+        Assert.assertTrue(ledger.changesSince(2).isFull());
+        ledger.credit("Joe", "2", BTC, BigDecimal.ONE);
+        HoldingsDelta delta = ledger.changesSince(5);
+        Assert.assertFalse(delta.isFull());
+        Assert.assertEquals(6, delta.getVersion());
+        Assert.assertEquals(1, delta.getHoldings().size());
+    }
+
+    @Test
+    public void testPaging() {
+        HoldingsLedger ledger = new HoldingsLedger(4, 8);
+        for (int i = 0; i < 25; ++i) {
+            ledger.credit(String.format("Player%02d", i), Integer.toString(i), BTC, BigDecimal.ONE);
+        }
+        Set<String> seen = new HashSet<>();
+        UserKey after = null;
+        for (int pages = 0; ; ++pages) {
+            List<BitcoinTradeData> page = ledger.page(after, 10);
+            if (pages == 1) {
+                //a holding added part way through that sorts before the cursor must not cause anything to be missed
+                ledger.credit("Player00a", "100", BTC, BigDecimal.ONE);
+            }
+            for (BitcoinTradeData holding : page) {
+                Assert.assertTrue(holding.getName(), seen.add(holding.getName()));
+            }
+            if (page.size() < 10) {
+                Assert.assertEquals(2, pages);
+                break;
+            }
+            BitcoinTradeData last = page.get(page.size() - 1);
+            //cursors survive the round trip to the client
+            after = UserKey.fromCursor(new UserKey(last.getName(), last.getBankAccountNo(), last.getSymbol()).toCursor());
+            Assert.assertEquals(String.format("Player%02d", pages * 10 + 9), after.getName());
+        }
+        Assert.assertEquals(25, seen.size());
+
+        List<String> all = new ArrayList<>();
+        ledger.forEach((name, accountNo, symbol, units) -> all.add(name));
+        Assert.assertEquals(26, all.size());
+    }
+}
@@ -0,0 +1,89 @@
+package org.jboss.cryptotrader.bitcoin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OrderBookTestCase {
+
+    private final List<String> fills = new ArrayList<>();
+    private final MatchListener listener = (maker, taker, price, quantity) -> fills.add(maker.getOwner() + "->" + taker.getOwner() + "@" + price + "x" + quantity);
+
+    @Test
+    public void testPriceTimePriority() {
+        OrderBook book = new OrderBook();
+        book.submitLimit(false, 102, 10, "a", listener);
+        book.submitLimit(false, 101, 10, "b", listener);
+        book.submitLimit(false, 101, 10, "c", listener);
+        Assert.assertEquals(101, book.bestAsk());
+        Assert.assertEquals(OrderBook.NO_PRICE, book.bestBid());
+
+        //best price first, then the oldest order at that price
+        Order buy = book.submitLimit(true, 102, 25, "d", listener);
+        Assert.assertEquals(0, buy.getRemaining());
+        Assert.assertFalse(buy.isResting());
+        Assert.assertEquals("[b->d@101x10, c->d@101x10, a->d@102x5]", fills.toString());
+        Assert.assertEquals(102, book.bestAsk());
+        Assert.assertEquals(1, book.getOrderCount());
+    }
+
+    @Test
+    public void testLimitOrderRests() {
+        OrderBook book = new OrderBook();
+        book.submitLimit(false, 105, 10, "a", listener);
+        Order buy = book.submitLimit(true, 100, 10, "b", listener);
+        Assert.assertTrue(buy.isResting());
+        Assert.assertTrue(fills.isEmpty());
+        Assert.assertEquals(100, book.bestBid());
+
+        //a crossing sell fills at the resting price
+        Order sell = book.submitLimit(false, 99, 4, "c", listener);
+        Assert.assertEquals(0, sell.getRemaining());
+        Assert.assertEquals(6, buy.getRemaining());
+        Assert.assertEquals("[b->c@100x4]", fills.toString());
+
+        long[] prices = new long[10];
+        long[] quantities = new long[10];
+        Assert.assertEquals(1, book.depth(true, prices, quantities));
+        Assert.assertEquals(100, prices[0]);
+        Assert.assertEquals(6, quantities[0]);
+    }
+
+    @Test
+    public void testMarketOrderDoesNotRest() {
+        OrderBook book = new OrderBook();
+        book.submitLimit(true, 100, 5, "a", listener);
+        book.submitLimit(true, 90, 5, "b", listener);
+        Order sell = book.submitMarket(false, 20, "c", listener);
+        Assert.assertEquals(10, sell.getRemaining());
+        Assert.assertFalse(sell.isResting());
+        Assert.assertEquals(OrderBook.NO_PRICE, book.bestBid());
+        Assert.assertEquals(0, book.getOrderCount());
+        Assert.assertEquals("[a->c@100x5, b->c@90x5]", fills.toString());
+    }
+
+    @Test
+    public void testCancel() {
+        OrderBook book = new OrderBook();
+        List<Order> orders = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            orders.add(book.submitLimit(i % 2 == 0, i % 2 == 0 ? 100 - i % 50 : 200 + i % 50, 1, "o" + i, listener));
+        }
+        for (int i = 0; i < 1000; i += 3) {
+            Assert.assertSame(orders.get(i), book.cancel(orders.get(i).getId()));
+            Assert.assertFalse(orders.get(i).isResting());
+        }
+        Assert.assertNull(book.cancel(orders.get(0).getId()));
+        Assert.assertEquals(1000 - 334, book.getOrderCount());
+        for (int i = 0; i < 1000; ++i) {
+            Assert.assertEquals(i % 3 != 0, book.getOrder(orders.get(i).getId()) != null);
+        }
+        //sweep the whole book, only orders that were not cancelled should fill
+        book.submitMarket(true, 1000, "x", listener);
+        book.submitMarket(false, 1000, "y", listener);
+        Assert.assertEquals(1000 - 334, fills.size());
+        Assert.assertEquals(0, book.getOrderCount());
+    }
+}
@@ -0,0 +1,101 @@
+package org.jboss.cryptotrader.bitcoin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.SseEventSink;
+
+import org.jboss.cryptotrader.metrics.LatencyHistogram;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PriceFeedTestCase {
+
+    @Test
+    public void testSlowWatcherSkipsToLatestPrice() {
+        PriceFeed feed = new PriceFeed(Runnable::run, new LatencyHistogram(), new LatencyHistogram(), 60000);
+        FakeSink sink = new FakeSink();
+        feed.register(sink);
+
+        feed.publish(null);
+        feed.publish(null);
+        feed.publish(null);
+        //only the first send has been started, the second price was replaced by the third
+        Assert.assertEquals(1, sink.sends.size());
+        Assert.assertEquals(1, feed.getDropped());
+
+        sink.sends.get(0).complete(null);
+        Assert.assertEquals(2, sink.sends.size());
+        sink.sends.get(1).complete(null);
+        Assert.assertEquals(2, feed.getDelivered());
+        Assert.assertEquals(0, feed.getMaxLag());
+        Assert.assertEquals(1, feed.getWatcherCount());
+    }
+
+    @Test
+    public void testStalledWatcherIsEvicted() throws Exception {
+        PriceFeed feed = new PriceFeed(Runnable::run, new LatencyHistogram(), new LatencyHistogram(), 1);
+        FakeSink stalled = new FakeSink();
+        feed.register(stalled);
+        feed.publish(null);
+        Assert.assertEquals(1, stalled.sends.size());
+
+        Thread.sleep(10);
+        FakeSink healthy = new FakeSink();
+        feed.register(healthy);
+        feed.publish(null);
+        Assert.assertTrue(stalled.closed);
+        Assert.assertEquals(1, feed.getEvicted());
+        Assert.assertEquals(1, feed.getWatcherCount());
+        Assert.assertEquals(1, healthy.sends.size());
+
+        //a send that completes after the eviction is ignored
+        stalled.sends.get(0).complete(null);
+        Assert.assertEquals(1, stalled.sends.size());
+        Assert.assertEquals(0, feed.getDelivered());
+
+        healthy.sends.get(0).complete(null);
+        Assert.assertEquals(1, feed.getDelivered());
+        Assert.assertFalse(healthy.closed);
+    }
+
+    @Test
+    public void testFailedSendRemovesWatcher() {
+        PriceFeed feed = new PriceFeed(Runnable::run, new LatencyHistogram(), new LatencyHistogram(), 60000);
+        FakeSink sink = new FakeSink();
+        feed.register(sink);
+        feed.publish(null);
+        sink.sends.get(0).completeExceptionally(new IllegalStateException("connection reset"));
+        Assert.assertTrue(sink.closed);
+        Assert.assertEquals(0, feed.getWatcherCount());
+        Assert.assertEquals(0, feed.getEvicted());
+    }
+
+    /**
+     * A sink whose sends only complete when the test completes them
+     */
+    private static final class FakeSink implements SseEventSink {
+        final List<CompletableFuture<Object>> sends = new ArrayList<>();
+        boolean closed;
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public CompletionStage<?> send(OutboundSseEvent event) {
+            CompletableFuture<Object> send = new CompletableFuture<>();
+            sends.add(send);
+            return send;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
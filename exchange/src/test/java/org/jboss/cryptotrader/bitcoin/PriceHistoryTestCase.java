@@ -0,0 +1,49 @@
+package org.jboss.cryptotrader.bitcoin;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PriceHistoryTestCase {
+
+    @Test
+    public void testCandles() {
+        PriceHistory history = new PriceHistory(16);
+        history.record(60000, FixedPoint.of(10));
+        history.record(61000, FixedPoint.of(12));
+        history.record(62000, FixedPoint.of(8));
+        history.record(119999, FixedPoint.of(9));
+        //no ticks in the third minute, so there is no candle for it
+        history.record(180000, FixedPoint.of(11));
+
+        List<PriceCandle> candles = history.candles(PriceHistory.Interval.ONE_MINUTE, 10);
+        Assert.assertEquals(2, candles.size());
+        PriceCandle first = candles.get(0);
+        Assert.assertEquals(60000, first.getTime());
+        Assert.assertEquals(0, new BigDecimal(10).compareTo(first.getOpen()));
+        Assert.assertEquals(0, new BigDecimal(12).compareTo(first.getHigh()));
+        Assert.assertEquals(0, new BigDecimal(8).compareTo(first.getLow()));
+        Assert.assertEquals(0, new BigDecimal(9).compareTo(first.getClose()));
+        Assert.assertEquals(4, first.getTicks());
+        Assert.assertEquals(180000, candles.get(1).getTime());
+
+        Assert.assertEquals(1, history.candles(PriceHistory.Interval.ONE_MINUTE, 1).size());
+        Assert.assertEquals(180000, history.candles(PriceHistory.Interval.ONE_MINUTE, 1).get(0).getTime());
+        Assert.assertEquals(1, history.candles(PriceHistory.Interval.FIVE_MINUTES, 10).size());
+        Assert.assertEquals(5, history.candles(PriceHistory.Interval.ONE_SECOND, 10).size());
+    }
+
+    @Test
+    public void testTicksWrap() {
+        PriceHistory history = new PriceHistory(4);
+        for (int i = 1; i <= 10; ++i) {
+            history.record(i * 1000, FixedPoint.of(i));
+        }
+        List<PriceTick> ticks = history.ticks(100);
+        Assert.assertEquals(4, ticks.size());
+        Assert.assertEquals(7000, ticks.get(0).getTime());
+        Assert.assertEquals(10000, ticks.get(3).getTime());
+    }
+}
@@ -0,0 +1,66 @@
+package org.jboss.cryptotrader.bitcoin;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TickFileTestCase {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        List<Instrument> instruments = Arrays.asList(
+                new Instrument("BTC", "Bitcoin", new Random(1), FixedPoint.ONE, 16),
+                new Instrument("ETH", "Ethereum", new Random(2), FixedPoint.ONE, 16));
+        Path file = folder.newFile().toPath();
+        long[][] expected = new long[100][2];
+        try (TickFile.Writer writer = new TickFile.Writer(file, instruments)) {
+            for (int i = 0; i < expected.length; ++i) {
+                String[] news = new String[2];
+                for (int j = 0; j < 2; ++j) {
+                    instruments.get(j).tick(i * 1000L);
+                    news[j] = instruments.get(j).takeNews();
+                    expected[i][j] = instruments.get(j).getFixedPointPrice();
+                }
+                if (i == 50) {
+                    news[1] = "ETH news";
+                }
+                writer.write(i * 1000L, instruments, news);
+            }
+        }
+
+        try (TickFile.Reader reader = new TickFile.Reader(file)) {
+            Assert.assertEquals("ETH", reader.getInstruments().get(1)[0]);
+            Assert.assertEquals("Ethereum", reader.getInstruments().get(1)[1]);
+            long[] prices = new long[2];
+            String[] news = new String[2];
+            for (int i = 0; i < expected.length; ++i) {
+                Assert.assertTrue(reader.next(prices, news));
+                Assert.assertEquals(i * 1000L, reader.getTime());
+                Assert.assertArrayEquals(expected[i], prices);
+                if (i == 50) {
+                    Assert.assertEquals("ETH news", news[1]);
+                }
+            }
+            Assert.assertFalse(reader.next(prices, news));
+        }
+    }
+
+    @Test
+    public void testSeededModelIsDeterministic() {
+        PriceModel first = new PriceModel(new Random(42), FixedPoint.ONE);
+        PriceModel second = new PriceModel(new Random(42), FixedPoint.ONE);
+        for (int i = 0; i < 10000; ++i) {
+            Assert.assertEquals(first.tick(), second.tick());
+            Assert.assertEquals(first.getPrice(), second.getPrice());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.jboss.cryptotrader.bitcoin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimingWheelTestCase {
+
+    @Test
+    public void testTasksRunWhenDue() {
+        TimingWheel wheel = new TimingWheel(100, 8, 0);
+        List<String> ran = new ArrayList<>();
+        wheel.schedule(() -> ran.add("a"), 250, 0);
+        wheel.schedule(() -> ran.add("b"), 100, 0);
+        //longer than the wheel, so it has to go round more than once
+        wheel.schedule(() -> ran.add("c"), 2050, 0);
+        wheel.schedule(() -> ran.add("d"), 0, 0);
+        Assert.assertEquals(4, wheel.getPending());
+
+        Assert.assertEquals(1, wheel.advance(50));
+        Assert.assertEquals("d", ran.get(0));
+        Assert.assertEquals(1, wheel.advance(100));
+        Assert.assertEquals("b", ran.get(1));
+        Assert.assertEquals(0, wheel.advance(299));
+        Assert.assertEquals(1, wheel.advance(300));
+        Assert.assertEquals("a", ran.get(2));
+        //the wheel has gone round twice by now, but c is not due yet
+        Assert.assertEquals(0, wheel.advance(2000));
+        Assert.assertEquals(1, wheel.getPending());
+        Assert.assertEquals(1, wheel.advance(2100));
+        Assert.assertEquals("c", ran.get(3));
+        Assert.assertEquals(0, wheel.getPending());
+        Assert.assertEquals(4, wheel.getExpired());
+
+        //a task that is added late still runs on the next tick, rather than waiting for the wheel to come round
+        wheel.schedule(() -> ran.add("e"), 0, 1000);
+        Assert.assertEquals(1, wheel.advance(2200));
+    }
+
+    @Test
+    public void testFailingTaskDoesNotStopTheBatch() {
+        TimingWheel wheel = new TimingWheel(10, 4, 0);
+        List<String> ran = new ArrayList<>();
+        wheel.schedule(() -> {
+            throw new IllegalStateException("expected");
+        }, 5, 0);
+        wheel.schedule(() -> ran.add("a"), 5, 0);
+        Assert.assertEquals(2, wheel.advance(10));
+        Assert.assertEquals(1, ran.size());
+    }
+}
@@ -0,0 +1,159 @@
+package org.jboss.cryptotrader.bitcoin;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.jboss.cryptotrader.throttle.ThrottledException;
+
+public class TradeDedupeCacheTestCase {
+
+    @Test
+    public void testDuplicatesGetTheOriginalResult() throws Exception {
+        TradeDedupeCache cache = new TradeDedupeCache(10, 1000);
+        AtomicInteger executed = new AtomicInteger();
+        CompletableFuture<BitcoinTradeData> pending = new CompletableFuture<>();
+
+        CompletionStage<BitcoinTradeData> first = cache.execute(trade("1", BigDecimal.ONE), id -> {
+            executed.incrementAndGet();
+            return pending;
+        }, 0);
+        //the duplicate arrives while the original is still in progress
+        CompletionStage<BitcoinTradeData> second = cache.execute(trade("1", BigDecimal.ONE), id -> {
+            executed.incrementAndGet();
+            return pending;
+        }, 10);
+        Assert.assertFalse(second.toCompletableFuture().isDone());
+        BitcoinTradeData result = trade("1", BigDecimal.TEN);
+        pending.complete(result);
+        Assert.assertSame(result, first.toCompletableFuture().get());
+        Assert.assertSame(result, second.toCompletableFuture().get());
+        Assert.assertEquals(1, executed.get());
+
+        //the same id for a different trade is rejected
+        try {
+            cache.execute(trade("1", BigDecimal.TEN), id -> pending, 20).toCompletableFuture().join();
+            Assert.fail();
+        } catch (Exception expected) {
+            Assert.assertTrue(expected.getCause() instanceof TradeException);
+        }
+
+        //once it has expired it is executed again
+        cache.execute(trade("1", BigDecimal.ONE), id -> {
+            executed.incrementAndGet();
+            return pending;
+        }, 1000);
+        Assert.assertEquals(2, executed.get());
+    }
+
+    @Test
+    public void testFailuresThatMayNotHappenAgainAreForgotten() {
+        TradeDedupeCache cache = new TradeDedupeCache(10, 1000);
+        CompletableFuture<BitcoinTradeData> unreachable = new CompletableFuture<>();
+        unreachable.completeExceptionally(new IllegalStateException("bank unreachable"));
+        cache.execute(trade("1", BigDecimal.ONE), id -> unreachable, 0);
+        Assert.assertEquals(0, cache.size());
+
+        cache.execute(trade("2", BigDecimal.ONE), id -> {
+            throw new TradeException("Unknown instrument");
+        }, 0);
+        Assert.assertEquals(1, cache.size());
+    }
+
+    /**
+     * The bank being unavailable is reported as a ThrottledException, which must not be remembered, otherwise
+     * every retry would get the same failure until the entry expires
+     */
+    @Test
+    public void testBankUnavailableIsRetried() throws Exception {
+        TradeDedupeCache cache = new TradeDedupeCache(10, 300000);
+        AtomicInteger executed = new AtomicInteger();
+        CompletableFuture<Boolean> withdraw = new CompletableFuture<>();
+        CompletionStage<BitcoinTradeData> first = cache.execute(trade("1", BigDecimal.ONE), id -> {
+            executed.incrementAndGet();
+            return withdraw.thenApply(withdrawn -> trade("1", BigDecimal.ONE));
+        }, 0);
+        withdraw.completeExceptionally(new ThrottledException("The bank is not available right now, try again later", 10));
+        try {
+            first.toCompletableFuture().join();
+            Assert.fail();
+        } catch (Exception expected) {
+            Assert.assertTrue(expected.getCause() instanceof ThrottledException);
+        }
+        Assert.assertEquals(0, cache.size());
+
+        BitcoinTradeData result = trade("1", BigDecimal.ONE);
+        CompletionStage<BitcoinTradeData> retry = cache.execute(trade("1", BigDecimal.ONE), id -> {
+            executed.incrementAndGet();
+            return CompletableFuture.completedFuture(result);
+        }, 1000);
+        Assert.assertSame(result, retry.toCompletableFuture().get());
+        Assert.assertEquals(2, executed.get());
+    }
+
+    /**
+     * If the bank did not answer it may have taken the money, so a retry must send the same transaction id rather
+     * than charging the player again
+     */
+    @Test
+    public void testBankInDoubtIsRetriedWithTheSameTransactionId() throws Exception {
+        TradeDedupeCache cache = new TradeDedupeCache(10, 300000);
+        List<String> transactionIds = new ArrayList<>();
+        CompletableFuture<Boolean> withdraw = new CompletableFuture<>();
+        CompletionStage<BitcoinTradeData> first = cache.execute(trade("1", BigDecimal.ONE), id -> {
+            transactionIds.add(id);
+            return withdraw.thenApply(withdrawn -> trade("1", BigDecimal.ONE));
+        }, 0);
+        withdraw.completeExceptionally(new BankInDoubtException("The bank did not respond, try again later", 1));
+        try {
+            first.toCompletableFuture().join();
+            Assert.fail();
+        } catch (Exception expected) {
+            Assert.assertTrue(expected.getCause() instanceof BankInDoubtException);
+        }
+        Assert.assertEquals(1, cache.size());
+
+        BitcoinTradeData result = trade("1", BigDecimal.ONE);
+        CompletionStage<BitcoinTradeData> retry = cache.execute(trade("1", BigDecimal.ONE), id -> {
+            transactionIds.add(id);
+            return CompletableFuture.completedFuture(result);
+        }, 1000);
+        Assert.assertSame(result, retry.toCompletableFuture().get());
+        Assert.assertEquals(2, transactionIds.size());
+        Assert.assertNotNull(transactionIds.get(0));
+        Assert.assertEquals(transactionIds.get(0), transactionIds.get(1));
+
+        //once it has succeeded it is remembered like any other trade
+        Assert.assertSame(result, cache.execute(trade("1", BigDecimal.ONE), id -> {
+            throw new IllegalStateException("executed again");
+        }, 2000).toCompletableFuture().get());
+
+        //a different order gets its own transaction id
+        cache.execute(trade("2", BigDecimal.ONE), id -> {
+            transactionIds.add(id);
+            return CompletableFuture.completedFuture(result);
+        }, 3000);
+        Assert.assertNotEquals(transactionIds.get(0), transactionIds.get(2));
+    }
+
+    @Test
+    public void testCapacity() {
+        TradeDedupeCache cache = new TradeDedupeCache(10, 1000);
+        for (int i = 0; i < 100; ++i) {
+            cache.execute(trade(Integer.toString(i), BigDecimal.ONE), id -> CompletableFuture.completedFuture(null), 0);
+        }
+        Assert.assertEquals(10, cache.size());
+    }
+
+    private static BitcoinTradeData trade(String clientOrderId, BigDecimal units) {
+        BitcoinTradeData trade = new BitcoinTradeData("Stuart", "1234", units);
+        trade.setClientOrderId(clientOrderId);
+        return trade;
+    }
+}
@@ -18,51 +18,69 @@
 package org.jboss.cryptotrader.bank;
 
 import java.math.BigDecimal;
-import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
-import javax.ejb.Lock;
-import javax.ejb.LockType;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
 import javax.ejb.Singleton;
-import javax.json.Json;
-import javax.json.JsonArray;
-import javax.json.JsonException;
-import javax.json.JsonNumber;
-import javax.json.JsonPointer;
-import javax.json.JsonString;
-import javax.json.JsonStructure;
+
+import org.jboss.cryptotrader.metrics.LatencyHistogram;
 
 /**
  * This class manages all account details.
  * <p>
- * Account details are stored in a JSON document, and modified with the JSON
- * patch API.
- * <p>
- * The document looks like:
- * <p>
- * {
- * "467597" :
- * {
- * client_name: "Joe Blogs",
- * balance: $3.50
- * }
- * "654536" :
- * {
- * client_name: "Jane Doe",
- * balance: $100
- * }
- * }
+ * Account details are kept in an {@link AccountStore}, indexed by account number, so opening an account and
+ * performing a transaction take the same time whether there are a thousand accounts or a million. Account numbers
+ * come from {@link AccountNumbers}, so opening an account never has to guess at a free number.
  * <p>
  * The only security that is applied is to make sure that the client name that is supplied matches
  * the account number.
  * <p>
- * This is somewhat contrived, but demonstrates simple usage of the patch API and pointer API
- *
- * As this is a singleton all requests are synchronised, so we don't need to worry about thread safety
+ * This singleton uses bean managed concurrency, so calls are not serialized by the container. The store updates
+ * each account atomically on its own, so transactions on different accounts run in parallel, readers never wait
+ * for writers, and no account can go below zero however many transactions hit it at once.
+ * <p>
+ * The accounts survive a restart, {@link BankPersistence} restores the store on startup and journals every change.
  */
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
 @Singleton
 public class AccountManager {
 
-    private JsonStructure accountDetails = Json.createObjectBuilder().build();
+    private static final Logger log = Logger.getLogger(AccountManager.class.getName());
+
+    private static final BigDecimal OPENING_BALANCE = new BigDecimal(1000);
+    /**
+     * How many times a batch tries to make a change it cannot back out of, i.e. paying back a debit or making a credit
+     */
+    private static final int SETTLE_ATTEMPTS = Integer.getInteger("cryptotrader.bank.batch.settle-attempts", 3);
+
+    private static final int TRANSACTION_ID_CAPACITY = Integer.getInteger("cryptotrader.bank.transaction-ids.capacity", 100000);
+    private static final long TRANSACTION_ID_TTL_SECONDS = Long.getLong("cryptotrader.bank.transaction-ids.ttl-seconds", 600);
+
+    private final AccountStore accounts = new AccountStore();
+
+    /**
+     * Used to generate account numbers, this is thread safe
+     */
+    private volatile AccountNumbers accountNumbers = new AccountNumbers();
+
+    /**
+     * How long the work of each call takes.
+     */
+    private final LatencyHistogram transactLatency = new LatencyHistogram();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+    private final LatencyHistogram openLatency = new LatencyHistogram();
+
+    /**
+     * The results of recent transactions that were sent with an id, so they can be safely sent again
+     */
+    private final IdempotencyCache<BigDecimal> transactionIds = new IdempotencyCache<>(TRANSACTION_ID_CAPACITY, TimeUnit.SECONDS.toMillis(TRANSACTION_ID_TTL_SECONDS));
 
     /**
      * Opens an account
@@ -71,43 +89,70 @@ public class AccountManager {
      * @param clientName The client name to open the account for
      * @return The new account number
      */
-    @Lock(LockType.WRITE)
     public String openAccount(String clientName) {
+        long start = System.nanoTime();
+        String accno = open(clientName);
+        openLatency.recordSince(start);
+        return accno;
+    }
 
-        for (; ; ) {
-            //we do it in a loop in case we double up account numbers
-
-            //generate a random account number
-            SecureRandom random = new SecureRandom(); //make it secure, we are a bank after all
-            String accno = Integer.toString(1000000 + Math.abs(random.nextInt() % 9000000));
-
-            //we check if the account number exists, we do this using the json pointer API
-            //we expect this to throw an exception, if it does not then the account exists so try again
-            String jsonPointerPath = "/" + accno;
-            JsonPointer pointer = Json.createPointer(jsonPointerPath);
+    /**
+     * Opens an account for each of the given clients.
+     * <p>
+     * Each account is opened on its own, so if one fails (e.g. because it could not be journaled) the accounts before
+     * and after it are still opened, and the result says which entries failed. Nothing is left open that the caller
+     * is not told about.
+     *
+     * @param clientNames The client names to open the accounts for
+     * @return The result of each entry, in the same order as the names
+     */
+    public OpenResult[] openAccounts(List<String> clientNames) {
+        long start = System.nanoTime();
+        OpenResult[] ret = new OpenResult[clientNames.size()];
+        for (int i = 0; i < ret.length; ++i) {
             try {
-                pointer.getValue(accountDetails);
-                //if this does not throw an exception then the account number already exists
-                continue;
-            } catch (JsonException expected) {
+                ret[i] = new OpenResult(open(clientNames.get(i)), null);
+            } catch (RuntimeException e) {
+                ret[i] = new OpenResult(null, e.getMessage() == null ? e.toString() : e.getMessage());
+            }
+        }
+        openLatency.recordSince(start);
+        return ret;
+    }
+
+    private String open(String clientName) {
+        for (; ; ) {
+            //numbers are never handed out twice, but the loop covers accounts that were opened with another key
+            String accno = accountNumbers.next();
 
+            //all new clients get $1000
+            if (accounts.create(accno, clientName, OPENING_BALANCE)) {
+                return accno;
             }
-            //now we create the new account, we use the JSON patch API to create a patch
-            //which we then apply to the account details document
-            JsonArray patch = Json.createArrayBuilder()
-                    .add(
-                            Json.createObjectBuilder()
-                                    .add("op", "add")
-                                    .add("path", jsonPointerPath)
-                                    .add("value", Json.createObjectBuilder()
-                                            .add("client_name", clientName)
-                                            .add("balance", new BigDecimal(1000)) //all new clients get $1000
-                                            .build()).build()).build();
-            accountDetails = Json.createPatch(patch).apply(accountDetails);
-            return accno;
         }
     }
 
+    /**
+     * Replaces the account number allocator after the accounts have been restored, so numbers carry on from where
+     * they were before the restart. This must be called before any accounts are opened.
+     *
+     * @param key The key the account numbers were allocated with
+     */
+    void restoreAccountNumbers(long key) {
+        AccountNumbers numbers = new AccountNumbers(key);
+        for (AccountStore.Account account : accounts.all()) {
+            numbers.skip(account.getAccountNo());
+        }
+        accountNumbers = numbers;
+    }
+
+    /**
+     * @return The key of the account number allocator
+     */
+    long getAccountNumberKey() {
+        return accountNumbers.getKey();
+    }
+
     /**
      * Performs a bank transaction
      *
@@ -117,39 +162,266 @@ public class AccountManager {
      * @return The new balance in the clients account
      *
      */
-    @Lock(LockType.WRITE)
     public BigDecimal transact(String accountNumber, String clientName, BigDecimal amount) {
+        long start = System.nanoTime();
+        try {
+            return accounts.transact(accountNumber, clientName, amount);
+        } finally {
+            transactLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Performs a bank transaction that the caller may send more than once, e.g. because it did not get an answer the
+     * first time. A transaction with the same id for the same account is only applied once, and the repeat gets the
+     * balance that the original returned.
+     *
+     * @param transactionId The id the caller chose for the transaction, or null if it will not be sent again
+     * @param accountNumber The account number
+     * @param clientName    The client name
+     * @param amount        The amount
+     * @return The new balance in the clients account, as of the original transaction
+     * @throws IllegalArgumentException if the id has already been used for a different transaction
+     */
+    public BigDecimal transact(String transactionId, String accountNumber, String clientName, BigDecimal amount) {
+        if (transactionId == null) {
+            return transact(accountNumber, clientName, amount);
+        }
+        return transactionIds.execute(accountNumber + "/" + transactionId, Arrays.asList(clientName, amount.stripTrailingZeros()),
+                () -> transact(accountNumber, clientName, amount));
+    }
+
+    /**
+     * Performs a batch of transactions that either all happen or none do.
+     * <p>
+     * The amounts for each account are added up first, so a batch can take money out of an account that it pays
+     * into earlier or later in the batch. Every account is checked before anything is changed, then the accounts
+     * that lose money are debited, and if one of them does not have enough the debits that were made are paid back.
+     * Only then are the accounts that gain money credited. Other transactions can see the batch half applied, but
+     * never a debit that is later undone taking an account below zero, or a credit that is undone.
+     * <p>
+     * Paying back a debit and making a credit can only fail if the change cannot be journaled. They are tried
+     * {@code cryptotrader.bank.batch.settle-attempts} times, and if they still fail the batch is left partly
+     * applied, which the exception reports.
+     *
+     * @param accountNumbers The account numbers
+     * @param clientNames    The client names, which must match the account numbers
+     * @param amounts        The amounts
+     * @return The new balance of the account of each entry, after the whole batch
+     * @throws BatchFailedException if an entry failed, see {@link BatchFailedException#isPartiallyApplied()} for
+     *                              whether anything was changed
+     */
+    public BigDecimal[] transactAll(String[] accountNumbers, String[] clientNames, BigDecimal[] amounts) {
+        long start = System.nanoTime();
+        try {
+            Map<String, Net> totals = new LinkedHashMap<>();
+            for (int i = 0; i < accountNumbers.length; ++i) {
+                try {
+                    accounts.getBalance(accountNumbers[i], clientNames[i]);
+                } catch (RuntimeException e) {
+                    throw new BatchFailedException(i, e.getMessage());
+                }
+                Net net = totals.computeIfAbsent(accountNumbers[i], Net::new);
+                net.clientName = clientNames[i];
+                net.amount = net.amount.add(amounts[i]);
+                net.lastEntry = i;
+            }
+            List<Net> debited = new ArrayList<>();
+            for (Net net : totals.values()) {
+                if (net.amount.signum() >= 0) {
+                    continue;
+                }
+                try {
+                    net.balance = accounts.transact(net.accountNo, net.clientName, net.amount);
+                    debited.add(net);
+                } catch (RuntimeException failure) {
+                    for (Net undo : debited) {
+                        try {
+                            settle(undo.accountNo, undo.clientName, undo.amount.negate());
+                            undo.balance = null;
+                        } catch (RuntimeException e) {
+                            log.severe("Batch left a debit of " + undo.amount.negate() + " on account " + undo.accountNo + " that could not be paid back: " + e);
+                        }
+                    }
+                    throw failed(net.lastEntry, failure.getMessage(), accountNumbers, totals);
+                }
+            }
+            Net failedCredit = null;
+            String failure = null;
+            for (Net net : totals.values()) {
+                if (net.amount.signum() >= 0) {
+                    try {
+                        net.balance = settle(net.accountNo, net.clientName, net.amount);
+                    } catch (RuntimeException e) {
+                        log.severe("Batch could not credit " + net.amount + " to account " + net.accountNo + ": " + e);
+                        if (failedCredit == null) {
+                            failedCredit = net;
+                            failure = e.getMessage();
+                        }
+                    }
+                }
+            }
+            if (failedCredit != null) {
+                throw failed(failedCredit.lastEntry, failure, accountNumbers, totals);
+            }
+            BigDecimal[] ret = new BigDecimal[accountNumbers.length];
+            for (int i = 0; i < ret.length; ++i) {
+                ret[i] = totals.get(accountNumbers[i]).balance;
+            }
+            return ret;
+        } finally {
+            batchLatency.recordSince(start);
+        }
+    }
+
+    /**
+     * Makes a change that a batch cannot back out of. The account has been checked, so this can only fail if the
+     * change cannot be journaled, which may not last.
+     */
+    private BigDecimal settle(String accountNo, String clientName, BigDecimal amount) {
+        for (int attempt = 1; ; ++attempt) {
+            try {
+                return accounts.transact(accountNo, clientName, amount);
+            } catch (RuntimeException e) {
+                if (attempt >= SETTLE_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The failure of a batch, with the balance of every entry whose account was changed and left changed
+     */
+    private static BatchFailedException failed(int index, String message, String[] accountNumbers, Map<String, Net> totals) {
+        BigDecimal[] balances = new BigDecimal[accountNumbers.length];
+        boolean partial = false;
+        for (int i = 0; i < balances.length; ++i) {
+            balances[i] = totals.get(accountNumbers[i]).balance;
+            partial |= balances[i] != null;
+        }
+        return new BatchFailedException(index, message, partial ? balances : null);
+    }
 
-        JsonNumber balance = (JsonNumber) accountDetails.getValue("/" + accountNumber + "/balance");
-        BigDecimal newBalance = balance.bigDecimalValue().add(amount);
-
-        if (newBalance.compareTo(BigDecimal.ZERO) < 0) {
-            throw new RuntimeException("Insufficient funds");
-        }
-        //create a patch to update the account details
-        JsonArray patch = Json.createArrayBuilder()
-                .add(Json.createObjectBuilder()                     //first op is a test to validate the client name
-                        .add("op", "test")
-                        .add("path", "/" + accountNumber + "/client_name")
-                        .add("value", clientName).build())
-                .add(Json.createObjectBuilder()                     //second op updates the balance
-                        .add("op", "replace")
-                        .add("path", "/" + accountNumber + "/balance")
-                        .add("value", newBalance).build())
-                .build();
-        //apply the patch
-        accountDetails = Json.createPatch(patch).apply(accountDetails);
-        return newBalance;
-    }
-
-    @Lock(LockType.READ)
     public BigDecimal getBalance(String accountNumber, String clientName) {
-        JsonString cn = (JsonString) accountDetails.getValue("/" + accountNumber + "/client_name");
-        if (!cn.getString().equals(clientName)) {
-            throw new RuntimeException("Client name did not match");
+        return accounts.getBalance(accountNumber, clientName);
+    }
+
+    /**
+     * Returns the account store. It can be read directly, e.g. to stream every account to a client, but must only
+     * be modified through this class.
+     *
+     * @return The account store
+     */
+    public AccountStore getAccounts() {
+        return accounts;
+    }
+
+    public LatencyHistogram getTransactLatency() {
+        return transactLatency;
+    }
+
+    /**
+     * @return How long each call to {@link #transactAll} takes, for the whole batch
+     */
+    public LatencyHistogram getBatchLatency() {
+        return batchLatency;
+    }
+
+    public LatencyHistogram getOpenLatency() {
+        return openLatency;
+    }
+
+    /**
+     * @return The number of transactions that were sent again, and answered with the result of the original
+     */
+    public long getRepeatedTransactions() {
+        return transactionIds.getHits();
+    }
+
+    /**
+     * Thrown when a batch of transactions fails. Normally nothing in the batch has been applied, but if a change the
+     * batch could not back out of failed it is left partly applied.
+     */
+    public static final class BatchFailedException extends RuntimeException {
+
+        private final int index;
+        private final BigDecimal[] balances;
+
+        BatchFailedException(int index, String message) {
+            this(index, message, null);
+        }
+
+        BatchFailedException(int index, String message, BigDecimal[] balances) {
+            super(message);
+            this.index = index;
+            this.balances = balances;
+        }
+
+        /**
+         * @return The position in the batch of the entry that failed
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return true if some of the batch was applied, and has not been undone
+         */
+        public boolean isPartiallyApplied() {
+            return balances != null;
+        }
+
+        /**
+         * @return The new balance of each entry that was applied, null for entries that were not, or null if nothing
+         * was applied
+         */
+        public BigDecimal[] getBalances() {
+            return balances;
+        }
+    }
+
+    /**
+     * The result of opening one account of a batch
+     */
+    public static final class OpenResult {
+
+        private final String accountNo;
+        private final String failure;
+
+        OpenResult(String accountNo, String failure) {
+            this.accountNo = accountNo;
+            this.failure = failure;
+        }
+
+        /**
+         * @return The new account number, or null if the account could not be opened
+         */
+        public String getAccountNo() {
+            return accountNo;
+        }
+
+        /**
+         * @return Why the account could not be opened, or null if it was opened
+         */
+        public String getFailure() {
+            return failure;
+        }
+    }
+
+    /**
+     * The total of a batch for one account
+     */
+    private static final class Net {
+        final String accountNo;
+        String clientName;
+        BigDecimal amount = BigDecimal.ZERO;
+        BigDecimal balance;
+        int lastEntry;
+
+        Net(String accountNo) {
+            this.accountNo = accountNo;
         }
-        JsonNumber balance = (JsonNumber) accountDetails.getValue("/" + accountNumber + "/balance");
-        return balance.bigDecimalValue();
     }
 
 }
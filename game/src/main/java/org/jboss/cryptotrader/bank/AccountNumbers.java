@@ -0,0 +1,184 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.cryptotrader.bank;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates account numbers without ever handing out the same one twice.
+ * <p>
+ * Account numbers are the values of a counter passed through a keyed permutation, so they look random but are
+ * unique by construction, and allocating one takes the same time however many accounts there are. The first nine
+ * million numbers have seven digits like the bank has always used, after that the numbers get a digit longer each
+ * time the current length runs out.
+ * <p>
+ * The permutation is a small Feistel network over the smallest power of two that holds all the numbers of a length,
+ * and a result that falls outside of the range is fed through it again until one lands inside it (cycle walking).
+ * As both steps can be undone, a number can be mapped back to the position it was allocated at with
+ * {@link #indexOf(long)}, which is used to carry on from the right place after the accounts have been restored.
+ */
+public final class AccountNumbers {
+
+    private static final int MIN_DIGITS = 7;
+    private static final int MAX_DIGITS = 18;
+    private static final int ROUNDS = 4;
+
+    private final long key;
+    private final long[] roundKeys = new long[ROUNDS];
+    private final AtomicLong next = new AtomicLong();
+
+    public AccountNumbers() {
+        this(new SecureRandom().nextLong()); //make it secure, we are a bank after all
+    }
+
+    /**
+     * @param key The key of the permutation, the same key always gives the same sequence of numbers
+     */
+    public AccountNumbers(long key) {
+        this.key = key;
+        for (int i = 0; i < ROUNDS; ++i) {
+            roundKeys[i] = mix(key + (i + 1) * 0x9E3779B97F4A7C15L);
+        }
+    }
+
+    /**
+     * @return A new account number
+     */
+    public String next() {
+        return Long.toString(numberAt(next.getAndIncrement()));
+    }
+
+    /**
+     * Makes sure the given account number is never handed out again, by moving past its position if it is one
+     * this allocator would hand out.
+     *
+     * @param accountNo The account number, which is ignored if it was not allocated with this key
+     */
+    public void skip(String accountNo) {
+        long number;
+        try {
+            number = Long.parseLong(accountNo);
+        } catch (NumberFormatException e) {
+            return;
+        }
+        long index = indexOf(number);
+        if (index >= 0) {
+            next.accumulateAndGet(index + 1, Math::max);
+        }
+    }
+
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * @param index The position in the sequence
+     * @return The account number at that position
+     */
+    long numberAt(long index) {
+        long x = index;
+        for (int digits = MIN_DIGITS; digits <= MAX_DIGITS; ++digits) {
+            long low = pow10(digits - 1);
+            long size = 9 * low;
+            if (x < size) {
+                int bits = bitsFor(size);
+                do {
+                    x = permute(x, bits);
+                } while (x >= size);
+                return low + x;
+            }
+            x -= size;
+        }
+        throw new IllegalStateException("No account numbers left");
+    }
+
+    /**
+     * The inverse of {@link #numberAt(long)}
+     *
+     * @param number The account number
+     * @return The position it is handed out at, or -1 if this allocator never hands it out
+     */
+    long indexOf(long number) {
+        long base = 0;
+        for (int digits = MIN_DIGITS; digits <= MAX_DIGITS; ++digits) {
+            long low = pow10(digits - 1);
+            long size = 9 * low;
+            if (number >= low && number < low + size) {
+                int bits = bitsFor(size);
+                long x = number - low;
+                do {
+                    x = unpermute(x, bits);
+                } while (x >= size);
+                return base + x;
+            }
+            base += size;
+        }
+        return -1;
+    }
+
+    private long permute(long x, int bits) {
+        int half = bits / 2;
+        long mask = (1L << half) - 1;
+        long left = x >>> half;
+        long right = x & mask;
+        for (int i = 0; i < ROUNDS; ++i) {
+            long t = left ^ (mix(right ^ roundKeys[i]) & mask);
+            left = right;
+            right = t;
+        }
+        return (left << half) | right;
+    }
+
+    private long unpermute(long x, int bits) {
+        int half = bits / 2;
+        long mask = (1L << half) - 1;
+        long left = x >>> half;
+        long right = x & mask;
+        for (int i = ROUNDS - 1; i >= 0; --i) {
+            long t = right ^ (mix(left ^ roundKeys[i]) & mask);
+            right = left;
+            left = t;
+        }
+        return (left << half) | right;
+    }
+
+    /**
+     * @return The smallest even number of bits that can hold every value below size
+     */
+    private static int bitsFor(long size) {
+        int bits = 64 - Long.numberOfLeadingZeros(size - 1);
+        return (bits + 1) & ~1;
+    }
+
+    private static long pow10(int exponent) {
+        long ret = 1;
+        for (int i = 0; i < exponent; ++i) {
+            ret *= 10;
+        }
+        return ret;
+    }
+
+    /**
+     * The MurmurHash3 finalizer
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB93FE1A85A75L;
+        return z ^ (z >>> 33);
+    }
+}
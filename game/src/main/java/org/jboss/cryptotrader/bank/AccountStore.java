@@ -0,0 +1,411 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.cryptotrader.bank;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+
+/**
+ * The details of every bank account, indexed by account number.
+ * <p>
+ * Each account is an immutable {@link Account}, and a transaction replaces it with a new one using compare and set,
+ * so looking up and updating an account takes constant time no matter how many accounts there are, and no
+ * transaction is ever lost. Accounts can be listed without any locking, the listing is weakly consistent (an
+ * account that changes while it is running may be seen before or after the change).
+ * <p>
+ * The old JSON document form of the accounts can still be produced with {@link #toJson()}, but that is a copy of
+ * every account so it should only be used for small banks.
+ * <p>
+ * Every change is given a version number from a single counter, and a {@link Listener} can be registered to be told
+ * about every change, e.g. to write it to a journal. The version of a change is taken after the account it replaces
+ * has been read, so the versions of the changes to any one account always go up, even though changes to different
+ * accounts can be seen out of version order.
+ * <p>
+ * When there is a listener a change is made in two steps. The account is first replaced with a pending copy that
+ * still reads as the old account, the listener is called, and only then is the new account published. Nobody can
+ * see a change the listener has not accepted, and if the listener fails the old account is put back, which cannot
+ * fail as other transactions on the account wait for the pending one to finish rather than replacing it. The
+ * listener may take as long as a disk write, so they block until it is done rather than spinning.
+ */
+public final class AccountStore {
+
+    private final ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private volatile Listener listener;
+
+    /**
+     * Creates an account, unless the account number is already taken
+     *
+     * @param accountNo  The account number
+     * @param clientName The client name
+     * @param balance    The opening balance
+     * @return true if the account was created
+     */
+    public boolean create(String accountNo, String clientName, BigDecimal balance) {
+        Listener listener = this.listener;
+        Account created = new Account(accountNo, clientName, balance, version.incrementAndGet());
+        if (listener == null) {
+            return accounts.putIfAbsent(accountNo, created) == null;
+        }
+        Account pending = new Account(created, null);
+        if (accounts.putIfAbsent(accountNo, pending) != null) {
+            return false;
+        }
+        publish(listener, pending, created);
+        return true;
+    }
+
+    /**
+     * @param accountNo The account number
+     * @return true if an account with the given number exists
+     */
+    public boolean exists(String accountNo) {
+        return accounts.containsKey(accountNo);
+    }
+
+    /**
+     * Returns the balance of an account
+     *
+     * @param accountNo  The account number
+     * @param clientName The client name, which must match the account
+     * @return The balance
+     * @throws RuntimeException if the account does not exist or the name does not match
+     */
+    public BigDecimal getBalance(String accountNo, String clientName) {
+        return get(accountNo, clientName).balance;
+    }
+
+    /**
+     * Adds to, or takes from, the balance of an account
+     *
+     * @param accountNo  The account number
+     * @param clientName The client name, which must match the account
+     * @param amount     The amount to add, negative to take money out
+     * @return The new balance
+     * @throws RuntimeException if the account does not exist, the name does not match, or there is not enough money
+     */
+    public BigDecimal transact(String accountNo, String clientName, BigDecimal amount) {
+        for (; ; ) {
+            Account current = accountNo == null ? null : accounts.get(accountNo);
+            check(accountNo, clientName, current == null ? null : current.committed());
+            if (current.pending) {
+                //another change is being journaled, which may include waiting for it to be forced to disk
+                current.awaitSettled();
+                continue;
+            }
+            BigDecimal newBalance = current.balance.add(amount);
+            if (newBalance.compareTo(BigDecimal.ZERO) < 0) {
+                throw new RuntimeException("Insufficient funds");
+            }
+            Listener listener = this.listener;
+            Account updated = new Account(accountNo, current.clientName, newBalance, version.incrementAndGet());
+            if (listener == null) {
+                if (accounts.replace(accountNo, current, updated)) {
+                    return newBalance;
+                }
+                continue;
+            }
+            Account pending = new Account(updated, current);
+            if (accounts.replace(accountNo, current, pending)) {
+                publish(listener, pending, updated);
+                return newBalance;
+            }
+        }
+    }
+
+    /**
+     * Tells the listener about a pending change, then publishes it. If the listener fails the account is put back
+     * the way it was before the change.
+     */
+    private void publish(Listener listener, Account pending, Account updated) {
+        try {
+            listener.accountChanged(updated.version, updated.accountNo, updated.clientName, updated.balance);
+            accounts.replace(updated.accountNo, pending, updated);
+        } catch (RuntimeException | Error e) {
+            //nothing else can replace a pending account, so this always succeeds
+            if (pending.previous == null) {
+                accounts.remove(pending.accountNo, pending);
+            } else {
+                accounts.replace(pending.accountNo, pending, pending.previous);
+            }
+            throw e;
+        } finally {
+            //the account has been replaced by now, so anyone waiting on it will see the result
+            pending.settled.countDown();
+        }
+    }
+
+    /**
+     * Sets an account without notifying the listener, this is used to restore the store on startup. A change is
+     * only applied if it is newer than what the store already holds for the account, so changes can be restored in
+     * any order.
+     *
+     * @param accountNo  The account number
+     * @param clientName The client name
+     * @param balance    The balance
+     * @param version    The version of the change that is being restored
+     */
+    public void restore(String accountNo, String clientName, BigDecimal balance, long version) {
+        Account restored = new Account(accountNo, clientName, balance, version);
+        accounts.merge(accountNo, restored, (existing, candidate) -> existing.version >= candidate.version ? existing : candidate);
+        this.version.accumulateAndGet(version, Math::max);
+    }
+
+    /**
+     * Registers a listener that is notified of every change
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return The version of the most recent change
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    private Account get(String accountNo, String clientName) {
+        Account account = accountNo == null ? null : accounts.get(accountNo);
+        return check(accountNo, clientName, account == null ? null : account.committed());
+    }
+
+    private static Account check(String accountNo, String clientName, Account account) {
+        if (account == null) {
+            throw new RuntimeException("Unknown account " + accountNo);
+        }
+        if (!account.clientName.equals(clientName)) {
+            throw new RuntimeException("Client name did not match");
+        }
+        return account;
+    }
+
+    /**
+     * @return The number of accounts
+     */
+    public int size() {
+        return accounts.size();
+    }
+
+    /**
+     * @return Every account, in no particular order
+     */
+    public Iterable<Account> all() {
+        return () -> new Iterator<Account>() {
+            private final Iterator<Account> it = accounts.values().iterator();
+            private Account next = advance();
+
+            private Account advance() {
+                while (it.hasNext()) {
+                    Account account = it.next().committed();
+                    if (account != null) {
+                        return account;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Account next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Account ret = next;
+                next = advance();
+                return ret;
+            }
+        };
+    }
+
+    /**
+     * Calls the action with every account, waiting for any pending change to finish first. Unlike {@link #all()}
+     * this sees every change the listener has been told about before the call, which makes it safe to use for a
+     * snapshot that replaces the records of those changes.
+     */
+    void forEachSettled(Consumer<Account> action) {
+        for (Account account : accounts.values()) {
+            while (account != null && account.pending) {
+                account.awaitSettled();
+                account = accounts.get(account.accountNo);
+            }
+            if (account != null) {
+                action.accept(account);
+            }
+        }
+    }
+
+    /**
+     * Returns a page of accounts in account number order. Every account is looked at, but only the best limit are
+     * kept, so the memory used depends on the size of the page and not the number of accounts.
+     *
+     * @param after The last account number on the previous page, or null for the first page
+     * @param limit The maximum number of accounts to return
+     * @return The accounts that come after the given number, in order
+     */
+    public List<Account> page(String after, int limit) {
+        //a max heap, so the head is the account to drop when a smaller number is found
+        PriorityQueue<Account> best = new PriorityQueue<>(limit + 1, (a, b) -> b.accountNo.compareTo(a.accountNo));
+        for (Account account : all()) {
+            if (after != null && account.accountNo.compareTo(after) <= 0) {
+                continue;
+            }
+            if (best.size() < limit) {
+                best.add(account);
+            } else if (account.accountNo.compareTo(best.peek().accountNo) < 0) {
+                best.poll();
+                best.add(account);
+            }
+        }
+        Account[] ret = new Account[best.size()];
+        for (int i = ret.length - 1; i >= 0; --i) {
+            ret[i] = best.poll();
+        }
+        return Arrays.asList(ret);
+    }
+
+    /**
+     * Exports every account as a JSON document, keyed by account number
+     * <p>
+     * {"4675970": {"client_name": "Joe Blogs", "balance": 3.50}, ...}
+     */
+    public JsonObject toJson() {
+        JsonObjectBuilder builder = Json.createObjectBuilder();
+        for (Account account : all()) {
+            builder.add(account.accountNo, Json.createObjectBuilder()
+                    .add("client_name", account.clientName)
+                    .add("balance", account.balance));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Listener that is notified of every change to the store
+     */
+    public interface Listener {
+
+        /**
+         * Called before a change is visible to anyone. If this throws the change is not made, and the exception is
+         * thrown to the caller.
+         *
+         * @param version    The version of the change
+         * @param accountNo  The account number
+         * @param clientName The client name
+         * @param balance    The new balance
+         */
+        void accountChanged(long version, String accountNo, String clientName, BigDecimal balance);
+    }
+
+    /**
+     * A snapshot of an account, these are never modified
+     */
+    public static final class Account {
+        private final String accountNo;
+        private final String clientName;
+        private final BigDecimal balance;
+        private final long version;
+        /**
+         * If this is a change the listener has not accepted yet, in which case it reads as {@link #previous}
+         */
+        private final boolean pending;
+        private final Account previous;
+        /**
+         * Released once a pending change has been accepted or rolled back, null if the account is not pending
+         */
+        private final CountDownLatch settled;
+
+        Account(String accountNo, String clientName, BigDecimal balance, long version) {
+            this.accountNo = accountNo;
+            this.clientName = clientName;
+            this.balance = balance;
+            this.version = version;
+            this.pending = false;
+            this.previous = null;
+            this.settled = null;
+        }
+
+        /**
+         * Creates a pending change
+         *
+         * @param updated  The account after the change
+         * @param previous The account before the change, or null if the change opens it
+         */
+        private Account(Account updated, Account previous) {
+            this.accountNo = updated.accountNo;
+            this.clientName = updated.clientName;
+            this.balance = updated.balance;
+            this.version = updated.version;
+            this.pending = true;
+            this.previous = previous;
+            this.settled = new CountDownLatch(1);
+        }
+
+        /**
+         * Waits for a pending change to be accepted or rolled back, after which the account has been replaced
+         */
+        private void awaitSettled() {
+            try {
+                settled.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted waiting for a change to account " + accountNo, e);
+            }
+        }
+
+        /**
+         * @return The account as everyone else should see it, which is null for a pending new account
+         */
+        private Account committed() {
+            return pending ? previous : this;
+        }
+
+        public String getAccountNo() {
+            return accountNo;
+        }
+
+        public String getClientName() {
+            return clientName;
+        }
+
+        public BigDecimal getBalance() {
+            return balance;
+        }
+
+        /**
+         * @return The version of the change that last modified the account
+         */
+        public long getVersion() {
+            return version;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.cryptotrader.bank;
+
+import java.util.List;
+
+import javax.enterprise.context.Dependent;
+import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriInfo;
+
+/**
+ * Endpoint that dumps the details of every bank account.
+ * <p>
+ * Accounts are written straight from the account store to the client as they are iterated, so the memory used
+ * by a request does not depend on how many accounts there are. With no limit every account is written in one
+ * response. With a limit the accounts are returned a page at a time in account number order, and if there are more
+ * a {@code next} link gives the URI of the next page.
+ */
+@Path("/bank/accounts")
+@Dependent
+public class AccountsEndpoint {
+
+    /**
+     * The largest page that will be returned, larger limits are reduced to this
+     */
+    private static final int MAX_PAGE_SIZE = Integer.getInteger("cryptotrader.bank.max-page-size", 10000);
+
+    @Inject
+    private AccountManager accountManager;
+
+    /**
+     * @param limit The maximum number of accounts to return, or zero for all of them
+     * @param after The last account number on the previous page, if any
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response accounts(@QueryParam("limit") @DefaultValue("0") int limit,
+                             @QueryParam("after") String after,
+                             @Context UriInfo uriInfo) {
+        //the store can be read while transactions carry on, so nothing is blocked while the accounts are streamed
+        AccountStore accounts = accountManager.getAccounts();
+        if (limit <= 0) {
+            if (after != null) {
+                return Response.status(Response.Status.BAD_REQUEST).entity("A cursor can only be used with a limit").build();
+            }
+            return Response.ok(stream(accounts.all())).build();
+        }
+        int pageSize = Math.min(limit, MAX_PAGE_SIZE);
+        List<AccountStore.Account> page = accounts.page(after, pageSize);
+        Response.ResponseBuilder builder = Response.ok(stream(page));
+        if (page.size() == pageSize) {
+            builder.link(uriInfo.getRequestUriBuilder().replaceQueryParam("after", page.get(page.size() - 1).getAccountNo()).build(), "next");
+        }
+        return builder.build();
+    }
+
+    private static StreamingOutput stream(Iterable<AccountStore.Account> accounts) {
+        return out -> {
+            try (JsonGenerator generator = Json.createGenerator(out)) {
+                generator.writeStartArray();
+                for (AccountStore.Account account : accounts) {
+                    generator.writeStartObject()
+                            .write("accountNo", account.getAccountNo())
+                            .write("name", account.getClientName())
+                            .write("balance", account.getBalance())
+                            .writeEnd();
+                }
+                generator.writeEnd();
+            }
+        };
+    }
+}
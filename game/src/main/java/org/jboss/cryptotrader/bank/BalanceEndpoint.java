@@ -17,11 +17,14 @@
 
 package org.jboss.cryptotrader.bank;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Observes;
+import javax.inject.Inject;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -32,6 +35,8 @@ import javax.ws.rs.sse.Sse;
 import javax.ws.rs.sse.SseBroadcaster;
 import javax.ws.rs.sse.SseEventSink;
 
+import org.jboss.cryptotrader.sse.EncodedEvent;
+
 /**
  * Endpoint that can be used to query the bank balance, and register for server sent events to be notified of changes
  */
@@ -44,6 +49,9 @@ public class BalanceEndpoint {
 
     private final Map<String, BroadcastHolder> broadcasters = new HashMap<>();
 
+    @Inject
+    private BankMetrics metrics;
+
     /**
      * SSE endpoint for receiving notification about balance changes
      * <p>
@@ -89,7 +97,30 @@ public class BalanceEndpoint {
         }
         //notify any watchers of the account
         if (bc != null) {
-            bc.broadcaster.broadcast(sse.newEvent("balance", event.getBalance().toString()));
+            metrics.trackBalanceBroadcast(bc.broadcaster.broadcast(EncodedEvent.of(event.getBalance().toString()).toOutboundEvent(sse, "balance")));
+        }
+    }
+
+    /**
+     * Method that is notified when a batch of transactions changes many balances at once. The broadcasters are all
+     * looked up while holding the lock once, and the events are sent after it has been released.
+     *
+     * @param event the bank transactions, with at most one for each account
+     */
+    public void transactionBatchEvent(@Observes TransactionBatchEvent event) {
+        List<TransactionEvent> transactions = new ArrayList<>();
+        List<BroadcastHolder> holders = new ArrayList<>();
+        synchronized (broadcasters) {
+            for (TransactionEvent transaction : event.getTransactions()) {
+                BroadcastHolder bc = broadcasters.get(transaction.getAccount());
+                if (bc != null) {
+                    transactions.add(transaction);
+                    holders.add(bc);
+                }
+            }
+        }
+        for (int i = 0; i < holders.size(); ++i) {
+            metrics.trackBalanceBroadcast(holders.get(i).broadcaster.broadcast(EncodedEvent.of(transactions.get(i).getBalance().toString()).toOutboundEvent(sse, "balance")));
         }
     }
 
@@ -0,0 +1,220 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bank;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.inject.Inject;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Endpoint that performs a batch of bank transactions in a single request, this is used by the exchange to pay the
+ * proceeds of trades into many accounts at once.
+ * <p>
+ * The request is an array of transactions:
+ * <p>
+ * [{"accountNo": "1234567", "name": "Joe Blogs", "amount": 10.5}, ...]
+ * <p>
+ * The response is an array with a result for each entry in the same order:
+ * <p>
+ * [{"accountNo": "1234567", "status": "OK", "balance": 1010.5}, {"accountNo": "7654321", "status": "FAILED", "error": "Insufficient funds"}]
+ * <p>
+ * How failures are handled depends on the {@code atomicity} query parameter:
+ * <ul>
+ * <li>independent (the default): each transaction is applied on its own, and one failing does not stop the rest</li>
+ * <li>all: either every transaction is applied or none are, see {@link AccountManager#transactAll}. If one fails
+ * it is reported as FAILED, and every other entry as ABORTED. In the rare case that the bank could not back out
+ * of the batch, the entries that were applied are reported as OK with their balance.</li>
+ * </ul>
+ * Balance events for the whole batch are fired once it has been applied, with only the final balance of each
+ * account.
+ * <p>
+ * A batch can be sent with a {@code batchId} query parameter the caller chose. If the caller does not get an answer
+ * it can send the same batch again with the same id, and it is only applied once: the repeat gets the results of
+ * the original.
+ */
+@Path("/bank/transact/batch")
+@ApplicationScoped
+public class BankBatchTransactEndpoint {
+
+    private static final Logger log = Logger.getLogger(BankBatchTransactEndpoint.class.getName());
+
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("cryptotrader.bank.transact.max-batch-size", 10000);
+    private static final int BATCH_ID_CAPACITY = Integer.getInteger("cryptotrader.bank.batch-ids.capacity", 10000);
+    private static final long BATCH_ID_TTL_SECONDS = Long.getLong("cryptotrader.bank.batch-ids.ttl-seconds", 600);
+
+    private static final String OK = "OK";
+    private static final String FAILED = "FAILED";
+    private static final String ABORTED = "ABORTED";
+
+    /**
+     * What happens to the rest of a batch when a transaction in it fails
+     */
+    enum Atomicity {
+        INDEPENDENT,
+        ALL
+    }
+
+    @Inject
+    private AccountManager accountManager;
+
+    @Inject
+    private Event<TransactionBatchEvent> event;
+
+    /**
+     * The results of recent batches that were sent with an id
+     */
+    private final IdempotencyCache<JsonArray> batchIds = new IdempotencyCache<>(BATCH_ID_CAPACITY, TimeUnit.SECONDS.toMillis(BATCH_ID_TTL_SECONDS));
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public JsonArray transact(JsonArray transactions, @QueryParam("atomicity") @DefaultValue("independent") String atomicity,
+                              @QueryParam("batchId") String batchId) {
+        Atomicity mode;
+        try {
+            mode = Atomicity.valueOf(atomicity.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Unknown atomicity " + atomicity);
+        }
+        if (transactions.size() > MAX_BATCH_SIZE) {
+            throw new BadRequestException("At most " + MAX_BATCH_SIZE + " transactions can be sent at once");
+        }
+        if (batchId == null) {
+            return apply(transactions, mode);
+        }
+        try {
+            return batchIds.execute(batchId, Arrays.asList(mode, transactions), () -> apply(transactions, mode));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+
+    /**
+     * Applies a batch, and fires the balance events
+     */
+    private JsonArray apply(JsonArray transactions, Atomicity mode) {
+        int size = transactions.size();
+        String[] accountNos = new String[size];
+        String[] clientNames = new String[size];
+        BigDecimal[] amounts = new BigDecimal[size];
+        String[] errors = new String[size];
+        int invalid = -1;
+        for (int i = 0; i < size; ++i) {
+            try {
+                JsonObject jsonObject = transactions.get(i).asJsonObject();
+                accountNos[i] = jsonObject.getString("accountNo", null);
+                clientNames[i] = jsonObject.getString("name");
+                amounts[i] = BankTransactEndpoint.readAmount(jsonObject);
+            } catch (RuntimeException e) {
+                errors[i] = String.valueOf(e.getMessage());
+                if (invalid < 0) {
+                    invalid = i;
+                }
+            }
+        }
+
+        BigDecimal[] balances = new BigDecimal[size];
+        String[] statuses = new String[size];
+        if (mode == Atomicity.INDEPENDENT) {
+            for (int i = 0; i < size; ++i) {
+                if (errors[i] != null) {
+                    statuses[i] = FAILED;
+                    continue;
+                }
+                try {
+                    balances[i] = accountManager.transact(accountNos[i], clientNames[i], amounts[i]);
+                    statuses[i] = OK;
+                } catch (RuntimeException e) {
+                    statuses[i] = FAILED;
+                    errors[i] = String.valueOf(e.getMessage());
+                }
+            }
+        } else {
+            int failed = invalid;
+            if (failed < 0) {
+                try {
+                    balances = accountManager.transactAll(accountNos, clientNames, amounts);
+                } catch (AccountManager.BatchFailedException e) {
+                    failed = e.getIndex();
+                    errors[failed] = String.valueOf(e.getMessage());
+                    balances = e.isPartiallyApplied() ? e.getBalances() : new BigDecimal[size];
+                }
+            }
+            for (int i = 0; i < size; ++i) {
+                if (failed < 0 || (balances[i] != null && i != failed)) {
+                    statuses[i] = OK;
+                } else {
+                    statuses[i] = i == failed ? FAILED : ABORTED;
+                }
+            }
+        }
+
+        JsonArrayBuilder results = Json.createArrayBuilder();
+        //only the last balance of each account is of interest to anyone watching it
+        Map<String, TransactionEvent> changed = new LinkedHashMap<>();
+        for (int i = 0; i < size; ++i) {
+            JsonObjectBuilder result = Json.createObjectBuilder();
+            if (accountNos[i] == null) {
+                result.addNull("accountNo");
+            } else {
+                result.add("accountNo", accountNos[i]);
+            }
+            result.add("status", statuses[i]);
+            if (OK.equals(statuses[i])) {
+                result.add("balance", balances[i]);
+                changed.put(accountNos[i], new TransactionEvent(accountNos[i], clientNames[i], balances[i]));
+            } else if (errors[i] != null) {
+                result.add("error", errors[i]);
+            }
+            results.add(result);
+        }
+        if (!changed.isEmpty()) {
+            try {
+                event.fire(new TransactionBatchEvent(changed.values()));
+            } catch (RuntimeException e) {
+                //the batch has been applied, so the caller must get the results or it may send it again
+                log.log(Level.WARNING, "Failed to notify the watchers of a batch of transactions", e);
+            }
+        }
+        return results.build();
+    }
+
+}
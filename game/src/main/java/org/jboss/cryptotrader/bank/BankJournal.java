@@ -0,0 +1,225 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.cryptotrader.bank;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.cryptotrader.journal.SegmentedJournal;
+import org.jboss.cryptotrader.journal.SnapshotFile;
+import org.jboss.cryptotrader.journal.SyncMode;
+
+/**
+ * A durable write ahead journal of changes to the {@link AccountStore}.
+ * <p>
+ * Every opened account and every transaction is appended to a {@link SegmentedJournal} as a record holding the new
+ * balance of the account and the version of the change. As records hold absolute balances rather than amounts, and a
+ * record is only restored if it is newer than what is already known about the account, replaying them is idempotent
+ * and does not depend on the order the records were appended in.
+ * <p>
+ * Periodically a compact snapshot of every account is written, and the segments that were closed before it was
+ * started are deleted. On startup the store is rebuilt from the snapshot, then every remaining journal record is
+ * replayed, with the segments replayed in parallel.
+ * <p>
+ * The journal is told about a change while the account is pending, so in {@link SyncMode#GROUP} mode the change only
+ * becomes visible, and the transaction only returns, once its record is on disk. Only transactions on the same
+ * account wait for each other, everything else shares the forces.
+ */
+public class BankJournal implements AccountStore.Listener, Closeable {
+
+    private static final int JOURNAL_MAGIC = 0x424A524E; //BJRN
+    private static final int SNAPSHOT_MAGIC = 0x42534E50; //BSNP
+
+    private static final String SNAPSHOT = "accounts.snapshot";
+    private static final String JOURNAL_PREFIX = "accounts-";
+
+    private final Path directory;
+    private final SegmentedJournal journal;
+    private volatile long snapshotVersion;
+
+    /**
+     * @param directory   The directory to store the journal and snapshots in
+     * @param syncMode    When records are forced to disk
+     * @param segmentSize The size of each journal segment, in bytes
+     */
+    public BankJournal(Path directory, SyncMode syncMode, int segmentSize) {
+        this.directory = directory;
+        this.journal = new SegmentedJournal(directory, JOURNAL_PREFIX, JOURNAL_MAGIC, syncMode, segmentSize);
+    }
+
+    /**
+     * Rebuilds the store from the most recent snapshot and the journal, then opens a new segment for writing.
+     * <p>
+     * This must be called before the journal is registered as a listener on the store.
+     *
+     * @param store The store to restore, this should be empty
+     * @return The number of journal records that were replayed
+     */
+    public synchronized long recover(AccountStore store) throws IOException {
+        Files.createDirectories(directory);
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            snapshotVersion = readSnapshot(snapshot, store);
+        }
+        AtomicLong replayed = new AtomicLong();
+        //records can be restored in any order, so the segments are replayed in parallel
+        List<SegmentedJournal.Segment> segments = new ArrayList<>();
+        try {
+            journal.listSegments().parallelStream().map(number -> {
+                try {
+                    return journal.replay(number, (version, record) -> {
+                        String accountNo = SegmentedJournal.getString(record);
+                        String clientName = SegmentedJournal.getString(record);
+                        int scale = record.getInt();
+                        byte[] unscaled = new byte[record.getShort()];
+                        record.get(unscaled);
+                        store.restore(accountNo, clientName, new BigDecimal(new BigInteger(unscaled), scale), version);
+                        replayed.incrementAndGet();
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).forEachOrdered(segments::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        journal.open(segments);
+        return replayed.get();
+    }
+
+    /**
+     * Appends the change, then waits for it to be on disk if the sync mode requires it
+     */
+    @Override
+    public void accountChanged(long version, String accountNo, String clientName, BigDecimal balance) {
+        byte[] accountBytes = SegmentedJournal.encode(accountNo);
+        byte[] nameBytes = SegmentedJournal.encode(clientName);
+        byte[] unscaled = balance.unscaledValue().toByteArray();
+        int size = SegmentedJournal.length(accountBytes) + SegmentedJournal.length(nameBytes) + 4 + 2 + unscaled.length;
+        long position = journal.append(version, size, buffer -> {
+            SegmentedJournal.putString(buffer, accountBytes);
+            SegmentedJournal.putString(buffer, nameBytes);
+            buffer.putInt(balance.scale());
+            buffer.putShort((short) unscaled.length);
+            buffer.put(unscaled);
+        });
+        journal.awaitDurable(position);
+    }
+
+    /**
+     * Forces every record appended since the last flush to disk, see {@link SegmentedJournal#flush()}
+     */
+    public void flush() {
+        journal.flush();
+    }
+
+    /**
+     * Writes a snapshot of the store, and deletes any journal segments that are no longer needed.
+     * <p>
+     * The accounts are streamed straight from the store without stopping transactions. A new segment is started
+     * first, and the snapshot waits for any change that is still pending, so for every record in the segments before
+     * it the snapshot sees that change or a later one. Those segments can then be deleted once the snapshot is on
+     * disk.
+     * Changes that happen while the snapshot is being written may or may not be in it, they are also in the new
+     * segment, and replaying them on top of the snapshot is harmless.
+     *
+     * @param store The store
+     * @return false if nothing has changed since the last snapshot, so no snapshot was written
+     */
+    public boolean snapshot(AccountStore store) throws IOException {
+        long version = store.getVersion();
+        if (version == snapshotVersion) {
+            return false;
+        }
+        List<SegmentedJournal.Segment> covered = journal.roll();
+        SnapshotFile.write(directory.resolve(SNAPSHOT), SNAPSHOT_MAGIC, version, out -> {
+            //the number of accounts is not known up front, so each one is preceded by a marker
+            try {
+                store.forEachSettled(account -> {
+                    try {
+                        out.writeBoolean(true);
+                        out.writeLong(account.getVersion());
+                        out.writeUTF(account.getAccountNo());
+                        out.writeUTF(account.getClientName());
+                        out.writeInt(account.getBalance().scale());
+                        byte[] unscaled = account.getBalance().unscaledValue().toByteArray();
+                        out.writeShort(unscaled.length);
+                        out.write(unscaled);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.writeBoolean(false);
+        });
+        snapshotVersion = version;
+        journal.delete(covered);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+
+    public long getRecords() {
+        return journal.getRecords();
+    }
+
+    public long getBytes() {
+        return journal.getBytes();
+    }
+
+    public long getForces() {
+        return journal.getForces();
+    }
+
+    public long getSnapshotVersion() {
+        return snapshotVersion;
+    }
+
+    private static long readSnapshot(Path path, AccountStore store) throws IOException {
+        List<AccountStore.Account> entries = new ArrayList<>();
+        long version = SnapshotFile.read(path, SNAPSHOT_MAGIC, (in, snapshotVersion) -> {
+            while (in.readBoolean()) {
+                long accountVersion = in.readLong();
+                String accountNo = in.readUTF();
+                String clientName = in.readUTF();
+                int scale = in.readInt();
+                byte[] unscaled = new byte[in.readShort()];
+                in.readFully(unscaled);
+                entries.add(new AccountStore.Account(accountNo, clientName, new BigDecimal(new BigInteger(unscaled), scale), accountVersion));
+            }
+            return snapshotVersion;
+        });
+        //only restore once we know the whole snapshot is valid
+        for (AccountStore.Account entry : entries) {
+            store.restore(entry.getAccountNo(), entry.getClientName(), entry.getBalance(), entry.getVersion());
+        }
+        return version;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bank;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.jboss.cryptotrader.metrics.LatencyHistogram;
+import org.jboss.cryptotrader.metrics.MetricsSource;
+import org.jboss.cryptotrader.metrics.MetricsWriter;
+
+/**
+ * Publishes the metrics of the bank
+ */
+@ApplicationScoped
+public class BankMetrics implements MetricsSource {
+
+    @Inject
+    private AccountManager accountManager;
+
+    private final LatencyHistogram balanceBroadcastLatency = new LatencyHistogram();
+    private final AtomicLong balanceBroadcastsInFlight = new AtomicLong();
+
+    /**
+     * Tracks a balance broadcast until it has been sent to every watcher of the account
+     *
+     * @param broadcast The result of {@link javax.ws.rs.sse.SseBroadcaster#broadcast}
+     */
+    public void trackBalanceBroadcast(CompletionStage<?> broadcast) {
+        long start = System.nanoTime();
+        balanceBroadcastsInFlight.incrementAndGet();
+        broadcast.whenComplete((ignored, failure) -> {
+            balanceBroadcastsInFlight.decrementAndGet();
+            balanceBroadcastLatency.recordSince(start);
+        });
+    }
+
+    @Override
+    public void writeMetrics(MetricsWriter writer) {
+        writer.summary("game_bank_transact_duration_seconds", accountManager.getTransactLatency())
+                .summary("game_bank_batch_duration_seconds", accountManager.getBatchLatency())
+                .summary("game_bank_open_duration_seconds", accountManager.getOpenLatency())
+                .counter("game_bank_repeated_transactions_total", accountManager.getRepeatedTransactions())
+                .gauge("game_bank_balance_broadcasts_in_flight", balanceBroadcastsInFlight.get())
+                .summary("game_bank_balance_broadcast_duration_seconds", balanceBroadcastLatency);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jboss.cryptotrader.bank;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.enterprise.concurrent.ManagedScheduledExecutorService;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+
+import org.jboss.cryptotrader.journal.SyncMode;
+import org.jboss.cryptotrader.metrics.MetricsSource;
+import org.jboss.cryptotrader.metrics.MetricsWriter;
+
+/**
+ * Makes the bank durable, by restoring the {@link AccountStore} from the {@link BankJournal} on startup and
+ * journaling every opened account and transaction after that.
+ * <p>
+ * The journal is stored in {@code cryptotrader.bank.data-dir}, which defaults to a directory under the server data
+ * directory. Journaling can be disabled by setting {@code cryptotrader.bank.journal.enabled} to false.
+ * <p>
+ * {@code cryptotrader.bank.journal.sync} sets the {@link SyncMode}, which defaults to group commit. In periodic mode
+ * the journal is flushed every {@code cryptotrader.bank.journal.flush-interval-ms}.
+ */
+@ApplicationScoped
+public class BankPersistence implements MetricsSource {
+
+    private static final Logger log = Logger.getLogger(BankPersistence.class.getName());
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("cryptotrader.bank.journal.enabled", "true"));
+    private static final SyncMode SYNC_MODE = SyncMode.parse(System.getProperty("cryptotrader.bank.journal.sync", "group"));
+    private static final int SEGMENT_SIZE = Integer.getInteger("cryptotrader.bank.journal.segment-size", 16 * 1024 * 1024);
+    private static final long FLUSH_INTERVAL_MS = Long.getLong("cryptotrader.bank.journal.flush-interval-ms", 10);
+    private static final long SNAPSHOT_INTERVAL_SECONDS = Long.getLong("cryptotrader.bank.journal.snapshot-interval-seconds", 60);
+
+    private static final String ACCOUNT_NUMBER_KEY = "account-numbers.key";
+
+    @Inject
+    private AccountManager accountManager;
+
+    @Resource
+    private ManagedScheduledExecutorService managedScheduledExecutorService;
+
+    private AccountStore accounts;
+    private BankJournal journal;
+    private ScheduledFuture<?> snapshotHandle;
+    private ScheduledFuture<?> flushHandle;
+    private volatile long recoveryMillis;
+
+    /**
+     * The accounts must be restored before the first transaction, so we start as soon as the application does
+     */
+    private void start(@Observes @Initialized(ApplicationScoped.class) Object event) {
+    }
+
+    @PostConstruct
+    private void setup() {
+        if (!ENABLED) {
+            return;
+        }
+        accounts = accountManager.getAccounts();
+        Path directory = dataDirectory();
+        journal = new BankJournal(directory, SYNC_MODE, SEGMENT_SIZE);
+        long start = System.nanoTime();
+        long replayed;
+        try {
+            replayed = journal.recover(accounts);
+        } catch (IOException e) {
+            //we don't start with an empty bank, as the next snapshot would overwrite everyone's balance
+            throw new UncheckedIOException("Failed to restore bank accounts from " + directory, e);
+        }
+        try {
+            restoreAccountNumbers(directory.resolve(ACCOUNT_NUMBER_KEY));
+        } catch (IOException | NumberFormatException e) {
+            throw new IllegalStateException("Failed to restore the account number key from " + directory, e);
+        }
+        recoveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("Restored " + accounts.size() + " bank accounts from " + directory + ", replayed " + replayed + " journal records in " + recoveryMillis + "ms");
+        accounts.setListener(journal);
+
+        snapshotHandle = managedScheduledExecutorService.scheduleWithFixedDelay(this::snapshot, SNAPSHOT_INTERVAL_SECONDS, SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        if (SYNC_MODE == SyncMode.PERIODIC) {
+            flushHandle = managedScheduledExecutorService.scheduleWithFixedDelay(journal::flush, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    private void close() {
+        if (journal == null) {
+            return;
+        }
+        snapshotHandle.cancel(false);
+        if (flushHandle != null) {
+            flushHandle.cancel(false);
+        }
+        accounts.setListener(null);
+        snapshot();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Failed to close the bank journal", e);
+        }
+    }
+
+    /**
+     * The same key has to be used after a restart, otherwise new account numbers could land on restored ones
+     */
+    private void restoreAccountNumbers(Path keyFile) throws IOException {
+        if (Files.exists(keyFile)) {
+            accountManager.restoreAccountNumbers(Long.parseLong(new String(Files.readAllBytes(keyFile), StandardCharsets.UTF_8).trim()));
+        } else {
+            Files.write(keyFile, Long.toString(accountManager.getAccountNumberKey()).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void snapshot() {
+        try {
+            journal.snapshot(accounts);
+        } catch (IOException | RuntimeException e) {
+            //the journal still has everything, so we can just try again next time
+            log.log(Level.WARNING, "Failed to write a snapshot of the bank accounts", e);
+        }
+    }
+
+    private static Path dataDirectory() {
+        String dir = System.getProperty("cryptotrader.bank.data-dir");
+        if (dir != null) {
+            return Paths.get(dir);
+        }
+        String base = System.getProperty("jboss.server.data.dir", System.getProperty("java.io.tmpdir"));
+        return Paths.get(base, "cryptotrader-bank");
+    }
+
+    @Override
+    public void writeMetrics(MetricsWriter writer) {
+        if (journal == null) {
+            return;
+        }
+        writer.counter("game_bank_journal_records_total", journal.getRecords())
+                .counter("game_bank_journal_bytes_total", journal.getBytes())
+                .counter("game_bank_journal_forces_total", journal.getForces())
+                .gauge("game_bank_journal_snapshot_version", journal.getSnapshotVersion())
+                .gauge("game_bank_version", accounts.getVersion())
+                .gauge("game_bank_accounts", accounts.size())
+                .gauge("game_bank_journal_recovery_millis", recoveryMillis);
+    }
+}
@@ -35,6 +35,9 @@ import javax.ws.rs.core.MediaType;
 /**
  * Endpoint that performs bank transactions, it delegates all the actual work to
  * {@link AccountManager}
+ * <p>
+ * A transaction can carry a {@code transactionId} that the caller chose. If the caller does not get an answer it can
+ * send the transaction again with the same id, and it will only be applied once.
  */
 @Path("/bank/transact")
 @Dependent
@@ -51,15 +54,21 @@ public class BankTransactEndpoint {
     @Consumes(MediaType.APPLICATION_JSON)
     public void transact(JsonObject jsonObject, @PathParam("accountNo") String accountNo) {
         String clientName = jsonObject.getString("name");
+        BigDecimal amount = readAmount(jsonObject);
+        BigDecimal newBalance = accountManager.transact(jsonObject.getString("transactionId", null), accountNo, clientName, amount);
+        event.fire(new TransactionEvent(accountNo, clientName, newBalance));
+    }
+
+    /**
+     * Reads the amount of a transaction, which can be sent as either a JSON number or a string
+     */
+    static BigDecimal readAmount(JsonObject jsonObject) {
         JsonValue amt = jsonObject.get("amount");
-        BigDecimal amount;
         if(amt.getValueType() == JsonValue.ValueType.NUMBER) {
-            amount = ((JsonNumber)amt).bigDecimalValue();
+            return ((JsonNumber)amt).bigDecimalValue();
         } else {
-            amount = new BigDecimal(((JsonString)amt).getString());
+            return new BigDecimal(((JsonString)amt).getString());
         }
-        BigDecimal newBalance = accountManager.transact(accountNo, clientName, amount);
-        event.fire(new TransactionEvent(accountNo, clientName, newBalance));
     }
 
 }
@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.bank;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the results of recent requests by an id the caller chose, so a request that is sent again because the
+ * caller never got the answer (e.g. its read timed out) is only applied once. The repeat gets the result of the
+ * original, and if the original is still running it waits for it.
+ * <p>
+ * Only successful results are remembered. A request that fails has not changed anything, so a repeat simply runs it
+ * again. Reusing an id for a different request is rejected.
+ * <p>
+ * The ids are only held in memory, so a repeat that arrives after the bank has restarted is applied again. Entries
+ * are evicted in the order they were added once they are older than the time to live, or there are more than the
+ * capacity, so eviction is constant time and needs no background task.
+ *
+ * @param <T> The type of the results
+ */
+final class IdempotencyCache<T> {
+
+    private final int capacity;
+    private final long ttlMillis;
+
+    private final ConcurrentHashMap<String, Entry<T>> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry<T>> order = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * @param capacity  The maximum number of results to remember
+     * @param ttlMillis How long to remember a result for
+     */
+    IdempotencyCache(int capacity, long ttlMillis) {
+        this.capacity = capacity;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Runs a request, unless a request with the same id has already been run
+     *
+     * @param id      The id of the request
+     * @param request What was requested, a repeat must be equal to the original
+     * @param action  Runs the request
+     * @return The result of the request, or of the original request if this is a repeat
+     * @throws IllegalArgumentException if the id has already been used for a different request
+     */
+    T execute(String id, Object request, Supplier<T> action) {
+        return execute(id, request, action, System.currentTimeMillis());
+    }
+
+    T execute(String id, Object request, Supplier<T> action, long now) {
+        Entry<T> entry = new Entry<>(id, request, now);
+        for (; ; ) {
+            Entry<T> existing = entries.putIfAbsent(id, entry);
+            if (existing == null) {
+                break;
+            }
+            if (existing.created + ttlMillis <= now) {
+                //expired but not evicted yet
+                if (entries.replace(id, existing, entry)) {
+                    break;
+                }
+                continue;
+            }
+            if (!Objects.equals(existing.request, request)) {
+                throw new IllegalArgumentException("Transaction id " + id + " has already been used for a different transaction");
+            }
+            try {
+                T result = existing.result.join();
+                hits.incrementAndGet();
+                return result;
+            } catch (CompletionException e) {
+                //the original failed and has been forgotten, nothing was changed so the repeat runs it again
+            }
+        }
+        order.add(entry);
+        evict(now);
+        try {
+            T result = action.get();
+            entry.result.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            entries.remove(id, entry);
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private void evict(long now) {
+        Entry<T> oldest;
+        while ((oldest = order.peek()) != null && (oldest.created + ttlMillis <= now || entries.size() > capacity)) {
+            if (order.remove(oldest)) {
+                entries.remove(oldest.id, oldest);
+            }
+        }
+    }
+
+    /**
+     * @return The number of results that are remembered
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The number of repeated requests that were answered with the original result
+     */
+    long getHits() {
+        return hits.get();
+    }
+
+    private static final class Entry<T> {
+        final String id;
+        final Object request;
+        final long created;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Entry(String id, Object request, long created) {
+            this.id = id;
+            this.request = request;
+            this.created = created;
+        }
+    }
+}
@@ -17,10 +17,17 @@
 
 package org.jboss.cryptotrader.bank;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
+import javax.json.JsonValue;
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
@@ -34,6 +41,8 @@ import javax.ws.rs.core.MediaType;
 @Dependent
 public class OpenEndpoint {
 
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("cryptotrader.bank.open.max-batch-size", 10000);
+
     @Inject
     private AccountManager accountManager;
 
@@ -50,4 +59,42 @@ public class OpenEndpoint {
                 .build();
     }
 
+    /**
+     * Opens many accounts in one request, e.g. to sign up every player of a tournament at once.
+     * <p>
+     * The request is an array of the same objects that are sent to open a single account, and the result is an array
+     * of the new accounts in the same order. Each account is opened on its own, an entry that could not be opened has
+     * an error instead of an account number, and the other entries are still opened.
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("/batch")
+    public JsonArray openBatch(JsonArray requests) {
+        if (requests.size() > MAX_BATCH_SIZE) {
+            throw new BadRequestException("At most " + MAX_BATCH_SIZE + " accounts can be opened at once");
+        }
+        List<String> clientNames = new ArrayList<>(requests.size());
+        for (JsonValue request : requests) {
+            if (request.getValueType() != JsonValue.ValueType.OBJECT) {
+                throw new BadRequestException("Every entry must be an object with a name");
+            }
+            clientNames.add(((JsonObject) request).getString("name"));
+        }
+        AccountManager.OpenResult[] results = accountManager.openAccounts(clientNames);
+        JsonArrayBuilder ret = Json.createArrayBuilder();
+        for (int i = 0; i < results.length; ++i) {
+            String accountNo = results[i].getAccountNo();
+            if (accountNo == null) {
+                ret.add(Json.createObjectBuilder().add("name", clientNames.get(i))
+                        .add("error", results[i].getFailure()));
+                continue;
+            }
+            ret.add(Json.createObjectBuilder().add("accountNo", accountNo)
+                    .add("name", clientNames.get(i))
+                    .add("balance", accountManager.getBalance(accountNo, clientNames.get(i))));
+        }
+        return ret.build();
+    }
+
 }
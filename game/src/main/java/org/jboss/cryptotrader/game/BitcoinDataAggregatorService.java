@@ -79,6 +79,13 @@ public class BitcoinDataAggregatorService {
     @Inject
     private Event<BroadcastEvent> broadcast;
 
+    /**
+     * The last aggregate that was sent, if it contained no news. If the price has not changed since then the same
+     * event is sent again rather than building and encoding identical JSON. Only accessed by the timer.
+     */
+    private BroadcastEvent lastQuietMessage;
+    private BigDecimal lastPrice;
+
 
     @PostConstruct
     private void setup() {
@@ -109,17 +116,29 @@ public class BitcoinDataAggregatorService {
      * This method is called every two seconds to send out aggregate updates to clients
      */
     public void sendMessages() {
-        JsonArrayBuilder newsArray = Json.createArrayBuilder();
+        BigDecimal price = bitcoinPrice;
+        JsonArrayBuilder newsArray = null;
         synchronized (newsMessages) {
-            newsMessages.forEach(newsArray::add);
-            newsMessages.clear();
+            if (!newsMessages.isEmpty()) {
+                newsArray = Json.createArrayBuilder();
+                newsMessages.forEach(newsArray::add);
+                newsMessages.clear();
+            }
+        }
+        if (newsArray == null && lastQuietMessage != null && price.equals(lastPrice)) {
+            broadcast.fireAsync(lastQuietMessage);
+            return;
         }
         String message = Json.createObjectBuilder()
-                .add("bitcoin", bitcoinPrice)
-                .add("news", newsArray)
+                .add("bitcoin", price)
+                .add("news", newsArray == null ? Json.createArrayBuilder() : newsArray)
                 .build()
                 .toString();
-        broadcast.fireAsync(new BroadcastEvent("bitcoin", message));
+        BroadcastEvent event = new BroadcastEvent("bitcoin", message);
+        //news must only be sent once, so an event with news is never reused
+        lastQuietMessage = newsArray == null ? event : null;
+        lastPrice = price;
+        broadcast.fireAsync(event);
     }
 
 }
@@ -24,15 +24,28 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.ObservesAsync;
+import javax.inject.Inject;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.sse.Sse;
-import javax.ws.rs.sse.SseBroadcaster;
 import javax.ws.rs.sse.SseEventSink;
 
+import org.jboss.cryptotrader.sse.EncodedEvent;
+import org.jboss.cryptotrader.sse.ReplayingBroadcaster;
+
+/**
+ * Endpoint that sends aggregated game data to the browsers using server sent events.
+ * <p>
+ * New watchers are sent the latest event of each name, so they start with the current state. Watchers that
+ * reconnect with a Last-Event-ID are sent exactly the events they missed, or if too many have been missed a reset
+ * event followed by the latest state. The number of events kept for this is set with
+ * {@code cryptotrader.sse.replay-size}.
+ */
 @Path("/broadcast")
 @ApplicationScoped
 public class BroadcastEndpoint {
@@ -40,24 +53,38 @@ public class BroadcastEndpoint {
     /**
      * broadcaster used to notify clients of events
      */
-    private SseBroadcaster broadcaster;
+    private ReplayingBroadcaster broadcaster;
 
     @Context
     private Sse sse;
 
-    private final Map<String, BroadcastEvent> mostRecent = new ConcurrentHashMap<>();
+    @Inject
+    private GameMetrics metrics;
+
+    /**
+     * The most recent event of each type, already encoded so it can be sent again without encoding it again
+     */
+    private final Map<String, Encoded> mostRecent = new ConcurrentHashMap<>();
 
 
     private void event(@ObservesAsync BroadcastEvent event) {
-        broadcaster.broadcast(sse.newEvent(event.getName(), event.getData()));
-        mostRecent.put(event.getName(), event);
+        Encoded previous = mostRecent.get(event.getName());
+        EncodedEvent data;
+        if (previous != null && previous.source == event) {
+            //the same event is being sent again, so there is no need to encode it again
+            data = previous.data;
+        } else {
+            data = EncodedEvent.of(event.getData());
+            mostRecent.put(event.getName(), new Encoded(event, data));
+        }
+        metrics.trackBroadcast(broadcaster.broadcast(event.getName(), data));
     }
 
 
     @PostConstruct
     private void setup() {
         //set up the SSE broadcaster
-        broadcaster = sse.newBroadcaster();
+        broadcaster = new ReplayingBroadcaster(sse, Integer.getInteger("cryptotrader.sse.replay-size", 1024), true);
     }
 
     @PreDestroy
@@ -67,10 +94,17 @@ public class BroadcastEndpoint {
 
     @Produces(MediaType.SERVER_SENT_EVENTS)
     @GET
-    public void watch(@Context SseEventSink sink) {
-        broadcaster.register(sink);
-        for (Map.Entry<String, BroadcastEvent> e : mostRecent.entrySet()) {
-            sink.send(sse.newEvent(e.getKey(), e.getValue().getData()));
+    public void watch(@Context SseEventSink sink, @HeaderParam(HttpHeaders.LAST_EVENT_ID_HEADER) String lastEventId) {
+        broadcaster.register(sink, lastEventId);
+    }
+
+    private static final class Encoded {
+        final BroadcastEvent source;
+        final EncodedEvent data;
+
+        Encoded(BroadcastEvent source, EncodedEvent data) {
+            this.source = source;
+            this.data = data;
         }
     }
 }
@@ -32,7 +32,8 @@ class ExchangeService {
     public static final String BITCOIN_PRICE;
     public static final String BITCOIN_TRADE;
     public static final String BITCOIN_NEWS;
-    public static final String BITCOIN_ALL_HOLDINGS;
+    public static final String HOLDINGS;
+    public static final String INSTRUMENTS;
 
     static {
         String host;
@@ -47,7 +48,8 @@ class ExchangeService {
         BITCOIN_PRICE_WATCH = BASE_URL + "/bitcoin/price/watch";
         BITCOIN_PRICE = BASE_URL + "/bitcoin/price";
         BITCOIN_TRADE = BASE_URL + "/bitcoin/trade";
-        BITCOIN_ALL_HOLDINGS = BASE_URL + "/bitcoin/trade/holdings";
+        HOLDINGS = BASE_URL + "/holdings";
         BITCOIN_NEWS = BASE_URL + "/bitcoin/news";
+        INSTRUMENTS = BASE_URL + "/instruments";
     }
 }
@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.game;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.jboss.cryptotrader.metrics.LatencyHistogram;
+import org.jboss.cryptotrader.metrics.MetricsSource;
+import org.jboss.cryptotrader.metrics.MetricsWriter;
+
+/**
+ * Publishes the metrics of the game: the leader board updates, and the broadcasts to every player
+ */
+@ApplicationScoped
+public class GameMetrics implements MetricsSource {
+
+    private final LatencyHistogram leaderBoardLatency = new LatencyHistogram();
+    private final AtomicLong leaderBoardUpdatesInFlight = new AtomicLong();
+    private final LatencyHistogram broadcastLatency = new LatencyHistogram();
+    private final AtomicLong broadcastsInFlight = new AtomicLong();
+
+    /**
+     * Tracks a leader board update, from when it starts fetching data from the exchange until the new board has
+     * been handed to the broadcaster
+     */
+    public void trackLeaderBoardUpdate(long start, CompletionStage<?> update) {
+        leaderBoardUpdatesInFlight.incrementAndGet();
+        update.whenComplete((ignored, failure) -> {
+            leaderBoardUpdatesInFlight.decrementAndGet();
+            leaderBoardLatency.recordSince(start);
+        });
+    }
+
+    /**
+     * Tracks a broadcast until it has been sent to every watcher
+     *
+     * @param broadcast The result of {@link javax.ws.rs.sse.SseBroadcaster#broadcast}
+     */
+    public void trackBroadcast(CompletionStage<?> broadcast) {
+        long start = System.nanoTime();
+        broadcastsInFlight.incrementAndGet();
+        broadcast.whenComplete((ignored, failure) -> {
+            broadcastsInFlight.decrementAndGet();
+            broadcastLatency.recordSince(start);
+        });
+    }
+
+    @Override
+    public void writeMetrics(MetricsWriter writer) {
+        writer.gauge("game_leaderboard_updates_in_flight", leaderBoardUpdatesInFlight.get())
+                .summary("game_leaderboard_update_duration_seconds", leaderBoardLatency)
+                .gauge("game_broadcasts_in_flight", broadcastsInFlight.get())
+                .summary("game_broadcast_duration_seconds", broadcastLatency);
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.game;
+
+import javax.enterprise.context.ApplicationScoped;
+
+import org.jboss.cryptotrader.throttle.TradeAdmission;
+
+/**
+ * Decides whether a trade is let in, so one scripted player can't flood the exchange and the bank.
+ * <p>
+ * Each account has a token bucket, set with {@code cryptotrader.trade.rate} (trades per second) and
+ * {@code cryptotrader.trade.burst}, and there is a limit on the number of trades waiting for the exchange,
+ * {@code cryptotrader.trade.max-concurrent}.
+ */
+@ApplicationScoped
+public class GameTradeAdmission extends TradeAdmission {
+
+    private static final double RATE = Double.parseDouble(System.getProperty("cryptotrader.trade.rate", "10"));
+    private static final int BURST = Integer.getInteger("cryptotrader.trade.burst", 20);
+    private static final int MAX_CONCURRENT = Integer.getInteger("cryptotrader.trade.max-concurrent", 10000);
+    private static final int MAX_BUCKETS = Integer.getInteger("cryptotrader.trade.max-buckets", 100000);
+
+    public GameTradeAdmission() {
+        super("game", RATE, BURST, MAX_CONCURRENT, MAX_BUCKETS);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+/**
+ * A copy of the holdings of every player on the exchange, kept up to date by polling the exchange for changes.
+ * <p>
+ * The exchange sends a full snapshot the first time, and after that only the holdings that have changed since the
+ * version we are up to, so keeping the copy up to date costs as much as there has been trading, no matter how many
+ * players there are.
+ */
+public class HoldingsMirror {
+
+    private static final String BITCOIN = "BTC";
+
+    private final Map<List<String>, JsonObject> holdings = new HashMap<>();
+
+    private long version = -1;
+
+    /**
+     * @return The version to ask the exchange for changes since, this is negative until the first snapshot arrives
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Applies a response from the exchange holdings endpoint
+     *
+     * @param delta The changes, or a full snapshot
+     */
+    public synchronized void apply(JsonObject delta) {
+        if (delta.getBoolean("full")) {
+            holdings.clear();
+        }
+        for (JsonValue value : delta.getJsonArray("holdings")) {
+            JsonObject holding = value.asJsonObject();
+            holdings.put(Arrays.asList(holding.getString("name"), holding.getString("bankAccountNo"), holding.getString("symbol", BITCOIN)), holding);
+        }
+        version = delta.getJsonNumber("version").longValue();
+    }
+
+    /**
+     * @return The current holdings, in the same format as the exchange sends them
+     */
+    public synchronized List<JsonObject> getHoldings() {
+        return new ArrayList<>(holdings.values());
+    }
+}
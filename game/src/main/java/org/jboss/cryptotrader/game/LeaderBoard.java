@@ -0,0 +1,168 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.game;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+/**
+ * Ranks players by net worth, which is the value of all their holdings on the exchange plus their bank balance.
+ * <p>
+ * Only the top of the board is kept while ranking, so ranking n players for a board of size k is O(n log k) rather
+ * than sorting everyone.
+ */
+public class LeaderBoard {
+
+    private static final String NAME = "name";
+    private static final String BANK_ACCOUNT_NO = "bankAccountNo";
+    private static final String UNITS = "units";
+    private static final String VALUE = "value";
+    private static final String SYMBOL = "symbol";
+    private static final String PRICE = "price";
+    private static final String BITCOIN = "BTC";
+
+    private static final Comparator<Entry> BY_NET_WORTH = Comparator.comparing(Entry::getNetWorth);
+
+    private final int size;
+
+    /**
+     * @param size The number of players on the board
+     */
+    public LeaderBoard(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @param instruments The instrument list from the exchange
+     * @return The price of each instrument, keyed by symbol
+     */
+    public static Map<String, BigDecimal> prices(JsonArray instruments) {
+        Map<String, BigDecimal> prices = new HashMap<>();
+        for (JsonValue i : instruments) {
+            JsonObject o = i.asJsonObject();
+            prices.put(o.getString(SYMBOL), o.getJsonNumber(PRICE).bigDecimalValue());
+        }
+        return prices;
+    }
+
+    /**
+     * Ranks the players
+     *
+     * @param holdings The holdings of every player, in the format the exchange sends them
+     * @param prices   The price of each instrument
+     * @param balances Used to look up bank balances
+     * @return The top players, richest first
+     */
+    public List<Entry> rank(Iterable<? extends JsonValue> holdings, Map<String, BigDecimal> prices, BalanceLookup balances) {
+        //a user has a separate holding for every instrument they own
+        Map<List<String>, Entry> users = new HashMap<>();
+        for (JsonValue d : holdings) {
+            JsonObject o = d.asJsonObject();
+            BigDecimal price = prices.get(o.getString(SYMBOL, BITCOIN));
+            if (price == null) {
+                continue;
+            }
+            BigDecimal value = o.getJsonNumber(UNITS).bigDecimalValue().multiply(price, MathContext.DECIMAL128);
+            String name = o.getString(NAME);
+            String bankAccountNo = o.getString(BANK_ACCOUNT_NO);
+            users.merge(Arrays.asList(name, bankAccountNo), new Entry(name, bankAccountNo, value), (a, b) -> {
+                a.netWorth = a.netWorth.add(b.netWorth);
+                return a;
+            });
+        }
+        //the head of the queue is the poorest player on the board
+        PriorityQueue<Entry> top = new PriorityQueue<>(size + 1, BY_NET_WORTH);
+        for (Entry user : users.values()) {
+            try {
+                user.netWorth = user.netWorth.add(balances.getBalance(user.getBankAccountNo(), user.getName()));
+            } catch (Exception e) {
+                //ignore. It is possible if the bank was restarted after the exchange there may be some mismatches
+            }
+            if (top.size() < size) {
+                top.add(user);
+            } else if (size > 0 && BY_NET_WORTH.compare(user, top.peek()) > 0) {
+                top.poll();
+                top.add(user);
+            }
+        }
+        List<Entry> ret = new ArrayList<>(top);
+        ret.sort(Collections.reverseOrder(BY_NET_WORTH));
+        return ret;
+    }
+
+    /**
+     * @return The board in the JSON format that is sent to clients
+     */
+    public static JsonArray toJson(List<Entry> board) {
+        JsonArrayBuilder result = Json.createArrayBuilder();
+        for (Entry user : board) {
+            result.add(Json.createObjectBuilder()
+                    .add(NAME, user.getName())
+                    .add(VALUE, user.getNetWorth()));
+        }
+        return result.build();
+    }
+
+    /**
+     * Looks up the bank balance of a player
+     */
+    public interface BalanceLookup {
+        BigDecimal getBalance(String accountNo, String clientName);
+    }
+
+    /**
+     * A player on the board
+     */
+    public static final class Entry {
+        private final String name;
+        private final String bankAccountNo;
+        private BigDecimal netWorth;
+
+        Entry(String name, String bankAccountNo, BigDecimal netWorth) {
+            this.name = name;
+            this.bankAccountNo = bankAccountNo;
+            this.netWorth = netWorth;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getBankAccountNo() {
+            return bankAccountNo;
+        }
+
+        public BigDecimal getNetWorth() {
+            return netWorth;
+        }
+    }
+}
@@ -18,11 +18,9 @@
 package org.jboss.cryptotrader.game;
 
 import java.math.BigDecimal;
-import java.math.MathContext;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -32,13 +30,11 @@ import javax.ejb.Schedule;
 import javax.ejb.Singleton;
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
-import javax.json.Json;
 import javax.json.JsonArray;
-import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
-import javax.json.JsonValue;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import org.jboss.cryptotrader.bank.AccountManager;
@@ -51,10 +47,14 @@ import org.jboss.cryptotrader.bank.AccountManager;
 public class LeaderBoardService {
 
 
-    private static final String NAME = "name";
-    private static final String BANK_ACCOUNT_NO = "bankAccountNo";
-    private static final String UNITS = "units";
-    private static final String VALUE = "value";
+    private final LeaderBoard leaderBoard = new LeaderBoard(5);
+
+    /**
+     * Rather than fetching every holding each time, we only fetch what has changed since the last update
+     */
+    private final HoldingsMirror holdingsMirror = new HoldingsMirror();
+
+    private final AtomicBoolean updating = new AtomicBoolean();
 
     @Inject
     private AccountManager accountManager;
@@ -64,6 +64,9 @@ public class LeaderBoardService {
     @Inject
     private Event<BroadcastEvent> broadcast;
 
+    @Inject
+    private GameMetrics metrics;
+
     @PostConstruct
     private void setup() {
         client = ClientBuilder.newClient();
@@ -76,86 +79,37 @@ public class LeaderBoardService {
 
     @Schedule(second = "1,10,20,30,40,50", hour = "*", minute = "*")
     public void sendUpdate() {
-        //we need to get the holdings and the price
+        if (!updating.compareAndSet(false, true)) {
+            //the last update has not finished yet, the holdings mirror must only be updated by one at a time
+            return;
+        }
+        long start = System.nanoTime();
+        //we need to get the holdings changes and the price of every instrument
         //we make two different requests and use the thenCombine method to
         //await both results
         CompletionStage<Response> holdings = client
-                .target(ExchangeService.BITCOIN_ALL_HOLDINGS)
-                .request()
+                .target(ExchangeService.HOLDINGS)
+                .queryParam("since", holdingsMirror.getVersion())
+                .request(MediaType.APPLICATION_JSON)
                 .rx()
                 .get();
 
-        client
-                .target(ExchangeService.BITCOIN_PRICE)
-                .request()
+        CompletionStage<Void> update = client
+                .target(ExchangeService.INSTRUMENTS)
+                .request(MediaType.APPLICATION_JSON)
                 .rx()
                 .get()
                 .thenAcceptBoth(holdings, (priceResponse, holdingsResponse) -> {
                     if (holdingsResponse.getStatus() != 200 || priceResponse.getStatus() != 200) {
                         return;
                     }
-                    BigDecimal price = new BigDecimal(priceResponse.readEntity(String.class));
-                    JsonArray data = holdingsResponse.readEntity(JsonArray.class);
-                    List<User> users = new ArrayList<>();
-                    for (JsonValue d : data) {
-                        JsonObject o = d.asJsonObject();
-                        BigDecimal holdings1 = o.getJsonNumber(UNITS).bigDecimalValue();
-                        users.add(new User(o.getString(NAME), o.getString(BANK_ACCOUNT_NO), holdings1.multiply(price, MathContext.DECIMAL128)));
-                    }
-                    for (User user : users) {
-                        try {
-                            BigDecimal accountBalance = accountManager.getBalance(user.getBankAccountNo(), user.getName());
-                            user.setNetWorth(user.getNetWorth().add(accountBalance));
-                        } catch (Exception e) {
-                            //ignore. It is possible if the bank was restarted after the exchange there may be some mismatches
-                        }
-
-                    }
-                    users.sort(Comparator.reverseOrder());
-                    JsonArrayBuilder result = Json.createArrayBuilder();
-                    for (int i = 0; i < Math.min(5, users.size()); ++i) {
-                        User user = users.get(i);
-                        result.add(Json.createObjectBuilder()
-                                .add(NAME, user.getName())
-                                .add(VALUE, user.getNetWorth()));
-                    }
-                    broadcast.fireAsync(new BroadcastEvent("leaderboard", result.build().toString()));
+                    Map<String, BigDecimal> prices = LeaderBoard.prices(priceResponse.readEntity(JsonArray.class));
+                    holdingsMirror.apply(holdingsResponse.readEntity(JsonObject.class));
+                    JsonArray result = LeaderBoard.toJson(leaderBoard.rank(holdingsMirror.getHoldings(), prices, accountManager::getBalance));
+                    broadcast.fireAsync(new BroadcastEvent("leaderboard", result.toString()));
                 });
-
-
-    }
-
-    private class User implements Comparable<User> {
-        private final String name;
-        private final String bankAccountNo;
-        private BigDecimal netWorth;
-
-        public User(String name, String bankAccountNo, BigDecimal netWorth) {
-            this.name = name;
-            this.bankAccountNo = bankAccountNo;
-            this.netWorth = netWorth;
-        }
-
-        public String getName() {
-            return name;
-        }
-
-        public String getBankAccountNo() {
-            return bankAccountNo;
-        }
-
-        public BigDecimal getNetWorth() {
-            return netWorth;
-        }
-
-        public void setNetWorth(BigDecimal netWorth) {
-            this.netWorth = netWorth;
-        }
-
-        @Override
-        public int compareTo(User o) {
-            return netWorth.compareTo(o.netWorth);
-        }
+        update.whenComplete((ignored, failure) -> updating.set(false));
+        metrics.trackLeaderBoardUpdate(start, update);
     }
 
 }
@@ -34,11 +34,20 @@ import javax.enterprise.concurrent.ManagedScheduledExecutorService;
 import javax.enterprise.context.ApplicationScoped;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.sse.InboundSseEvent;
 import javax.ws.rs.sse.SseEventSource;
 
+import org.jboss.cryptotrader.sse.ReplayingBroadcaster;
+
 /**
  * Manager classs that deals with SSE clients, and handles automatic reconnect in the event of error.
+ * <p>
+ * Each connection remembers the id of the last event it received, and sends it as the Last-Event-ID header when it
+ * reconnects, so endpoints that support it can send the events that were missed while it was disconnected. If too
+ * many were missed the endpoint sends a {@link ReplayingBroadcaster#RESET} event, which is logged rather than being
+ * passed on to the message handler.
  */
 @ApplicationScoped
 public class PersistentSseClientFactory {
@@ -93,6 +102,11 @@ public class PersistentSseClientFactory {
         private final Consumer<InboundSseEvent> messageHandler;
         private final String target;
 
+        /**
+         * The id of the last event that was received, only written by the event source that is currently open
+         */
+        private volatile String lastEventId;
+
         private boolean closed;
         private SseEventSource source;
         private boolean reconnectScheduled = false;
@@ -111,11 +125,17 @@ public class PersistentSseClientFactory {
             reconnectScheduled = false;
             log.info("Attempting to connect to " + target);
 
-            //create the SSE connection object
+            //create the SSE connection object, picking up where the last one left off
             source = SseEventSource.target(client.
-                    target(target)).build();
+                    target(target)
+                    .register((ClientRequestFilter) request -> {
+                        String id = lastEventId;
+                        if (id != null) {
+                            request.getHeaders().putSingle(HttpHeaders.LAST_EVENT_ID_HEADER, id);
+                        }
+                    })).build();
             //register the message and error handlers
-            source.register(messageHandler, throwable -> {
+            source.register(this::onEvent, throwable -> {
                 try {
                     log.info("Connection to " + target + " closed, attempting reconnect");
                     source.close();
@@ -126,6 +146,17 @@ public class PersistentSseClientFactory {
             source.open(); //open the connection
         }
 
+        private void onEvent(InboundSseEvent event) {
+            if (event.getId() != null) {
+                lastEventId = event.getId();
+            }
+            if (ReplayingBroadcaster.RESET.equals(event.getName())) {
+                log.warning("Events from " + target + " were lost while it was disconnected");
+                return;
+            }
+            messageHandler.accept(event);
+        }
+
         /**
          * If the connection fails we wait a few seconds then try again
          */
@@ -17,9 +17,18 @@
 
 package org.jboss.cryptotrader.game;
 
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.json.Json;
 import javax.json.JsonObject;
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
@@ -29,22 +38,50 @@ import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import org.jboss.cryptotrader.bank.AccountManager;
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
+
 /**
  * The front end trading endpoint. This basically just forwards requests to the trading service using the
  * new JAX-RS RX client.
- *
+ * <p>
+ * Every trade is given a client order id if it does not already have one, so if the exchange can't be reached or
+ * fails the trade is sent again ({@code cryptotrader.trade.retries} times). The exchange uses the id to make sure
+ * the trade is only executed once.
+ * <p>
+ * Players that trade too fast are turned away by the {@link GameTradeAdmission} before anything is sent to the exchange,
+ * and if the exchange turns a trade away the client is told how long to wait in the same way. Trades for an account
+ * the bank does not know are rejected first, so they can't fill up the admission's rate limit buckets.
+ * <p>
+ * Every trade goes through one shared client, with a pool of {@code cryptotrader.trade.pool-size} connections to the
+ * exchange.
  */
 @Path("/trade")
+@ApplicationScoped
 public class TradingEndpoint {
 
+    private static final Logger log = Logger.getLogger(TradingEndpoint.class.getName());
+
+    private static final int RETRIES = Integer.getInteger("cryptotrader.trade.retries", 2);
+    private static final int POOL_SIZE = Integer.getInteger("cryptotrader.trade.pool-size", 50);
+
     private Client client;
 
+    @Inject
+    private GameTradeAdmission admission;
+
+    @Inject
+    private AccountManager accountManager;
+
     @PostConstruct
     private void setup() {
-        client = ClientBuilder.newClient();
+        ClientBuilder builder = ClientBuilder.newBuilder();
+        configurePool(builder);
+        client = builder.build();
     }
 
     @PreDestroy
@@ -52,23 +89,80 @@ public class TradingEndpoint {
         client.close();
     }
 
+    /**
+     * The JAX-RS API has no way to configure a connection pool, and by default RESTEasy only uses a single
+     * connection per client, which would make every trade wait for the one before it.
+     */
+    private static void configurePool(ClientBuilder builder) {
+        try {
+            if (builder instanceof ResteasyClientBuilder) {
+                ((ResteasyClientBuilder) builder)
+                        .connectionPoolSize(POOL_SIZE)
+                        .maxPooledPerRoute(POOL_SIZE)
+                        .connectionTTL(1, TimeUnit.MINUTES);
+                return;
+            }
+        } catch (LinkageError e) {
+            //RESTEasy is not visible to the deployment
+        }
+        log.warning("Unable to configure the exchange client connection pool, using the JAX-RS implementation defaults");
+    }
+
     @Path("/bitcoin")
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces({MediaType.TEXT_PLAIN})
     public void bitcoin(@Suspended AsyncResponse response, JsonObject jsonObject) {
+        String accountNo = jsonObject.getString("bankAccountNo", null);
+        if (accountNo == null || !accountManager.getAccounts().exists(accountNo)) {
+            throw new BadRequestException("Unknown bank account " + accountNo);
+        }
+        admission.admit(accountNo);
+        try {
+            JsonObject trade = jsonObject;
+            if (!trade.containsKey("clientOrderId")) {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                trade = Json.createObjectBuilder(trade).add("clientOrderId", new UUID(random.nextLong(), random.nextLong()).toString()).build();
+            }
+            send(response, trade, RETRIES);
+        } catch (RuntimeException e) {
+            admission.release();
+            throw e;
+        }
+    }
+
+    private void send(AsyncResponse response, JsonObject trade, int retries) {
         //connect to the trading service
         client
                 .target(ExchangeService.BITCOIN_TRADE)
                 .request(MediaType.APPLICATION_JSON)
                 .rx() //use the RX invoker
-                .post(Entity.entity(jsonObject, MediaType.APPLICATION_JSON_TYPE))
+                .post(Entity.entity(trade, MediaType.APPLICATION_JSON_TYPE))
                 .whenComplete((r, e) -> {
                     //this callback is invoked when the request is complete
+                    if (retries > 0 && (e != null || r.getStatus() >= Response.Status.INTERNAL_SERVER_ERROR.getStatusCode())) {
+                        //we don't know if the trade went through, but as it has an id it is safe to send it again
+                        if (r != null) {
+                            r.close();
+                        }
+                        try {
+                            send(response, trade, retries - 1);
+                        } catch (RuntimeException failure) {
+                            //nothing would see this exception, so we have to finish the trade here
+                            admission.release();
+                            response.resume(Response.serverError().build());
+                        }
+                        return;
+                    }
+                    admission.release();
                     if (e != null) {
                         response.resume(Response.serverError().build());
                     } else if(r.getStatus() == Response.Status.BAD_REQUEST.getStatusCode()) {
                         response.resume(Response.status(Response.Status.BAD_REQUEST).entity(r.readEntity(String.class)).build());
+                    } else if (r.getStatus() == Response.Status.TOO_MANY_REQUESTS.getStatusCode()) {
+                        response.resume(Response.status(Response.Status.TOO_MANY_REQUESTS)
+                                .header(HttpHeaders.RETRY_AFTER, r.getHeaderString(HttpHeaders.RETRY_AFTER))
+                                .entity(r.readEntity(String.class)).build());
                     } else if(r.getStatus() == Response.Status.OK.getStatusCode()) {
                         //the trading endpoint responds in JSON, but we
                         //just want to respond in plain text
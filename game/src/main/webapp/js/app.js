@@ -75,7 +75,7 @@ class App extends React.Component {
                 body: JSON.stringify({name: this.state.name, bankAccountNo: this.state.accountNo, units: units})
             }).then((response) => {
                     this.setState({processing: false})
-                    if(response.status == 400) {
+                    if(response.status == 400 || response.status == 429) {
                         response.text().then((data) => {
                             this.setState({errorMessage : data})
                         })
@@ -1,6 +1,15 @@
 package org.jboss.cryptotrader.bank;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -45,4 +54,182 @@ public class AccountManagerTestCase {
 
     }
 
+    @Test
+    public void testTransactionIdIsOnlyAppliedOnce() {
+        AccountManager manager = new AccountManager();
+        String stuartNo = manager.openAccount(STUART);
+
+        Assert.assertEquals(900, manager.transact("t1", stuartNo, STUART, BigDecimal.valueOf(-100)).intValue());
+        //sent again because the answer was lost
+        Assert.assertEquals(900, manager.transact("t1", stuartNo, STUART, new BigDecimal("-100.00")).intValue());
+        Assert.assertEquals(900, manager.getBalance(stuartNo, STUART).intValue());
+        Assert.assertEquals(1, manager.getRepeatedTransactions());
+
+        //the same id for a different transaction is rejected
+        try {
+            manager.transact("t1", stuartNo, STUART, BigDecimal.valueOf(-200));
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+
+        }
+
+        //a failed transaction changed nothing, so it is not remembered
+        try {
+            manager.transact("t2", stuartNo, STUART, BigDecimal.valueOf(-2000));
+            Assert.fail();
+        } catch (RuntimeException expected) {
+
+        }
+        manager.transact(stuartNo, STUART, BigDecimal.valueOf(1100));
+        Assert.assertEquals(0, manager.transact("t2", stuartNo, STUART, BigDecimal.valueOf(-2000)).intValue());
+    }
+
+    @Test
+    public void testTransactAllIsAllOrNothing() {
+        AccountManager manager = new AccountManager();
+        String stuartNo = manager.openAccount(STUART);
+        String joeNo = manager.openAccount(JOE);
+
+        //stuart pays joe more than he has, which works as joe pays him first
+        BigDecimal[] balances = manager.transactAll(new String[]{stuartNo, joeNo, joeNo, stuartNo},
+                new String[]{STUART, JOE, JOE, STUART},
+                new BigDecimal[]{BigDecimal.valueOf(-1500), BigDecimal.valueOf(1500), BigDecimal.valueOf(-600), BigDecimal.valueOf(600)});
+        Assert.assertEquals(100, balances[0].intValue());
+        Assert.assertEquals(1900, balances[1].intValue());
+        Assert.assertEquals(100, balances[3].intValue());
+
+        //joe cannot cover the second debit, so the first must be undone
+        String[] accountNos = {joeNo, stuartNo, joeNo};
+        String[] names = {JOE, STUART, JOE};
+        try {
+            manager.transactAll(new String[]{stuartNo, joeNo}, new String[]{STUART, JOE},
+                    new BigDecimal[]{BigDecimal.valueOf(-50), BigDecimal.valueOf(-5000)});
+            Assert.fail();
+        } catch (AccountManager.BatchFailedException expected) {
+            Assert.assertEquals(1, expected.getIndex());
+        }
+        try {
+            manager.transactAll(accountNos, new String[]{JOE, JOE, JOE},
+                    new BigDecimal[]{BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE});
+            Assert.fail();
+        } catch (AccountManager.BatchFailedException expected) {
+            Assert.assertEquals(1, expected.getIndex());
+        }
+        Assert.assertEquals(100, manager.getBalance(stuartNo, STUART).intValue());
+        Assert.assertEquals(1900, manager.getBalance(joeNo, JOE).intValue());
+        manager.transactAll(accountNos, names, new BigDecimal[]{BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE});
+        Assert.assertEquals(1902, manager.getBalance(joeNo, JOE).intValue());
+    }
+
+    @Test
+    public void testTransactAllRetriesCredits() {
+        AccountManager manager = new AccountManager();
+        String stuartNo = manager.openAccount(STUART);
+        String joeNo = manager.openAccount(JOE);
+
+        //the credit to joe fails once, e.g. because the journal could not be written, then works
+        AtomicInteger failures = new AtomicInteger(1);
+        manager.getAccounts().setListener((version, accountNo, clientName, balance) -> {
+            if (accountNo.equals(joeNo) && failures.getAndDecrement() > 0) {
+                throw new RuntimeException("journal failed");
+            }
+        });
+        BigDecimal[] balances = manager.transactAll(new String[]{stuartNo, joeNo}, new String[]{STUART, JOE},
+                new BigDecimal[]{BigDecimal.valueOf(-50), BigDecimal.valueOf(50)});
+        Assert.assertEquals(950, balances[0].intValue());
+        Assert.assertEquals(1050, balances[1].intValue());
+        Assert.assertEquals(1, manager.getBatchLatency().getCount());
+        Assert.assertEquals(0, manager.getTransactLatency().getCount());
+    }
+
+    @Test
+    public void testTransactAllReportsPartialBatch() {
+        AccountManager manager = new AccountManager();
+        String stuartNo = manager.openAccount(STUART);
+        String joeNo = manager.openAccount(JOE);
+
+        //joe's account can never be changed, so stuart is debited but joe is not credited
+        manager.getAccounts().setListener((version, accountNo, clientName, balance) -> {
+            if (accountNo.equals(joeNo)) {
+                throw new RuntimeException("journal failed");
+            }
+        });
+        try {
+            manager.transactAll(new String[]{stuartNo, joeNo}, new String[]{STUART, JOE},
+                    new BigDecimal[]{BigDecimal.valueOf(-50), BigDecimal.valueOf(50)});
+            Assert.fail();
+        } catch (AccountManager.BatchFailedException expected) {
+            Assert.assertEquals(1, expected.getIndex());
+            Assert.assertTrue(expected.isPartiallyApplied());
+            Assert.assertEquals(950, expected.getBalances()[0].intValue());
+            Assert.assertNull(expected.getBalances()[1]);
+        }
+        Assert.assertEquals(950, manager.getBalance(stuartNo, STUART).intValue());
+        Assert.assertEquals(1000, manager.getBalance(joeNo, JOE).intValue());
+
+        //a batch that is backed out reports that nothing was applied
+        try {
+            manager.transactAll(new String[]{stuartNo, joeNo}, new String[]{STUART, JOE},
+                    new BigDecimal[]{BigDecimal.valueOf(-50), BigDecimal.valueOf(-5000)});
+            Assert.fail();
+        } catch (AccountManager.BatchFailedException expected) {
+            Assert.assertFalse(expected.isPartiallyApplied());
+        }
+        Assert.assertEquals(950, manager.getBalance(stuartNo, STUART).intValue());
+    }
+
+    /**
+     * Many threads move money between a small number of accounts at once. If any update is lost, or applied twice,
+     * the total will not add up, and no account may ever go below zero.
+     */
+    @Test
+    public void testConcurrentTransfers() throws Exception {
+        AccountManager manager = new AccountManager();
+        int accounts = 8;
+        String[] numbers = new String[accounts];
+        for (int i = 0; i < accounts; ++i) {
+            numbers[i] = manager.openAccount("client" + i);
+        }
+        int threads = 8;
+        int transfers = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger insufficient = new AtomicInteger();
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            results.add(executor.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < transfers; ++i) {
+                    int from = random.nextInt(accounts);
+                    int to = random.nextInt(accounts);
+                    //large enough that accounts regularly run out of money
+                    BigDecimal amount = new BigDecimal(random.nextInt(500) + 1);
+                    try {
+                        manager.transact(numbers[from], "client" + from, amount.negate());
+                    } catch (RuntimeException e) {
+                        insufficient.incrementAndGet();
+                        continue;
+                    }
+                    manager.transact(numbers[to], "client" + to, amount);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (int i = 0; i < accounts; ++i) {
+            BigDecimal balance = manager.getBalance(numbers[i], "client" + i);
+            Assert.assertTrue(balance.signum() >= 0);
+            total = total.add(balance);
+        }
+        Assert.assertEquals(new BigDecimal(1000 * accounts), total);
+        //make sure the test actually pushed accounts to their limit
+        Assert.assertTrue(insufficient.get() > 0);
+    }
 }
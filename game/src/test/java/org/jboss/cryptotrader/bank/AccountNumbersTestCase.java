@@ -0,0 +1,78 @@
+package org.jboss.cryptotrader.bank;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AccountNumbersTestCase {
+
+    @Test
+    public void testNumbersAreUniqueAndInvertible() {
+        AccountNumbers numbers = new AccountNumbers(42);
+        BitSet seen = new BitSet(9000000);
+        for (long i = 0; i < 1000000; ++i) {
+            long number = numbers.numberAt(i);
+            Assert.assertTrue(number >= 1000000 && number <= 9999999);
+            Assert.assertFalse("Duplicate account number " + number, seen.get((int) (number - 1000000)));
+            seen.set((int) (number - 1000000));
+            Assert.assertEquals(i, numbers.indexOf(number));
+        }
+    }
+
+    @Test
+    public void testNumbersGetLongerWhenSevenDigitsRunOut() {
+        AccountNumbers numbers = new AccountNumbers(42);
+        Assert.assertEquals(7, Long.toString(numbers.numberAt(8999999)).length());
+        long first = numbers.numberAt(9000000);
+        Assert.assertEquals(8, Long.toString(first).length());
+        Assert.assertEquals(9000000, numbers.indexOf(first));
+        Assert.assertEquals(-1, numbers.indexOf(999999));
+    }
+
+    @Test
+    public void testSkipCarriesOnAfterRestoredNumbers() {
+        AccountNumbers before = new AccountNumbers(7);
+        String[] opened = new String[100];
+        for (int i = 0; i < opened.length; ++i) {
+            opened[i] = before.next();
+        }
+        AccountNumbers after = new AccountNumbers(7);
+        for (String accountNo : opened) {
+            after.skip(accountNo);
+        }
+        after.skip("not a number");
+        String next = after.next();
+        Assert.assertFalse(Arrays.asList(opened).contains(next));
+        Assert.assertEquals(before.next(), next);
+    }
+
+    @Test
+    public void testOpenAccounts() {
+        AccountManager manager = new AccountManager();
+        AccountManager.OpenResult[] results = manager.openAccounts(Arrays.asList("alice", "bob", "carol"));
+        Assert.assertEquals(3, results.length);
+        Assert.assertNull(results[1].getFailure());
+        Assert.assertEquals(1000, manager.getBalance(results[1].getAccountNo(), "bob").intValue());
+        Assert.assertEquals(3, manager.getAccounts().size());
+    }
+
+    @Test
+    public void testOpenAccountsReportsEachFailure() {
+        AccountManager manager = new AccountManager();
+        manager.getAccounts().setListener((version, accountNo, clientName, balance) -> {
+            if (clientName.equals("bob")) {
+                throw new IllegalStateException("journal full");
+            }
+        });
+        AccountManager.OpenResult[] results = manager.openAccounts(Arrays.asList("alice", "bob", "carol"));
+        Assert.assertEquals(3, results.length);
+        Assert.assertNull(results[1].getAccountNo());
+        Assert.assertEquals("journal full", results[1].getFailure());
+        //every account that was opened is reported to the caller
+        Assert.assertEquals(2, manager.getAccounts().size());
+        Assert.assertEquals(1000, manager.getBalance(results[0].getAccountNo(), "alice").intValue());
+        Assert.assertEquals(1000, manager.getBalance(results[2].getAccountNo(), "carol").intValue());
+    }
+}
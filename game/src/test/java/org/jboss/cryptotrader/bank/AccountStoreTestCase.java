@@ -0,0 +1,105 @@
+package org.jboss.cryptotrader.bank;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AccountStoreTestCase {
+
+    @Test
+    public void testAccountStore() {
+        AccountStore store = new AccountStore();
+        Assert.assertTrue(store.create("1000003", "Stuart", new BigDecimal(1000)));
+        Assert.assertFalse(store.create("1000003", "Joe", new BigDecimal(1000)));
+        Assert.assertTrue(store.create("1000001", "Joe", new BigDecimal(1000)));
+        Assert.assertTrue(store.create("1000002", "Jane", new BigDecimal(1000)));
+
+        Assert.assertEquals(new BigDecimal(900), store.transact("1000003", "Stuart", new BigDecimal(-100)));
+        try {
+            store.transact("1000009", "Stuart", BigDecimal.ONE);
+            Assert.fail();
+        } catch (RuntimeException expected) {
+        }
+        //a failed transaction leaves the balance alone
+        try {
+            store.transact("1000003", "Stuart", new BigDecimal(-901));
+            Assert.fail();
+        } catch (RuntimeException expected) {
+        }
+        Assert.assertEquals(new BigDecimal(900), store.getBalance("1000003", "Stuart"));
+
+        List<AccountStore.Account> page = store.page(null, 2);
+        Assert.assertEquals(2, page.size());
+        Assert.assertEquals("1000001", page.get(0).getAccountNo());
+        Assert.assertEquals("1000002", page.get(1).getAccountNo());
+        page = store.page("1000002", 2);
+        Assert.assertEquals(1, page.size());
+        Assert.assertEquals("Stuart", page.get(0).getClientName());
+
+        Assert.assertEquals(900, store.toJson().getJsonObject("1000003").getJsonNumber("balance").intValue());
+    }
+
+    /**
+     * A change the listener rejects must never be seen, and the caller must only be told it failed if it was not
+     * applied. Threads hammer one account while the listener rejects some of the changes, and the balance must
+     * equal the sum of the changes that were reported as successful.
+     */
+    @Test
+    public void testFailedListenerLeavesAccountUnchanged() throws Exception {
+        AccountStore store = new AccountStore();
+        store.create("1000001", "Joe", BigDecimal.ZERO);
+        store.setListener((version, accountNo, clientName, balance) -> {
+            throw new IllegalStateException("Journal failed");
+        });
+        try {
+            store.create("1000002", "Jane", BigDecimal.ONE);
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            store.transact("1000001", "Joe", BigDecimal.ONE);
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertFalse(store.exists("1000002"));
+        Assert.assertEquals(BigDecimal.ZERO, store.getBalance("1000001", "Joe"));
+
+        store.setListener((version, accountNo, clientName, balance) -> {
+            //the change must not be visible while the listener decides
+            Assert.assertNotEquals(balance, store.getBalance(accountNo, clientName));
+            if (ThreadLocalRandom.current().nextInt(3) == 0) {
+                throw new IllegalStateException("Journal failed");
+            }
+        });
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            results.add(executor.submit(() -> {
+                int applied = 0;
+                for (int i = 0; i < 5000; ++i) {
+                    try {
+                        store.transact("1000001", "Joe", BigDecimal.ONE);
+                        applied++;
+                    } catch (IllegalStateException rejected) {
+                    }
+                }
+                return applied;
+            }));
+        }
+        int applied = 0;
+        for (Future<Integer> result : results) {
+            applied += result.get();
+        }
+        executor.shutdown();
+        Assert.assertTrue(applied < threads * 5000);
+        Assert.assertEquals(new BigDecimal(applied), store.getBalance("1000001", "Joe"));
+    }
+}
@@ -0,0 +1,137 @@
+package org.jboss.cryptotrader.bank;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+
+import org.jboss.cryptotrader.journal.SyncMode;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BankJournalTestCase {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecoverFromJournal() throws Exception {
+        AccountStore store = new AccountStore();
+        BankJournal journal = open(store);
+        store.create("1000001", "alice", new BigDecimal(1000));
+        store.create("1000002", "bob", new BigDecimal(1000));
+        store.transact("1000001", "alice", new BigDecimal("-250.50"));
+        store.transact("1000002", "bob", new BigDecimal("12.25"));
+        journal.close();
+
+        AccountStore restored = new AccountStore();
+        open(restored).close();
+        Assert.assertEquals(2, restored.size());
+        Assert.assertEquals(new BigDecimal("749.50"), restored.getBalance("1000001", "alice"));
+        Assert.assertEquals(new BigDecimal("1012.25"), restored.getBalance("1000002", "bob"));
+        Assert.assertEquals(store.getVersion(), restored.getVersion());
+    }
+
+    @Test
+    public void testRecoverFromSnapshotAndJournal() throws Exception {
+        AccountStore store = new AccountStore();
+        BankJournal journal = open(store);
+        store.create("1000001", "alice", new BigDecimal(1000));
+        Assert.assertTrue(journal.snapshot(store));
+        Assert.assertFalse(journal.snapshot(store));
+        store.transact("1000001", "alice", new BigDecimal(-1));
+        store.create("1000003", "carol", new BigDecimal(1000));
+        journal.close();
+
+        AccountStore restored = new AccountStore();
+        BankJournal recovered = new BankJournal(folder.getRoot().toPath(), SyncMode.ASYNC, 4096);
+        Assert.assertEquals(2, recovered.recover(restored));
+        recovered.close();
+        Assert.assertEquals(new BigDecimal(999), restored.getBalance("1000001", "alice"));
+        Assert.assertEquals(new BigDecimal(1000), restored.getBalance("1000003", "carol"));
+    }
+
+    @Test
+    public void testSegmentsRollAndAreDeletedAfterSnapshot() throws Exception {
+        AccountStore store = new AccountStore();
+        BankJournal journal = open(store);
+        for (int i = 0; i < 10; ++i) {
+            store.create("100000" + i, "user" + i, BigDecimal.ZERO);
+        }
+        for (int i = 0; i < 1000; ++i) {
+            store.transact("100000" + (i % 10), "user" + (i % 10), BigDecimal.ONE);
+        }
+        Assert.assertTrue(journalFiles().length > 1);
+        journal.snapshot(store);
+        Assert.assertEquals(1, journalFiles().length);
+        journal.close();
+
+        AccountStore restored = new AccountStore();
+        open(restored).close();
+        Assert.assertEquals(new BigDecimal(100), restored.getBalance("1000003", "user3"));
+    }
+
+    @Test
+    public void testOlderRecordsDoNotOverwriteNewerOnes() throws Exception {
+        AccountStore store = new AccountStore();
+        store.restore("1000001", "alice", new BigDecimal(5), 10);
+        store.restore("1000001", "alice", new BigDecimal(7), 3);
+        Assert.assertEquals(new BigDecimal(5), store.getBalance("1000001", "alice"));
+        Assert.assertEquals(10, store.getVersion());
+    }
+
+    @Test
+    public void testTornRecordIsIgnored() throws Exception {
+        AccountStore store = new AccountStore();
+        BankJournal journal = open(store);
+        store.create("1000001", "alice", new BigDecimal(1000));
+        store.transact("1000001", "alice", new BigDecimal(-10));
+        journal.close();
+
+        //corrupt the last byte of the second record
+        File segment = journalFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(8);
+            int first = file.readInt();
+            file.seek(8 + 8 + first);
+            int second = file.readInt();
+            long last = 8 + 8 + first + 8 + second - 1;
+            file.seek(last);
+            int b = file.read();
+            file.seek(last);
+            file.write(b ^ 0xFF);
+        }
+
+        AccountStore restored = new AccountStore();
+        open(restored).close();
+        Assert.assertEquals(new BigDecimal(1000), restored.getBalance("1000001", "alice"));
+    }
+
+    @Test
+    public void testSegmentWithoutHeaderIsEmpty() throws Exception {
+        AccountStore store = new AccountStore();
+        BankJournal journal = open(store);
+        store.create("1000001", "alice", new BigDecimal(1000));
+        journal.close();
+
+        //a crash between creating a segment and writing its header leaves it all zeros
+        try (RandomAccessFile file = new RandomAccessFile(new File(folder.getRoot(), "accounts-0000000000000005.journal"), "rw")) {
+            file.setLength(4096);
+        }
+        AccountStore restored = new AccountStore();
+        open(restored).close();
+        Assert.assertEquals(new BigDecimal(1000), restored.getBalance("1000001", "alice"));
+    }
+
+    private BankJournal open(AccountStore store) throws Exception {
+        BankJournal journal = new BankJournal(folder.getRoot().toPath(), SyncMode.ASYNC, 4096);
+        journal.recover(store);
+        store.setListener(journal);
+        return journal;
+    }
+
+    private File[] journalFiles() {
+        return folder.getRoot().listFiles((dir, name) -> name.endsWith(".journal"));
+    }
+}
@@ -0,0 +1,64 @@
+package org.jboss.cryptotrader.game;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LeaderBoardTestCase {
+
+    @Test
+    public void testRanking() {
+        Map<String, BigDecimal> prices = new HashMap<>();
+        prices.put("BTC", new BigDecimal(100));
+        prices.put("ETH", new BigDecimal(10));
+
+        JsonArrayBuilder holdings = Json.createArrayBuilder();
+        for (int i = 0; i < 10; ++i) {
+            holdings.add(holding("player" + i, Integer.toString(i), "BTC", i));
+        }
+        //the ETH holding is added to player 0's bitcoin, which makes them the richest
+        holdings.add(holding("player0", "0", "ETH", 100));
+        //instruments without a price are ignored
+        holdings.add(holding("player1", "1", "XYZ", 1000));
+        //the symbol defaults to bitcoin
+        holdings.add(Json.createObjectBuilder()
+                .add("name", "player2")
+                .add("bankAccountNo", "2")
+                .add("units", 1));
+
+        List<LeaderBoard.Entry> board = new LeaderBoard(3).rank(holdings.build(), prices, (account, name) -> {
+            if (account.equals("9")) {
+                throw new RuntimeException("Unknown account");
+            }
+            return BigDecimal.ONE;
+        });
+
+        Assert.assertEquals(3, board.size());
+        Assert.assertEquals("player0", board.get(0).getName());
+        Assert.assertEquals(0, new BigDecimal(1001).compareTo(board.get(0).getNetWorth()));
+        Assert.assertEquals("player9", board.get(1).getName());
+        Assert.assertEquals(0, new BigDecimal(900).compareTo(board.get(1).getNetWorth()));
+        Assert.assertEquals("player8", board.get(2).getName());
+        Assert.assertEquals(0, new BigDecimal(801).compareTo(board.get(2).getNetWorth()));
+
+        JsonArray json = LeaderBoard.toJson(board);
+        Assert.assertEquals("player0", json.getJsonObject(0).getString("name"));
+    }
+
+    private static JsonObjectBuilder holding(String name, String account, String symbol, int units) {
+        return Json.createObjectBuilder()
+                .add("name", name)
+                .add("bankAccountNo", account)
+                .add("symbol", symbol)
+                .add("units", units);
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.loadgen;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.MalformedURLException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.jboss.cryptotrader.metrics.LatencyHistogram;
+
+/**
+ * Simulates many players of the game at once, to find out how many the game, bank and exchange can cope with.
+ * <p>
+ * Every player opens an account through /bank/open, watches their balance through /bank/balance/watch, then trades
+ * through /trade/bitcoin at a fixed rate. A number of extra connections watch /broadcast, like the browsers of
+ * players would. The throughput and latency percentiles of the requests are reported as the test runs.
+ * <p>
+ * Trades are scheduled at a fixed rate whatever the response times are, and the latency of a trade is measured from
+ * when it was scheduled to run, so time spent queued behind other requests is included. A player only has one
+ * trade in flight at a time though, so if a trade takes longer than the interval between trades the next one is
+ * skipped, and counted as such.
+ * <p>
+ * The generator is configured with these system properties:
+ * <ul>
+ * <li>cryptotrader.loadgen.url: the base URL of the game REST API, http://localhost:8080/game/rest by default</li>
+ * <li>cryptotrader.loadgen.stub: if true, run against an in process {@link StubGame} instead, which only measures
+ * the generator itself</li>
+ * <li>cryptotrader.loadgen.players: the number of players, 100 by default</li>
+ * <li>cryptotrader.loadgen.rate: the trades per second of every player, 0.5 by default</li>
+ * <li>cryptotrader.loadgen.strategy: trader, random or buyer, see {@link Strategy}</li>
+ * <li>cryptotrader.loadgen.threads: the number of requests that can be in flight at once, 200 by default</li>
+ * <li>cryptotrader.loadgen.watch-balances: if every player watches their balance, true by default</li>
+ * <li>cryptotrader.loadgen.broadcast-watchers: the connections to /broadcast, one per player by default</li>
+ * <li>cryptotrader.loadgen.duration-seconds: how long to run for, 60 by default</li>
+ * <li>cryptotrader.loadgen.report-interval-seconds: how often to report progress, 10 by default</li>
+ * </ul>
+ */
+public class LoadGenerator {
+
+    private static final Logger log = Logger.getLogger(LoadGenerator.class.getName());
+
+    private final String baseUrl;
+    private final int playerCount;
+    private final long tradeInterval;
+    private final Strategy strategy;
+    private final boolean watchBalances;
+    private final int broadcastWatchers;
+
+    private final ExecutorService workers;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "loadgen-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final List<Player> players = new ArrayList<>();
+    private final List<SseWatcher> watchers = new ArrayList<>();
+
+    private final LatencyHistogram openLatency = new LatencyHistogram();
+    private final LatencyHistogram tradeLatency = new LatencyHistogram();
+    private final AtomicLong openFailures = new AtomicLong();
+    private final AtomicLong tradesRejected = new AtomicLong();
+    private final AtomicLong tradesThrottled = new AtomicLong();
+    private final AtomicLong tradeFailures = new AtomicLong();
+    private final AtomicLong tradesSkipped = new AtomicLong();
+    private final AtomicLong balanceEvents = new AtomicLong();
+    private final AtomicLong broadcastEvents = new AtomicLong();
+    private final AtomicLong sseDisconnects = new AtomicLong();
+    private final AtomicLong sseOpen = new AtomicLong();
+
+    private volatile boolean running;
+    private long startTime;
+
+    /**
+     * @param baseUrl    The base URL of the game REST API
+     * @param properties The configuration, the URL property is ignored
+     */
+    public LoadGenerator(String baseUrl, Properties properties) {
+        this.baseUrl = baseUrl;
+        this.playerCount = Integer.parseInt(properties.getProperty("cryptotrader.loadgen.players", "100"));
+        double rate = Double.parseDouble(properties.getProperty("cryptotrader.loadgen.rate", "0.5"));
+        this.tradeInterval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        this.strategy = Strategy.forName(properties.getProperty("cryptotrader.loadgen.strategy", "trader"));
+        this.watchBalances = Boolean.parseBoolean(properties.getProperty("cryptotrader.loadgen.watch-balances", "true"));
+        this.broadcastWatchers = Integer.parseInt(properties.getProperty("cryptotrader.loadgen.broadcast-watchers", Integer.toString(playerCount)));
+        int threads = Integer.parseInt(properties.getProperty("cryptotrader.loadgen.threads", "200"));
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "loadgen-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        //HttpURLConnection only keeps 5 idle connections per host by default, which is far too few here
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", Integer.toString(threads));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties properties = System.getProperties();
+        long duration = Long.parseLong(properties.getProperty("cryptotrader.loadgen.duration-seconds", "60"));
+        long reportInterval = Long.parseLong(properties.getProperty("cryptotrader.loadgen.report-interval-seconds", "10"));
+        StubGame stub = null;
+        String url = properties.getProperty("cryptotrader.loadgen.url", "http://localhost:8080/game/rest");
+        if (Boolean.getBoolean("cryptotrader.loadgen.stub")) {
+            stub = new StubGame(0, Long.getLong("cryptotrader.loadgen.stub.trade-delay-ms", 0));
+            url = stub.getBaseUrl();
+        }
+        LoadGenerator generator = new LoadGenerator(url, properties);
+        System.out.println("Running " + generator.playerCount + " players against " + url + " for " + duration + "s");
+        if (stub != null) {
+            System.out.println("The stub replaces the whole game, these results are a baseline for the generator only");
+        }
+        generator.start();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(reportInterval), TimeUnit.NANOSECONDS.toMillis(end - now) + 1));
+            generator.report(System.out);
+        }
+        generator.stop();
+        System.out.println();
+        generator.summary(System.out);
+        if (stub != null) {
+            stub.close();
+        }
+    }
+
+    /**
+     * Opens the accounts of all the players and starts them trading
+     */
+    public void start() {
+        running = true;
+        startTime = System.nanoTime();
+        for (int i = 0; i < broadcastWatchers; ++i) {
+            startWatcher(baseUrl + "/broadcast", broadcastEvents);
+        }
+        for (int i = 0; i < playerCount; ++i) {
+            Player player = new Player("loadgen-" + i);
+            players.add(player);
+            workers.execute(() -> open(player));
+        }
+    }
+
+    /**
+     * Stops all the players, and waits for the trades in flight to finish
+     */
+    public void stop() throws InterruptedException {
+        running = false;
+        scheduler.shutdownNow();
+        workers.shutdown();
+        if (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warning("Requests were still in flight after 30 seconds");
+            workers.shutdownNow();
+        }
+        synchronized (watchers) {
+            watchers.forEach(SseWatcher::close);
+        }
+    }
+
+    private void startWatcher(String url, AtomicLong events) {
+        SseWatcher watcher;
+        try {
+            watcher = new SseWatcher(url, events, sseDisconnects, sseOpen);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+        synchronized (watchers) {
+            if (!running) {
+                return;
+            }
+            watchers.add(watcher);
+        }
+        watcher.start();
+    }
+
+    private void open(Player player) {
+        if (!running) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Http.Response response = Http.post(baseUrl + "/bank/open", Json.createObjectBuilder()
+                    .add("name", player.getName())
+                    .build()
+                    .toString());
+            if (response.status != 200) {
+                log.warning("Failed to open an account for " + player.getName() + ": " + response.status + " " + response.body);
+                openFailures.incrementAndGet();
+                return;
+            }
+            try (JsonReader reader = Json.createReader(new StringReader(response.body))) {
+                JsonObject account = reader.readObject();
+                player.setAccountNo(account.getString("accountNo"));
+            }
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.WARNING, "Failed to open an account for " + player.getName(), e);
+            openFailures.incrementAndGet();
+            return;
+        } finally {
+            openLatency.record(System.nanoTime() - start);
+        }
+        if (watchBalances) {
+            startWatcher(baseUrl + "/bank/balance/watch/" + player.getAccountNo(), balanceEvents);
+        }
+        //spread the players out, so they don't all trade at the same instant
+        long delay = ThreadLocalRandom.current().nextLong(tradeInterval);
+        long[] due = {System.nanoTime() + delay};
+        try {
+            scheduler.scheduleAtFixedRate(() -> {
+                long scheduled = due[0];
+                due[0] += tradeInterval;
+                if (player.startTrade()) {
+                    try {
+                        workers.execute(() -> trade(player, scheduled));
+                    } catch (RejectedExecutionException e) {
+                        //we are stopping
+                        player.endTrade();
+                    }
+                } else {
+                    tradesSkipped.incrementAndGet();
+                }
+            }, delay, tradeInterval, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            //we are stopping
+        }
+    }
+
+    /**
+     * @param scheduled When the trade should have started, as given by System.nanoTime()
+     */
+    private void trade(Player player, long scheduled) {
+        try {
+            if (!running) {
+                return;
+            }
+            BigDecimal units = strategy.nextTrade(player.getHoldings());
+            Http.Response response = Http.post(baseUrl + "/trade/bitcoin", Json.createObjectBuilder()
+                    .add("name", player.getName())
+                    .add("bankAccountNo", player.getAccountNo())
+                    .add("units", units)
+                    .build()
+                    .toString());
+            tradeLatency.record(System.nanoTime() - scheduled);
+            if (response.status == 200) {
+                //the response is the new holdings
+                player.setHoldings(new BigDecimal(response.body.trim()));
+            } else if (response.status == 400) {
+                //not enough money or bitcoin, which is expected for some of the strategies
+                tradesRejected.incrementAndGet();
+            } else if (response.status == 429) {
+                //trading faster than the game allows
+                tradesThrottled.incrementAndGet();
+            } else {
+                tradeFailures.incrementAndGet();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.FINE, "Trade failed for " + player.getName(), e);
+            tradeLatency.record(System.nanoTime() - scheduled);
+            tradeFailures.incrementAndGet();
+        } finally {
+            player.endTrade();
+        }
+    }
+
+    private double elapsedSeconds() {
+        return (System.nanoTime() - startTime) / 1e9;
+    }
+
+    /**
+     * Prints a one line progress report
+     */
+    public void report(PrintStream out) {
+        out.printf("%6.0fs accounts %d trades %d (%.1f/s) rejected %d throttled %d failed %d skipped %d trade p50 %s p99 %s sse open %d events %d%n",
+                elapsedSeconds(), openLatency.getCount() - openFailures.get(), tradeLatency.getCount(),
+                tradeLatency.getCount() / elapsedSeconds(), tradesRejected.get(), tradesThrottled.get(), tradeFailures.get(), tradesSkipped.get(),
+                millis(tradeLatency.getQuantile(0.5)), millis(tradeLatency.getQuantile(0.99)),
+                sseOpen.get(), balanceEvents.get() + broadcastEvents.get());
+    }
+
+    /**
+     * Prints the final results
+     */
+    public void summary(PrintStream out) {
+        double elapsed = elapsedSeconds();
+        out.printf("%-8s %10s %10s %10s %10s %10s %10s %10s%n", "", "count", "per sec", "p50", "p90", "p99", "p99.9", "max");
+        summary(out, "open", openLatency, elapsed);
+        summary(out, "trade", tradeLatency, elapsed);
+        out.printf("accounts failed %d, trades rejected %d, throttled %d, failed %d, skipped %d%n",
+                openFailures.get(), tradesRejected.get(), tradesThrottled.get(), tradeFailures.get(), tradesSkipped.get());
+        out.printf("sse events: balance %d, broadcast %d, disconnects %d%n",
+                balanceEvents.get(), broadcastEvents.get(), sseDisconnects.get());
+    }
+
+    private static void summary(PrintStream out, String name, LatencyHistogram histogram, double elapsed) {
+        out.printf("%-8s %10d %10.1f %10s %10s %10s %10s %10s%n", name, histogram.getCount(), histogram.getCount() / elapsed,
+                millis(histogram.getQuantile(0.5)), millis(histogram.getQuantile(0.9)), millis(histogram.getQuantile(0.99)),
+                millis(histogram.getQuantile(0.999)), millis(histogram.getMax()));
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2fms", nanos / 1000000.0);
+    }
+
+    public LatencyHistogram getOpenLatency() {
+        return openLatency;
+    }
+
+    public LatencyHistogram getTradeLatency() {
+        return tradeLatency;
+    }
+
+    public long getOpenFailures() {
+        return openFailures.get();
+    }
+
+    public long getTradesRejected() {
+        return tradesRejected.get();
+    }
+
+    public long getTradesThrottled() {
+        return tradesThrottled.get();
+    }
+
+    public long getTradeFailures() {
+        return tradeFailures.get();
+    }
+
+    public long getTradesSkipped() {
+        return tradesSkipped.get();
+    }
+
+    public long getBalanceEvents() {
+        return balanceEvents.get();
+    }
+
+    public long getBroadcastEvents() {
+        return broadcastEvents.get();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.loadgen;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A simulated player.
+ * <p>
+ * Like a real player in the browser, a player only has one trade in flight at a time.
+ */
+class Player {
+
+    private final String name;
+    private volatile String accountNo;
+
+    /**
+     * The units held, as reported by the last successful trade. Only accessed by the trade in flight.
+     */
+    private BigDecimal holdings = BigDecimal.ZERO;
+
+    private final AtomicBoolean trading = new AtomicBoolean();
+
+    Player(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getAccountNo() {
+        return accountNo;
+    }
+
+    void setAccountNo(String accountNo) {
+        this.accountNo = accountNo;
+    }
+
+    BigDecimal getHoldings() {
+        return holdings;
+    }
+
+    void setHoldings(BigDecimal holdings) {
+        this.holdings = holdings;
+    }
+
+    /**
+     * @return true if the player was idle, and is now trading
+     */
+    boolean startTrade() {
+        return trading.compareAndSet(false, true);
+    }
+
+    void endTrade() {
+        trading.set(false);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.loadgen;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds a server sent event connection open, and counts the events that arrive on it.
+ * <p>
+ * Every connection is read by its own thread, the threads have a small stack so thousands of them can be open at
+ * once. If the connection drops it is reconnected after a second, until the watcher is closed.
+ * <p>
+ * The stream is requested over HTTP/1.0 on a plain socket, so the server sends it without chunking, and closing the
+ * socket reliably wakes up the reading thread. HttpURLConnection can't be closed while another thread is reading.
+ */
+class SseWatcher implements Runnable, Closeable {
+
+    private static final Logger log = Logger.getLogger(SseWatcher.class.getName());
+
+    private static final long THREAD_STACK_SIZE = 128 * 1024;
+    private static final long RECONNECT_DELAY = 1000;
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    private final URL url;
+    private final AtomicLong events;
+    private final AtomicLong disconnects;
+    private final AtomicLong open;
+    private final Thread thread;
+
+    private volatile boolean closed;
+    private volatile Socket socket;
+
+    /**
+     * @param events      Incremented for every event received
+     * @param disconnects Incremented every time the connection is lost
+     * @param open        Tracks the number of connections that are currently open
+     */
+    SseWatcher(String url, AtomicLong events, AtomicLong disconnects, AtomicLong open) throws MalformedURLException {
+        this.url = new URL(url);
+        this.events = events;
+        this.disconnects = disconnects;
+        this.open = open;
+        this.thread = new Thread(null, this, "sse-watcher " + url, THREAD_STACK_SIZE);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        while (!closed) {
+            try (Socket s = new Socket()) {
+                socket = s;
+                if (closed) {
+                    //close() may have missed the socket
+                    return;
+                }
+                s.connect(new InetSocketAddress(url.getHost(), url.getPort() == -1 ? url.getDefaultPort() : url.getPort()), CONNECT_TIMEOUT);
+                OutputStream out = s.getOutputStream();
+                out.write(("GET " + url.getFile() + " HTTP/1.0\r\nHost: " + url.getAuthority() + "\r\nAccept: text/event-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                String status = reader.readLine();
+                if (status == null || !status.matches("HTTP/1\\.\\d 200.*")) {
+                    throw new IOException("Unexpected response " + status);
+                }
+                //skip the headers
+                String line;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                }
+                open.incrementAndGet();
+                try {
+                    read(reader);
+                } finally {
+                    open.decrementAndGet();
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    log.log(Level.FINE, "Lost connection to " + url, e);
+                }
+            }
+            if (closed) {
+                return;
+            }
+            disconnects.incrementAndGet();
+            try {
+                Thread.sleep(RECONNECT_DELAY);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void read(BufferedReader reader) throws IOException {
+        boolean data = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                //a blank line ends the event
+                if (data) {
+                    events.incrementAndGet();
+                    data = false;
+                }
+            } else if (line.startsWith("data:")) {
+                data = true;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Socket s = socket;
+        if (s != null) {
+            //this wakes the reading thread up
+            try {
+                s.close();
+            } catch (IOException ignore) {
+            }
+        }
+        thread.interrupt();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.loadgen;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How a simulated player decides what to trade next
+ */
+public enum Strategy {
+
+    /**
+     * Buys a random amount, then sells everything on the next trade. This keeps the bank balance and the holdings
+     * of every player roughly steady, so it can run for as long as needed.
+     */
+    TRADER {
+        @Override
+        BigDecimal nextTrade(BigDecimal holdings) {
+            return holdings.signum() > 0 ? holdings.negate() : randomUnits();
+        }
+    },
+    /**
+     * Buys or sells a random amount. Sales of more than the player holds are rejected by the exchange.
+     */
+    RANDOM {
+        @Override
+        BigDecimal nextTrade(BigDecimal holdings) {
+            return ThreadLocalRandom.current().nextBoolean() ? randomUnits() : randomUnits().negate();
+        }
+    },
+    /**
+     * Only ever buys, until the bank balance runs out and every purchase is rejected
+     */
+    BUYER {
+        @Override
+        BigDecimal nextTrade(BigDecimal holdings) {
+            return randomUnits();
+        }
+    };
+
+    /**
+     * @param holdings The units the player holds
+     * @return The units to trade, positive to buy and negative to sell
+     */
+    abstract BigDecimal nextTrade(BigDecimal holdings);
+
+    /**
+     * @return Between 0.01 and 1 units
+     */
+    private static BigDecimal randomUnits() {
+        return BigDecimal.valueOf(ThreadLocalRandom.current().nextInt(1, 101), 2);
+    }
+
+    public static Strategy forName(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+    }
+}
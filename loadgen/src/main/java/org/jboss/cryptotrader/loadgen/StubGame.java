@@ -0,0 +1,267 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2018 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.cryptotrader.loadgen;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand in for the game, bank and exchange, so the load generator can be run without deploying anything.
+ * <p>
+ * It serves the same REST API as the game, from memory, using the HTTP server that is built into the JDK:
+ * <ul>
+ * <li>POST /bank/open opens an account with $1000</li>
+ * <li>POST /trade/bitcoin buys or sells at the current price, purchases can be delayed like they are by the
+ * exchange</li>
+ * <li>GET /broadcast sends the price every second</li>
+ * <li>GET /bank/balance/watch/{accountNo} sends the balance every time it changes</li>
+ * </ul>
+ * None of the game, bank or exchange code runs here, not even their endpoints, so this is only a baseline for the
+ * load generator itself: it shows how much load the generator and the machine can produce, and the latency that
+ * adds, which has to be taken off a run against the real services before comparing them. Numbers measured against
+ * the stub say nothing about how the real services perform.
+ */
+public class StubGame implements Closeable {
+
+    private static final String CONTEXT = "/game/rest";
+    private static final byte[] NOT_FOUND = "Not found".getBytes(StandardCharsets.UTF_8);
+
+    private final HttpServer server;
+    private final ExecutorService handlers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "stub-game");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "stub-game-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+    private final long tradeDelay;
+
+    private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+    private final AtomicInteger nextAccountNo = new AtomicInteger(1000000);
+    private final Set<Watcher> broadcastWatchers = ConcurrentHashMap.newKeySet();
+
+    private volatile BigDecimal price = BigDecimal.TEN;
+
+    /**
+     * @param port       The port to listen on, or 0 for any free port
+     * @param tradeDelay How long purchases take to go through, in milliseconds
+     */
+    public StubGame(int port, long tradeDelay) throws IOException {
+        this.tradeDelay = tradeDelay;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server.setExecutor(handlers);
+        server.createContext(CONTEXT + "/bank/open", this::open);
+        server.createContext(CONTEXT + "/bank/balance/watch/", this::watchBalance);
+        server.createContext(CONTEXT + "/trade/bitcoin", this::trade);
+        server.createContext(CONTEXT + "/broadcast", this::watchBroadcast);
+        server.start();
+        scheduler.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public String getBaseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + CONTEXT;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        scheduler.shutdownNow();
+        handlers.shutdownNow();
+    }
+
+    /**
+     * Moves the price up or down by up to 1%, and tells the world
+     */
+    private void tick() {
+        double change = 1 + (ThreadLocalRandom.current().nextDouble() - 0.5) / 50;
+        price = price.multiply(BigDecimal.valueOf(change), MathContext.DECIMAL64).setScale(8, RoundingMode.HALF_UP);
+        String message = Json.createObjectBuilder()
+                .add("bitcoin", price)
+                .add("news", Json.createArrayBuilder())
+                .build()
+                .toString();
+        for (Watcher watcher : broadcastWatchers) {
+            if (!watcher.send("bitcoin", message)) {
+                broadcastWatchers.remove(watcher);
+            }
+        }
+    }
+
+    private void open(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "text/plain", NOT_FOUND);
+            return;
+        }
+        String name = readJson(exchange).getString("name");
+        String accountNo = Integer.toString(nextAccountNo.getAndIncrement());
+        Account account = new Account(name);
+        accounts.put(accountNo, account);
+        respond(exchange, 200, "application/json", Json.createObjectBuilder()
+                .add("accountNo", accountNo)
+                .add("name", name)
+                .add("balance", account.balance)
+                .build()
+                .toString()
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void trade(HttpExchange exchange) throws IOException {
+        JsonObject trade = readJson(exchange);
+        Account account = accounts.get(trade.getString("bankAccountNo", ""));
+        if (account == null || !account.name.equals(trade.getString("name", null))) {
+            badRequest(exchange, "Unknown account");
+            return;
+        }
+        BigDecimal units = trade.getJsonNumber("units").bigDecimalValue();
+        BigDecimal amount = price.multiply(units, MathContext.DECIMAL128);
+        BigDecimal holdings = null;
+        BigDecimal balance = null;
+        synchronized (account) {
+            if (units.signum() > 0 ? account.balance.compareTo(amount) >= 0 : account.holdings.compareTo(units.negate()) >= 0) {
+                account.balance = account.balance.subtract(amount);
+                account.holdings = account.holdings.add(units);
+                holdings = account.holdings;
+                balance = account.balance;
+            }
+        }
+        if (holdings == null) {
+            badRequest(exchange, units.signum() > 0 ? "Insufficient funds" : "You don't hold enough bitcoin");
+            return;
+        }
+        account.balanceChanged(balance);
+        byte[] body = holdings.toPlainString().getBytes(StandardCharsets.UTF_8);
+        if (units.signum() > 0 && tradeDelay > 0) {
+            //purchases take a while to go through
+            scheduler.schedule(() -> {
+                respond(exchange, 200, "text/plain", body);
+                return null;
+            }, tradeDelay, TimeUnit.MILLISECONDS);
+        } else {
+            respond(exchange, 200, "text/plain", body);
+        }
+    }
+
+    private void watchBroadcast(HttpExchange exchange) throws IOException {
+        broadcastWatchers.add(new Watcher(exchange));
+    }
+
+    private void watchBalance(HttpExchange exchange) throws IOException {
+        String accountNo = exchange.getRequestURI().getPath().substring((CONTEXT + "/bank/balance/watch/").length());
+        Account account = accounts.get(accountNo);
+        if (account == null) {
+            respond(exchange, 404, "text/plain", NOT_FOUND);
+            return;
+        }
+        account.watchers.add(new Watcher(exchange));
+    }
+
+    private static JsonObject readJson(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody(); JsonReader reader = Json.createReader(in)) {
+            return reader.readObject();
+        }
+    }
+
+    private static void badRequest(HttpExchange exchange, String message) throws IOException {
+        respond(exchange, 400, "text/plain", message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static final class Account {
+        final String name;
+        final Set<Watcher> watchers = ConcurrentHashMap.newKeySet();
+        BigDecimal balance = new BigDecimal(1000);
+        BigDecimal holdings = BigDecimal.ZERO;
+
+        Account(String name) {
+            this.name = name;
+        }
+
+        void balanceChanged(BigDecimal balance) {
+            for (Watcher watcher : watchers) {
+                if (!watcher.send("balance", balance.toPlainString())) {
+                    watchers.remove(watcher);
+                }
+            }
+        }
+    }
+
+    /**
+     * An open server sent event stream. The exchange is left open after the handler returns, and written to as
+     * events happen.
+     */
+    private static final class Watcher {
+        private final HttpExchange exchange;
+        private final OutputStream out;
+
+        Watcher(HttpExchange exchange) throws IOException {
+            this.exchange = exchange;
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            //a length of 0 means the response is chunked, and can go on forever
+            exchange.sendResponseHeaders(200, 0);
+            this.out = exchange.getResponseBody();
+        }
+
+        /**
+         * @return false if the watcher has gone away
+         */
+        synchronized boolean send(String name, String data) {
+            try {
+                out.write(("event: " + name + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                return true;
+            } catch (IOException e) {
+                exchange.close();
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.jboss.cryptotrader.loadgen;
+
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LoadGeneratorTestCase {
+
+    @Test
+    public void testAgainstStub() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("cryptotrader.loadgen.players", "10");
+        properties.setProperty("cryptotrader.loadgen.rate", "5");
+        properties.setProperty("cryptotrader.loadgen.threads", "10");
+        try (StubGame stub = new StubGame(0, 0)) {
+            LoadGenerator generator = new LoadGenerator(stub.getBaseUrl(), properties);
+            generator.start();
+            Thread.sleep(2500);
+            generator.stop();
+
+            Assert.assertEquals(10, generator.getOpenLatency().getCount());
+            Assert.assertEquals(0, generator.getOpenFailures());
+            Assert.assertTrue(generator.getTradeLatency().getCount() > 10);
+            Assert.assertEquals(0, generator.getTradeFailures());
+            //the trader strategy never trades more than it can afford
+            Assert.assertEquals(0, generator.getTradesRejected());
+            Assert.assertTrue(generator.getBalanceEvents() > 0);
+            Assert.assertTrue(generator.getBroadcastEvents() > 0);
+        }
+    }
+}